@@ -239,7 +239,7 @@ public class PMS {
 		return proxyServer;
 	}
 
-	public ArrayList<Process> currentProcesses = new ArrayList<>();
+	public final List<Process> currentProcesses = Collections.synchronizedList(new ArrayList<Process>());
 
 	private PMS() {
 	}
@@ -267,6 +267,9 @@ public class PMS {
 	 * @see net.pms.dlna.DLNAMediaDatabase
 	 */
 	private DLNAMediaDatabase database;
+
+	/** Held here since {@link FileWatcher} only keeps weak references to listeners */
+	private MediaLibraryIndexer indexer;
 	private Object databaseLock = new Object();
 
 	/**
@@ -279,6 +282,13 @@ public class PMS {
 			if (database == null) {
 				database = new DLNAMediaDatabase("medias");
 				database.init(false);
+				if (configuration.getUseCache() && configuration.isMediaLibraryBackgroundCleanup()) {
+					database.startBackgroundCleanup();
+				}
+				if (configuration.getUseCache() && configuration.isMediaLibraryIndexer()) {
+					indexer = new MediaLibraryIndexer(database);
+					indexer.start(getSharedFoldersArray(false));
+				}
 			}
 			return database;
 		}
@@ -798,16 +808,27 @@ public class PMS {
 					UPNPHelper.sendByeBye();
 					LOGGER.debug("Forcing shutdown of all active processes");
 
-					for (Process p : currentProcesses) {
-						try {
-							p.exitValue();
-						} catch (IllegalThreadStateException ise) {
-							LOGGER.trace("Forcing shutdown of process: " + p);
-							ProcessUtil.destroy(p);
+					synchronized (currentProcesses) {
+						for (Process p : currentProcesses) {
+							try {
+								p.exitValue();
+							} catch (IllegalThreadStateException ise) {
+								LOGGER.trace("Forcing shutdown of process: " + p);
+								ProcessUtil.destroy(p);
+							}
 						}
 					}
 
 					get().getServer().stop();
+
+					// Stop the background work before the database is closed
+					DLNAMediaDatabase mediaDatabase;
+					synchronized (databaseLock) {
+						mediaDatabase = database;
+					}
+					if (mediaDatabase != null) {
+						mediaDatabase.shutdown();
+					}
 					Thread.sleep(500);
 				} catch (InterruptedException e) {
 					LOGGER.debug("Caught exception", e);
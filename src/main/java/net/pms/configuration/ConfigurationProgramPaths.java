@@ -26,6 +26,7 @@ class ConfigurationProgramPaths implements ProgramPaths {
 	private static final String KEY_VLC_PATH         = "vlc_path";
 	private static final String KEY_MENCODER_PATH    = "mencoder_path";
 	private static final String KEY_FFMPEG_PATH      = "ffmpeg_path";
+	private static final String KEY_FFPROBE_PATH     = "ffprobe_path";
 	private static final String KEY_MPLAYER_PATH     = "mplayer_path";
 	private static final String KEY_TSMUXER_PATH     = "tsmuxer_path";
 	private static final String KEY_TSMUXER_NEW_PATH = "tsmuxer_new_path";
@@ -46,6 +47,11 @@ class ConfigurationProgramPaths implements ProgramPaths {
 		return getString(KEY_FFMPEG_PATH, defaults.getFfmpegPath());
 	}
 
+	@Override
+	public String getFfprobePath() {
+		return getString(KEY_FFPROBE_PATH, defaults.getFfprobePath());
+	}
+
 	@Override
 	public String getFlacPath() {
 		return getString(KEY_FLAC_PATH, defaults.getFlacPath());
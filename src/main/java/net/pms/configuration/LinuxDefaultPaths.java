@@ -27,6 +27,11 @@ class LinuxDefaultPaths implements ProgramPaths {
 		return ffmpegPath;
 	}
 
+	@Override
+	public String getFfprobePath() {
+		return getBinaryPath("ffprobe");
+	}
+
 	@Override
 	public String getFlacPath() {
 		return getBinaryPath("flac");
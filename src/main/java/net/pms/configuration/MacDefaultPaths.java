@@ -9,6 +9,11 @@ class MacDefaultPaths implements ProgramPaths {
 		return getBinariesPath() + "osx/ffmpeg";
 	}
 
+	@Override
+	public String getFfprobePath() {
+		return getBinariesPath() + "osx/ffprobe";
+	}
+
 	@Override
 	public String getFlacPath() {
 		return getBinariesPath() + "osx/flac";
@@ -58,6 +58,7 @@ import net.pms.encoders.VLCWebVideo;
 import net.pms.encoders.VideoLanAudioStreaming;
 import net.pms.encoders.VideoLanVideoStreaming;
 import net.pms.formats.Format;
+import net.pms.io.BufferStorage;
 import net.pms.util.CoverSupplier;
 import net.pms.util.FilePermissions;
 import net.pms.util.FileUtil;
@@ -175,6 +176,7 @@ public class PmsConfiguration extends RendererConfiguration {
 	protected static final String KEY_FFMPEG_MENCODER_PROBLEMATIC_SUBTITLES = "ffmpeg_mencoder_problematic_subtitles";
 	protected static final String KEY_FFMPEG_MULTITHREADING = "ffmpeg_multithreading";
 	protected static final String KEY_FFMPEG_MUX_TSMUXER_COMPATIBLE = "ffmpeg_mux_tsmuxer_compatible";
+	protected static final String KEY_FFPROBE_PARSING = "ffprobe_parsing";
 	protected static final String KEY_FIX_25FPS_AV_MISMATCH = "fix_25fps_av_mismatch";
 	protected static final String KEY_FOLDER_LIMIT = "folder_limit";
 	protected static final String KEY_FOLDERS = "folders";
@@ -224,7 +226,14 @@ public class PmsConfiguration extends RendererConfiguration {
 	protected static final String KEY_MAX_AUDIO_BUFFER = "maximum_audio_buffer_size";
 	protected static final String KEY_MAX_BITRATE = "maximum_bitrate";
 	protected static final String KEY_MAX_MEMORY_BUFFER_SIZE = "maximum_video_buffer_size";
+	protected static final String KEY_MEDIAINFO_INSTANCES = "mediainfo_instances";
+	protected static final String KEY_MEDIA_LIB_ASYNC_VALIDATION = "media_lib_async_validation";
+	protected static final String KEY_MEDIA_LIB_BACKGROUND_CLEANUP = "media_lib_background_cleanup";
+	protected static final String KEY_MEDIA_LIB_CONTENT_HASH = "media_lib_content_hash";
+	protected static final String KEY_MEDIA_LIB_INDEXER = "media_lib_indexer";
+	protected static final String KEY_MEDIA_LIB_SCAN_THREADS = "media_lib_scan_threads";
 	protected static final String KEY_MEDIA_LIB_SORT = "media_lib_sort";
+	protected static final String KEY_MEDIA_LIB_VALIDATION_THREADS = "media_lib_validation_threads";
 	protected static final String KEY_MENCODER_ASS = "mencoder_ass";
 	protected static final String KEY_MENCODER_AC3_FIXED = "mencoder_ac3_fixed";
 	protected static final String KEY_MENCODER_CODEC_SPECIFIC_SCRIPT = "mencoder_codec_specific_script";
@@ -314,11 +323,23 @@ public class PmsConfiguration extends RendererConfiguration {
 	protected static final String KEY_SUBTITLES_CODEPAGE = "subtitles_codepage";
 	protected static final String KEY_SUBTITLES_LANGUAGES = "subtitles_languages";
 	protected static final String KEY_TEMP_FOLDER_PATH = "temp_directory";
+	protected static final String KEY_THUMBNAIL_CACHE_DISK = "thumbnail_cache_disk";
+	protected static final String KEY_THUMBNAIL_CACHE_MEMORY = "thumbnail_cache_memory";
 	protected static final String KEY_THUMBNAIL_GENERATION_ENABLED = "generate_thumbnails";
 	protected static final String KEY_THUMBNAIL_SEEK_POS = "thumbnail_seek_position";
+	protected static final String KEY_THUMBNAIL_THREADS = "thumbnail_threads";
+	protected static final String KEY_TRANSCODE_ADMISSION_TIMEOUT = "transcode_admission_timeout";
 	protected static final String KEY_TRANSCODE_BLOCKS_MULTIPLE_CONNECTIONS = "transcode_block_multiple_connections";
+	protected static final String KEY_TRANSCODE_BUFFER_TYPE = "transcode_buffer_type";
+	protected static final String KEY_TRANSCODE_CACHE_SIZE = "transcode_cache_size";
 	protected static final String KEY_TRANSCODE_FOLDER_NAME = "transcode_folder_name";
 	protected static final String KEY_TRANSCODE_KEEP_FIRST_CONNECTION = "transcode_keep_first_connection";
+	protected static final String KEY_TRANSCODE_MEMORY_BUDGET = "transcode_memory_budget";
+	protected static final String KEY_TRANSCODE_PREWARM = "transcode_prewarm";
+	protected static final String KEY_TRANSCODE_PREWARM_JOBS = "transcode_prewarm_jobs";
+	protected static final String KEY_TRANSCODE_PREWARM_SECONDS = "transcode_prewarm_seconds";
+	protected static final String KEY_TRANSCODE_PREWARM_TIMEOUT = "transcode_prewarm_timeout";
+	protected static final String KEY_TRANSCODE_SHARE_SESSIONS = "transcode_share_sessions";
 	protected static final String KEY_TSMUXER_FORCEFPS = "tsmuxer_forcefps";
 	protected static final String KEY_UPNP_ENABLED = "upnp_enable";
 	protected static final String KEY_UPNP_PORT = "upnp_port";
@@ -781,6 +802,10 @@ public class PmsConfiguration extends RendererConfiguration {
 		return programPaths.getFfmpegPath();
 	}
 
+	public String getFfprobePath() {
+		return programPaths.getFfprobePath();
+	}
+
 	public String getMplayerPath() {
 		return programPaths.getMplayerPath();
 	}
@@ -1032,6 +1057,105 @@ public class PmsConfiguration extends RendererConfiguration {
 		configuration.setProperty(KEY_MAX_MEMORY_BUFFER_SIZE, Math.max(0, Math.min(MAX_MAX_MEMORY_BUFFER_SIZE, value)));
 	}
 
+	/**
+	 * Returns where the transcoding buffer is stored: in one array on the
+	 * heap, in direct memory or in a memory-mapped temporary file. Default
+	 * is {@link BufferStorage.Type#HEAP}.
+	 *
+	 * @return The {@link BufferStorage.Type}.
+	 */
+	public BufferStorage.Type getTranscodeBufferType() {
+		return BufferStorage.Type.typeOf(getString(KEY_TRANSCODE_BUFFER_TYPE, null), BufferStorage.Type.HEAP);
+	}
+
+	/**
+	 * Returns the total size in megabytes of all transcode buffers. New
+	 * transcodes wait for capacity and are rejected when none becomes
+	 * available. Heap and off-heap buffers each have a budget of this size.
+	 * Default is 0, which uses three quarters of the maximum memory and of
+	 * the maximum direct memory respectively.
+	 *
+	 * @return The transcode memory budget in megabytes.
+	 */
+	public int getTranscodeMemoryBudget() {
+		return Math.max(getInt(KEY_TRANSCODE_MEMORY_BUDGET, 0), 0);
+	}
+
+	/**
+	 * Returns the maximum size in megabytes of the transcoded output kept on
+	 * disk to serve re-requests and backward seeks. Default is 0, which
+	 * disables the cache.
+	 *
+	 * @return The transcode cache size in megabytes.
+	 */
+	public int getTranscodeCacheSize() {
+		return Math.max(getInt(KEY_TRANSCODE_CACHE_SIZE, 0), 0);
+	}
+
+	/**
+	 * Whether to start transcoding a video speculatively when a renderer
+	 * requests its metadata, which usually precedes playback. Default is
+	 * {@code false}.
+	 *
+	 * @return {@code true} if transcodes are started speculatively.
+	 */
+	public boolean isTranscodePrewarm() {
+		return getBoolean(KEY_TRANSCODE_PREWARM, false);
+	}
+
+	/**
+	 * Returns the maximum number of speculative transcodes running at the
+	 * same time. Default is 1.
+	 *
+	 * @return The maximum number of speculative transcodes.
+	 */
+	public int getTranscodePrewarmJobs() {
+		return Math.max(getInt(KEY_TRANSCODE_PREWARM_JOBS, 1), 0);
+	}
+
+	/**
+	 * Returns the number of seconds a speculative transcode runs before it's
+	 * paused until playback is requested. Default is 10.
+	 *
+	 * @return The number of seconds.
+	 */
+	public int getTranscodePrewarmSeconds() {
+		return Math.max(getInt(KEY_TRANSCODE_PREWARM_SECONDS, 10), 1);
+	}
+
+	/**
+	 * Returns the number of seconds after which a speculative transcode is
+	 * stopped if playback hasn't been requested. Default is 30.
+	 *
+	 * @return The number of seconds.
+	 */
+	public int getTranscodePrewarmTimeout() {
+		return Math.max(getInt(KEY_TRANSCODE_PREWARM_TIMEOUT, 30), 1);
+	}
+
+	/**
+	 * Returns the number of seconds a new transcode waits for transcode
+	 * memory before it is rejected. Default is 10.
+	 *
+	 * @return The admission timeout in seconds.
+	 */
+	public int getTranscodeAdmissionTimeout() {
+		return Math.max(getInt(KEY_TRANSCODE_ADMISSION_TIMEOUT, 10), 0);
+	}
+
+	/**
+	 * Whether clients requesting the same resource with the same transcode
+	 * parameters share one running transcode instead of starting another.
+	 * Sharing is never done when
+	 * {@link #getTrancodeBlocksMultipleConnections()} is enabled. Default is
+	 * {@code false}.
+	 *
+	 * @return {@code true} if transcodes can be shared.
+	 */
+	public boolean isTranscodeShareSessions() {
+		return getBoolean(KEY_TRANSCODE_SHARE_SESSIONS, false);
+	}
+
 	/**
 	 * Returns the font scale used for ASS subtitling. Default value is 1.4.
 	 * @return The ASS font scale.
@@ -1216,6 +1340,34 @@ public class PmsConfiguration extends RendererConfiguration {
 		configuration.setProperty(KEY_THUMBNAIL_SEEK_POS, value);
 	}
 
+	/**
+	 * Returns the maximum number of thumbnails that are generated at the same
+	 * time. Further thumbnail requests are queued.
+	 *
+	 * @return The number of thumbnail generation threads.
+	 */
+	public int getThumbnailThreads() {
+		return Math.max(getInt(KEY_THUMBNAIL_THREADS, 2), 1);
+	}
+
+	/**
+	 * Returns the maximum size of the transcoded thumbnails kept in memory.
+	 *
+	 * @return The size in MiB.
+	 */
+	public int getThumbnailCacheMemory() {
+		return Math.max(getInt(KEY_THUMBNAIL_CACHE_MEMORY, 16), 0);
+	}
+
+	/**
+	 * Returns the maximum size of the transcoded thumbnails kept on disk.
+	 *
+	 * @return The size in MiB, {@code 0} disables the disk cache.
+	 */
+	public int getThumbnailCacheDisk() {
+		return Math.max(getInt(KEY_THUMBNAIL_CACHE_DISK, 256), 0);
+	}
+
 	/**
 	 * Returns whether the user wants ASS/SSA subtitle support. Default is
 	 * true.
@@ -3021,6 +3173,16 @@ public class PmsConfiguration extends RendererConfiguration {
 		return getBoolean(KEY_USE_MPLAYER_FOR_THUMBS, false);
 	}
 
+	/**
+	 * Whether media that isn't parsed by MediaInfo should be parsed from the
+	 * JSON output of ffprobe instead of the stderr output of FFmpeg.
+	 *
+	 * @return {@code true} if ffprobe should be used.
+	 */
+	public boolean isFFprobeParsing() {
+		return getBoolean(KEY_FFPROBE_PARSING, false);
+	}
+
 	public String getIpFilter() {
 		return getString(KEY_IP_FILTER, "");
 	}
@@ -4029,6 +4191,75 @@ public class PmsConfiguration extends RendererConfiguration {
 		return getInt(KEY_MEDIA_LIB_SORT, UMSUtils.SORT_NO_SORT);
 	}
 
+	/**
+	 * @return The maximum number of MediaInfo instances, which is the number
+	 *         of files MediaInfo can parse at the same time.
+	 */
+	public int getMediaInfoInstances() {
+		return Math.max(getInt(KEY_MEDIAINFO_INSTANCES, Math.min(Runtime.getRuntime().availableProcessors(), 4)), 1);
+	}
+
+	/**
+	 * Whether files returned from the cache should be verified to still exist
+	 * in the background, removing missing or modified files from the cache.
+	 * If {@code false}, stale entries are only removed by the cache cleanup
+	 * or when they fail to play.
+	 *
+	 * @return {@code true} if asynchronous validation is enabled.
+	 */
+	public boolean isMediaLibraryAsyncValidation() {
+		return getBoolean(KEY_MEDIA_LIB_ASYNC_VALIDATION, false);
+	}
+
+	/**
+	 * Whether the cache cleanup should run continuously at low priority
+	 * instead of as one pass at the end of each library scan.
+	 *
+	 * @return {@code true} if the background cleanup is enabled.
+	 */
+	public boolean isMediaLibraryBackgroundCleanup() {
+		return getBoolean(KEY_MEDIA_LIB_BACKGROUND_CLEANUP, false);
+	}
+
+	/**
+	 * Whether files should be fingerprinted by their size, inode and first
+	 * and last blocks, so that a file reached through a different path, for
+	 * example after a rename or through a link, reuses the cached parse
+	 * result of the same content.
+	 *
+	 * @return {@code true} if content fingerprinting is enabled.
+	 */
+	public boolean isMediaLibraryContentHash() {
+		return getBoolean(KEY_MEDIA_LIB_CONTENT_HASH, false);
+	}
+
+	/**
+	 * Whether new, changed and deleted files in the shared folders should be
+	 * picked up by watching for file system events instead of only by
+	 * library scans.
+	 *
+	 * @return {@code true} if the media library indexer is enabled.
+	 */
+	public boolean isMediaLibraryIndexer() {
+		return getBoolean(KEY_MEDIA_LIB_INDEXER, false);
+	}
+
+	/**
+	 * @return The number of threads used per mount point when validating
+	 *         cached files in the background.
+	 */
+	public int getMediaLibraryValidationThreads() {
+		return Math.max(getInt(KEY_MEDIA_LIB_VALIDATION_THREADS, 2), 1);
+	}
+
+	/**
+	 * @return The number of threads used per mount point to list and parse
+	 *         files during a library scan.
+	 */
+	public int getMediaLibraryScanThreads() {
+		return Math.max(getInt(KEY_MEDIA_LIB_SCAN_THREADS, 2), 1);
+	}
+
 	public boolean getWebAutoCont(Format f) {
 		String key = KEY_WEB_CONT_VIDEO;
 		boolean def = false;
@@ -2,6 +2,7 @@ package net.pms.configuration;
 
 interface ProgramPaths {
 	String getFfmpegPath();
+	String getFfprobePath();
 	String getMplayerPath();
 	String getVlcPath();
 	String getMencoderPath();
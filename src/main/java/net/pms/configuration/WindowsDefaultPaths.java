@@ -38,6 +38,11 @@ class WindowsDefaultPaths implements ProgramPaths {
 		return getBinariesPath() + "win32/ffmpeg.exe";
 	}
 
+	@Override
+	public String getFfprobePath() {
+		return getBinariesPath() + "win32/ffprobe.exe";
+	}
+
 	@Override
 	public String getFlacPath() {
 		return getBinariesPath() + "win32/flac.exe";
@@ -40,6 +40,11 @@ class WindowsRegistryProgramPaths implements ProgramPaths {
 		return defaults.getFfmpegPath();
 	}
 
+	@Override
+	public String getFfprobePath() {
+		return defaults.getFfprobePath();
+	}
+
 	@Override
 	public String getFlacPath() {
 		return defaults.getFlacPath();
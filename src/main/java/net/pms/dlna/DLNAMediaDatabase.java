@@ -22,7 +22,18 @@ import java.awt.Component;
 import java.io.File;
 import java.io.IOException;
 import java.sql.*;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.regex.Pattern;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 import net.pms.Messages;
@@ -32,6 +43,8 @@ import net.pms.dlna.DLNAThumbnail;
 import net.pms.formats.Format;
 import net.pms.formats.v2.SubtitleType;
 import net.pms.image.ImageInfo;
+import net.pms.util.ContentFingerprint;
+import net.pms.util.FNVHash;
 import org.apache.commons.io.FileUtils;
 import static org.apache.commons.lang3.StringUtils.*;
 import org.h2.engine.Constants;
@@ -57,13 +70,43 @@ public class DLNAMediaDatabase implements Runnable {
 	public static final String NONAME = "###";
 	private Thread scanner;
 	private JdbcConnectionPool cp;
+	private final Object validatorLock = new Object();
+	private final LinkedHashMap<String, Pattern> letterRules = new LinkedHashMap<>();
+
+	/** The aggregated audio library tables */
+	private static final String[] LIBRARY_TABLES = {"LIBRARY_ARTISTS", "LIBRARY_ALBUMS", "LIBRARY_GENRES", "LIBRARY_YEARS", "LIBRARY_MONTHS"};
+
+	/** The key columns of each of the {@link #LIBRARY_TABLES} */
+	private static final String[][] LIBRARY_COLUMNS = {
+		{"ARTIST", "LETTER"},
+		{"ARTIST", "ALBUM"},
+		{"GENRE", "ARTIST", "ALBUM"},
+		{"YEAR"},
+		{"MONTH", "MONTHKEY"}
+	};
+	private MediaDatabaseValidator validator;
 	private int dbCount;
+	private final Object cleanupLock = new Object();
+	private volatile boolean cleanupStopped;
+	private Thread cleaner;
+
+	/** The number of files checked per cleanup chunk */
+	private static final int CLEANUP_CHUNK_SIZE = 500;
+
+	/** The pause in milliseconds between chunks of the background cleanup */
+	private static final long CLEANUP_CHUNK_PAUSE = 2000;
+
+	/** The pause in milliseconds between passes of the background cleanup */
+	private static final long CLEANUP_PASS_PAUSE = 60 * 60 * 1000;
+
+	/** The time in milliseconds to wait for the background cleanup to stop */
+	private static final long CLEANUP_STOP_TIMEOUT = 10000;
 
 	/**
 	 * The database version should be incremented when we change anything to
 	 * do with the database since the last released version.
 	 */
-	private final String latestVersion = "8";
+	private final String latestVersion = "12";
 
 	// Database column sizes
 	private final int SIZE_CODECV = 32;
@@ -86,6 +129,18 @@ public class DLNAMediaDatabase implements Runnable {
 	private final int SIZE_SONGNAME = 255;
 	private final int SIZE_GENRE = 64;
 
+	/**
+	 * Creates a new instance using the given connection pool instead of the
+	 * database in the profile folder.
+	 *
+	 * @param name the database name.
+	 * @param connectionPool the {@link JdbcConnectionPool} to use.
+	 */
+	DLNAMediaDatabase(String name, JdbcConnectionPool connectionPool) {
+		dbName = name;
+		cp = connectionPool;
+	}
+
 	public DLNAMediaDatabase(String name) {
 		dbName = name;
 		File profileFolder = new File(configuration.getProfileFolder());
@@ -203,10 +258,17 @@ public class DLNAMediaDatabase implements Runnable {
 			close(conn);
 		}
 
-		// Recreate database if it is not the latest version.
-		boolean force_reinit = !latestVersion.equals(version);
+		// Migrate the database if possible, recreate it if it is not the latest version.
+		boolean migrated = false;
+		if (!force && dbCount > -1 && version != null && !latestVersion.equals(version)) {
+			migrated = migrate(version);
+		}
+		boolean force_reinit = !migrated && !latestVersion.equals(version);
 		if (force || dbCount == -1 || force_reinit) {
 			LOGGER.debug("Database will be (re)initialized");
+			synchronized (letterRules) {
+				letterRules.clear();
+			}
 			try {
 				conn = getConnection();
 				executeUpdate(conn, "DROP TABLE FILES");
@@ -214,6 +276,12 @@ public class DLNAMediaDatabase implements Runnable {
 				executeUpdate(conn, "DROP TABLE REGEXP_RULES");
 				executeUpdate(conn, "DROP TABLE AUDIOTRACKS");
 				executeUpdate(conn, "DROP TABLE SUBTRACKS");
+				executeUpdate(conn, "DROP TABLE IF EXISTS LIBRARY_ARTISTS");
+				executeUpdate(conn, "DROP TABLE IF EXISTS LIBRARY_ALBUMS");
+				executeUpdate(conn, "DROP TABLE IF EXISTS LIBRARY_GENRES");
+				executeUpdate(conn, "DROP TABLE IF EXISTS LIBRARY_YEARS");
+				executeUpdate(conn, "DROP TABLE IF EXISTS LIBRARY_MONTHS");
+				executeUpdate(conn, "DROP TABLE IF EXISTS FOLDERS");
 			} catch (SQLException se) {
 				if (se.getErrorCode() != 42102) { // Don't log exception "Table "FILES" not found" which will be corrected in following step
 					LOGGER.error(null, se);
@@ -224,6 +292,7 @@ public class DLNAMediaDatabase implements Runnable {
 				sb.append("CREATE TABLE FILES (");
 				sb.append("  ID                      INT AUTO_INCREMENT");
 				sb.append(", FILENAME                VARCHAR2(1024)   NOT NULL");
+				sb.append(", FILENAMEHASH            BIGINT           NOT NULL");
 				sb.append(", MODIFIED                TIMESTAMP        NOT NULL");
 				sb.append(", TYPE                    INT");
 				sb.append(", DURATION                DOUBLE");
@@ -250,7 +319,7 @@ public class DLNAMediaDatabase implements Runnable {
 				sb.append(", VIDEOTRACKCOUNT         INT");
 				sb.append(", IMAGECOUNT              INT");
 				sb.append(", BITDEPTH                INT");
-				sb.append(", constraint PK1 primary key (FILENAME, MODIFIED, ID))");
+				sb.append(", constraint PKFILES primary key (ID))");
 				executeUpdate(conn, sb.toString());
 				sb = new StringBuilder();
 				sb.append("CREATE TABLE AUDIOTRACKS (");
@@ -289,6 +358,7 @@ public class DLNAMediaDatabase implements Runnable {
 				executeUpdate(conn, "CREATE INDEX IDXALBUM on AUDIOTRACKS (ALBUM asc);");
 				executeUpdate(conn, "CREATE INDEX IDXGENRE on AUDIOTRACKS (GENRE asc);");
 				executeUpdate(conn, "CREATE INDEX IDXYEAR on AUDIOTRACKS (YEAR asc);");
+				createIndexes(conn);
 				executeUpdate(conn, "CREATE TABLE REGEXP_RULES ( ID VARCHAR2(255) PRIMARY KEY, RULE VARCHAR2(255), ORDR NUMERIC);");
 				executeUpdate(conn, "INSERT INTO REGEXP_RULES VALUES ( '###', '(?i)^\\W.+', 0 );");
 				executeUpdate(conn, "INSERT INTO REGEXP_RULES VALUES ( '0-9', '(?i)^\\d.+', 1 );");
@@ -301,6 +371,10 @@ public class DLNAMediaDatabase implements Runnable {
 					executeUpdate(conn, "INSERT INTO REGEXP_RULES VALUES ( '" + chars[i] + "', '(?i)^" + chars[i] + ".+', " + (i + 2) + " );");
 				}
 
+				createLibraryTables(conn);
+				createFoldersTable(conn);
+				addContentHash(conn);
+
 				LOGGER.debug("Database initialized");
 			} catch (SQLException se) {
 				LOGGER.info("Error in table creation: " + se.getMessage());
@@ -313,6 +387,259 @@ public class DLNAMediaDatabase implements Runnable {
 		}
 	}
 
+	/**
+	 * Creates the aggregated audio library tables added in version 9, which
+	 * are maintained by {@link #updateLibraryTables}.
+	 *
+	 * @param conn the {@link Connection} to use.
+	 * @throws SQLException If an SQL error occurs during the operation.
+	 */
+	private void createLibraryTables(Connection conn) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("CREATE TABLE LIBRARY_ARTISTS (");
+		sb.append("  ARTIST      VARCHAR2(").append(SIZE_ARTIST).append(") NOT NULL");
+		sb.append(", LETTER      VARCHAR2(255)    NOT NULL");
+		sb.append(", FILECOUNT   INT              NOT NULL");
+		sb.append(", constraint PKLIBARTIST primary key (ARTIST))");
+		executeUpdate(conn, sb.toString());
+		executeUpdate(conn, "CREATE INDEX IDXLIBARTISTLETTER on LIBRARY_ARTISTS (LETTER asc, ARTIST asc);");
+		sb = new StringBuilder();
+		sb.append("CREATE TABLE LIBRARY_ALBUMS (");
+		sb.append("  ARTIST      VARCHAR2(").append(SIZE_ARTIST).append(") NOT NULL");
+		sb.append(", ALBUM       VARCHAR2(").append(SIZE_ALBUM).append(") NOT NULL");
+		sb.append(", FILECOUNT   INT              NOT NULL");
+		sb.append(", constraint PKLIBALBUM primary key (ARTIST, ALBUM))");
+		executeUpdate(conn, sb.toString());
+		executeUpdate(conn, "CREATE INDEX IDXLIBALBUM on LIBRARY_ALBUMS (ALBUM asc);");
+		sb = new StringBuilder();
+		sb.append("CREATE TABLE LIBRARY_GENRES (");
+		sb.append("  GENRE       VARCHAR2(").append(SIZE_GENRE).append(") NOT NULL");
+		sb.append(", ARTIST      VARCHAR2(").append(SIZE_ARTIST).append(") NOT NULL");
+		sb.append(", ALBUM       VARCHAR2(").append(SIZE_ALBUM).append(") NOT NULL");
+		sb.append(", FILECOUNT   INT              NOT NULL");
+		sb.append(", constraint PKLIBGENRE primary key (GENRE, ARTIST, ALBUM))");
+		executeUpdate(conn, sb.toString());
+		executeUpdate(conn, "CREATE TABLE LIBRARY_YEARS (YEAR INT NOT NULL, FILECOUNT INT NOT NULL, constraint PKLIBYEAR primary key (YEAR))");
+		sb = new StringBuilder();
+		sb.append("CREATE TABLE LIBRARY_MONTHS (");
+		sb.append("  MONTH       VARCHAR2(32)     NOT NULL");
+		sb.append(", MONTHKEY    INT              NOT NULL");
+		sb.append(", FILECOUNT   INT              NOT NULL");
+		sb.append(", constraint PKLIBMONTH primary key (MONTH))");
+		executeUpdate(conn, sb.toString());
+		executeUpdate(conn, "CREATE INDEX IDXLIBMONTHKEY on LIBRARY_MONTHS (MONTHKEY desc);");
+	}
+
+	/**
+	 * Creates and fills the aggregated audio library tables of version 9 from
+	 * the stored audio tracks.
+	 */
+	private void migrateFrom8(Connection conn) throws SQLException {
+		createLibraryTables(conn);
+
+		/*
+		 * The counts are aggregated from one pass over the tracks instead of
+		 * being adjusted per file: FILES has no key on ID before version 10,
+		 * so looking up each file by ID would scan the table every time.
+		 */
+		List<Map<List<Object>, Integer>> counts = new ArrayList<>();
+		for (int i = 0; i < LIBRARY_TABLES.length; i++) {
+			counts.add(new LinkedHashMap<List<Object>, Integer>());
+		}
+		try (
+			Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery(
+				"SELECT F.MODIFIED, A.ARTIST, A.ALBUM, A.GENRE, A.YEAR FROM FILES F, AUDIOTRACKS A " +
+				"WHERE F.ID = A.FILEID AND F.TYPE = 1"
+			)
+		) {
+			while (rs.next()) {
+				Object[][] keys = getLibraryKeys(conn, rs);
+				for (int i = 0; i < keys.length; i++) {
+					List<Object> key = Arrays.asList(keys[i]);
+					Integer count = counts.get(i).get(key);
+					counts.get(i).put(key, count == null ? 1 : count + 1);
+				}
+			}
+		}
+
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try {
+			for (int i = 0; i < LIBRARY_TABLES.length; i++) {
+				insertCounts(conn, LIBRARY_TABLES[i], LIBRARY_COLUMNS[i], counts.get(i));
+			}
+			conn.commit();
+		} catch (SQLException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * Inserts the aggregated {@code FILECOUNT} of every key into an empty
+	 * library table in one batch.
+	 */
+	@SuppressFBWarnings("SQL_PREPARED_STATEMENT_GENERATED_FROM_NONCONSTANT_STRING")
+	private static void insertCounts(Connection connection, String table, String[] columns, Map<List<Object>, Integer> counts) throws SQLException {
+		StringBuilder sb = new StringBuilder("INSERT INTO ").append(table).append(" (");
+		for (String column : columns) {
+			sb.append(column).append(", ");
+		}
+		sb.append("FILECOUNT) VALUES (");
+		for (int i = 0; i < columns.length; i++) {
+			sb.append("?, ");
+		}
+		sb.append("?)");
+		try (PreparedStatement ps = connection.prepareStatement(sb.toString())) {
+			for (Entry<List<Object>, Integer> entry : counts.entrySet()) {
+				List<Object> values = entry.getKey();
+				for (int i = 0; i < values.size(); i++) {
+					ps.setObject(i + 1, values.get(i));
+				}
+				ps.setInt(values.size() + 1, entry.getValue());
+				ps.addBatch();
+			}
+			ps.executeBatch();
+		}
+	}
+
+	/**
+	 * Creates the secondary indexes added in version 10, matched to the
+	 * lookups done by this class and the queries of
+	 * {@link net.pms.dlna.virtual.MediaLibrary}.
+	 *
+	 * @param conn the {@link Connection} to use.
+	 * @throws SQLException If an SQL error occurs during the operation.
+	 */
+	private void createIndexes(Connection conn) throws SQLException {
+		executeUpdate(conn, "CREATE INDEX IDXFILESHASH on FILES (FILENAMEHASH asc);");
+		executeUpdate(conn, "CREATE INDEX IDXFILESTYPEFILENAME on FILES (TYPE asc, FILENAME asc);");
+		executeUpdate(conn, "CREATE INDEX IDXFILESTYPEMODIFIED on FILES (TYPE asc, MODIFIED asc);");
+		executeUpdate(conn, "CREATE INDEX IDXARTISTALBUM on AUDIOTRACKS (ARTIST asc, ALBUM asc);");
+		executeUpdate(conn, "CREATE INDEX IDXSONGNAME on AUDIOTRACKS (SONGNAME asc);");
+	}
+
+	/**
+	 * Creates the {@code FOLDERS} table added in version 11, holding the
+	 * fingerprint of every scanned directory so that unchanged directories
+	 * can be skipped by the next scan.
+	 *
+	 * @param conn the {@link Connection} to use.
+	 * @throws SQLException If an SQL error occurs during the operation.
+	 */
+	private void createFoldersTable(Connection conn) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("CREATE TABLE FOLDERS (");
+		sb.append("  FILENAME       VARCHAR2(1024)   NOT NULL");
+		sb.append(", FILENAMEHASH   BIGINT           NOT NULL");
+		sb.append(", PARENTHASH     BIGINT           NOT NULL");
+		sb.append(", MODIFIED       BIGINT           NOT NULL");
+		sb.append(", ENTRIES        INT              NOT NULL");
+		sb.append(", NAMEHASH       BIGINT           NOT NULL)");
+		executeUpdate(conn, sb.toString());
+		executeUpdate(conn, "CREATE INDEX IDXFOLDERSHASH on FOLDERS (FILENAMEHASH asc);");
+		executeUpdate(conn, "CREATE INDEX IDXFOLDERSPARENT on FOLDERS (PARENTHASH asc);");
+	}
+
+	/**
+	 * Adds the {@code CONTENTHASH} column added in version 12, holding the
+	 * {@link ContentFingerprint} used to reuse parse results for the same
+	 * file reached through a different path.
+	 *
+	 * @param conn the {@link Connection} to use.
+	 * @throws SQLException If an SQL error occurs during the operation.
+	 */
+	private void addContentHash(Connection conn) throws SQLException {
+		executeUpdate(conn, "ALTER TABLE FILES ADD COLUMN CONTENTHASH BIGINT");
+		executeUpdate(conn, "CREATE INDEX IDXFILESCONTENT on FILES (CONTENTHASH asc);");
+	}
+
+	/**
+	 * Upgrades the database from {@code version} to the latest version,
+	 * keeping the stored data.
+	 *
+	 * @param version the current database version.
+	 * @return {@code true} if the database was migrated, {@code false} if no
+	 *         migration path exists or the migration failed, in which case
+	 *         the database must be recreated. H2 commits DDL statements
+	 *         immediately, so a failed migration can't be rolled back.
+	 */
+	private boolean migrate(String version) {
+		int currentVersion;
+		try {
+			currentVersion = Integer.parseInt(version);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		int targetVersion = Integer.parseInt(latestVersion);
+		try (Connection conn = getConnection()) {
+			while (currentVersion < targetVersion) {
+				switch (currentVersion) {
+					case 8:
+						migrateFrom8(conn);
+						break;
+					case 9:
+						migrateFrom9(conn);
+						break;
+					case 10:
+						createFoldersTable(conn);
+						break;
+					case 11:
+						addContentHash(conn);
+						break;
+					default:
+						LOGGER.debug("No migration path from database version {}", currentVersion);
+						return false;
+				}
+				currentVersion++;
+				LOGGER.info("Migrated the database to version {}", currentVersion);
+			}
+			try (PreparedStatement ps = conn.prepareStatement("UPDATE METADATA SET VALUE = ? WHERE KEY = 'VERSION'")) {
+				ps.setString(1, latestVersion);
+				ps.executeUpdate();
+			}
+			return true;
+		} catch (SQLException e) {
+			LOGGER.error("Database migration from version {} failed, the database will be recreated: {}", version, e.getMessage());
+			LOGGER.trace("", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Adds the {@code FILENAMEHASH} key, replaces the primary key on the full
+	 * path with one on {@code ID} and creates the secondary indexes.
+	 */
+	private void migrateFrom9(Connection conn) throws SQLException {
+		executeUpdate(conn, "ALTER TABLE FILES ADD COLUMN FILENAMEHASH BIGINT DEFAULT 0 NOT NULL AFTER FILENAME");
+		try (
+			Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
+			ResultSet rs = stmt.executeQuery("SELECT ID, FILENAME, FILENAMEHASH FROM FILES")
+		) {
+			while (rs.next()) {
+				rs.updateLong("FILENAMEHASH", getFilenameHash(rs.getString("FILENAME")));
+				rs.updateRow();
+			}
+		}
+		executeUpdate(conn, "ALTER TABLE FILES DROP CONSTRAINT PK1");
+		executeUpdate(conn, "ALTER TABLE FILES ADD CONSTRAINT PKFILES PRIMARY KEY (ID)");
+		createIndexes(conn);
+	}
+
+	/**
+	 * Calculates the compact key used to look up {@code FILES} rows by path,
+	 * a 64 bit FNV-1a hash of {@code filename}.
+	 *
+	 * @param filename the absolute path.
+	 * @return The hash.
+	 */
+	public static long getFilenameHash(String filename) {
+		return filename != null ? FNVHash.hash(filename) : FNVHash.OFFSET_BASIS;
+	}
+
 	private void executeUpdate(Connection conn, String sql) throws SQLException {
 		if (conn != null) {
 			try (Statement stmt = conn.createStatement()) {
@@ -328,9 +655,10 @@ public class DLNAMediaDatabase implements Runnable {
 		PreparedStatement stmt = null;
 		try {
 			conn = getConnection();
-			stmt = conn.prepareStatement("SELECT * FROM FILES WHERE FILENAME = ? AND MODIFIED = ?");
-			stmt.setString(1, name);
-			stmt.setTimestamp(2, new Timestamp(modified));
+			stmt = conn.prepareStatement("SELECT ID FROM FILES WHERE FILENAMEHASH = ? AND FILENAME = ? AND MODIFIED = ?");
+			stmt.setLong(1, getFilenameHash(name));
+			stmt.setString(2, name);
+			stmt.setTimestamp(3, new Timestamp(modified));
 			rs = stmt.executeQuery();
 			while (rs.next()) {
 				found = true;
@@ -350,81 +678,18 @@ public class DLNAMediaDatabase implements Runnable {
 		ArrayList<DLNAMediaInfo> list = new ArrayList<>();
 		try (
 			Connection conn = getConnection();
-			PreparedStatement stmt = conn.prepareStatement("SELECT * FROM FILES WHERE FILENAME = ? AND MODIFIED = ?");
+			PreparedStatement stmt = conn.prepareStatement("SELECT * FROM FILES WHERE FILENAMEHASH = ? AND FILENAME = ? AND MODIFIED = ?");
 		) {
-			stmt.setString(1, name);
-			stmt.setTimestamp(2, new Timestamp(modified));
+			stmt.setLong(1, getFilenameHash(name));
+			stmt.setString(2, name);
+			stmt.setTimestamp(3, new Timestamp(modified));
 			try (
 				ResultSet rs = stmt.executeQuery();
 				PreparedStatement audios = conn.prepareStatement("SELECT * FROM AUDIOTRACKS WHERE FILEID = ?");
 				PreparedStatement subs = conn.prepareStatement("SELECT * FROM SUBTRACKS WHERE FILEID = ?")
 			) {
 				while (rs.next()) {
-					DLNAMediaInfo media = new DLNAMediaInfo();
-					int id = rs.getInt("ID");
-					media.setDuration(toDouble(rs, "DURATION"));
-					media.setBitrate(rs.getInt("BITRATE"));
-					media.setImageInfo((ImageInfo) rs.getObject("IMAGEINFO"));
-					media.setWidth(rs.getInt("WIDTH"));
-					media.setHeight(rs.getInt("HEIGHT"));
-					media.setSize(rs.getLong("SIZE"));
-					media.setCodecV(rs.getString("CODECV"));
-					media.setFrameRate(rs.getString("FRAMERATE"));
-					media.setAspectRatioDvdIso(rs.getString("ASPECT"));
-					media.setAspectRatioContainer(rs.getString("ASPECTRATIOCONTAINER"));
-					media.setAspectRatioVideoTrack(rs.getString("ASPECTRATIOVIDEOTRACK"));
-					media.setReferenceFrameCount(rs.getByte("REFRAMES"));
-					media.setAvcLevel(rs.getString("AVCLEVEL"));
-					media.setThumb((DLNAThumbnail) rs.getObject("THUMB"));
-					media.setContainer(rs.getString("CONTAINER"));
-					media.setMuxingMode(rs.getString("MUXINGMODE"));
-					media.setFrameRateMode(rs.getString("FRAMERATEMODE"));
-					media.setStereoscopy(rs.getString("STEREOSCOPY"));
-					media.setMatrixCoefficients(rs.getString("MATRIXCOEFFICIENTS"));
-					media.setFileTitleFromMetadata(rs.getString("TITLECONTAINER"));
-					media.setVideoTrackTitleFromMetadata(rs.getString("TITLEVIDEOTRACK"));
-					media.setVideoTrackCount(rs.getInt("VIDEOTRACKCOUNT"));
-					media.setImageCount(rs.getInt("IMAGECOUNT"));
-					media.setVideoBitDepth(rs.getInt("BITDEPTH"));
-					media.setMediaparsed(true);
-
-					ResultSet elements;
-					audios.setInt(1, id);
-					elements = audios.executeQuery();
-					while (elements.next()) {
-						DLNAMediaAudio audio = new DLNAMediaAudio();
-						audio.setId(elements.getInt("ID"));
-						audio.setLang(elements.getString("LANG"));
-						audio.setAudioTrackTitleFromMetadata(elements.getString("TITLE"));
-						audio.getAudioProperties().setNumberOfChannels(elements.getInt("NRAUDIOCHANNELS"));
-						audio.setSampleFrequency(elements.getString("SAMPLEFREQ"));
-						audio.setCodecA(elements.getString("CODECA"));
-						audio.setBitsperSample(elements.getInt("BITSPERSAMPLE"));
-						audio.setAlbum(elements.getString("ALBUM"));
-						audio.setArtist(elements.getString("ARTIST"));
-						audio.setSongname(elements.getString("SONGNAME"));
-						audio.setGenre(elements.getString("GENRE"));
-						audio.setYear(elements.getInt("YEAR"));
-						audio.setTrack(elements.getInt("TRACK"));
-						audio.getAudioProperties().setAudioDelay(elements.getInt("DELAY"));
-						audio.setMuxingModeAudio(elements.getString("MUXINGMODE"));
-						audio.setBitRate(elements.getInt("BITRATE"));
-						media.getAudioTracksList().add(audio);
-					}
-					elements.close();
-					subs.setInt(1, id);
-					elements = subs.executeQuery();
-					while (elements.next()) {
-						DLNAMediaSubtitle sub = new DLNAMediaSubtitle();
-						sub.setId(elements.getInt("ID"));
-						sub.setLang(elements.getString("LANG"));
-						sub.setSubtitlesTrackTitleFromMetadata(elements.getString("TITLE"));
-						sub.setType(SubtitleType.valueOfStableIndex(elements.getInt("TYPE")));
-						media.getSubtitleTracksList().add(sub);
-					}
-					elements.close();
-
-					list.add(media);
+					list.add(readMedia(rs, audios, subs));
 				}
 			}
 		} catch (SQLException se) {
@@ -436,7 +701,111 @@ public class DLNAMediaDatabase implements Runnable {
 		return list;
 	}
 
-	private Double toDouble(ResultSet rs, String column) throws SQLException {
+	/**
+	 * Reads the {@code FILES} row {@code rs} is positioned at together with
+	 * its audio and subtitle tracks.
+	 */
+	private static DLNAMediaInfo readMedia(ResultSet rs, PreparedStatement audios, PreparedStatement subs) throws SQLException {
+		DLNAMediaInfo media = new DLNAMediaInfo();
+		int id = rs.getInt("ID");
+		media.setDuration(toDouble(rs, "DURATION"));
+		media.setBitrate(rs.getInt("BITRATE"));
+		media.setImageInfo((ImageInfo) rs.getObject("IMAGEINFO"));
+		media.setWidth(rs.getInt("WIDTH"));
+		media.setHeight(rs.getInt("HEIGHT"));
+		media.setSize(rs.getLong("SIZE"));
+		media.setCodecV(rs.getString("CODECV"));
+		media.setFrameRate(rs.getString("FRAMERATE"));
+		media.setAspectRatioDvdIso(rs.getString("ASPECT"));
+		media.setAspectRatioContainer(rs.getString("ASPECTRATIOCONTAINER"));
+		media.setAspectRatioVideoTrack(rs.getString("ASPECTRATIOVIDEOTRACK"));
+		media.setReferenceFrameCount(rs.getByte("REFRAMES"));
+		media.setAvcLevel(rs.getString("AVCLEVEL"));
+		media.setThumb((DLNAThumbnail) rs.getObject("THUMB"));
+		media.setContainer(rs.getString("CONTAINER"));
+		media.setMuxingMode(rs.getString("MUXINGMODE"));
+		media.setFrameRateMode(rs.getString("FRAMERATEMODE"));
+		media.setStereoscopy(rs.getString("STEREOSCOPY"));
+		media.setMatrixCoefficients(rs.getString("MATRIXCOEFFICIENTS"));
+		media.setFileTitleFromMetadata(rs.getString("TITLECONTAINER"));
+		media.setVideoTrackTitleFromMetadata(rs.getString("TITLEVIDEOTRACK"));
+		media.setVideoTrackCount(rs.getInt("VIDEOTRACKCOUNT"));
+		media.setImageCount(rs.getInt("IMAGECOUNT"));
+		media.setVideoBitDepth(rs.getInt("BITDEPTH"));
+		Object contentHash = rs.getObject("CONTENTHASH");
+		media.setContentHash(contentHash instanceof Long ? (Long) contentHash : null);
+		media.setMediaparsed(true);
+
+		ResultSet elements;
+		audios.setInt(1, id);
+		elements = audios.executeQuery();
+		while (elements.next()) {
+			DLNAMediaAudio audio = new DLNAMediaAudio();
+			audio.setId(elements.getInt("ID"));
+			audio.setLang(elements.getString("LANG"));
+			audio.setAudioTrackTitleFromMetadata(elements.getString("TITLE"));
+			audio.getAudioProperties().setNumberOfChannels(elements.getInt("NRAUDIOCHANNELS"));
+			audio.setSampleFrequency(elements.getString("SAMPLEFREQ"));
+			audio.setCodecA(elements.getString("CODECA"));
+			audio.setBitsperSample(elements.getInt("BITSPERSAMPLE"));
+			audio.setAlbum(elements.getString("ALBUM"));
+			audio.setArtist(elements.getString("ARTIST"));
+			audio.setSongname(elements.getString("SONGNAME"));
+			audio.setGenre(elements.getString("GENRE"));
+			audio.setYear(elements.getInt("YEAR"));
+			audio.setTrack(elements.getInt("TRACK"));
+			audio.getAudioProperties().setAudioDelay(elements.getInt("DELAY"));
+			audio.setMuxingModeAudio(elements.getString("MUXINGMODE"));
+			audio.setBitRate(elements.getInt("BITRATE"));
+			media.getAudioTracksList().add(audio);
+		}
+		elements.close();
+		subs.setInt(1, id);
+		elements = subs.executeQuery();
+		while (elements.next()) {
+			DLNAMediaSubtitle sub = new DLNAMediaSubtitle();
+			sub.setId(elements.getInt("ID"));
+			sub.setLang(elements.getString("LANG"));
+			sub.setSubtitlesTrackTitleFromMetadata(elements.getString("TITLE"));
+			sub.setType(SubtitleType.valueOfStableIndex(elements.getInt("TYPE")));
+			media.getSubtitleTracksList().add(sub);
+		}
+		elements.close();
+		return media;
+	}
+
+	/**
+	 * Finds a stored parse result for a file with the given
+	 * {@link ContentFingerprint}, which may be stored under any path.
+	 *
+	 * @param contentHash the {@link ContentFingerprint} of the file.
+	 * @return A copy of the stored {@link DLNAMediaInfo} or {@code null} if
+	 *         none was found.
+	 * @throws IOException If the stored data can't be deserialized.
+	 * @throws SQLException If an SQL error occurs during the operation.
+	 */
+	public synchronized DLNAMediaInfo getDataByContentHash(long contentHash) throws IOException, SQLException {
+		try (
+			Connection conn = getConnection();
+			PreparedStatement stmt = conn.prepareStatement("SELECT * FROM FILES WHERE CONTENTHASH = ? LIMIT 1");
+		) {
+			stmt.setLong(1, contentHash);
+			try (
+				ResultSet rs = stmt.executeQuery();
+				PreparedStatement audios = conn.prepareStatement("SELECT * FROM AUDIOTRACKS WHERE FILEID = ?");
+				PreparedStatement subs = conn.prepareStatement("SELECT * FROM SUBTRACKS WHERE FILEID = ?")
+			) {
+				return rs.next() ? readMedia(rs, audios, subs) : null;
+			}
+		} catch (SQLException se) {
+			if (se.getCause() != null && se.getCause() instanceof IOException) {
+				throw (IOException) se.getCause();
+			}
+			throw se;
+		}
+	}
+
+	private static Double toDouble(ResultSet rs, String column) throws SQLException {
 		Object obj = rs.getObject(column);
 		if (obj instanceof Double) {
 			return (Double) obj;
@@ -580,17 +949,19 @@ public class DLNAMediaDatabase implements Runnable {
 					"ID, FILENAME, MODIFIED, TYPE, DURATION, BITRATE, WIDTH, HEIGHT, SIZE, CODECV, FRAMERATE, " +
 					"ASPECT, ASPECTRATIOCONTAINER, ASPECTRATIOVIDEOTRACK, REFRAMES, AVCLEVEL, IMAGEINFO, THUMB, " +
 					"CONTAINER, MUXINGMODE, FRAMERATEMODE, STEREOSCOPY, MATRIXCOEFFICIENTS, TITLECONTAINER, " +
-					"TITLEVIDEOTRACK, VIDEOTRACKCOUNT, IMAGECOUNT, BITDEPTH " +
+					"TITLEVIDEOTRACK, VIDEOTRACKCOUNT, IMAGECOUNT, BITDEPTH, CONTENTHASH " +
 				"FROM FILES " +
 				"WHERE " +
-					"FILENAME = ?",
+					"FILENAMEHASH = ? AND FILENAME = ?",
 				ResultSet.TYPE_FORWARD_ONLY,
 				ResultSet.CONCUR_UPDATABLE
 			)) {
-				ps.setString(1, name);
+				ps.setLong(1, getFilenameHash(name));
+				ps.setString(2, name);
 				try (ResultSet rs = ps.executeQuery()) {
 					if (rs.next()) {
 						fileId = rs.getInt("ID");
+						updateLibraryTables(connection, fileId, -1);
 						rs.updateTimestamp("MODIFIED", new Timestamp(modified));
 						rs.updateInt("TYPE", type);
 						if (media != null) {
@@ -638,6 +1009,11 @@ public class DLNAMediaDatabase implements Runnable {
 							rs.updateInt("VIDEOTRACKCOUNT", media.getVideoTrackCount());
 							rs.updateInt("IMAGECOUNT", media.getImageCount());
 							rs.updateInt("BITDEPTH", media.getVideoBitDepth());
+							if (media.getContentHash() != null) {
+								rs.updateLong("CONTENTHASH", media.getContentHash().longValue());
+							} else {
+								rs.updateNull("CONTENTHASH");
+							}
 						}
 						rs.updateRow();
 					}
@@ -650,10 +1026,11 @@ public class DLNAMediaDatabase implements Runnable {
 						"INSERT INTO FILES (FILENAME, MODIFIED, TYPE, DURATION, BITRATE, WIDTH, HEIGHT, SIZE, CODECV, " +
 						"FRAMERATE, ASPECT, ASPECTRATIOCONTAINER, ASPECTRATIOVIDEOTRACK, REFRAMES, AVCLEVEL, IMAGEINFO, " +
 						"THUMB, CONTAINER, MUXINGMODE, FRAMERATEMODE, STEREOSCOPY, MATRIXCOEFFICIENTS, TITLECONTAINER, " +
-						"TITLEVIDEOTRACK, VIDEOTRACKCOUNT, IMAGECOUNT, BITDEPTH) VALUES "+
-						"(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")
+						"TITLEVIDEOTRACK, VIDEOTRACKCOUNT, IMAGECOUNT, BITDEPTH, FILENAMEHASH, CONTENTHASH) VALUES "+
+						"(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")
 				) {
 					ps.setString(1, name);
+					ps.setLong(28, getFilenameHash(name));
 					ps.setTimestamp(2, new Timestamp(modified));
 					ps.setInt(3, type);
 					if (media != null) {
@@ -702,6 +1079,11 @@ public class DLNAMediaDatabase implements Runnable {
 						ps.setInt(25, media.getVideoTrackCount());
 						ps.setInt(26, media.getImageCount());
 						ps.setInt(27, media.getVideoBitDepth());
+						if (media.getContentHash() != null) {
+							ps.setLong(29, media.getContentHash().longValue());
+						} else {
+							ps.setNull(29, Types.BIGINT);
+						}
 					} else {
 						ps.setString(4, null);
 						ps.setInt(5, 0);
@@ -727,6 +1109,7 @@ public class DLNAMediaDatabase implements Runnable {
 						ps.setInt(25, 0);
 						ps.setInt(26, 0);
 						ps.setInt(27, 0);
+						ps.setNull(29, Types.BIGINT);
 					}
 					ps.executeUpdate();
 					try (ResultSet rs = ps.getGeneratedKeys()) {
@@ -741,6 +1124,9 @@ public class DLNAMediaDatabase implements Runnable {
 				insertOrUpdateAudioTracks(connection, fileId, media);
 				insertOrUpdateSubtitleTracks(connection, fileId, media);
 			}
+			if (fileId > -1) {
+				updateLibraryTables(connection, fileId, 1);
+			}
 
 			connection.commit();
 		} catch (SQLException se) {
@@ -755,16 +1141,176 @@ public class DLNAMediaDatabase implements Runnable {
 		}
 	}
 
-	public synchronized void updateThumbnail(String name, long modified, int type, DLNAMediaInfo media) {
+	/**
+	 * Adds or subtracts the audio tracks of the given file to or from the
+	 * aggregated library tables used by {@link net.pms.dlna.virtual.MediaLibrary}.
+	 * This must be called with {@code -1} before the file or its tracks are
+	 * changed or deleted and with {@code 1} after they have been stored.
+	 *
+	 * @param connection the {@link Connection} to use.
+	 * @param fileId the {@code FILES} ID of the file.
+	 * @param delta {@code 1} to add the file, {@code -1} to subtract it.
+	 * @throws SQLException If an SQL error occurs during the operation.
+	 */
+	private void updateLibraryTables(Connection connection, int fileId, int delta) throws SQLException {
+		try (PreparedStatement ps = connection.prepareStatement(
+			"SELECT F.MODIFIED, A.ARTIST, A.ALBUM, A.GENRE, A.YEAR FROM FILES F, AUDIOTRACKS A " +
+			"WHERE F.ID = A.FILEID AND F.TYPE = 1 AND F.ID = ?"
+		)) {
+			ps.setInt(1, fileId);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					Object[][] keys = getLibraryKeys(connection, rs);
+					for (int i = 0; i < keys.length; i++) {
+						adjustCount(connection, LIBRARY_TABLES[i], LIBRARY_COLUMNS[i], keys[i], delta);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the key of a track in each of the {@link #LIBRARY_TABLES}.
+	 *
+	 * @param connection the {@link Connection} to use.
+	 * @param rs the {@link ResultSet} positioned on a row with the
+	 *            {@code MODIFIED}, {@code ARTIST}, {@code ALBUM},
+	 *            {@code GENRE} and {@code YEAR} columns in that order.
+	 * @return The values for the {@link #LIBRARY_COLUMNS} of each table.
+	 */
+	private Object[][] getLibraryKeys(Connection connection, ResultSet rs) throws SQLException {
+		Timestamp modified = rs.getTimestamp(1);
+		String artist = trimToEmpty(rs.getString(2));
+		String album = trimToEmpty(rs.getString(3));
+		String genre = trimToEmpty(rs.getString(4));
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(modified);
+		return new Object[][] {
+			{artist, getLetter(connection, artist)},
+			{artist, album},
+			{genre, artist, album},
+			{rs.getInt(5)},
+			{
+				// Must match FORMATDATETIME(MODIFIED, 'MMM yyyy') used for the files
+				new SimpleDateFormat("MMM yyyy").format(modified),
+				calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1
+			}
+		};
+	}
+
+	/**
+	 * Adjusts {@code FILECOUNT} of the row matching the given key, inserting
+	 * the row if it doesn't exist and deleting it when the count reaches zero.
+	 */
+	@SuppressFBWarnings("SQL_PREPARED_STATEMENT_GENERATED_FROM_NONCONSTANT_STRING")
+	private static void adjustCount(Connection connection, String table, String[] columns, Object[] values, int delta) throws SQLException {
+		StringBuilder where = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			where.append(i == 0 ? "" : " AND ").append(columns[i]).append(" = ?");
+		}
+		int updated;
+		try (PreparedStatement ps = connection.prepareStatement("UPDATE " + table + " SET FILECOUNT = FILECOUNT + ? WHERE " + where)) {
+			ps.setInt(1, delta);
+			for (int i = 0; i < values.length; i++) {
+				ps.setObject(i + 2, values[i]);
+			}
+			updated = ps.executeUpdate();
+		}
+		if (updated == 0 && delta > 0) {
+			StringBuilder sb = new StringBuilder("INSERT INTO ").append(table).append(" (");
+			for (String column : columns) {
+				sb.append(column).append(", ");
+			}
+			sb.append("FILECOUNT) VALUES (");
+			for (int i = 0; i < columns.length; i++) {
+				sb.append("?, ");
+			}
+			sb.append("?)");
+			try (PreparedStatement ps = connection.prepareStatement(sb.toString())) {
+				for (int i = 0; i < values.length; i++) {
+					ps.setObject(i + 1, values[i]);
+				}
+				ps.setInt(values.length + 1, delta);
+				ps.executeUpdate();
+			}
+		} else if (delta < 0) {
+			try (PreparedStatement ps = connection.prepareStatement("DELETE FROM " + table + " WHERE " + where + " AND FILECOUNT <= 0")) {
+				for (int i = 0; i < values.length; i++) {
+					ps.setObject(i + 1, values[i]);
+				}
+				ps.executeUpdate();
+			}
+		}
+	}
+
+	/**
+	 * Finds the {@code REGEXP_RULES} ID (the letter folder) that {@code value}
+	 * belongs to. The rules are read once and cached.
+	 *
+	 * @return The letter ID or an empty {@link String} if no rule matches.
+	 */
+	private String getLetter(Connection connection, String value) throws SQLException {
+		synchronized (letterRules) {
+			if (letterRules.isEmpty()) {
+				try (
+					Statement stmt = connection.createStatement();
+					ResultSet rs = stmt.executeQuery("SELECT ID, RULE FROM REGEXP_RULES ORDER BY ORDR ASC")
+				) {
+					while (rs.next()) {
+						letterRules.put(rs.getString(1), Pattern.compile(rs.getString(2)));
+					}
+				}
+			}
+			for (Entry<String, Pattern> rule : letterRules.entrySet()) {
+				if (rule.getValue().matcher(value).find()) {
+					return rule.getKey();
+				}
+			}
+		}
+		return "";
+	}
+
+	/**
+	 * Gets the cached thumbnail for a file.
+	 *
+	 * @param name the absolute path of the file.
+	 * @param modified the modification time of the file.
+	 * @return The {@link DLNAThumbnail} or {@code null} if none is cached.
+	 */
+	public synchronized DLNAThumbnail getThumbnail(String name, long modified) {
 		try (
 			Connection conn = getConnection();
 			PreparedStatement ps = conn.prepareStatement(
-				"UPDATE FILES SET THUMB = ? WHERE FILENAME = ? AND MODIFIED = ?"
+				"SELECT THUMB FROM FILES WHERE FILENAMEHASH = ? AND FILENAME = ? AND MODIFIED = ?"
 			);
 		) {
-
+			ps.setLong(1, getFilenameHash(name));
 			ps.setString(2, name);
 			ps.setTimestamp(3, new Timestamp(modified));
+			try (ResultSet rs = ps.executeQuery()) {
+				if (rs.next()) {
+					Object thumb = rs.getObject(1);
+					return thumb instanceof DLNAThumbnail ? (DLNAThumbnail) thumb : null;
+				}
+			}
+		} catch (SQLException se) {
+			LOGGER.error("Error reading cached thumbnail for \"{}\": {}", name, se.getMessage());
+			LOGGER.trace("", se);
+		}
+		return null;
+	}
+
+	public synchronized void updateThumbnail(String name, long modified, int type, DLNAMediaInfo media) {
+		try (
+			Connection conn = getConnection();
+			PreparedStatement ps = conn.prepareStatement(
+				"UPDATE FILES SET THUMB = ? WHERE FILENAMEHASH = ? AND FILENAME = ? AND MODIFIED = ?"
+			);
+		) {
+
+			ps.setLong(2, getFilenameHash(name));
+			ps.setString(3, name);
+			ps.setTimestamp(4, new Timestamp(modified));
 			if (media != null && media.getThumb() != null) {
 				ps.setObject(1, media.getThumb());
 			} else {
@@ -807,69 +1353,484 @@ public class DLNAMediaDatabase implements Runnable {
 		return list;
 	}
 
-	public synchronized void cleanup() {
-		Connection conn = null;
-		PreparedStatement ps = null;
-		ResultSet rs = null;
+	/**
+	 * Removes missing and modified files from the database, updating the
+	 * status line with the progress.
+	 * <p>
+	 * The {@code FILES} table is processed in chunks by ascending {@code ID}
+	 * and the position is stored in {@code METADATA} after each chunk, so a
+	 * cleanup that is stopped or interrupted continues where it left off. The
+	 * files in a chunk are checked in parallel per mount point and the stale
+	 * rows are deleted in one batch. The database isn't locked between
+	 * chunks.
+	 */
+	public void cleanup() {
+		cleanupStopped = false;
+		int total = 0;
+		try (
+			Connection conn = getConnection();
+			PreparedStatement ps = conn.prepareStatement("SELECT COUNT(*) FROM FILES");
+			ResultSet rs = ps.executeQuery();
+		) {
+			if (rs.next()) {
+				total = rs.getInt(1);
+			}
+		} catch (SQLException se) {
+			LOGGER.error(null, se);
+			return;
+		}
+		dbCount = total;
+		PMS.get().getFrame().setStatusLine(Messages.getString("DLNAMediaDatabase.2") + " 0%");
+		if (total == 0) {
+			return;
+		}
 
+		// Do one full lap, starting and ending at the stored cursor
+		int startId = getCleanupCursor();
+		boolean wrapped = false;
+		int checked = 0;
+		int oldpercent = 0;
 		try {
-			conn = getConnection();
-			ps = conn.prepareStatement("SELECT COUNT(*) FROM FILES");
-			rs = ps.executeQuery();
-			dbCount = 0;
+			while (!cleanupStopped) {
+				int count = cleanupChunk(wrapped ? startId : Integer.MAX_VALUE);
+				if (count < 0) {
+					if (wrapped || startId == 0) {
+						break;
+					}
+					wrapped = true;
+					continue;
+				}
+				checked += count;
+				int newpercent = (int) Math.min(checked * 100L / total, 100);
+				if (newpercent > oldpercent) {
+					PMS.get().getFrame().setStatusLine(Messages.getString("DLNAMediaDatabase.2") + newpercent + "%");
+					oldpercent = newpercent;
+				}
+			}
+		} catch (InterruptedException e) {
+			LOGGER.debug("Cache cleanup was interrupted");
+			Thread.currentThread().interrupt();
+		}
+	}
 
-			if (rs.next()) {
-				dbCount = rs.getInt(1);
+	/**
+	 * Stops a running {@link #cleanup()} after the current chunk.
+	 */
+	public void stopCleanup() {
+		cleanupStopped = true;
+	}
+
+	/**
+	 * Starts a low priority thread that runs the cleanup continuously, one
+	 * chunk at a time with pauses in between, instead of in one pass after a
+	 * scan. Does nothing if it's already running.
+	 */
+	public synchronized void startBackgroundCleanup() {
+		if (cleaner != null && cleaner.isAlive()) {
+			return;
+		}
+		cleaner = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				LOGGER.debug("Background cache cleanup started");
+				try {
+					while (!Thread.currentThread().isInterrupted()) {
+						Thread.sleep(cleanupChunk(Integer.MAX_VALUE) < 0 ? CLEANUP_PASS_PAUSE : CLEANUP_CHUNK_PAUSE);
+					}
+				} catch (InterruptedException e) {
+					// Stopped
+				}
+				LOGGER.debug("Background cache cleanup stopped");
 			}
+		}, "Cache Cleanup");
+		cleaner.setPriority(Thread.MIN_PRIORITY);
+		cleaner.setDaemon(true);
+		cleaner.start();
+	}
 
-			rs.close();
-			ps.close();
-			PMS.get().getFrame().setStatusLine(Messages.getString("DLNAMediaDatabase.2") + " 0%");
-			int i = 0;
-			int oldpercent = 0;
-
-			if (dbCount > 0) {
-				ps = conn.prepareStatement("SELECT FILENAME, MODIFIED, ID FROM FILES", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
-				rs = ps.executeQuery();
+	/**
+	 * Stops the background cleanup thread if it's running and waits for it to
+	 * finish its current chunk.
+	 */
+	public void stopBackgroundCleanup() {
+		Thread thread;
+		synchronized (this) {
+			thread = cleaner;
+			cleaner = null;
+		}
+		if (thread != null) {
+			thread.interrupt();
+			// Not while holding the lock, the chunk may need it to finish
+			try {
+				thread.join(CLEANUP_STOP_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Stops the background work on the database before it's closed.
+	 */
+	public void shutdown() {
+		stopCleanup();
+		stopBackgroundCleanup();
+		synchronized (validatorLock) {
+			if (validator != null) {
+				validator.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Checks the next chunk of files after the stored cursor, removes the
+	 * stale ones and advances the cursor. When the end of the table is
+	 * reached the cursor is reset.
+	 *
+	 * @param maxId the highest {@code ID} to check.
+	 * @return The number of checked files or {@code -1} if there were no
+	 *         more files to check.
+	 * @throws InterruptedException If interrupted while checking.
+	 */
+	int cleanupChunk(int maxId) throws InterruptedException {
+		synchronized (cleanupLock) {
+			int cursor = getCleanupCursor();
+			Map<String, Long> files = new LinkedHashMap<>();
+			int lastId = cursor;
+			try (
+				Connection conn = getConnection();
+				PreparedStatement ps = conn.prepareStatement(
+					"SELECT ID, FILENAME, MODIFIED FROM FILES WHERE ID > ? AND ID <= ? ORDER BY ID LIMIT " + CLEANUP_CHUNK_SIZE
+				);
+			) {
+				ps.setInt(1, cursor);
+				ps.setInt(2, maxId);
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) {
+						lastId = rs.getInt(1);
+						files.put(rs.getString(2), rs.getTimestamp(3).getTime());
+					}
+				}
+			} catch (SQLException se) {
+				LOGGER.error("Error reading the cache for cleanup: {}", se.getMessage());
+				LOGGER.trace("", se);
+				return -1;
+			}
+			if (files.isEmpty()) {
+				if (maxId == Integer.MAX_VALUE) {
+					setCleanupCursor(0);
+				}
+				return -1;
+			}
+
+			List<String> stale = getMediaValidator().check(files);
+			if (!stale.isEmpty()) {
+				LOGGER.debug("Removing {} missing or modified files from the cache", stale.size());
+				removeFiles(stale);
+			}
+			setCleanupCursor(lastId);
+			return files.size();
+		}
+	}
+
+	int getCleanupCursor() {
+		try (
+			Connection conn = getConnection();
+			PreparedStatement ps = conn.prepareStatement("SELECT VALUE FROM METADATA WHERE KEY = 'CLEANUP_CURSOR'");
+			ResultSet rs = ps.executeQuery();
+		) {
+			return rs.next() ? Integer.parseInt(rs.getString(1)) : 0;
+		} catch (SQLException | NumberFormatException e) {
+			LOGGER.debug("Couldn't read the cache cleanup position: {}", e.getMessage());
+			return 0;
+		}
+	}
+
+	private void setCleanupCursor(int id) {
+		try (
+			Connection conn = getConnection();
+			PreparedStatement ps = conn.prepareStatement("MERGE INTO METADATA KEY (KEY) VALUES ('CLEANUP_CURSOR', ?)");
+		) {
+			ps.setString(1, Integer.toString(id));
+			ps.executeUpdate();
+		} catch (SQLException se) {
+			LOGGER.debug("Couldn't store the cache cleanup position: {}", se.getMessage());
+		}
+	}
+
+	/**
+	 * Checks if the stored fingerprint of a directory matches.
+	 *
+	 * @param path the absolute path of the directory.
+	 * @param modified the modification time of the directory.
+	 * @param entries the number of entries in the directory.
+	 * @param nameHash the combined hash of the entry names, see
+	 *            {@link #getNamesHash(String[])}.
+	 * @return {@code true} if the directory is unchanged since it was last
+	 *         scanned.
+	 */
+	public synchronized boolean isFolderUnchanged(String path, long modified, int entries, long nameHash) {
+		try (
+			Connection conn = getConnection();
+			PreparedStatement ps = conn.prepareStatement(
+				"SELECT MODIFIED, ENTRIES, NAMEHASH FROM FOLDERS WHERE FILENAMEHASH = ? AND FILENAME = ?"
+			);
+		) {
+			ps.setLong(1, getFilenameHash(path));
+			ps.setString(2, path);
+			try (ResultSet rs = ps.executeQuery()) {
+				return rs.next() && rs.getLong(1) == modified && rs.getInt(2) == entries && rs.getLong(3) == nameHash;
+			}
+		} catch (SQLException se) {
+			LOGGER.error("Error reading folder fingerprint for \"{}\": {}", path, se.getMessage());
+			LOGGER.trace("", se);
+			return false;
+		}
+	}
+
+	/**
+	 * Stores the fingerprint and the subdirectories of a scanned directory.
+	 * Subdirectories that haven't been scanned yet get an empty fingerprint,
+	 * and the rows of subdirectories that no longer exist are removed
+	 * together with their descendants.
+	 *
+	 * @param path the absolute path of the directory.
+	 * @param modified the modification time of the directory.
+	 * @param entries the number of entries in the directory.
+	 * @param nameHash the combined hash of the entry names, see
+	 *            {@link #getNamesHash(String[])}.
+	 * @param subfolders the absolute paths of the subdirectories to scan.
+	 */
+	public synchronized void updateFolder(String path, long modified, int entries, long nameHash, Collection<String> subfolders) {
+		long hash = getFilenameHash(path);
+		try (Connection conn = getConnection()) {
+			conn.setAutoCommit(false);
+			try {
+				Set<String> stored = new HashSet<>();
+				try (PreparedStatement ps = conn.prepareStatement("SELECT FILENAME FROM FOLDERS WHERE PARENTHASH = ?")) {
+					ps.setLong(1, hash);
+					try (ResultSet rs = ps.executeQuery()) {
+						while (rs.next()) {
+							stored.add(rs.getString(1));
+						}
+					}
+				}
+				try (
+					PreparedStatement delete = conn.prepareStatement(
+						"DELETE FROM FOLDERS WHERE (FILENAMEHASH = ? AND FILENAME = ?) OR FILENAME LIKE ? ESCAPE '\\'"
+					);
+				) {
+					delete.setLong(1, hash);
+					delete.setString(2, path);
+					delete.setString(3, "");
+					delete.addBatch();
+					for (String folder : stored) {
+						if (!subfolders.contains(folder)) {
+							delete.setLong(1, getFilenameHash(folder));
+							delete.setString(2, folder);
+							delete.setString(3, escapeLike(folder + File.separator) + "%");
+							delete.addBatch();
+						}
+					}
+					delete.executeBatch();
+				}
+				try (
+					PreparedStatement insert = conn.prepareStatement(
+						"INSERT INTO FOLDERS (FILENAME, FILENAMEHASH, PARENTHASH, MODIFIED, ENTRIES, NAMEHASH) VALUES (?, ?, ?, ?, ?, ?)"
+					);
+				) {
+					insert.setString(1, path);
+					insert.setLong(2, hash);
+					insert.setLong(3, getFilenameHash(new File(path).getParent()));
+					insert.setLong(4, modified);
+					insert.setInt(5, entries);
+					insert.setLong(6, nameHash);
+					insert.addBatch();
+					for (String folder : subfolders) {
+						if (!stored.contains(folder)) {
+							insert.setString(1, folder);
+							insert.setLong(2, getFilenameHash(folder));
+							insert.setLong(3, hash);
+							insert.setLong(4, 0);
+							insert.setInt(5, -1);
+							insert.setLong(6, 0);
+							insert.addBatch();
+						}
+					}
+					insert.executeBatch();
+				}
+				conn.commit();
+			} catch (SQLException se) {
+				conn.rollback();
+				throw se;
+			}
+		} catch (SQLException se) {
+			LOGGER.error("Error storing folder fingerprint for \"{}\": {}", path, se.getMessage());
+			LOGGER.trace("", se);
+		}
+	}
+
+	/**
+	 * Returns the subdirectories stored for a directory by
+	 * {@link #updateFolder}.
+	 *
+	 * @param path the absolute path of the directory.
+	 * @return The absolute paths of the subdirectories.
+	 */
+	public synchronized List<String> getSubfolders(String path) {
+		List<String> result = new ArrayList<>();
+		try (
+			Connection conn = getConnection();
+			PreparedStatement ps = conn.prepareStatement("SELECT FILENAME FROM FOLDERS WHERE PARENTHASH = ? ORDER BY FILENAME")
+		) {
+			ps.setLong(1, getFilenameHash(path));
+			try (ResultSet rs = ps.executeQuery()) {
 				while (rs.next()) {
-					String filename = rs.getString("FILENAME");
-					long modified = rs.getTimestamp("MODIFIED").getTime();
-					File file = new File(filename);
-					if (!file.exists() || file.lastModified() != modified) {
-						rs.deleteRow();
+					String folder = rs.getString(1);
+					if (path.equals(new File(folder).getParent())) {
+						result.add(folder);
 					}
-					i++;
-					int newpercent = i * 100 / dbCount;
-					if (newpercent > oldpercent) {
-						PMS.get().getFrame().setStatusLine(Messages.getString("DLNAMediaDatabase.2") + newpercent + "%");
-						oldpercent = newpercent;
+				}
+			}
+		} catch (SQLException se) {
+			LOGGER.error("Error reading subfolders of \"{}\": {}", path, se.getMessage());
+			LOGGER.trace("", se);
+		}
+		return result;
+	}
+
+	/**
+	 * Removes all files below a directory and the fingerprints of the
+	 * directory and its subdirectories from the database.
+	 *
+	 * @param path the absolute path of the directory.
+	 * @return The number of removed files.
+	 */
+	public int removeFolder(String path) {
+		String pattern = escapeLike(path + File.separator) + "%";
+		List<String> filenames = new ArrayList<>();
+		try (Connection conn = getConnection()) {
+			try (PreparedStatement ps = conn.prepareStatement("SELECT FILENAME FROM FILES WHERE FILENAME LIKE ? ESCAPE '\\'")) {
+				ps.setString(1, pattern);
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) {
+						filenames.add(rs.getString(1));
 					}
 				}
 			}
+			try (
+				PreparedStatement ps = conn.prepareStatement(
+					"DELETE FROM FOLDERS WHERE (FILENAMEHASH = ? AND FILENAME = ?) OR FILENAME LIKE ? ESCAPE '\\'"
+				);
+			) {
+				ps.setLong(1, getFilenameHash(path));
+				ps.setString(2, path);
+				ps.setString(3, pattern);
+				ps.executeUpdate();
+			}
 		} catch (SQLException se) {
-			LOGGER.error(null, se);
-		} finally {
-			close(rs);
-			close(ps);
-			close(conn);
+			LOGGER.error("Error removing folder \"{}\" from the cache: {}", path, se.getMessage());
+			LOGGER.trace("", se);
+			return 0;
+		}
+		int result = 0;
+		for (int i = 0; i < filenames.size(); i += 100) {
+			result += removeFiles(filenames.subList(i, Math.min(i + 100, filenames.size())));
+		}
+		return result;
+	}
+
+	/**
+	 * Combines the hashes of the entry names of a directory. The result
+	 * doesn't depend on the order of the names.
+	 *
+	 * @param names the entry names.
+	 * @return The combined hash.
+	 */
+	public static long getNamesHash(String[] names) {
+		long hash = 0;
+		if (names != null) {
+			for (String name : names) {
+				hash += getFilenameHash(name);
+			}
 		}
+		return hash;
+	}
+
+	private static String escapeLike(String value) {
+		return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+	}
+
+	/**
+	 * Expands a {@code WHERE} clause into a complete {@code FILES} query. Full
+	 * {@code SELECT} statements are returned unchanged.
+	 *
+	 * @param sql the {@code SELECT} statement or {@code WHERE} clause.
+	 * @return The complete query.
+	 */
+	private static String toFilesQuery(String sql) {
+		return sql.toLowerCase().startsWith("select") ? sql : ("SELECT FILENAME, MODIFIED FROM FILES WHERE " + sql);
 	}
 
 	public synchronized ArrayList<File> getFiles(String sql) {
+		return getFiles(sql, 0, -1);
+	}
+
+	/**
+	 * Returns one page of the files matched by {@code sql}, letting the
+	 * database do the windowing instead of materializing the whole result.
+	 *
+	 * @param sql the {@code SELECT} statement or {@code WHERE} clause.
+	 * @param offset the number of rows to skip.
+	 * @param limit the maximum number of rows to return or a negative value
+	 *            for no limit.
+	 * @return The {@link List} of {@link File}s or {@code null} if the query
+	 *         failed.
+	 */
+	public synchronized ArrayList<File> getFiles(String sql, int offset, int limit) {
+		return getFiles(sql, offset, limit, null);
+	}
+
+	/**
+	 * Returns one page of the files matched by {@code sql} along with their
+	 * modification times as stored in the database, so that callers don't
+	 * have to query the file system for them.
+	 *
+	 * @param sql the {@code SELECT} statement, which must select
+	 *            {@code MODIFIED}, or {@code WHERE} clause.
+	 * @param offset the number of rows to skip.
+	 * @param limit the maximum number of rows to return or a negative value
+	 *            for no limit.
+	 * @param modified the {@link List} to add the modification time of each
+	 *            returned file to in milliseconds, or {@code null}.
+	 * @return The {@link List} of {@link File}s or {@code null} if the query
+	 *         failed.
+	 */
+	public synchronized ArrayList<File> getFiles(String sql, int offset, int limit, List<Long> modified) {
 		ArrayList<File> list = new ArrayList<>();
 		Connection conn = null;
 		ResultSet rs = null;
 		PreparedStatement ps = null;
 		try {
 			conn = getConnection();
-			ps = conn.prepareStatement(sql.toLowerCase().startsWith("select") ? sql : ("SELECT FILENAME, MODIFIED FROM FILES WHERE " + sql));
+			if (limit < 0 && offset <= 0) {
+				ps = conn.prepareStatement(toFilesQuery(sql));
+			} else {
+				ps = conn.prepareStatement(toFilesQuery(sql) + " LIMIT ? OFFSET ?");
+				ps.setInt(1, limit < 0 ? Integer.MAX_VALUE : limit);
+				ps.setInt(2, Math.max(offset, 0));
+			}
 			rs = ps.executeQuery();
+			MediaDatabaseValidator validator = getValidator();
 			while (rs.next()) {
+				// The database is trusted, files are validated when used or asynchronously
 				String filename = rs.getString("FILENAME");
-				long modified = rs.getTimestamp("MODIFIED").getTime();
-				File file = new File(filename);
-				if (file.exists() && file.lastModified() == modified) {
-					list.add(file);
+				list.add(new File(filename));
+				if (modified != null) {
+					modified.add(rs.getTimestamp("MODIFIED").getTime());
+				}
+				if (validator != null) {
+					validator.validate(filename, rs.getTimestamp("MODIFIED").getTime());
 				}
 			}
 		} catch (SQLException se) {
@@ -883,6 +1844,119 @@ public class DLNAMediaDatabase implements Runnable {
 		return list;
 	}
 
+	/**
+	 * Returns the {@link MediaDatabaseValidator} if asynchronous validation
+	 * is enabled.
+	 *
+	 * @return The {@link MediaDatabaseValidator} or {@code null}.
+	 */
+	private MediaDatabaseValidator getValidator() {
+		if (!configuration.isMediaLibraryAsyncValidation()) {
+			return null;
+		}
+		return getMediaValidator();
+	}
+
+	/**
+	 * @return The {@link MediaDatabaseValidator} whose per mount point
+	 *         threads are shared by the validation and the cleanup.
+	 */
+	private MediaDatabaseValidator getMediaValidator() {
+		synchronized (validatorLock) {
+			if (validator == null) {
+				validator = new MediaDatabaseValidator(this, configuration.getMediaLibraryValidationThreads());
+			}
+			return validator;
+		}
+	}
+
+	/**
+	 * Removes the given files and their audio and subtitle tracks from the
+	 * database in one batch.
+	 *
+	 * @param filenames the absolute paths of the files to remove.
+	 * @return The number of removed files.
+	 */
+	public synchronized int removeFiles(Collection<String> filenames) {
+		if (filenames == null || filenames.isEmpty()) {
+			return 0;
+		}
+		int result = 0;
+		try (Connection conn = getConnection()) {
+			conn.setAutoCommit(false);
+			try (
+				PreparedStatement ids = conn.prepareStatement("SELECT ID FROM FILES WHERE FILENAMEHASH = ? AND FILENAME = ?");
+				PreparedStatement audio = conn.prepareStatement("DELETE FROM AUDIOTRACKS WHERE FILEID IN (SELECT ID FROM FILES WHERE FILENAMEHASH = ? AND FILENAME = ?)");
+				PreparedStatement subs = conn.prepareStatement("DELETE FROM SUBTRACKS WHERE FILEID IN (SELECT ID FROM FILES WHERE FILENAMEHASH = ? AND FILENAME = ?)");
+				PreparedStatement files = conn.prepareStatement("DELETE FROM FILES WHERE FILENAMEHASH = ? AND FILENAME = ?");
+				PreparedStatement folders = conn.prepareStatement("UPDATE FOLDERS SET ENTRIES = -1 WHERE FILENAMEHASH = ? AND FILENAME = ?");
+			) {
+				Set<String> parents = new HashSet<>();
+				for (String filename : filenames) {
+					long hash = getFilenameHash(filename);
+					ids.setLong(1, hash);
+					ids.setString(2, filename);
+					try (ResultSet rs = ids.executeQuery()) {
+						while (rs.next()) {
+							updateLibraryTables(conn, rs.getInt(1), -1);
+						}
+					}
+					audio.setLong(1, hash);
+					audio.setString(2, filename);
+					audio.addBatch();
+					subs.setLong(1, hash);
+					subs.setString(2, filename);
+					subs.addBatch();
+					files.setLong(1, hash);
+					files.setString(2, filename);
+					files.addBatch();
+					String parent = new File(filename).getParent();
+					if (parent != null && parents.add(parent)) {
+						// Make the next scan revisit the folder
+						folders.setLong(1, getFilenameHash(parent));
+						folders.setString(2, parent);
+						folders.addBatch();
+					}
+				}
+				folders.executeBatch();
+				audio.executeBatch();
+				subs.executeBatch();
+				for (int count : files.executeBatch()) {
+					if (count > 0) {
+						result += count;
+					}
+				}
+				conn.commit();
+			} catch (SQLException se) {
+				conn.rollback();
+				throw se;
+			}
+		} catch (SQLException se) {
+			LOGGER.error("Error removing files from the cache: {}", se.getMessage());
+			LOGGER.trace("", se);
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the rows matched by {@code sql} without fetching them.
+	 *
+	 * @param sql the {@code SELECT} statement or {@code WHERE} clause.
+	 * @return The number of matching rows or {@code -1} if the query failed.
+	 */
+	public synchronized int getFilesCount(String sql) {
+		try (
+			Connection conn = getConnection();
+			PreparedStatement ps = conn.prepareStatement("SELECT COUNT(*) FROM (" + toFilesQuery(sql) + ")");
+			ResultSet rs = ps.executeQuery();
+		) {
+			return rs.next() ? rs.getInt(1) : 0;
+		} catch (SQLException se) {
+			LOGGER.error(null, se);
+			return -1;
+		}
+	}
+
 	private void close(ResultSet rs) {
 		try {
 			if (rs != null) {
@@ -929,6 +2003,7 @@ public class DLNAMediaDatabase implements Runnable {
 	public void stopScanLibrary() {
 		if (isScanLibraryRunning()) {
 			PMS.get().getRootFolder(null).stopScan();
+			stopCleanup();
 		}
 	}
 
@@ -22,6 +22,7 @@ import java.io.*;
 import java.nio.file.Files;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import net.pms.PMS;
 import net.pms.configuration.FormatConfiguration;
@@ -147,6 +148,9 @@ public class DLNAMediaInfo implements Cloneable {
 	@Deprecated
 	public long size;
 
+	/** The {@link net.pms.util.ContentFingerprint} if calculated */
+	private Long contentHash;
+
 	/**
 	 * @deprecated Use standard getter and setter to access this variable.
 	 */
@@ -632,32 +636,22 @@ public class DLNAMediaInfo implements Cloneable {
 		final ProcessWrapperImpl pw = new ProcessWrapperImpl(args, true, params, false, true);
 
 		// FAILSAFE
-		synchronized (parsingLock) {
-			parsing = true;
-		}
-		Runnable r = new Runnable() {
+		setParsing(true);
+		ScheduledFuture<?> failsafe = ProcessUtil.scheduleTimeout(new Runnable() {
 			@Override
 			public void run() {
-				try {
-					Thread.sleep(10000);
-					synchronized (ffmpeg_failureLock) {
-						ffmpeg_failure = true;
-					}
-				} catch (InterruptedException e) { }
+				synchronized (ffmpeg_failureLock) {
+					ffmpeg_failure = true;
+				}
 
 				pw.stopProcess();
-				synchronized (parsingLock) {
-					parsing = false;
-				}
+				setParsing(false);
 			}
-		};
+		}, 10000);
 
-		Thread failsafe = new Thread(r, "FFmpeg Thumbnail Failsafe");
-		failsafe.start();
 		pw.runInSameThread();
-		synchronized (parsingLock) {
-			parsing = false;
-		}
+		failsafe.cancel(false);
+		setParsing(false);
 		return pw;
 	}
 
@@ -701,29 +695,18 @@ public class DLNAMediaInfo implements Cloneable {
 		final ProcessWrapperImpl pw = new ProcessWrapperImpl(args, true, params);
 
 		// FAILSAFE
-		synchronized (parsingLock) {
-			parsing = true;
-		}
-		Runnable r = new Runnable() {
+		setParsing(true);
+		ScheduledFuture<?> failsafe = ProcessUtil.scheduleTimeout(new Runnable() {
 			@Override
 			public void run() {
-				try {
-					Thread.sleep(3000);
-				} catch (InterruptedException e) { }
-
 				pw.stopProcess();
-				synchronized (parsingLock) {
-					parsing = false;
-				}
+				setParsing(false);
 			}
-		};
+		}, 3000);
 
-		Thread failsafe = new Thread(r, "MPlayer Thumbnail Failsafe");
-		failsafe.start();
 		pw.runInSameThread();
-		synchronized (parsingLock) {
-			parsing = false;
-		}
+		failsafe.cancel(false);
+		setParsing(false);
 		return pw;
 	}
 
@@ -746,19 +729,23 @@ public class DLNAMediaInfo implements Cloneable {
 	 * Parse media without using MediaInfo.
 	 */
 	public void parse(InputFile inputFile, Format ext, int type, boolean thumbOnly, boolean resume, RendererConfiguration renderer) {
-		int i = 0;
+		// Wait up to 5 seconds for a thumbnail process started by another thread
+		synchronized (parsingLock) {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (parsing) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					mediaparsed = true;
+					break;
+				}
 
-		while (isParsing()) {
-			if (i == 5) {
-				mediaparsed = true;
-				break;
+				try {
+					parsingLock.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
 			}
-
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) { }
-
-			i++;
 		}
 
 		if (isMediaparsed() && !thumbOnly) { // file could be already parsed by MediaInfo and we need only thumbnail
@@ -1003,7 +990,17 @@ public class DLNAMediaInfo implements Cloneable {
 			}
 
 			if (ffmpeg_parsing) {
-				if (!thumbOnly || (type == Format.VIDEO && !configuration.isUseMplayerForVideoThumbs())) {
+				boolean probed = !thumbOnly && file != null && configuration.isFFprobeParsing() && FFprobeParser.parse(file, this);
+				if (probed) {
+					// FFmpeg is only needed for the thumbnail
+					if (
+						type == Format.VIDEO &&
+						configuration.isThumbnailGenerationEnabled() &&
+						!configuration.isUseMplayerForVideoThumbs()
+					) {
+						pw = getFFmpegThumbnail(inputFile, resume);
+					}
+				} else if (!thumbOnly || (type == Format.VIDEO && !configuration.isUseMplayerForVideoThumbs())) {
 					pw = getFFmpegThumbnail(inputFile, resume);
 				}
 
@@ -1016,7 +1013,7 @@ public class DLNAMediaInfo implements Cloneable {
 				}
 
 				synchronized (ffmpeg_failureLock) {
-					if (pw != null && !ffmpeg_failure && !thumbOnly) {
+					if (pw != null && !ffmpeg_failure && !thumbOnly && !probed) {
 						parseFFmpegInfo(pw.getResults(), input);
 					}
 				}
@@ -2011,22 +2008,18 @@ public class DLNAMediaInfo implements Cloneable {
 
 		final ProcessWrapperImpl pw = new ProcessWrapperImpl(cmdArray, true, params);
 
-		Runnable r = new Runnable() {
+		ScheduledFuture<?> failsafe = ProcessUtil.scheduleTimeout(new Runnable() {
 			@Override
 			public void run() {
-				try {
-					Thread.sleep(3000);
-					synchronized (ffmpeg_annexb_failureLock) {
-						ffmpeg_annexb_failure = true;
-					}
-				} catch (InterruptedException e) { }
+				synchronized (ffmpeg_annexb_failureLock) {
+					ffmpeg_annexb_failure = true;
+				}
 				pw.stopProcess();
 			}
-		};
+		}, 3000);
 
-		Thread failsafe = new Thread(r, "FFMpeg AnnexB Frame Header Failsafe");
-		failsafe.start();
 		pw.runInSameThread();
+		failsafe.cancel(false);
 
 		synchronized (ffmpeg_annexb_failureLock) {
 			if (ffmpeg_annexb_failure) {
@@ -2147,6 +2140,22 @@ public class DLNAMediaInfo implements Cloneable {
 		this.size = size;
 	}
 
+	/**
+	 * @return The {@link net.pms.util.ContentFingerprint} of the parsed file
+	 *         or {@code null} if it hasn't been calculated.
+	 */
+	public Long getContentHash() {
+		return contentHash;
+	}
+
+	/**
+	 * @param contentHash the {@link net.pms.util.ContentFingerprint} of the
+	 *            parsed file.
+	 */
+	public void setContentHash(Long contentHash) {
+		this.contentHash = contentHash;
+	}
+
 	/**
 	 * @return the codecV
 	 * @since 1.50.0
@@ -2770,6 +2779,9 @@ public class DLNAMediaInfo implements Cloneable {
 	public void setParsing(boolean parsing) {
 		synchronized (parsingLock) {
 			this.parsing = parsing;
+			if (!parsing) {
+				parsingLock.notifyAll();
+			}
 		}
 	}
 
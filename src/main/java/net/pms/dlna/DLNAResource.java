@@ -42,8 +42,12 @@ import net.pms.formats.FormatFactory;
 import net.pms.image.ImageFormat;
 import net.pms.image.ImageInfo;
 import net.pms.io.OutputParams;
+import net.pms.io.ProcessSupervisor;
 import net.pms.io.ProcessWrapper;
+import net.pms.io.ProcessWrapperImpl;
 import net.pms.io.SizeLimitInputStream;
+import net.pms.io.TranscodeCache;
+import net.pms.io.TranscodeMemoryGovernor;
 import net.pms.network.HTTPResource;
 import net.pms.network.UPNPControl.Renderer;
 import net.pms.util.*;
@@ -164,6 +168,13 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 
 	private ProcessWrapper externalProcess;
 
+	/**
+	 * The number of seconds a transcode started by
+	 * {@link #prewarmTranscode(RendererConfiguration, int)} runs before it's
+	 * paused, only set while it's started.
+	 */
+	private int prewarmSeconds;
+
 	/**
 	 * @deprecated Use #hasExternalSubtitles()
 	 */
@@ -1178,7 +1189,7 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 				dlna.discoverWithRenderer(renderer, count, true, searchStr);
 
 				if (count == 0) {
-					count = dlna.getChildren().size();
+					count = dlna.childrenNumber();
 				}
 
 				if (count > 0) {
@@ -1198,14 +1209,15 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 						new BasicThreadFactory("DLNAResource resolver thread %d-%d")
 					);
 
-					for (int i = start; i < start + count && i < dlna.getChildren().size(); i++) {
-						final DLNAResource child = dlna.getChildren().get(i);
+					int i = start;
+					for (DLNAResource child : dlna.getChildren(start, count)) {
 						if (child != null) {
 							tpe.execute(child);
 							resources.add(child);
 						} else {
 							LOGGER.warn("null child at index {} in {}", i, systemName);
 						}
+						i++;
 					}
 
 					try {
@@ -3114,16 +3126,10 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	public void stopPlaying(final String rendererId, final RendererConfiguration incomingRenderer) {
 		final DLNAResource self = this;
 		final String requestId = getRequestId(rendererId);
+		final long start = startTime;
 		Runnable defer = new Runnable() {
 			@Override
 			public void run() {
-				long start = startTime;
-				try {
-					Thread.sleep(STOP_PLAYING_DELAY);
-				} catch (InterruptedException e) {
-					LOGGER.error("stopPlaying sleep interrupted", e);
-				}
-
 				synchronized (requestIdToRefcount) {
 					final Integer refCount = requestIdToRefcount.get(requestId);
 					assert refCount != null;
@@ -3175,7 +3181,7 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 			}
 		};
 
-		new Thread(defer, "StopPlaying Event Deferrer").start();
+		ProcessSupervisor.get().schedule(defer, STOP_PLAYING_DELAY);
 	}
 
 	/**
@@ -3232,7 +3238,36 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	 * @return The inputstream
 	 * @throws IOException
 	 */
-	public synchronized InputStream getInputStream(Range range, RendererConfiguration mediarenderer) throws IOException {
+	public InputStream getInputStream(Range range, RendererConfiguration mediarenderer) throws IOException {
+		Admission admission = new Admission();
+		try {
+			while (true) {
+				InputStream result = getInputStream(range, mediarenderer, admission);
+				if (admission.waitingParams == null) {
+					return result;
+				}
+
+				// Wait for transcode memory without holding the lock, so that
+				// other requests for this resource aren't blocked meanwhile
+				admission.allocation = TranscodeMemoryGovernor.get().admit(mediarenderer, admission.waitingParams);
+				admission.waitingParams = null;
+			}
+		} finally {
+			admission.releaseUnused();
+		}
+	}
+
+	/**
+	 * Does the work of {@link #getInputStream(Range, RendererConfiguration)}.
+	 * If a transcode must wait for memory, {@code null} is returned with
+	 * {@link Admission#waitingParams} set, and the call must be repeated once
+	 * memory has been admitted.
+	 */
+	private synchronized InputStream getInputStream(
+		Range range,
+		RendererConfiguration mediarenderer,
+		Admission admission
+	) throws IOException {
 		// Use device-specific DMS conf, if any
 		PmsConfiguration configurationSpecificToRenderer = PMS.getConfiguration(mediarenderer);
 		LOGGER.trace("Asked stream chunk : " + range + " of " + getName() + " and player " + player);
@@ -3321,6 +3356,7 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 			params.timeseek = timeRange.getStartOrZero();
 			params.timeend = timeRange.getEndOrZero();
 			params.shift_scr = timeseek_auto;
+			params.prewarmSeconds = prewarmSeconds;
 			if (this instanceof IPushOutput) {
 				params.stdin = (IPushOutput) this;
 			}
@@ -3345,11 +3381,50 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 			}
 
 			// (Re)start transcoding process if necessary
-			if (externalProcess == null || externalProcess.isDestroyed()) {
+			String signature = getTranscodeSignature(params);
+			ProcessWrapper sharedProcess = null;
+			if (signature != null && (externalProcess == null || externalProcess.isDestroyed() || params.timeseek > 0)) {
+				InputStream cached = TranscodeCache.get().getInputStream(signature, low, high);
+				if (cached != null) {
+					// Already transcoded => serve from the cache
+					lastStartSystemTime = System.currentTimeMillis();
+					return cached;
+				}
+				if (isTranscodeSharing()) {
+					sharedProcess = TranscodeSessionRegistry.get().attach(signature, low);
+				}
+			}
+
+			if (sharedProcess != null) {
+				// Another client is playing the same => read from its transcode
+				LOGGER.debug("Joining running transcode/remux of " + getName());
+				lastStartSystemTime = System.currentTimeMillis();
+				externalProcess = sharedProcess;
+			} else if (externalProcess == null || externalProcess.isDestroyed()) {
 				// First playback attempt => start new transcoding process
+				params.memoryAllocation = admission.take(mediarenderer, params);
+				if (params.memoryAllocation == null) {
+					return null;
+				}
 				LOGGER.debug("Starting transcode/remux of " + getName() + " with media info: " + media);
+				if (params.timeseek == 0) {
+					params.cacheRecording = TranscodeCache.get().record(signature);
+				}
 				lastStartSystemTime = System.currentTimeMillis();
-				externalProcess = player.launchTranscode(this, media, params);
+				externalProcess = null;
+				try {
+					externalProcess = player.launchTranscode(this, media, params);
+				} finally {
+					if (externalProcess == null) {
+						params.memoryAllocation.release();
+						if (params.cacheRecording != null) {
+							params.cacheRecording.finish(false);
+						}
+					}
+				}
+				if (externalProcess != null && signature != null && isTranscodeSharing()) {
+					TranscodeSessionRegistry.get().register(signature, externalProcess);
+				}
 				if (params.waitbeforestart > 0) {
 					LOGGER.trace("Sleeping for {} milliseconds", params.waitbeforestart);
 					try {
@@ -3369,16 +3444,40 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 				// Time seek request => stop running transcode process and start a new one
 				LOGGER.debug("Requesting time seek: " + params.timeseek + " seconds");
 				params.minBufferSize = 1;
-				Runnable r = new Runnable() {
-					@Override
-					public void run() {
-						externalProcess.stopProcess();
-					}
-				};
+				final ProcessWrapper previousProcess = externalProcess;
+				if (
+					isTranscodeSharing() &&
+					previousProcess instanceof ProcessWrapperImpl &&
+					((ProcessWrapperImpl) previousProcess).stopWhenUnread()
+				) {
+					// Other clients may still read from it, it's stopped once none of them reads anymore
+					LOGGER.trace("Leaving the previous transcode to its remaining readers");
+				} else {
+					Runnable r = new Runnable() {
+						@Override
+						public void run() {
+							previousProcess.stopProcess();
+						}
+					};
 
-				new Thread(r, "External Process Stopper").start();
+					ProcessSupervisor.get().execute(r);
+				}
+				params.memoryAllocation = admission.take(mediarenderer, params);
+				if (params.memoryAllocation == null) {
+					return null;
+				}
 				lastStartSystemTime = System.currentTimeMillis();
-				ProcessWrapper newExternalProcess = player.launchTranscode(this, media, params);
+				ProcessWrapper newExternalProcess = null;
+				try {
+					newExternalProcess = player.launchTranscode(this, media, params);
+				} finally {
+					if (newExternalProcess == null) {
+						params.memoryAllocation.release();
+					}
+				}
+				if (newExternalProcess != null && signature != null && isTranscodeSharing()) {
+					TranscodeSessionRegistry.get().register(signature, newExternalProcess);
+				}
 				try {
 					Thread.sleep(1000);
 				} catch (InterruptedException e) {
@@ -3423,13 +3522,106 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 					}
 				};
 
-				new Thread(r, "Hanging External Process Stopper").start();
+				ProcessSupervisor.get().execute(r);
 			}
 
 			return is;
 		}
 	}
 
+	/**
+	 * Starts transcoding this resource for {@code mediarenderer} ahead of a
+	 * playback request, so that the request finds the transcode running and
+	 * its buffer filled. The transcode is paused after {@code seconds} until a
+	 * request adopts it. Nothing is started if this resource isn't transcoded
+	 * or a transcode of it is already running.
+	 *
+	 * @param mediarenderer the renderer expected to request playback.
+	 * @param seconds the number of seconds to transcode before pausing.
+	 * @return The speculative reader, which must be closed to let the
+	 *         transcode stop if it isn't adopted, or {@code null} if nothing
+	 *         was started.
+	 * @throws IOException If the transcode couldn't be started.
+	 */
+	public synchronized InputStream prewarmTranscode(RendererConfiguration mediarenderer, int seconds) throws IOException {
+		if (player == null || (externalProcess != null && !externalProcess.isDestroyed())) {
+			return null;
+		}
+		prewarmSeconds = Math.max(seconds, 1);
+		Admission admission = new Admission();
+		try {
+			// Speculative transcodes don't wait for memory
+			return getInputStream(new Range.Time(null, null), mediarenderer, admission);
+		} finally {
+			prewarmSeconds = 0;
+			admission.releaseUnused();
+		}
+	}
+
+	/**
+	 * The transcode memory admission of one
+	 * {@link #getInputStream(Range, RendererConfiguration)} call. Memory is
+	 * only admitted without waiting while the resource is locked.
+	 */
+	private static class Admission {
+		/** Memory admitted while the resource wasn't locked */
+		private TranscodeMemoryGovernor.Allocation allocation;
+
+		/** The {@link OutputParams} of a transcode that must wait for memory */
+		private OutputParams waitingParams;
+
+		/**
+		 * Takes the memory admitted beforehand or tries to admit it without
+		 * waiting.
+		 *
+		 * @return The {@link TranscodeMemoryGovernor.Allocation} or
+		 *         {@code null} if the transcode must wait for memory.
+		 */
+		public TranscodeMemoryGovernor.Allocation take(RendererConfiguration renderer, OutputParams params) {
+			TranscodeMemoryGovernor.Allocation result = allocation;
+			allocation = null;
+			if (result == null) {
+				result = TranscodeMemoryGovernor.get().tryAdmit(renderer, params);
+				if (result == null) {
+					waitingParams = params;
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Releases memory that was admitted but not used.
+		 */
+		public void releaseUnused() {
+			if (allocation != null) {
+				allocation.release();
+				allocation = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns the signature used to share and cache the transcode described
+	 * by {@code params}, or {@code null} if its output can't be reused.
+	 *
+	 * @param params the {@link OutputParams} of the transcode.
+	 * @return The signature or {@code null}.
+	 */
+	private String getTranscodeSignature(OutputParams params) {
+		if (this instanceof IPushOutput) {
+			return null;
+		}
+		return TranscodeSessionRegistry.getSignature(this, player, params);
+	}
+
+	/**
+	 * @return {@code true} if running transcodes can be shared with other
+	 *         clients.
+	 */
+	private boolean isTranscodeSharing() {
+		return configuration.isTranscodeShareSessions() && !configuration.getTrancodeBlocksMultipleConnections();
+	}
+
 	/**
 	 * Wrap an {@link InputStream} in a {@link SizeLimitInputStream} that sets a
 	 * limit to the maximum number of bytes to be read from the original input
@@ -3479,6 +3671,17 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	 * Prototype function. Original comment: need to override if some thumbnail work is to be done when mediaparserv2 enabled
 	 */
 	public void checkThumbnail() {
+		checkThumbnail((ThumbnailService.Client) null);
+	}
+
+	/**
+	 * Checks if a thumbnail exists, and, if not, generates one (if possible)
+	 * and waits for it while {@code client} is connected.
+	 *
+	 * @param client the {@link ThumbnailService.Client} waiting for the
+	 *            thumbnail or {@code null}.
+	 */
+	public void checkThumbnail(ThumbnailService.Client client) {
 		// need to override if some thumbnail work is to be done when mediaparserv2 enabled
 	}
 
@@ -3490,34 +3693,104 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 	/**
 	 * Checks if a thumbnail exists, and, if not, generates one (if possible).
 	 * Called from Request/RequestV2 in response to thumbnail requests e.g. HEAD /get/0$1$0$42$3/thumbnail0000%5BExample.mkv
-	 * Calls DLNAMediaInfo.generateThumbnail, which in turn calls DLNAMediaInfo.parse.
 	 *
 	 * @param inputFile File to check or generate the thumbnail for.
 	 * @param renderer The renderer profile
 	 */
 	protected void checkThumbnail(InputFile inputFile, RendererConfiguration renderer) {
+		checkThumbnail(inputFile, renderer, null);
+	}
+
+	/**
+	 * Checks if a thumbnail exists, and, if not, queues it on the
+	 * {@link ThumbnailService} and waits for it while {@code client} is
+	 * connected.
+	 *
+	 * @param inputFile File to check or generate the thumbnail for.
+	 * @param renderer The renderer profile
+	 * @param client the {@link ThumbnailService.Client} waiting for the
+	 *            thumbnail or {@code null}.
+	 */
+	protected void checkThumbnail(InputFile inputFile, RendererConfiguration renderer, ThumbnailService.Client client) {
+		if (isThumbnailNeeded(renderer)) {
+			ThumbnailService.get().submit(this, inputFile, renderer, ThumbnailService.Priority.VISIBLE).await(client);
+		}
+	}
+
+	/**
+	 * Queues a thumbnail on the {@link ThumbnailService} if there isn't one
+	 * already, without waiting for it.
+	 *
+	 * @param inputFile File to generate the thumbnail for.
+	 * @param renderer The renderer profile
+	 */
+	protected void queueThumbnail(InputFile inputFile, RendererConfiguration renderer) {
+		if (isThumbnailNeeded(renderer)) {
+			ThumbnailService.get().submit(this, inputFile, renderer);
+		}
+	}
+
+	private boolean isThumbnailNeeded(RendererConfiguration renderer) {
 		// Use device-specific DMS conf, if any
 		PmsConfiguration configurationSpecificToRenderer = PMS.getConfiguration(renderer);
-		if (
+		return
 			media != null &&
 			!media.isThumbready() &&
 			configurationSpecificToRenderer.isThumbnailGenerationEnabled() &&
-			(renderer == null || renderer.isThumbnails())
-		) {
-			Double seekPosition = (double) configurationSpecificToRenderer.getThumbnailSeekPos();
-			if (isResume()) {
-				Double resumePosition = (double) (resume.getTimeOffset() / 1000);
+			(renderer == null || renderer.isThumbnails());
+	}
 
-				if (media.getDurationInSeconds() > 0 && resumePosition < media.getDurationInSeconds()) {
-					seekPosition = resumePosition;
-				}
-			}
+	/**
+	 * Looks up a thumbnail stored in the {@link DLNAMediaDatabase} by another
+	 * resource for the same file. Called by the {@link ThumbnailService}.
+	 *
+	 * @param inputFile File to look up the thumbnail for.
+	 * @return {@code true} if a thumbnail was found.
+	 */
+	boolean getThumbnailFromDatabase(InputFile inputFile) {
+		if (media == null || isResume() || inputFile == null || inputFile.getFile() == null || !configuration.getUseCache()) {
+			return false;
+		}
+		DLNAMediaDatabase database = PMS.get().getDatabase();
+		if (database == null) {
+			return false;
+		}
+		File file = inputFile.getFile();
+		DLNAThumbnail thumbnail = database.getThumbnail(file.getAbsolutePath(), file.lastModified());
+		if (thumbnail == null) {
+			return false;
+		}
+		media.setThumb(thumbnail);
+		return true;
+	}
 
-			media.generateThumbnail(inputFile, getFormat(), getType(), seekPosition, isResume(), renderer);
-			if (!isResume() && media.getThumb() != null && configurationSpecificToRenderer.getUseCache() && inputFile.getFile() != null) {
-				PMS.get().getDatabase().updateThumbnail(inputFile.getFile().getAbsolutePath(), inputFile.getFile().lastModified(), getType(), media);
+	/**
+	 * Generates the thumbnail and stores it in the {@link DLNAMediaDatabase}.
+	 * Called by the {@link ThumbnailService}, calls
+	 * DLNAMediaInfo.generateThumbnail, which in turn calls
+	 * DLNAMediaInfo.parse.
+	 *
+	 * @param inputFile File to generate the thumbnail for.
+	 * @param renderer The renderer profile
+	 */
+	void generateThumbnail(InputFile inputFile, RendererConfiguration renderer) {
+		PmsConfiguration configurationSpecificToRenderer = PMS.getConfiguration(renderer);
+		if (media == null || media.isThumbready()) {
+			return;
+		}
+		Double seekPosition = (double) configurationSpecificToRenderer.getThumbnailSeekPos();
+		if (isResume()) {
+			Double resumePosition = (double) (resume.getTimeOffset() / 1000);
+
+			if (media.getDurationInSeconds() > 0 && resumePosition < media.getDurationInSeconds()) {
+				seekPosition = resumePosition;
 			}
 		}
+
+		media.generateThumbnail(inputFile, getFormat(), getType(), seekPosition, isResume(), renderer);
+		if (!isResume() && media.getThumb() != null && configurationSpecificToRenderer.getUseCache() && inputFile.getFile() != null) {
+			PMS.get().getDatabase().updateThumbnail(inputFile.getFile().getAbsolutePath(), inputFile.getFile().lastModified(), getType(), media);
+		}
 	}
 
 	/**
@@ -4123,6 +4396,22 @@ public abstract class DLNAResource extends HTTPResource implements Cloneable, Ru
 		return children;
 	}
 
+	/**
+	 * Returns the children of this resource in the range {@code start} to
+	 * {@code start + count}. Resources that can produce their children on
+	 * demand may override this so that only the requested range is created.
+	 *
+	 * @param start the index of the first child to return.
+	 * @param count the maximum number of children to return.
+	 * @return The {@link List} of children objects in the range.
+	 */
+	public List<DLNAResource> getChildren(int start, int count) {
+		if (children == null || start >= children.size()) {
+			return new ArrayList<>();
+		}
+		return new ArrayList<>(children.subList(Math.max(start, 0), (int) Math.min((long) start + count, children.size())));
+	}
+
 	/**
 	 * Sets the list of children for this resource.
 	 *
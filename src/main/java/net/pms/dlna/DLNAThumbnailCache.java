@@ -0,0 +1,329 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.util.BasicThreadFactory;
+import net.pms.util.CacheFiles;
+import net.pms.util.FNVHash;
+import net.pms.util.FullyPlayed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class caches thumbnails transcoded for a {@link DLNAImageProfile}, so
+ * that repeated requests for the same thumbnail, profile, padding and
+ * "fully played" overlay are served without decoding and encoding the image
+ * again. The most recently used thumbnails are kept in memory up to a number
+ * of bytes, and all are written to disk in the background. The oldest files
+ * are deleted when the disk cache grows beyond its limit.
+ */
+public class DLNAThumbnailCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DLNAThumbnailCache.class);
+	private static final String EXTENSION = ".thumb";
+
+	private static DLNAThumbnailCache instance;
+
+	private final long maxMemoryBytes;
+	private final long maxDiskBytes;
+	private final File folder;
+
+	/** The cached thumbnails in access order, guarded by itself */
+	private final LinkedHashMap<String, DLNAThumbnail> memory = new LinkedHashMap<>(64, 0.75f, true);
+
+	/** The size of the thumbnails in {@link #memory}, guarded by {@link #memory} */
+	private long memoryBytes;
+
+	/** The size of the files in {@link #folder}, only used by the writer */
+	private long diskBytes = -1;
+
+	private final ThreadPoolExecutor writer;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param maxMemoryBytes the maximum number of bytes kept in memory.
+	 * @param folder the folder of the disk cache or {@code null} to disable
+	 *            it.
+	 * @param maxDiskBytes the maximum number of bytes kept on disk.
+	 */
+	public DLNAThumbnailCache(long maxMemoryBytes, File folder, long maxDiskBytes) {
+		this.maxMemoryBytes = Math.max(maxMemoryBytes, 0);
+		this.folder = maxDiskBytes > 0 ? folder : null;
+		this.maxDiskBytes = maxDiskBytes;
+		writer = new ThreadPoolExecutor(
+			1,
+			1,
+			30,
+			TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(1000),
+			new BasicThreadFactory("Thumbnail cache writer", Thread.MIN_PRIORITY)
+		);
+		writer.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return The shared {@link DLNAThumbnailCache}.
+	 */
+	public static synchronized DLNAThumbnailCache get() {
+		if (instance == null) {
+			PmsConfiguration configuration = PMS.getConfiguration();
+			if (configuration != null) {
+				instance = new DLNAThumbnailCache(
+					configuration.getThumbnailCacheMemory() * 1024L * 1024L,
+					new File(configuration.getDataFile("thumbnails")),
+					configuration.getThumbnailCacheDisk() * 1024L * 1024L
+				);
+			} else {
+				instance = new DLNAThumbnailCache(16 * 1024 * 1024, null, 0);
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Adds the "fully played" overlay if requested and transcodes the result
+	 * according to {@code profile}, or returns the result of an earlier call
+	 * with the same thumbnail and parameters.
+	 * <p>
+	 * <b>{@code thumb} may be consumed and closed.</b>
+	 *
+	 * @param thumb the source thumbnail.
+	 * @param overlay whether to add the "fully played" overlay.
+	 * @param profile the {@link DLNAImageProfile} to adhere to.
+	 * @param padToSize whether padding should be used if the source aspect
+	 *            doesn't match the target aspect.
+	 * @return The transcoded thumbnail or {@code null}.
+	 * @throws IOException If the operation fails.
+	 *
+	 * @see DLNAThumbnailInputStream#transcode(DLNAImageProfile, boolean)
+	 * @see FullyPlayed#addFullyPlayedOverlay(DLNAThumbnailInputStream)
+	 */
+	public DLNAThumbnailInputStream transcode(
+		DLNAThumbnailInputStream thumb,
+		boolean overlay,
+		DLNAImageProfile profile,
+		boolean padToSize
+	) throws IOException {
+		if (thumb == null) {
+			DLNAThumbnailInputStream result = overlay ? FullyPlayed.addFullyPlayedOverlay(null) : null;
+			return result != null ? result.transcode(profile, padToSize) : null;
+		}
+
+		String key = getKey(thumb.getBytes(false), overlay, profile, padToSize);
+		DLNAThumbnail cached = getFromMemory(key);
+		if (cached == null) {
+			cached = getFromDisk(key);
+			if (cached != null) {
+				putInMemory(key, cached);
+			}
+		}
+		if (cached != null) {
+			thumb.close();
+			return DLNAThumbnailInputStream.toThumbnailInputStream(cached);
+		}
+
+		DLNAThumbnailInputStream result = overlay ? FullyPlayed.addFullyPlayedOverlay(thumb) : thumb;
+		result = result != null ? result.transcode(profile, padToSize) : null;
+		if (result != null) {
+			try {
+				DLNAThumbnail thumbnail = result.getThumbnail();
+				putInMemory(key, thumbnail);
+				putOnDisk(key, thumbnail);
+			} catch (DLNAProfileException e) {
+				LOGGER.trace("Not caching transcoded thumbnail: {}", e.getMessage());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Removes all cached thumbnails from memory.
+	 */
+	public void clearMemory() {
+		synchronized (memory) {
+			memory.clear();
+			memoryBytes = 0;
+		}
+	}
+
+	/**
+	 * @return The number of bytes of thumbnails cached in memory.
+	 */
+	public long getMemoryBytes() {
+		synchronized (memory) {
+			return memoryBytes;
+		}
+	}
+
+	static String getKey(byte[] bytes, boolean overlay, DLNAImageProfile profile, boolean padToSize) {
+		return String.format(
+			Locale.ROOT,
+			"%016x-%x-%s-%dx%d%s%s",
+			FNVHash.hash(bytes),
+			bytes.length,
+			profile,
+			profile.getMaxWidth(),
+			profile.getMaxHeight(),
+			padToSize ? "-p" : "",
+			overlay ? "-o" : ""
+		);
+	}
+
+	private DLNAThumbnail getFromMemory(String key) {
+		synchronized (memory) {
+			return memory.get(key);
+		}
+	}
+
+	private void putInMemory(String key, DLNAThumbnail thumbnail) {
+		long size = thumbnail.getBytes(false).length;
+		if (size > maxMemoryBytes / 4) {
+			return;
+		}
+		synchronized (memory) {
+			DLNAThumbnail previous = memory.put(key, thumbnail);
+			if (previous != null) {
+				memoryBytes -= previous.getBytes(false).length;
+			}
+			memoryBytes += size;
+			while (memoryBytes > maxMemoryBytes && !memory.isEmpty()) {
+				Map.Entry<String, DLNAThumbnail> eldest = memory.entrySet().iterator().next();
+				memoryBytes -= eldest.getValue().getBytes(false).length;
+				memory.remove(eldest.getKey());
+			}
+		}
+	}
+
+	private DLNAThumbnail getFromDisk(String key) {
+		if (folder == null) {
+			return null;
+		}
+		File file = new File(folder, key + EXTENSION);
+		if (!file.isFile()) {
+			return null;
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			Object object = in.readObject();
+			if (object instanceof DLNAThumbnail) {
+				CacheFiles.markUsed(file);
+				return (DLNAThumbnail) object;
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			LOGGER.debug("Deleting unreadable cached thumbnail \"{}\": {}", file, e.getMessage());
+			LOGGER.trace("", e);
+		}
+		if (!file.delete()) {
+			LOGGER.trace("Couldn't delete \"{}\"", file);
+		}
+		return null;
+	}
+
+	private void putOnDisk(final String key, final DLNAThumbnail thumbnail) {
+		if (folder == null) {
+			return;
+		}
+		try {
+			writer.execute(new Runnable() {
+				@Override
+				public void run() {
+					write(key, thumbnail);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The writer is behind, the thumbnail will be written on the next request
+		}
+	}
+
+	/**
+	 * Writes a thumbnail to disk and deletes the oldest files if the disk
+	 * cache has grown beyond its limit. Only called by the writer thread.
+	 */
+	private void write(String key, DLNAThumbnail thumbnail) {
+		if (diskBytes < 0) {
+			if (!folder.isDirectory() && !folder.mkdirs()) {
+				LOGGER.warn("Couldn't create the thumbnail cache folder \"{}\"", folder);
+				return;
+			}
+			diskBytes = 0;
+			for (File file : listFiles()) {
+				diskBytes += file.length();
+			}
+		}
+		File file = new File(folder, key + EXTENSION);
+		File temp = new File(folder, key + ".tmp");
+		try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeObject(thumbnail);
+		} catch (IOException e) {
+			LOGGER.debug("Couldn't write cached thumbnail \"{}\": {}", file, e.getMessage());
+			LOGGER.trace("", e);
+			temp.delete();
+			return;
+		}
+		long previous = file.length();
+		if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+			temp.delete();
+			return;
+		}
+		diskBytes += file.length() - previous;
+		if (diskBytes > maxDiskBytes) {
+			prune();
+		}
+	}
+
+	private List<File> listFiles() {
+		File[] files = folder.listFiles();
+		List<File> result = new ArrayList<>();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(EXTENSION)) {
+					result.add(file);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Deletes the least recently used files, see
+	 * {@link CacheFiles#prune(List, long)}.
+	 */
+	private void prune() {
+		diskBytes = CacheFiles.prune(listFiles(), maxDiskBytes);
+		LOGGER.debug("Pruned the thumbnail cache to {} bytes", diskBytes);
+	}
+}
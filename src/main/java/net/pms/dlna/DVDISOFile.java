@@ -22,6 +22,7 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import java.io.File;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
 import org.apache.commons.text.WordUtils;
 import net.pms.PMS;
 import net.pms.dlna.virtual.VirtualFolder;
@@ -115,19 +116,14 @@ public class DVDISOFile extends VirtualFolder {
 		params.maxBufferSize = 1;
 		params.log = true;
 		final ProcessWrapperImpl pw = new ProcessWrapperImpl(cmd, params, true, false);
-		Runnable r = new Runnable() {
+		ScheduledFuture<?> failsafe = ProcessUtil.scheduleTimeout(new Runnable() {
 			@Override
 			public void run() {
-				try {
-					Thread.sleep(10000);
-				} catch (InterruptedException e) {
-				}
 				pw.stopProcess();
 			}
-		};
-		Thread failsafe = new Thread(r, "DVDISO Failsafe");
-		failsafe.start();
+		}, 10000);
 		pw.runInSameThread();
+		failsafe.cancel(false);
 		List<String> lines = pw.getOtherResults();
 		if (lines != null) {
 			for (String line : lines) {
@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import net.pms.Messages;
@@ -137,19 +138,14 @@ public class DVDISOTitle extends DLNAResource {
 		}
 
 		final ProcessWrapperImpl pw = new ProcessWrapperImpl(cmd, params, true, false);
-		Runnable r = new Runnable() {
+		ScheduledFuture<?> failsafe = ProcessUtil.scheduleTimeout(new Runnable() {
 			@Override
 			public void run() {
-				try {
-					Thread.sleep(10000);
-				} catch (InterruptedException e) {
-				}
 				pw.stopProcess();
 			}
-		};
-		Thread failsafe = new Thread(r, "DVD ISO Title Failsafe");
-		failsafe.start();
+		}, 10000);
 		pw.runInSameThread();
+		failsafe.cancel(false);
 		List<String> lines = pw.getOtherResults();
 
 		String duration = null;
@@ -0,0 +1,445 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.formats.v2.SubtitleType;
+import net.pms.util.FileUtil;
+import net.pms.util.ProcessUtil;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses media information from the JSON output of {@code ffprobe}. This is
+ * an alternative to {@link DLNAMediaInfo#parseFFmpegInfo(java.util.List, String)}
+ * which scrapes the human readable output of FFmpeg, which changes between
+ * FFmpeg versions.
+ * <p>
+ * The JSON is read as it's streamed from the process. The number of
+ * concurrent ffprobe processes is limited to the number of processors, and
+ * processes running for longer than {@link #TIMEOUT} are stopped by the
+ * shared {@link ProcessUtil#scheduleTimeout process watchdog}.
+ */
+public class FFprobeParser {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FFprobeParser.class);
+
+	/** The time in milliseconds before ffprobe is stopped */
+	private static final long TIMEOUT = 10000;
+
+	/** Limits the number of concurrent ffprobe processes */
+	private static final Semaphore PROCESSES = new Semaphore(Runtime.getRuntime().availableProcessors());
+
+	/** Not to be instantiated */
+	private FFprobeParser() {
+	}
+
+	/**
+	 * Runs ffprobe on {@code file} and stores the result in {@code media}.
+	 *
+	 * @param file the {@link File} to parse.
+	 * @param media the {@link DLNAMediaInfo} to store the result in.
+	 * @return {@code true} if ffprobe could parse {@code file},
+	 *         {@code false} otherwise.
+	 */
+	public static boolean parse(File file, DLNAMediaInfo media) {
+		PmsConfiguration configuration = PMS.getConfiguration();
+		String ffprobe = configuration.getFfprobePath();
+		if (isBlank(ffprobe)) {
+			return false;
+		}
+
+		try {
+			PROCESSES.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		try {
+			ProcessBuilder processBuilder = new ProcessBuilder(
+				ffprobe,
+				"-v", "quiet",
+				"-print_format", "json",
+				"-show_format",
+				"-show_streams",
+				ProcessUtil.getShortFileNameIfWideChars(file.getAbsolutePath())
+			);
+			final Process process = processBuilder.start();
+			final AtomicBoolean timedOut = new AtomicBoolean();
+			ScheduledFuture<?> failsafe = ProcessUtil.scheduleTimeout(new Runnable() {
+				@Override
+				public void run() {
+					timedOut.set(true);
+					process.destroy();
+				}
+			}, TIMEOUT);
+
+			Map<String, String> format = new HashMap<>();
+			List<Map<String, String>> streams = new ArrayList<>();
+			boolean parsed = false;
+			try (Reader reader = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)) {
+				process.getOutputStream().close();
+				read(reader, format, streams);
+				parsed = true;
+			} catch (IOException | IllegalStateException e) { // Gson throws IllegalStateException for unexpected JSON
+				if (!timedOut.get()) {
+					LOGGER.debug("Error reading ffprobe output for \"{}\": {}", file.getName(), e.getMessage());
+					LOGGER.trace("", e);
+				}
+				process.destroy();
+			}
+
+			int exitCode = ProcessUtil.waitFor(process);
+			failsafe.cancel(false);
+			process.getErrorStream().close();
+			if (timedOut.get()) {
+				LOGGER.debug("ffprobe timed out while parsing \"{}\"", file.getName());
+				return false;
+			}
+			if (exitCode != 0) {
+				LOGGER.debug("ffprobe exited with code {} while parsing \"{}\"", exitCode, file.getName());
+				return false;
+			}
+			if (parsed) {
+				apply(format, streams, media, file);
+			}
+			return parsed;
+		} catch (IOException e) {
+			LOGGER.debug("Couldn't run ffprobe \"{}\": {}", ffprobe, e.getMessage());
+			LOGGER.trace("", e);
+			return false;
+		} finally {
+			PROCESSES.release();
+		}
+	}
+
+	/**
+	 * Parses ffprobe's {@code -show_format -show_streams} JSON output.
+	 *
+	 * @param reader the {@link Reader} to read the JSON from.
+	 * @param media the {@link DLNAMediaInfo} to store the result in.
+	 * @param file the parsed {@link File}, used when the container can't be
+	 *            determined otherwise.
+	 * @throws IOException If an error occurs while reading.
+	 */
+	static void parse(Reader reader, DLNAMediaInfo media, File file) throws IOException {
+		Map<String, String> format = new HashMap<>();
+		List<Map<String, String>> streams = new ArrayList<>();
+		read(reader, format, streams);
+		apply(format, streams, media, file);
+	}
+
+	/**
+	 * Reads the JSON as it's streamed. Nothing is stored in the
+	 * {@link DLNAMediaInfo} until all is read, so that a failed ffprobe run
+	 * can fall back to FFmpeg parsing.
+	 */
+	private static void read(Reader reader, Map<String, String> format, List<Map<String, String>> streams) throws IOException {
+		JsonReader json = new JsonReader(reader);
+		json.beginObject();
+		while (json.hasNext()) {
+			String name = json.nextName();
+			if ("streams".equals(name) && json.peek() == JsonToken.BEGIN_ARRAY) {
+				json.beginArray();
+				while (json.hasNext()) {
+					Map<String, String> stream = new HashMap<>();
+					readObject(json, "", stream);
+					streams.add(stream);
+				}
+				json.endArray();
+			} else if ("format".equals(name) && json.peek() == JsonToken.BEGIN_OBJECT) {
+				readObject(json, "", format);
+			} else {
+				json.skipValue();
+			}
+		}
+		json.endObject();
+	}
+
+	private static void apply(Map<String, String> format, List<Map<String, String>> streams, DLNAMediaInfo media, File file) {
+		for (Map<String, String> stream : streams) {
+			addStream(stream, media);
+		}
+		setFormat(format, media, file);
+		media.ffmpegparsed = true;
+	}
+
+	/**
+	 * Reads a JSON object into {@code values}. Nested objects like
+	 * {@code tags} are flattened to keys like {@code tags.language}, arrays
+	 * are skipped.
+	 */
+	private static void readObject(JsonReader json, String prefix, Map<String, String> values) throws IOException {
+		json.beginObject();
+		while (json.hasNext()) {
+			String name = prefix + json.nextName();
+			switch (json.peek()) {
+				case BEGIN_OBJECT:
+					readObject(json, name + ".", values);
+					break;
+				case STRING:
+				case NUMBER:
+					values.put(name, json.nextString());
+					break;
+				case BOOLEAN:
+					values.put(name, Boolean.toString(json.nextBoolean()));
+					break;
+				default:
+					json.skipValue();
+			}
+		}
+		json.endObject();
+	}
+
+	private static void setFormat(Map<String, String> format, DLNAMediaInfo media, File file) {
+		String value = format.get("format_name");
+		if (isNotBlank(value)) {
+			int comma = value.indexOf(',');
+			String container = comma > 0 ? value.substring(0, comma) : value;
+
+			/*
+			 * "mov" is reported for all of "mov,mp4,m4a,3gp,3g2,mj2", use the
+			 * file extension like parseFFmpegInfo() does.
+			 */
+			if ("mov".equals(container) && file != null) {
+				String extension = FileUtil.getExtension(file.getName());
+				if (isNotBlank(extension)) {
+					container = extension.toLowerCase(Locale.ROOT);
+				}
+			}
+			media.setContainer(container);
+		}
+
+		Double duration = getDouble(format.get("duration"));
+		if (duration != null) {
+			media.setDuration(duration);
+		}
+
+		Integer bitrate = getInteger(format.get("bit_rate"));
+		if (bitrate != null) {
+			media.setBitrate(bitrate.intValue());
+		}
+
+		value = format.get("tags.title");
+		if (isNotBlank(value)) {
+			media.setFileTitleFromMetadata(value);
+		}
+	}
+
+	private static void addStream(Map<String, String> stream, DLNAMediaInfo media) {
+		String codecType = stream.get("codec_type");
+		if ("video".equals(codecType)) {
+			if ("1".equals(stream.get("disposition.attached_pic"))) {
+				// Embedded cover art
+				return;
+			}
+			media.setVideoTrackCount(media.getVideoTrackCount() + 1);
+			if (media.getCodecV() == null) {
+				media.setCodecV(stream.get("codec_name"));
+				Integer value = getInteger(stream.get("width"));
+				if (value != null) {
+					media.setWidth(value.intValue());
+				}
+				value = getInteger(stream.get("height"));
+				if (value != null) {
+					media.setHeight(value.intValue());
+				}
+				String frameRate = getFrameRate(stream.get("avg_frame_rate"));
+				if (frameRate == null) {
+					frameRate = getFrameRate(stream.get("r_frame_rate"));
+				}
+				if (frameRate != null) {
+					media.setFrameRate(frameRate);
+				}
+			}
+		} else if ("audio".equals(codecType)) {
+			DLNAMediaAudio audio = new DLNAMediaAudio();
+			audio.setId(getId(stream, media.getAudioTracksList().size()));
+			audio.setCodecA(stream.get("codec_name"));
+			audio.setLang(getLanguage(stream));
+			String value = stream.get("sample_rate");
+			if (isNotBlank(value)) {
+				audio.setSampleFrequency(value);
+			}
+			Integer channels = getInteger(stream.get("channels"));
+			if (channels != null && channels.intValue() > 0) {
+				audio.getAudioProperties().setNumberOfChannels(channels.intValue());
+			}
+			Integer bits = getInteger(stream.get("bits_per_raw_sample"));
+			if (bits == null || bits.intValue() <= 0) {
+				bits = getSampleFormatBits(stream.get("sample_fmt"));
+			}
+			if (bits != null) {
+				audio.setBitsperSample(bits.intValue());
+			}
+			value = stream.get("tags.title");
+			if (isNotBlank(value)) {
+				audio.setAudioTrackTitleFromMetadata(value);
+			}
+			media.getAudioTracksList().add(audio);
+		} else if ("subtitle".equals(codecType)) {
+			DLNAMediaSubtitle subtitle = new DLNAMediaSubtitle();
+			subtitle.setType(getSubtitleType(stream.get("codec_name")));
+			subtitle.setLang(getLanguage(stream));
+			subtitle.setId(media.getSubtitleTracksList().size());
+			String value = stream.get("tags.title");
+			if (isNotBlank(value)) {
+				subtitle.setSubtitlesTrackTitleFromMetadata(value);
+			}
+			media.getSubtitleTracksList().add(subtitle);
+		}
+	}
+
+	/**
+	 * @return The MPEG-TS stream ID if there is one, {@code defaultId}
+	 *         otherwise.
+	 */
+	private static int getId(Map<String, String> stream, int defaultId) {
+		String value = stream.get("id");
+		if (value != null && value.startsWith("0x")) {
+			try {
+				return Integer.parseInt(value.substring(2), 16);
+			} catch (NumberFormatException e) {
+				LOGGER.debug("Error parsing stream ID: {}", value);
+			}
+		}
+		return defaultId;
+	}
+
+	private static String getLanguage(Map<String, String> stream) {
+		String value = stream.get("tags.language");
+		return isBlank(value) ? DLNAMediaLang.UND : value;
+	}
+
+	/**
+	 * Maps ffprobe's {@code codec_name} to a {@link SubtitleType} the same way
+	 * {@link DLNAMediaInfo#parseFFmpegInfo(java.util.List, String)} does.
+	 */
+	static SubtitleType getSubtitleType(String codecName) {
+		if (codecName == null) {
+			return SubtitleType.UNKNOWN;
+		}
+		switch (codecName) {
+			case "srt":
+			case "subrip":
+				return SubtitleType.SUBRIP;
+			case "text":
+				return SubtitleType.TEXT;
+			case "microdvd":
+				return SubtitleType.MICRODVD;
+			case "sami":
+				return SubtitleType.SAMI;
+			case "ass":
+			case "ssa":
+				return SubtitleType.ASS;
+			case "dvd_subtitle":
+				return SubtitleType.VOBSUB;
+			case "xsub":
+				return SubtitleType.DIVX;
+			case "mov_text":
+				return SubtitleType.TX3G;
+			case "webvtt":
+				return SubtitleType.WEBVTT;
+			default:
+				return SubtitleType.UNKNOWN;
+		}
+	}
+
+	/**
+	 * Converts a rational frame rate like {@code 24000/1001} to the format
+	 * FFmpeg uses for {@code tbr}.
+	 *
+	 * @return The frame rate or {@code null} if unknown.
+	 */
+	static String getFrameRate(String value) {
+		if (isBlank(value)) {
+			return null;
+		}
+		int slash = value.indexOf('/');
+		try {
+			if (slash < 0) {
+				return Double.parseDouble(value) > 0 ? value : null;
+			}
+			long numerator = Long.parseLong(value.substring(0, slash));
+			long denominator = Long.parseLong(value.substring(slash + 1));
+			if (numerator <= 0 || denominator <= 0) {
+				return null;
+			}
+			if (numerator % denominator == 0) {
+				return Long.toString(numerator / denominator);
+			}
+			return String.format(Locale.ENGLISH, "%.2f", (double) numerator / denominator);
+		} catch (NumberFormatException e) {
+			LOGGER.debug("Could not parse frame rate \"{}\"", value);
+			return null;
+		}
+	}
+
+	private static Integer getSampleFormatBits(String sampleFormat) {
+		if (sampleFormat == null) {
+			return null;
+		}
+		if (sampleFormat.startsWith("s16")) {
+			return 16;
+		}
+		if (sampleFormat.startsWith("s32")) {
+			return 32;
+		}
+		return null;
+	}
+
+	private static Integer getInteger(String value) {
+		if (isBlank(value)) {
+			return null;
+		}
+		try {
+			return Integer.valueOf(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Double getDouble(String value) {
+		if (isBlank(value)) {
+			return null;
+		}
+		try {
+			return Double.valueOf(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
@@ -6,9 +6,12 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 import java.util.StringTokenizer;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import net.pms.PMS;
 import net.pms.configuration.FormatConfiguration;
+import net.pms.configuration.PmsConfiguration;
 import net.pms.configuration.RendererConfiguration;
 import net.pms.dlna.MediaInfo.StreamType;
 import net.pms.formats.Format;
@@ -32,46 +35,139 @@ public class LibMediaInfoParser {
 	// Pattern to parse the year from a string
 	private static final Pattern yearPattern = Pattern.compile(YEAR_REGEX);
 
-	private static MediaInfo MI;
+	/** The maximum number of {@link MediaInfo} instances */
+	private static final int POOL_SIZE;
+
+	/** The idle {@link MediaInfo} instances */
+	private static final LinkedBlockingQueue<MediaInfo> POOL = new LinkedBlockingQueue<>();
+
+	/** The number of created {@link MediaInfo} instances, guarded by {@link #POOL} */
+	private static int poolCreated;
+
+	private static final boolean VALID;
 
 	static {
-		MI = new MediaInfo();
-
-		if (MI.isValid()) {
-			MI.Option("Internet", "No"); // avoid MediaInfoLib to try to connect to an Internet server for availability of newer software, anonymous statistics and retrieving information about a file
-			MI.Option("Complete", "1");
-			MI.Option("Language", "raw");
-			MI.Option("File_TestContinuousFileNames", "0");
-			LOGGER.debug("Option 'File_TestContinuousFileNames' is set to: " + MI.Option("File_TestContinuousFileNames_Get"));
-			MI.Option("ParseSpeed", "0");
-			LOGGER.debug("Option 'ParseSpeed' is set to: " + MI.Option("ParseSpeed_Get"));
-//			LOGGER.debug(MI.Option("Info_Parameters_CSV")); // It can be used to export all current MediaInfo parameters
+		PmsConfiguration configuration = PMS.getConfiguration();
+		POOL_SIZE = configuration != null ? configuration.getMediaInfoInstances() : 1;
+		MediaInfo mediaInfo = createMediaInfo();
+		VALID = mediaInfo.isValid();
+		if (VALID) {
+			LOGGER.debug("Option 'File_TestContinuousFileNames' is set to: " + mediaInfo.Option("File_TestContinuousFileNames_Get"));
+			LOGGER.debug("Option 'ParseSpeed' is set to: " + mediaInfo.Option("ParseSpeed_Get"));
+//			LOGGER.debug(mediaInfo.Option("Info_Parameters_CSV")); // It can be used to export all current MediaInfo parameters
+			POOL.add(mediaInfo);
+			poolCreated = 1;
+		}
+	}
+
+	/**
+	 * Creates a {@link MediaInfo} instance with the options used for
+	 * parsing.
+	 */
+	private static MediaInfo createMediaInfo() {
+		MediaInfo mediaInfo = new MediaInfo();
+		if (mediaInfo.isValid()) {
+			mediaInfo.Option("Internet", "No"); // avoid MediaInfoLib to try to connect to an Internet server for availability of newer software, anonymous statistics and retrieving information about a file
+			mediaInfo.Option("Complete", "1");
+			mediaInfo.Option("Language", "raw");
+			mediaInfo.Option("File_TestContinuousFileNames", "0");
+			mediaInfo.Option("ParseSpeed", "0");
+			mediaInfo.Option("Inform", MediaInfoInform.getTemplate());
+		}
+		return mediaInfo;
+	}
+
+	/**
+	 * Takes an idle {@link MediaInfo} instance from the pool, creating a new
+	 * one if all are in use and the pool isn't full, or waiting for one to
+	 * be released otherwise.
+	 *
+	 * @return The {@link MediaInfo} instance or {@code null} if interrupted.
+	 */
+	private static MediaInfo acquire() {
+		MediaInfo mediaInfo = POOL.poll();
+		if (mediaInfo != null) {
+			return mediaInfo;
+		}
+		synchronized (POOL) {
+			if (poolCreated < POOL_SIZE) {
+				poolCreated++;
+				LOGGER.trace("Creating MediaInfo instance {} of {}", poolCreated, POOL_SIZE);
+				return createMediaInfo();
+			}
+		}
+		try {
+			return POOL.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
 		}
 	}
 
+	private static void release(MediaInfo mediaInfo) {
+		POOL.add(mediaInfo);
+	}
+
 	public static boolean isValid() {
-		return MI.isValid();
+		return VALID;
 	}
 
 	public static void close() {
-		try {
-			MI.finalize();
-		} catch (Throwable e) {
-			LOGGER.debug("Caught exception", e);
+		synchronized (POOL) {
+			MediaInfo mediaInfo;
+			while ((mediaInfo = POOL.poll()) != null) {
+				try {
+					mediaInfo.dispose();
+				} catch (Throwable e) {
+					LOGGER.debug("Caught exception", e);
+				}
+				poolCreated--;
+			}
 		}
 	}
 
 	@Deprecated
-	public synchronized static void parse(DLNAMediaInfo media, InputFile inputFile, int type) {
+	public static void parse(DLNAMediaInfo media, InputFile inputFile, int type) {
 		parse(media, inputFile, type, null);
 	}
 
 	/**
-	 * Parse media via MediaInfo.
+	 * Parse media via MediaInfo. Up to {@link #POOL_SIZE} files are parsed
+	 * concurrently, each with its own {@link MediaInfo} instance.
 	 */
-	public synchronized static void parse(DLNAMediaInfo media, InputFile inputFile, int type, RendererConfiguration renderer) {
+	public static void parse(DLNAMediaInfo media, InputFile inputFile, int type, RendererConfiguration renderer) {
 		File file = inputFile.getFile();
-		if (!media.isMediaparsed() && file != null && MI.isValid() && MI.Open(file.getAbsolutePath()) > 0) {
+		if (media.isMediaparsed() || file == null || !VALID) {
+			return;
+		}
+		MediaInfo MI = acquire();
+		if (MI == null) {
+			return;
+		}
+		try {
+			parse(MI, media, inputFile, type, renderer, file);
+		} finally {
+			release(MI);
+		}
+	}
+
+	private static void parse(MediaInfo MI, DLNAMediaInfo media, InputFile inputFile, int type, RendererConfiguration renderer, File file) {
+		if (MI.Open(file.getAbsolutePath()) > 0) {
+			MediaInfoInform info;
+			try {
+				info = MediaInfoInform.parse(MI.Inform());
+			} finally {
+				MI.Close();
+			}
+			parse(info, media, inputFile, type, renderer, file);
+		}
+	}
+
+	/**
+	 * Maps the values read by MediaInfo to {@code media}.
+	 */
+	static void parse(MediaInfoInform info, DLNAMediaInfo media, InputFile inputFile, int type, RendererConfiguration renderer, File file) {
+		if (!media.isMediaparsed()) {
 //			try {
 				StreamType general = StreamType.General;
 				StreamType video = StreamType.Video;
@@ -84,12 +180,12 @@ public class LibMediaInfoParser {
 				String value;
 
 				// set General
-				getFormat(general, media, currentAudioTrack, MI.Get(general, 0, "Format"), file);
-				getFormat(general, media, currentAudioTrack, MI.Get(general, 0, "CodecID").trim(), file);
-				media.setDuration(getDuration(MI.Get(general, 0, "Duration/String1")));
-				media.setBitrate(getBitrate(MI.Get(general, 0, "OverallBitRate")));
-				media.setStereoscopy(MI.Get(general, 0, "StereoscopicLayout"));
-				value = MI.Get(general, 0, "Cover_Data");
+				getFormat(general, media, currentAudioTrack, info.get(general, 0, "Format"), file);
+				getFormat(general, media, currentAudioTrack, info.get(general, 0, "CodecID").trim(), file);
+				media.setDuration(getDuration(info.get(general, 0, "Duration/String1")));
+				media.setBitrate(getBitrate(info.get(general, 0, "OverallBitRate")));
+				media.setStereoscopy(info.get(general, 0, "StereoscopicLayout"));
+				value = info.get(general, 0, "Cover_Data");
 				if (!value.isEmpty()) {
 					try {
 						media.setThumb(DLNAThumbnail.toThumbnail(
@@ -113,64 +209,64 @@ public class LibMediaInfoParser {
 					}
 				}
 
-				value = MI.Get(general, 0, "Title");
+				value = info.get(general, 0, "Title");
 				if (!value.isEmpty()) {
 					media.setFileTitleFromMetadata(value);
 				}
 
 				// set Video
-				media.setVideoTrackCount(MI.Count_Get(video));
+				media.setVideoTrackCount(info.getCount(video));
 				if (media.getVideoTrackCount() > 0) {
 					for (int i = 0; i < media.getVideoTrackCount(); i++) {
 						// check for DXSA and DXSB subtitles (subs in video format)
-						if (MI.Get(video, i, "Title").startsWith("Subtitle")) {
+						if (info.get(video, i, "Title").startsWith("Subtitle")) {
 							currentSubTrack = new DLNAMediaSubtitle();
 							// First attempt to detect subtitle track format
-							currentSubTrack.setType(SubtitleType.valueOfLibMediaInfoCodec(MI.Get(video, i, "Format")));
+							currentSubTrack.setType(SubtitleType.valueOfLibMediaInfoCodec(info.get(video, i, "Format")));
 							// Second attempt to detect subtitle track format (CodecID usually is more accurate)
-							currentSubTrack.setType(SubtitleType.valueOfLibMediaInfoCodec(MI.Get(video, i, "CodecID")));
+							currentSubTrack.setType(SubtitleType.valueOfLibMediaInfoCodec(info.get(video, i, "CodecID")));
 							currentSubTrack.setId(media.getSubtitleTracksList().size());
 							addSub(currentSubTrack, media);
 						} else {
-							getFormat(video, media, currentAudioTrack, MI.Get(video, i, "Format"), file);
-							getFormat(video, media, currentAudioTrack, MI.Get(video, i, "Format_Version"), file);
-							getFormat(video, media, currentAudioTrack, MI.Get(video, i, "CodecID"), file);
-							media.setWidth(getPixelValue(MI.Get(video, i, "Width")));
-							media.setHeight(getPixelValue(MI.Get(video, i, "Height")));
-							media.setMatrixCoefficients(MI.Get(video, i, "matrix_coefficients"));
+							getFormat(video, media, currentAudioTrack, info.get(video, i, "Format"), file);
+							getFormat(video, media, currentAudioTrack, info.get(video, i, "Format_Version"), file);
+							getFormat(video, media, currentAudioTrack, info.get(video, i, "CodecID"), file);
+							media.setWidth(getPixelValue(info.get(video, i, "Width")));
+							media.setHeight(getPixelValue(info.get(video, i, "Height")));
+							media.setMatrixCoefficients(info.get(video, i, "matrix_coefficients"));
 							if (!media.is3d()) {
-								media.setStereoscopy(MI.Get(video, i, "MultiView_Layout"));
+								media.setStereoscopy(info.get(video, i, "MultiView_Layout"));
 							}
 
-							media.setAspectRatioContainer(MI.Get(video, i, "DisplayAspectRatio/String"));
-							media.setAspectRatioVideoTrack(MI.Get(video, i, "DisplayAspectRatio_Original/String"));
-							media.setFrameRate(getFPSValue(MI.Get(video, i, "FrameRate")));
-							media.setFrameRateOriginal(MI.Get(video, i, "FrameRate_Original"));
-							media.setFrameRateMode(getFrameRateModeValue(MI.Get(video, i, "FrameRate_Mode")));
-							media.setFrameRateModeRaw(MI.Get(video, i, "FrameRate_Mode"));
-							media.setReferenceFrameCount(getReferenceFrameCount(MI.Get(video, i, "Format_Settings_RefFrames/String")));
-							media.setVideoTrackTitleFromMetadata(MI.Get(video, i, "Title"));
-							value = MI.Get(video, i, "Format_Settings_QPel");
+							media.setAspectRatioContainer(info.get(video, i, "DisplayAspectRatio/String"));
+							media.setAspectRatioVideoTrack(info.get(video, i, "DisplayAspectRatio_Original/String"));
+							media.setFrameRate(getFPSValue(info.get(video, i, "FrameRate")));
+							media.setFrameRateOriginal(info.get(video, i, "FrameRate_Original"));
+							media.setFrameRateMode(getFrameRateModeValue(info.get(video, i, "FrameRate_Mode")));
+							media.setFrameRateModeRaw(info.get(video, i, "FrameRate_Mode"));
+							media.setReferenceFrameCount(getReferenceFrameCount(info.get(video, i, "Format_Settings_RefFrames/String")));
+							media.setVideoTrackTitleFromMetadata(info.get(video, i, "Title"));
+							value = info.get(video, i, "Format_Settings_QPel");
 							if (!value.isEmpty()) {
 								media.putExtra(FormatConfiguration.MI_QPEL, value);
 							}
 
-							value = MI.Get(video, i, "Format_Settings_GMC");
+							value = info.get(video, i, "Format_Settings_GMC");
 							if (!value.isEmpty()) {
 								media.putExtra(FormatConfiguration.MI_GMC, value);
 							}
 
-							value = MI.Get(video, i, "Format_Settings_GOP");
+							value = info.get(video, i, "Format_Settings_GOP");
 							if (!value.isEmpty()) {
 								media.putExtra(FormatConfiguration.MI_GOP, value);
 							}
 
-							media.setMuxingMode(MI.Get(video, i, "MuxingMode"));
+							media.setMuxingMode(info.get(video, i, "MuxingMode"));
 							if (!media.isEncrypted()) {
-								media.setEncrypted("encrypted".equals(MI.Get(video, i, "Encryption")));
+								media.setEncrypted("encrypted".equals(info.get(video, i, "Encryption")));
 							}
 
-							value = MI.Get(video, i, "BitDepth");
+							value = info.get(video, i, "BitDepth");
 							if (!value.isEmpty()) {
 								try {
 									media.setVideoBitDepth(Integer.parseInt(value));
@@ -180,7 +276,7 @@ public class LibMediaInfoParser {
 							}
 						}
 
-						value = MI.Get(video, i, "Format_Profile");
+						value = info.get(video, i, "Format_Profile");
 						if (!value.isEmpty() && media.getCodecV() != null && media.getCodecV().equals(FormatConfiguration.H264)) {
 							media.setAvcLevel(getAvcLevel(value));
 						}
@@ -188,26 +284,27 @@ public class LibMediaInfoParser {
 				}
 
 				// set Audio
-				int audioTracks = MI.Count_Get(audio);
+				int audioTracks = info.getCount(audio);
 				if (audioTracks > 0) {
 					for (int i = 0; i < audioTracks; i++) {
 						currentAudioTrack = new DLNAMediaAudio();
-						getFormat(audio, media, currentAudioTrack, MI.Get(audio, i, "Format"), file);
-						getFormat(audio, media, currentAudioTrack, MI.Get(audio, i, "Format_Version"), file);
-						getFormat(audio, media, currentAudioTrack, MI.Get(audio, i, "Format_Profile"), file);
-						getFormat(audio, media, currentAudioTrack, MI.Get(audio, i, "CodecID"), file);
-						value = MI.Get(audio, i, "CodecID_Description");
+						getFormat(audio, media, currentAudioTrack, info.get(audio, i, "Format"), file);
+						getFormat(audio, media, currentAudioTrack, info.get(audio, i, "Format_Version"), file);
+						getFormat(audio, media, currentAudioTrack, info.get(audio, i, "Format_Profile"), file);
+						getFormat(audio, media, currentAudioTrack, info.get(audio, i, "CodecID"), file);
+						value = info.get(audio, i, "CodecID_Description");
 						if (isNotBlank(value) && value.startsWith("Windows Media Audio 10")) {
 							currentAudioTrack.setCodecA(FormatConfiguration.WMA10);
 						}
-						currentAudioTrack.setLang(getLang(MI.Get(audio, i, "Language/String")));
-						currentAudioTrack.setAudioTrackTitleFromMetadata((MI.Get(audio, i, "Title")).trim());
-						currentAudioTrack.getAudioProperties().setNumberOfChannels(MI.Get(audio, i, "Channel(s)"));
-						currentAudioTrack.setSampleFrequency(getSampleFrequency(MI.Get(audio, i, "SamplingRate")));
-						currentAudioTrack.setBitRate(getBitrate(MI.Get(audio, i, "BitRate")));
-						currentAudioTrack.setSongname(MI.Get(general, 0, "Track"));
+						currentAudioTrack.setLang(getLang(info.get(audio, i, "Language/String")));
+						currentAudioTrack.setAudioTrackTitleFromMetadata((info.get(audio, i, "Title")).trim());
+						currentAudioTrack.getAudioProperties().setNumberOfChannels(info.get(audio, i, "Channel(s)"));
+						currentAudioTrack.setSampleFrequency(getSampleFrequency(info.get(audio, i, "SamplingRate")));
+						currentAudioTrack.setBitRate(getBitrate(info.get(audio, i, "BitRate")));
+						currentAudioTrack.setSongname(info.get(general, 0, "Track"));
 
 						if (
+							renderer != null &&
 							renderer.isPrependTrackNumbers() &&
 							currentAudioTrack.getTrack() > 0 &&
 							currentAudioTrack.getSongname() != null &&
@@ -216,11 +313,11 @@ public class LibMediaInfoParser {
 							currentAudioTrack.setSongname(currentAudioTrack.getTrack() + ": " + currentAudioTrack.getSongname());
 						}
 
-						currentAudioTrack.setAlbum(MI.Get(general, 0, "Album"));
-						currentAudioTrack.setArtist(MI.Get(general, 0, "Performer"));
-						currentAudioTrack.setGenre(MI.Get(general, 0, "Genre"));
+						currentAudioTrack.setAlbum(info.get(general, 0, "Album"));
+						currentAudioTrack.setArtist(info.get(general, 0, "Performer"));
+						currentAudioTrack.setGenre(info.get(general, 0, "Genre"));
 						// Try to parse the year from the stored date
-						String recordedDate = MI.Get(general, 0, "Recorded_Date");
+						String recordedDate = info.get(general, 0, "Recorded_Date");
 						Matcher matcher = yearPattern.matcher(recordedDate);
 						if (matcher.matches()) {
 							try {
@@ -231,7 +328,7 @@ public class LibMediaInfoParser {
 						}
 
 						// Special check for OGM: MediaInfo reports specific Audio/Subs IDs (0xn) while mencoder does not
-						value = MI.Get(audio, i, "ID/String");
+						value = info.get(audio, i, "ID/String");
 						if (!value.isEmpty()) {
 							if (value.contains("(0x") && !FormatConfiguration.OGG.equals(media.getContainer())) {
 								currentAudioTrack.setId(getSpecificID(value));
@@ -240,7 +337,7 @@ public class LibMediaInfoParser {
 							}
 						}
 
-						value = MI.Get(general, i, "Track/Position");
+						value = info.get(general, i, "Track/Position");
 						if (!value.isEmpty()) {
 							try {
 								currentAudioTrack.setTrack(Integer.parseInt(value));
@@ -249,7 +346,7 @@ public class LibMediaInfoParser {
 							}
 						}
 
-						value = MI.Get(audio, i, "BitDepth");
+						value = info.get(audio, i, "BitDepth");
 						if (!value.isEmpty()) {
 							try {
 								currentAudioTrack.setBitsperSample(Integer.parseInt(value));
@@ -263,7 +360,7 @@ public class LibMediaInfoParser {
 				}
 
 				// set Image
-				media.setImageCount(MI.Count_Get(image));
+				media.setImageCount(info.getCount(image));
 				if (media.getImageCount() > 0 || type == Format.IMAGE) {
 					boolean parseByMediainfo = false;
 					// For images use our own parser instead of MediaInfo which doesn't provide enough information
@@ -287,23 +384,23 @@ public class LibMediaInfoParser {
 					}
 
 					if (parseByMediainfo) {
-						getFormat(image, media, currentAudioTrack, MI.Get(image, 0, "Format"), file);
-						media.setWidth(getPixelValue(MI.Get(image, 0, "Width")));
-						media.setHeight(getPixelValue(MI.Get(image, 0, "Height")));
+						getFormat(image, media, currentAudioTrack, info.get(image, 0, "Format"), file);
+						media.setWidth(getPixelValue(info.get(image, 0, "Width")));
+						media.setHeight(getPixelValue(info.get(image, 0, "Height")));
 					}
 				}
 
 				// set Subs in text format
-				int subTracks = MI.Count_Get(text);
+				int subTracks = info.getCount(text);
 				if (subTracks > 0) {
 					for (int i = 0; i < subTracks; i++) {
 						currentSubTrack = new DLNAMediaSubtitle();
-						currentSubTrack.setType(SubtitleType.valueOfLibMediaInfoCodec(MI.Get(text, i, "Format")));
-						currentSubTrack.setType(SubtitleType.valueOfLibMediaInfoCodec(MI.Get(text, i, "CodecID")));
-						currentSubTrack.setLang(getLang(MI.Get(text, i, "Language/String")));
-						currentSubTrack.setSubtitlesTrackTitleFromMetadata((MI.Get(text, i, "Title")).trim());
+						currentSubTrack.setType(SubtitleType.valueOfLibMediaInfoCodec(info.get(text, i, "Format")));
+						currentSubTrack.setType(SubtitleType.valueOfLibMediaInfoCodec(info.get(text, i, "CodecID")));
+						currentSubTrack.setLang(getLang(info.get(text, i, "Language/String")));
+						currentSubTrack.setSubtitlesTrackTitleFromMetadata((info.get(text, i, "Title")).trim());
 						// Special check for OGM: MediaInfo reports specific Audio/Subs IDs (0xn) while mencoder does not
-						value = MI.Get(text, i, "ID/String");
+						value = info.get(text, i, "ID/String");
 						if (!value.isEmpty()) {
 							if (value.contains("(0x") && !FormatConfiguration.OGG.equals(media.getContainer())) {
 								currentSubTrack.setId(getSpecificID(value));
@@ -412,7 +509,6 @@ public class LibMediaInfoParser {
 //			} catch (Exception e) {
 //				LOGGER.error("Error in MediaInfo parsing:", e);
 //			} finally {
-				MI.Close();
 				if (media.getContainer() == null) {
 					media.setContainer(DLNAMediaLang.UND);
 				}
@@ -0,0 +1,695 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import net.pms.Messages;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.formats.Format;
+import net.pms.formats.FormatFactory;
+import net.pms.util.BasicThreadFactory;
+import net.pms.util.ContentFingerprint;
+import net.pms.util.FileUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scans the shared folders into the {@link DLNAMediaDatabase} using a
+ * pipeline of three stages:
+ * <ul>
+ * <li>Listing: directories are walked by a work-stealing
+ * {@link ForkJoinPool}, one task per directory.</li>
+ * <li>Parsing: files that aren't in the cache are parsed on a thread pool
+ * per mount point.</li>
+ * <li>Writing: parsed files are written to the database by one thread.</li>
+ * </ul>
+ * The scan works on paths and {@link BasicFileAttributes} only, no
+ * {@link DLNAResource}s are created. Listing and parsing are limited to a
+ * configurable number of threads per mount point, so a spinning disk isn't
+ * thrashed by many concurrent reads while other disks and shares are scanned
+ * in parallel.
+ * <p>
+ * The fingerprint of every scanned directory is stored in the database.
+ * Directories whose fingerprint still matches are skipped on the next scan,
+ * only their subdirectories are checked.
+ */
+public class LibraryScanner {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LibraryScanner.class);
+	private static final PmsConfiguration configuration = PMS.getConfiguration();
+
+	/** The minimum time in milliseconds between progress reports */
+	private static final long REPORT_INTERVAL = 10000;
+
+	private final DLNAMediaDatabase database;
+	private final RendererConfiguration renderer;
+	private final int threadsPerMount;
+	private final ForkJoinPool listers;
+	private final ThreadPoolExecutor writer;
+
+	/** The parse executors per mount point, guarded by itself */
+	private final Map<Object, ThreadPoolExecutor> parsers = new HashMap<>();
+
+	/** The listing permits per mount point, guarded by {@link #parsers} */
+	private final Map<Object, Semaphore> listPermits = new HashMap<>();
+
+	private final AtomicInteger folderCount = new AtomicInteger();
+	private final AtomicInteger skippedCount = new AtomicInteger();
+	private final AtomicInteger fileCount = new AtomicInteger();
+	private final AtomicInteger parsedCount = new AtomicInteger();
+	private final AtomicInteger parseQueue = new AtomicInteger();
+	private final AtomicLong lastReport = new AtomicLong();
+	private volatile boolean running;
+	private long startTime;
+
+	/**
+	 * Creates a new scanner.
+	 *
+	 * @param database the {@link DLNAMediaDatabase} to write to.
+	 * @param renderer the {@link RendererConfiguration} to parse for.
+	 * @param threadsPerMount the number of listing and parsing threads per
+	 *            mount point.
+	 */
+	public LibraryScanner(DLNAMediaDatabase database, RendererConfiguration renderer, int threadsPerMount) {
+		this.database = database;
+		this.renderer = renderer;
+		this.threadsPerMount = Math.max(threadsPerMount, 1);
+		listers = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		writer = new ThreadPoolExecutor(
+			1,
+			1,
+			0,
+			TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<Runnable>(),
+			new BasicThreadFactory("Library Scanner writer", Thread.NORM_PRIORITY)
+		);
+	}
+
+	/**
+	 * Scans the given directories and blocks until the scan is finished or
+	 * {@link #stop()} is called. A scanner can only be used once.
+	 *
+	 * @param folders the directories to scan.
+	 */
+	public void scan(List<File> folders) {
+		running = true;
+		startTime = System.currentTimeMillis();
+		try {
+			List<DirectoryTask> tasks = new ArrayList<>();
+			for (File folder : folders) {
+				if (folder.isDirectory()) {
+					tasks.add(new DirectoryTask(folder, FileUtil.getFileStoreKey(folder)));
+				}
+			}
+			for (DirectoryTask task : tasks) {
+				listers.execute(task);
+			}
+			for (DirectoryTask task : tasks) {
+				task.join();
+			}
+		} finally {
+			shutdown();
+			LOGGER.info(
+				"Library scan {}: {} folders ({} unchanged) and {} files, {} files parsed in {} seconds",
+				running ? "finished" : "stopped",
+				folderCount.get() + skippedCount.get(),
+				skippedCount.get(),
+				fileCount.get(),
+				parsedCount.get(),
+				(System.currentTimeMillis() - startTime) / 1000
+			);
+		}
+	}
+
+	/**
+	 * Stops the scan. Files that are being parsed are finished, everything
+	 * else is skipped.
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * @return {@code true} if the scan is running.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return The number of files per second checked since the scan started.
+	 */
+	public double getFilesPerSecond() {
+		long elapsed = System.currentTimeMillis() - startTime;
+		return elapsed > 0 ? fileCount.get() * 1000d / elapsed : 0;
+	}
+
+	/**
+	 * @return The number of files waiting to be parsed.
+	 */
+	public int getParseQueueSize() {
+		return parseQueue.get();
+	}
+
+	/**
+	 * @return The number of parsed files waiting to be written to the
+	 *         database.
+	 */
+	public int getWriteQueueSize() {
+		return writer.getQueue().size();
+	}
+
+	/**
+	 * @return The number of directory tasks waiting in the listing pool.
+	 */
+	public long getListQueueSize() {
+		return listers.getQueuedTaskCount();
+	}
+
+	/**
+	 * Shuts the stages down in order, waiting for each to finish before the
+	 * next. Every queued parse task hands its result to the writer before it
+	 * ends, so no parsed file is dropped.
+	 */
+	private void shutdown() {
+		listers.shutdownNow();
+		try {
+			awaitTermination(listers, "listing");
+			List<ThreadPoolExecutor> executors;
+			synchronized (parsers) {
+				executors = new ArrayList<>(parsers.values());
+				parsers.clear();
+			}
+			for (ThreadPoolExecutor executor : executors) {
+				executor.shutdown();
+			}
+			for (ThreadPoolExecutor executor : executors) {
+				awaitTermination(executor, "parsing");
+			}
+			writer.shutdown();
+			awaitTermination(writer, "writing");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void awaitTermination(ExecutorService executor, String stage) throws InterruptedException {
+		while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+			LOGGER.debug("Library scan is still waiting for {} to finish", stage);
+		}
+	}
+
+	private void report() {
+		long now = System.currentTimeMillis();
+		long last = lastReport.get();
+		if (now - last >= REPORT_INTERVAL && lastReport.compareAndSet(last, now)) {
+			LOGGER.debug(
+				"Library scan: {} files/s, {} folders ({} unchanged) and {} files done, queued: {} folders, {} to parse, {} to write",
+				String.format("%.1f", getFilesPerSecond()),
+				folderCount.get() + skippedCount.get(),
+				skippedCount.get(),
+				fileCount.get(),
+				getListQueueSize(),
+				getParseQueueSize(),
+				getWriteQueueSize()
+			);
+		}
+	}
+
+	private Semaphore getListPermits(Object mount) {
+		synchronized (parsers) {
+			Semaphore permits = listPermits.get(mount);
+			if (permits == null) {
+				permits = new Semaphore(threadsPerMount);
+				listPermits.put(mount, permits);
+			}
+			return permits;
+		}
+	}
+
+	private ThreadPoolExecutor getParser(Object mount) {
+		synchronized (parsers) {
+			ThreadPoolExecutor executor = parsers.get(mount);
+			if (executor == null) {
+				executor = new ThreadPoolExecutor(
+					threadsPerMount,
+					threadsPerMount,
+					30,
+					TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(),
+					new BasicThreadFactory("Library Scanner parser " + parsers.size() + "-%d", Thread.NORM_PRIORITY)
+				);
+				executor.allowCoreThreadTimeOut(true);
+				parsers.put(mount, executor);
+			}
+			return executor;
+		}
+	}
+
+	/**
+	 * @return The ignored folders from the configuration, matched with
+	 *         {@link #isIgnored}.
+	 */
+	static String[] getIgnoredFolders() {
+		String ignored = configuration.getFoldersIgnored(null);
+		return ignored != null ? ignored.split(",") : new String[0];
+	}
+
+	/**
+	 * Checks if a path contains one of the ignored folders.
+	 *
+	 * @param path the path to check.
+	 * @param ignored the ignored folders, may be {@code null}.
+	 * @return {@code true} if the path should be skipped.
+	 */
+	static boolean isIgnored(String path, String[] ignored) {
+		if (ignored == null) {
+			return false;
+		}
+		String lcPath = path.toLowerCase();
+		for (String s : ignored) {
+			if (StringUtils.isNotBlank(s) && lcPath.contains(s.toLowerCase())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if a directory entry is handled as something else than a plain
+	 * file or folder when browsing, like ISOs, playlists and archives, and
+	 * isn't stored in the database.
+	 *
+	 * @param name the entry name.
+	 * @param isDirectory whether the entry is a directory.
+	 * @return {@code true} if the entry should be skipped.
+	 */
+	static boolean isSpecial(String name, boolean isDirectory) {
+		if (isDirectory) {
+			return "VIDEO_TS".equalsIgnoreCase(name);
+		}
+		String lcName = name.toLowerCase(Locale.ROOT);
+		if (
+			lcName.endsWith(".iso") || lcName.endsWith(".img") ||
+			lcName.endsWith(".m3u") || lcName.endsWith(".m3u8") || lcName.endsWith(".pls") ||
+			lcName.endsWith(".cue") || lcName.endsWith(".ups")
+		) {
+			return true;
+		}
+		return configuration.isArchiveBrowsing() && (
+			lcName.endsWith(".zip") || lcName.endsWith(".cbz") || lcName.endsWith(".rar") || lcName.endsWith(".cbr") ||
+			lcName.endsWith(".tar") || lcName.endsWith(".gzip") || lcName.endsWith(".gz") || lcName.endsWith(".7z")
+		);
+	}
+
+	/**
+	 * Finds the {@link Format} of a file that should be stored in the
+	 * database.
+	 *
+	 * @param file the file.
+	 * @return The {@link Format} or {@code null} if the file isn't a known
+	 *         media file.
+	 */
+	static Format getFormat(File file) {
+		Format format = FormatFactory.getAssociatedFormat(file.getAbsolutePath());
+		if (format == null || format.isUnknown() || format.getType() == Format.SUBTITLE) {
+			return null;
+		}
+		return format;
+	}
+
+	/**
+	 * Parses a file the same way {@link RealFile#resolve()} does, reusing
+	 * the cached information of a file with the same content if
+	 * {@link PmsConfiguration#isMediaLibraryContentHash()} is enabled.
+	 *
+	 * @param file the file to parse.
+	 * @param format the {@link Format} of the file.
+	 * @param renderer the {@link RendererConfiguration} to parse for.
+	 * @param database the {@link DLNAMediaDatabase} to look up the content
+	 *            in.
+	 * @return The parsed {@link DLNAMediaInfo} or {@code null} if parsing
+	 *         failed.
+	 */
+	static DLNAMediaInfo parse(File file, Format format, RendererConfiguration renderer, DLNAMediaDatabase database) {
+		Long contentHash = null;
+		if (configuration != null && configuration.isMediaLibraryContentHash()) {
+			contentHash = ContentFingerprint.get(file);
+			if (contentHash != null) {
+				try {
+					DLNAMediaInfo media = database.getDataByContentHash(contentHash.longValue());
+					if (media != null) {
+						LOGGER.trace("Reusing cached information with the same content for \"{}\"", file.getAbsolutePath());
+						return media;
+					}
+				} catch (IOException | SQLException e) {
+					LOGGER.debug("Error while looking up cached information by content for \"{}\": {}", file.getAbsolutePath(), e.getMessage());
+					LOGGER.trace("", e);
+				}
+			}
+		}
+		DLNAMediaInfo media = new DLNAMediaInfo();
+		InputFile input = new InputFile();
+		input.setFile(file);
+		format.parse(media, input, format.getType(), renderer);
+		if (!media.isMediaparsed() || media.isParsing()) {
+			return null;
+		}
+		media.setContentHash(contentHash);
+		return media;
+	}
+
+	/**
+	 * Acquires a permit without starving the {@link ForkJoinPool}.
+	 *
+	 * @return {@code true} if a permit was acquired.
+	 */
+	private static boolean acquire(final Semaphore permits) {
+		final boolean[] acquired = new boolean[1];
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				@Override
+				public boolean block() throws InterruptedException {
+					if (!acquired[0]) {
+						permits.acquire();
+						acquired[0] = true;
+					}
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable() {
+					if (!acquired[0]) {
+						acquired[0] = permits.tryAcquire();
+					}
+					return acquired[0];
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return acquired[0];
+	}
+
+	/**
+	 * The modification time, entry count and name hash of a directory. If
+	 * these match the stored values, no entries have been added, removed or
+	 * renamed since the directory was last scanned.
+	 */
+	private class Fingerprint {
+		private final File directory;
+		private final long modified;
+		private final String[] names;
+		private final long nameHash;
+
+		public Fingerprint(File directory) {
+			this.directory = directory;
+			modified = directory.lastModified();
+			names = directory.list();
+			nameHash = DLNAMediaDatabase.getNamesHash(names);
+		}
+
+		public boolean isUnchanged() {
+			return names != null && database.isFolderUnchanged(directory.getAbsolutePath(), modified, names.length, nameHash);
+		}
+
+		public void store(List<String> subfolders) {
+			if (names != null) {
+				database.updateFolder(directory.getAbsolutePath(), modified, names.length, nameHash, subfolders);
+			}
+		}
+	}
+
+	/**
+	 * Tracks the files of one directory through the parse and write stages
+	 * and stores the {@link Fingerprint} when the last one is done. The
+	 * fingerprint is only stored if every file has been written, so that a
+	 * stopped scan or a skipped file never marks a directory as complete.
+	 */
+	private class DirectoryBatch {
+		private final Fingerprint fingerprint;
+		private final List<String> subfolders;
+		private final AtomicInteger remaining = new AtomicInteger(1);
+		private volatile boolean complete = true;
+
+		public DirectoryBatch(Fingerprint fingerprint, List<String> subfolders) {
+			this.fingerprint = fingerprint;
+			this.subfolders = subfolders;
+		}
+
+		public void add() {
+			remaining.incrementAndGet();
+		}
+
+		/**
+		 * Marks the directory as incomplete because a file wasn't written.
+		 */
+		public void skip() {
+			complete = false;
+		}
+
+		/**
+		 * Finishes a file outside of the writer.
+		 */
+		public void done() {
+			if (isFinished()) {
+				try {
+					writer.execute(new Runnable() {
+						@Override
+						public void run() {
+							fingerprint.store(subfolders);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					// The scan has stopped
+				}
+			}
+		}
+
+		/**
+		 * Finishes a file on the writer thread.
+		 */
+		public void written() {
+			if (isFinished()) {
+				fingerprint.store(subfolders);
+			}
+		}
+
+		private boolean isFinished() {
+			return remaining.decrementAndGet() == 0 && complete && running;
+		}
+	}
+
+	private void parseFile(final File file, final long modified, final Format format, final DirectoryBatch batch) {
+		boolean queued = false;
+		try {
+			if (!running) {
+				return;
+			}
+			final DLNAMediaInfo media = parse(file, format, renderer, database);
+			parsedCount.incrementAndGet();
+			if (media != null) {
+				writer.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							database.insertOrUpdateData(file.getAbsolutePath(), modified, format.getType(), media);
+							if (renderer.isMediaInfoThumbnailGeneration()) {
+								queueThumbnail(file, format, media);
+							}
+						} catch (SQLException e) {
+							LOGGER.error("Database error while adding \"{}\" to the cache: {}", file.getAbsolutePath(), e.getMessage());
+							LOGGER.trace("", e);
+							batch.skip();
+						} finally {
+							batch.written();
+						}
+					}
+				});
+				queued = true;
+			}
+		} catch (RejectedExecutionException e) {
+			// The scan has stopped
+		} catch (RuntimeException e) {
+			LOGGER.debug("Error while parsing \"{}\" during library scan: {}", file.getAbsolutePath(), e.getMessage());
+			LOGGER.trace("", e);
+		} finally {
+			if (!queued) {
+				batch.skip();
+				batch.done();
+			}
+		}
+	}
+
+	/**
+	 * Queues the thumbnail of a scanned file on the {@link ThumbnailService}
+	 * in the background, which stores it with the file in the database. This
+	 * is what browsing the file used to do during the scan.
+	 */
+	private void queueThumbnail(File file, Format format, DLNAMediaInfo media) {
+		RealFile resource = new RealFile(file);
+		resource.setFormat(format);
+		resource.setMedia(media);
+		InputFile input = new InputFile();
+		input.setFile(file);
+		resource.queueThumbnail(input, renderer);
+	}
+
+	/**
+	 * Scans one directory: sends its files that aren't in the cache to the
+	 * parse stage and forks a task for each subdirectory. Unchanged
+	 * directories aren't listed, only their stored subdirectories are
+	 * visited. Subdirectories are assumed to be on the same mount point as
+	 * their parent.
+	 */
+	@SuppressWarnings("serial")
+	private class DirectoryTask extends RecursiveAction {
+		private final File directory;
+		private final Object mount;
+
+		public DirectoryTask(File directory, Object mount) {
+			this.directory = directory;
+			this.mount = mount;
+		}
+
+		@Override
+		protected void compute() {
+			if (!running) {
+				return;
+			}
+			List<DirectoryTask> tasks = new ArrayList<>();
+			Semaphore permits = getListPermits(mount);
+			boolean held = acquire(permits);
+			try {
+				Fingerprint fingerprint = new Fingerprint(directory);
+				if (fingerprint.isUnchanged()) {
+					skippedCount.incrementAndGet();
+					for (String path : database.getSubfolders(directory.getAbsolutePath())) {
+						tasks.add(new DirectoryTask(new File(path), mount));
+					}
+				} else {
+					list(fingerprint, tasks);
+				}
+			} finally {
+				if (held) {
+					permits.release();
+				}
+			}
+			report();
+			invokeAll(tasks);
+		}
+
+		private void list(Fingerprint fingerprint, List<DirectoryTask> tasks) {
+			LOGGER.debug("Scanning folder: {}", directory.getAbsolutePath());
+			PMS.get().getFrame().setStatusLine(Messages.getString("DLNAMediaDatabase.4") + " " + directory.getName());
+			boolean parse = renderer != null && renderer.isUseMediaInfo();
+			List<String> subfolders = new ArrayList<>();
+			final DirectoryBatch batch = new DirectoryBatch(fingerprint, subfolders);
+			ThreadPoolExecutor parser = parse ? getParser(mount) : null;
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath())) {
+				for (Path path : stream) {
+					if (!running) {
+						return;
+					}
+					BasicFileAttributes attributes;
+					try {
+						attributes = Files.readAttributes(path, BasicFileAttributes.class);
+						if (Files.isHidden(path)) {
+							continue;
+						}
+					} catch (IOException e) {
+						LOGGER.trace("Skipping \"{}\" during library scan: {}", path, e.getMessage());
+						continue;
+					}
+					String name = path.getFileName().toString();
+					if (isSpecial(name, attributes.isDirectory())) {
+						continue;
+					}
+					if (attributes.isDirectory()) {
+						File subfolder = path.toFile();
+						subfolders.add(subfolder.getAbsolutePath());
+						tasks.add(new DirectoryTask(subfolder, mount));
+						continue;
+					}
+					if (!attributes.isRegularFile()) {
+						continue;
+					}
+					fileCount.incrementAndGet();
+					if (!parse) {
+						// The file isn't stored, so the directory must be listed again
+						batch.skip();
+						continue;
+					}
+					final File file = path.toFile();
+					final Format format = getFormat(file);
+					if (format == null) {
+						continue;
+					}
+					final long modified = attributes.lastModifiedTime().toMillis();
+					if (database.isDataExists(file.getAbsolutePath(), modified)) {
+						continue;
+					}
+					batch.add();
+					parseQueue.incrementAndGet();
+					try {
+						parser.execute(new Runnable() {
+							@Override
+							public void run() {
+								parseQueue.decrementAndGet();
+								parseFile(file, modified, format, batch);
+							}
+						});
+					} catch (RejectedExecutionException e) {
+						parseQueue.decrementAndGet();
+						batch.skip();
+						batch.done();
+					}
+				}
+			} catch (IOException | SecurityException e) {
+				LOGGER.warn("Can't read directory \"{}\": {}", directory.getAbsolutePath(), e.getMessage());
+				return;
+			}
+			folderCount.incrementAndGet();
+			batch.done();
+		}
+	}
+}
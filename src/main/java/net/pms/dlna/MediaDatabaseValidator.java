@@ -0,0 +1,304 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import net.pms.util.BasicThreadFactory;
+import net.pms.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class verifies asynchronously that files returned from the
+ * {@link DLNAMediaDatabase} still exist and are unmodified, so that the
+ * database can be trusted when browsing without doing a {@code stat} for
+ * every row. Each mount point is served by its own pool of threads so that a
+ * slow network share doesn't hold up validation of local disks. Stale rows
+ * are removed from the database in batches.
+ */
+public class MediaDatabaseValidator {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MediaDatabaseValidator.class);
+
+	/** The maximum number of stale rows to delete in one batch */
+	private static final int BATCH_SIZE = 100;
+
+	/** The time in milliseconds before a validated file is validated again */
+	private static final long VALIDATION_INTERVAL = 10 * 60 * 1000;
+
+	/** The maximum number of remembered validation results */
+	private static final int MAX_VALIDATED = 100000;
+
+	private final DLNAMediaDatabase database;
+	private final int threadsPerMount;
+	private final Object lock = new Object();
+
+	/** The executors per mount point, guarded by {@link #lock} */
+	private final Map<Object, ThreadPoolExecutor> executors = new HashMap<>();
+
+	/** The mount point per directory, guarded by {@link #lock} */
+	private final Map<String, Object> mounts = new LinkedHashMap<String, Object>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+			return size() > 1000;
+		}
+	};
+
+	/** The files queued for validation, guarded by {@link #lock} */
+	private final Set<String> pending = new HashSet<>();
+
+	/** The last validation time per file, guarded by {@link #lock} */
+	private final Map<String, Long> validated = new LinkedHashMap<String, Long>(1024, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > MAX_VALIDATED;
+		}
+	};
+
+	/** The stale files waiting to be deleted, guarded by {@link #lock} */
+	private final List<String> stale = new ArrayList<>();
+
+	/** Whether {@link #shutdown()} has been called, guarded by {@link #lock} */
+	private boolean shutdown;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param database the {@link DLNAMediaDatabase} to remove stale rows from.
+	 * @param threadsPerMount the number of validation threads per mount point.
+	 */
+	public MediaDatabaseValidator(DLNAMediaDatabase database, int threadsPerMount) {
+		this.database = database;
+		this.threadsPerMount = Math.max(threadsPerMount, 1);
+	}
+
+	/**
+	 * Queues a file for asynchronous validation unless it has been validated
+	 * recently or is already queued.
+	 *
+	 * @param filename the absolute path as stored in the database.
+	 * @param modified the modification time as stored in the database.
+	 */
+	public void validate(final String filename, final long modified) {
+		if (filename == null) {
+			return;
+		}
+		synchronized (lock) {
+			if (shutdown) {
+				return;
+			}
+			Long last = validated.get(filename);
+			if (last != null && System.currentTimeMillis() - last.longValue() < VALIDATION_INTERVAL) {
+				return;
+			}
+			if (!pending.add(filename)) {
+				return;
+			}
+		}
+		Object mount = getMount(filename);
+		ThreadPoolExecutor executor;
+		synchronized (lock) {
+			if (shutdown) {
+				pending.remove(filename);
+				return;
+			}
+			executor = getExecutor(mount);
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					File file = new File(filename);
+					boolean valid = file.exists() && file.lastModified() == modified;
+					synchronized (lock) {
+						pending.remove(filename);
+						validated.put(filename, System.currentTimeMillis());
+						if (!valid) {
+							stale.add(filename);
+						}
+					}
+					if (!valid) {
+						LOGGER.trace("Cached file \"{}\" is missing or modified", filename);
+					}
+					flush(false);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Shut down, the file is left for the next validation
+			synchronized (lock) {
+				pending.remove(filename);
+			}
+		}
+	}
+
+	/**
+	 * Checks the given files in parallel on the validation threads of their
+	 * mount points and waits until all are checked. Unlike
+	 * {@link #validate(String, long)} nothing is removed from the database.
+	 *
+	 * @param files the modification times as stored in the database mapped
+	 *            by absolute path.
+	 * @return The files that are missing or modified.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public List<String> check(Map<String, Long> files) throws InterruptedException {
+		final List<String> result = new ArrayList<>();
+		final CountDownLatch latch = new CountDownLatch(files.size());
+		for (final Map.Entry<String, Long> entry : files.entrySet()) {
+			Object mount = getMount(entry.getKey());
+			ThreadPoolExecutor executor;
+			synchronized (lock) {
+				executor = shutdown ? null : getExecutor(mount);
+			}
+			if (executor == null) {
+				// Shut down, the file is left for the next check
+				latch.countDown();
+				continue;
+			}
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							File file = new File(entry.getKey());
+							boolean valid = file.exists() && file.lastModified() == entry.getValue().longValue();
+							synchronized (lock) {
+								validated.put(entry.getKey(), System.currentTimeMillis());
+								if (!valid) {
+									result.add(entry.getKey());
+								}
+							}
+						} finally {
+							latch.countDown();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// Shut down, the file is left for the next check
+				latch.countDown();
+			}
+		}
+		latch.await();
+		synchronized (lock) {
+			return new ArrayList<>(result);
+		}
+	}
+
+	/**
+	 * Deletes the stale rows found so far.
+	 *
+	 * @param force if {@code false} nothing is done until a full batch has
+	 *            been collected or the validation queues are empty.
+	 */
+	public void flush(boolean force) {
+		List<String> batch;
+		synchronized (lock) {
+			if (stale.isEmpty() || (!force && stale.size() < BATCH_SIZE && !pending.isEmpty())) {
+				return;
+			}
+			batch = new ArrayList<>(stale);
+			stale.clear();
+		}
+		int deleted = database.removeFiles(batch);
+		LOGGER.debug("Removed {} missing or modified files from the cache", deleted);
+	}
+
+	/**
+	 * @return The number of files waiting to be validated.
+	 */
+	public int getQueueSize() {
+		synchronized (lock) {
+			return pending.size();
+		}
+	}
+
+	/**
+	 * Stops all validation threads. Queued validations are discarded and
+	 * later requests are ignored.
+	 */
+	public void shutdown() {
+		synchronized (lock) {
+			shutdown = true;
+			for (ThreadPoolExecutor executor : executors.values()) {
+				executor.shutdownNow();
+			}
+			executors.clear();
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Finds or creates the executor for {@code mount}. Must be called while
+	 * holding {@link #lock}.
+	 */
+	private ThreadPoolExecutor getExecutor(Object mount) {
+		ThreadPoolExecutor executor = executors.get(mount);
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(
+				threadsPerMount,
+				threadsPerMount,
+				30,
+				TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new BasicThreadFactory("Cache validator " + executors.size() + "-%d", Thread.MIN_PRIORITY)
+			);
+			executor.allowCoreThreadTimeOut(true);
+			executors.put(mount, executor);
+		}
+		return executor;
+	}
+
+	/**
+	 * Resolves the mount point of {@code filename}. The result is cached per
+	 * parent directory, so only one lookup is done per directory. The lookup
+	 * does I/O, so it's done without holding {@link #lock}.
+	 */
+	private Object getMount(String filename) {
+		String parent = new File(filename).getParent();
+		if (parent == null) {
+			return "";
+		}
+		Object mount;
+		synchronized (lock) {
+			mount = mounts.get(parent);
+		}
+		if (mount == null) {
+			mount = FileUtil.getFileStoreKey(new File(parent));
+			synchronized (lock) {
+				mounts.put(parent, mount);
+			}
+		}
+		return mount;
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.pms.dlna.MediaInfo.StreamType;
+
+/**
+ * Holds the result of a single {@link MediaInfo#Inform()} call made with the
+ * custom template from {@link #getTemplate()}. The template outputs every
+ * parameter {@link LibMediaInfoParser} uses, so a file is read with one call
+ * into the MediaInfo library instead of one {@link MediaInfo#Get} call per
+ * parameter.
+ * <p>
+ * Each stream is output as one record starting with the stream type and
+ * followed by the parameter values, using the ASCII record and unit
+ * separators which can't occur in the values.
+ */
+public class MediaInfoInform {
+
+	/** Separates the records, one per stream */
+	static final char RECORD_SEPARATOR = '\u001E';
+
+	/** Separates the stream type and the values within a record */
+	static final char UNIT_SEPARATOR = '\u001F';
+
+	/** The parameters read for each {@link StreamType}, indexed by {@link StreamType#getValue()} */
+	private static final String[][] PARAMETERS = new String[StreamType.values().length][];
+
+	static {
+		PARAMETERS[StreamType.General.getValue()] = new String[] {
+			"Format",
+			"CodecID",
+			"Duration/String1",
+			"OverallBitRate",
+			"StereoscopicLayout",
+			"Cover_Data",
+			"Title",
+			"Track",
+			"Track/Position",
+			"Album",
+			"Performer",
+			"Genre",
+			"Recorded_Date",
+		};
+		PARAMETERS[StreamType.Video.getValue()] = new String[] {
+			"Title",
+			"Format",
+			"Format_Version",
+			"Format_Profile",
+			"CodecID",
+			"Width",
+			"Height",
+			"matrix_coefficients",
+			"MultiView_Layout",
+			"DisplayAspectRatio/String",
+			"DisplayAspectRatio_Original/String",
+			"FrameRate",
+			"FrameRate_Original",
+			"FrameRate_Mode",
+			"Format_Settings_RefFrames/String",
+			"Format_Settings_QPel",
+			"Format_Settings_GMC",
+			"Format_Settings_GOP",
+			"MuxingMode",
+			"Encryption",
+			"BitDepth",
+		};
+		PARAMETERS[StreamType.Audio.getValue()] = new String[] {
+			"Format",
+			"Format_Version",
+			"Format_Profile",
+			"CodecID",
+			"CodecID_Description",
+			"Language/String",
+			"Title",
+			"Channel(s)",
+			"SamplingRate",
+			"BitRate",
+			"ID/String",
+			"BitDepth",
+		};
+		PARAMETERS[StreamType.Text.getValue()] = new String[] {
+			"Format",
+			"CodecID",
+			"Language/String",
+			"Title",
+			"ID/String",
+		};
+		PARAMETERS[StreamType.Image.getValue()] = new String[] {
+			"Format",
+			"Width",
+			"Height",
+		};
+	}
+
+	/** The parameter indexes for each {@link StreamType} */
+	private static final List<Map<String, Integer>> INDEXES = new ArrayList<>(PARAMETERS.length);
+
+	/** The record prefix for each {@link StreamType} */
+	private static final char[] PREFIXES = new char[PARAMETERS.length];
+
+	static {
+		for (StreamType streamType : StreamType.values()) {
+			Map<String, Integer> indexes = new HashMap<>();
+			String[] parameters = PARAMETERS[streamType.getValue()];
+			if (parameters != null) {
+				for (int i = 0; i < parameters.length; i++) {
+					indexes.put(parameters[i], Integer.valueOf(i));
+				}
+			}
+			INDEXES.add(indexes);
+			PREFIXES[streamType.getValue()] = (char) ('0' + streamType.getValue());
+		}
+	}
+
+	private static final String TEMPLATE = buildTemplate();
+
+	/** The values of each stream, indexed by {@link StreamType#getValue()} */
+	private final List<List<String[]>> streams;
+
+	private MediaInfoInform(List<List<String[]>> streams) {
+		this.streams = streams;
+	}
+
+	/**
+	 * @return The value to set as MediaInfo's {@code Inform} option.
+	 */
+	public static String getTemplate() {
+		return TEMPLATE;
+	}
+
+	/**
+	 * @param streamType the {@link StreamType}.
+	 * @return The parameters included in the template for {@code streamType}.
+	 */
+	static String[] getParameters(StreamType streamType) {
+		String[] parameters = PARAMETERS[streamType.getValue()];
+		return parameters == null ? new String[0] : parameters.clone();
+	}
+
+	private static String buildTemplate() {
+		StringBuilder sb = new StringBuilder();
+		for (StreamType streamType : StreamType.values()) {
+			String[] parameters = PARAMETERS[streamType.getValue()];
+			if (parameters == null) {
+				continue;
+			}
+			if (sb.length() > 0) {
+				sb.append("\\r\\n");
+			}
+			sb.append(streamType.name()).append(';').append(PREFIXES[streamType.getValue()]);
+			for (String parameter : parameters) {
+				sb.append(UNIT_SEPARATOR).append('%').append(parameter).append('%');
+			}
+			sb.append(RECORD_SEPARATOR);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Parses the output of {@link MediaInfo#Inform()} made with the template
+	 * from {@link #getTemplate()}.
+	 *
+	 * @param inform the {@link MediaInfo#Inform()} output.
+	 * @return The parsed {@link MediaInfoInform}.
+	 */
+	public static MediaInfoInform parse(String inform) {
+		List<List<String[]>> streams = new ArrayList<>(PARAMETERS.length);
+		for (int i = 0; i < PARAMETERS.length; i++) {
+			streams.add(new ArrayList<String[]>(2));
+		}
+		if (inform == null) {
+			return new MediaInfoInform(streams);
+		}
+
+		int length = inform.length();
+		int position = 0;
+		while (position < length) {
+			int end = inform.indexOf(RECORD_SEPARATOR, position);
+			if (end < 0) {
+				end = length;
+			}
+
+			// Skip any line breaks MediaInfo puts between the sections
+			while (position < end && inform.charAt(position) <= ' ') {
+				position++;
+			}
+
+			int type = position < end ? inform.charAt(position) - '0' : -1;
+			if (type >= 0 && type < PARAMETERS.length && PARAMETERS[type] != null) {
+				String[] values = new String[PARAMETERS[type].length];
+				int start = position + 1;
+				for (int i = 0; i < values.length; i++) {
+					if (start < end && inform.charAt(start) == UNIT_SEPARATOR) {
+						int next = inform.indexOf(UNIT_SEPARATOR, start + 1);
+						if (next < 0 || next > end) {
+							next = end;
+						}
+						values[i] = inform.substring(start + 1, next);
+						start = next;
+					} else {
+						values[i] = "";
+					}
+				}
+				streams.get(type).add(values);
+			}
+			position = end + 1;
+		}
+		return new MediaInfoInform(streams);
+	}
+
+	/**
+	 * @param streamType the {@link StreamType}.
+	 * @return The number of streams of {@code streamType}.
+	 */
+	public int getCount(StreamType streamType) {
+		return streams.get(streamType.getValue()).size();
+	}
+
+	/**
+	 * Gets a parameter value like {@link MediaInfo#Get(StreamType, int, String)}.
+	 *
+	 * @param streamType the {@link StreamType}.
+	 * @param streamNumber the stream number within {@code streamType}.
+	 * @param parameter the parameter name.
+	 * @return The value or an empty string if the stream doesn't exist or
+	 *         the parameter has no value.
+	 * @throws IllegalArgumentException If {@code parameter} isn't part of
+	 *             the template.
+	 */
+	public String get(StreamType streamType, int streamNumber, String parameter) {
+		Integer index = INDEXES.get(streamType.getValue()).get(parameter);
+		if (index == null) {
+			throw new IllegalArgumentException("Parameter \"" + parameter + "\" for " + streamType + " isn't in the Inform template");
+		}
+		List<String[]> values = streams.get(streamType.getValue());
+		if (streamNumber < 0 || streamNumber >= values.size()) {
+			return "";
+		}
+		return values.get(streamNumber)[index.intValue()];
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.formats.Format;
+import net.pms.util.BasicThreadFactory;
+import net.pms.util.FileWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the {@link DLNAMediaDatabase} up to date without full scans by
+ * listening to {@link FileWatcher} events in the shared folders. New and
+ * changed files are parsed at low priority and deleted files are removed.
+ * <p>
+ * Events are debounced per path: a path is only processed when it hasn't
+ * had any events for {@link #QUIET_PERIOD} milliseconds, so a file that is
+ * still being written (a download or a copy) is parsed once when it's done.
+ * <p>
+ * The same files as in a {@link LibraryScanner} scan are indexed: hidden
+ * and special entries and the ignored folders are skipped.
+ */
+public class MediaLibraryIndexer implements FileWatcher.Listener {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MediaLibraryIndexer.class);
+
+	/** The time in milliseconds a path must be quiet before it's processed */
+	private static final long QUIET_PERIOD = 10000;
+
+	private final DLNAMediaDatabase database;
+	private final long quietPeriod;
+	private final ScheduledThreadPoolExecutor executor;
+	private final List<FileWatcher.Watch> watches = new ArrayList<>();
+
+	/** The time of the last event per path, guarded by itself */
+	private final Map<String, Long> pending = new HashMap<>();
+
+	/**
+	 * Creates a new indexer.
+	 *
+	 * @param database the {@link DLNAMediaDatabase} to update.
+	 */
+	public MediaLibraryIndexer(DLNAMediaDatabase database) {
+		this(database, QUIET_PERIOD);
+	}
+
+	/**
+	 * Creates a new indexer with the given quiet period.
+	 *
+	 * @param database the {@link DLNAMediaDatabase} to update.
+	 * @param quietPeriod the time in milliseconds a path must be quiet
+	 *            before it's processed.
+	 */
+	MediaLibraryIndexer(DLNAMediaDatabase database, long quietPeriod) {
+		this.database = database;
+		this.quietPeriod = quietPeriod;
+		executor = new ScheduledThreadPoolExecutor(1, new BasicThreadFactory("Media Library Indexer", Thread.MIN_PRIORITY));
+		executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Starts watching the given folders and their subfolders.
+	 *
+	 * @param folders the shared folders.
+	 */
+	public synchronized void start(File[] folders) {
+		if (folders == null) {
+			return;
+		}
+		String[] ignored = LibraryScanner.getIgnoredFolders();
+		for (File folder : folders) {
+			if (folder.isDirectory() && !LibraryScanner.isIgnored(folder.getAbsolutePath(), ignored)) {
+				FileWatcher.Watch watch = new FileWatcher.Watch(folder.getAbsolutePath() + File.separator + "**", this);
+				FileWatcher.add(watch);
+				watches.add(watch);
+				LOGGER.debug("Media library indexer is watching \"{}\"", folder.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Stops watching and discards pending changes.
+	 */
+	public synchronized void stop() {
+		for (FileWatcher.Watch watch : watches) {
+			FileWatcher.remove(watch);
+		}
+		watches.clear();
+		executor.shutdownNow();
+		synchronized (pending) {
+			pending.clear();
+		}
+	}
+
+	/**
+	 * @return The number of paths waiting to be processed.
+	 */
+	public int getQueueSize() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	@Override
+	public void notify(String filename, String event, FileWatcher.Watch watch, boolean isDir) {
+		boolean schedule;
+		synchronized (pending) {
+			schedule = pending.put(filename, System.currentTimeMillis()) == null;
+		}
+		if (schedule) {
+			schedule(filename, quietPeriod);
+		}
+	}
+
+	private void schedule(final String path, long delay) {
+		try {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					long wait;
+					synchronized (pending) {
+						Long last = pending.get(path);
+						if (last == null) {
+							return;
+						}
+						wait = last.longValue() + quietPeriod - System.currentTimeMillis();
+						if (wait <= 0) {
+							pending.remove(path);
+						}
+					}
+					if (wait > 0) {
+						// Still changing, check again when it has been quiet long enough
+						schedule(path, wait);
+					} else {
+						process(new File(path));
+					}
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Stopped
+		}
+	}
+
+	/**
+	 * Processes a path that has been quiet long enough: removes it from the
+	 * database if it's gone, otherwise indexes it or the files below it.
+	 *
+	 * @param file the changed file or directory.
+	 */
+	void process(File file) {
+		try {
+			if (!file.exists()) {
+				String path = file.getAbsolutePath();
+				int removed = database.removeFiles(Collections.singletonList(path)) + database.removeFolder(path);
+				if (removed > 0) {
+					LOGGER.debug("Media library indexer removed {} files for \"{}\"", removed, path);
+				}
+				return;
+			}
+			final String[] ignored = LibraryScanner.getIgnoredFolders();
+			if (isExcluded(file, ignored)) {
+				return;
+			}
+			if (file.isDirectory()) {
+				final Path root = file.toPath();
+				Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+						if (
+							!path.equals(root) && (
+								Files.isHidden(path) ||
+								LibraryScanner.isSpecial(path.getFileName().toString(), true) ||
+								LibraryScanner.isIgnored(path.toString(), ignored)
+							)
+						) {
+							return FileVisitResult.SKIP_SUBTREE;
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+						if (Thread.currentThread().isInterrupted()) {
+							return FileVisitResult.TERMINATE;
+						}
+						if (attrs.isRegularFile()) {
+							index(path.toFile());
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path path, IOException e) {
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} else {
+				index(file);
+			}
+		} catch (IOException | RuntimeException e) {
+			LOGGER.debug("Media library indexer failed to process \"{}\": {}", file.getAbsolutePath(), e.getMessage());
+			LOGGER.trace("", e);
+		}
+	}
+
+	/**
+	 * Checks if a file or directory, or one of the directories above it, is
+	 * skipped by a {@link LibraryScanner} scan.
+	 */
+	private static boolean isExcluded(File file, String[] ignored) {
+		if (
+			LibraryScanner.isIgnored(file.getAbsolutePath(), ignored) ||
+			file.isHidden() ||
+			LibraryScanner.isSpecial(file.getName(), file.isDirectory())
+		) {
+			return true;
+		}
+		for (File parent = file.getParentFile(); parent != null && parent.getParentFile() != null; parent = parent.getParentFile()) {
+			if (parent.isHidden() || LibraryScanner.isSpecial(parent.getName(), true)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void index(File file) {
+		if (file.isHidden() || LibraryScanner.isSpecial(file.getName(), file.isDirectory())) {
+			return;
+		}
+		Format format = LibraryScanner.getFormat(file);
+		if (format == null) {
+			return;
+		}
+		// Like the library scan, only parse when the renderer allows it
+		RendererConfiguration renderer = RendererConfiguration.getDefaultConf();
+		if (renderer == null || !renderer.isUseMediaInfo()) {
+			return;
+		}
+		long modified = file.lastModified();
+		if (database.isDataExists(file.getAbsolutePath(), modified)) {
+			return;
+		}
+		DLNAMediaInfo media = LibraryScanner.parse(file, format, renderer, database);
+		if (media == null) {
+			return;
+		}
+		try {
+			database.insertOrUpdateData(file.getAbsolutePath(), modified, format.getType(), media);
+			LOGGER.debug("Media library indexer added \"{}\"", file.getAbsolutePath());
+		} catch (SQLException e) {
+			LOGGER.error("Database error while adding \"{}\" to the cache: {}", file.getAbsolutePath(), e.getMessage());
+			LOGGER.trace("", e);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.io.ProcessSupervisor;
+import net.pms.util.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class starts transcodes speculatively when a renderer asks for the
+ * metadata of a transcoded video, which usually precedes playback. The
+ * transcode runs for a number of seconds and is then paused until the
+ * playback request adopts it, or is cancelled after a timeout. The number of
+ * concurrent speculative transcodes is strictly limited, further requests are
+ * ignored rather than queued.
+ */
+public class PreTranscoder {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PreTranscoder.class);
+
+	private static PreTranscoder instance;
+
+	private final int seconds;
+	private final int maxJobs;
+	private final long timeout;
+	private final ThreadPoolExecutor executor;
+
+	/** The resources being pre-transcoded, guarded by itself */
+	private final Set<DLNAResource> active = Collections.newSetFromMap(new IdentityHashMap<DLNAResource, Boolean>());
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param seconds the number of seconds to transcode before pausing.
+	 * @param maxJobs the maximum number of concurrent speculative
+	 *            transcodes, 0 disables pre-transcoding.
+	 * @param timeout the time in milliseconds after which a speculative
+	 *            transcode is cancelled if no request adopted it.
+	 */
+	public PreTranscoder(int seconds, int maxJobs, long timeout) {
+		this.seconds = Math.max(seconds, 1);
+		this.maxJobs = Math.max(maxJobs, 0);
+		this.timeout = Math.max(timeout, 0);
+		executor = new ThreadPoolExecutor(
+			0,
+			Math.max(this.maxJobs, 1),
+			30,
+			TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(),
+			new BasicThreadFactory("Pre-transcoder %d", Thread.MIN_PRIORITY)
+		);
+	}
+
+	/**
+	 * @return The shared {@link PreTranscoder}.
+	 */
+	public static synchronized PreTranscoder get() {
+		if (instance == null) {
+			PmsConfiguration configuration = PMS.getConfiguration();
+			if (configuration != null && configuration.isTranscodePrewarm()) {
+				instance = new PreTranscoder(
+					configuration.getTranscodePrewarmSeconds(),
+					configuration.getTranscodePrewarmJobs(),
+					configuration.getTranscodePrewarmTimeout() * 1000L
+				);
+			} else {
+				instance = new PreTranscoder(1, 0, 0);
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Starts transcoding {@code resource} for {@code renderer} in the
+	 * background if it's a transcoded video and a speculative job is
+	 * available.
+	 *
+	 * @param resource the {@link DLNAResource} whose metadata was requested.
+	 * @param renderer the renderer that requested it.
+	 * @return {@code true} if a speculative transcode was scheduled.
+	 */
+	public boolean prewarm(final DLNAResource resource, final RendererConfiguration renderer) {
+		if (
+			maxJobs == 0 ||
+			resource == null ||
+			renderer == null ||
+			resource.isFolder() ||
+			resource.getPlayer() == null ||
+			resource.getFormat() == null ||
+			!resource.getFormat().isVideo()
+		) {
+			return false;
+		}
+		synchronized (active) {
+			if (active.size() >= maxJobs || !active.add(resource)) {
+				return false;
+			}
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					boolean held = false;
+					try {
+						held = transcode(resource, renderer);
+					} finally {
+						if (!held) {
+							finished(resource);
+						}
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			finished(resource);
+			return false;
+		}
+	}
+
+	private void finished(DLNAResource resource) {
+		synchronized (active) {
+			active.remove(resource);
+		}
+	}
+
+	/**
+	 * @return The number of running speculative transcodes.
+	 */
+	public int getActiveCount() {
+		synchronized (active) {
+			return active.size();
+		}
+	}
+
+	/**
+	 * Starts the speculative transcode and schedules the release of its
+	 * stream after the timeout on the {@link ProcessSupervisor}, so that no
+	 * thread waits for it.
+	 *
+	 * @return {@code true} if the transcode was started and the scheduled
+	 *         release ends the job.
+	 */
+	private boolean transcode(final DLNAResource resource, RendererConfiguration renderer) {
+		final InputStream held;
+		try {
+			held = resource.prewarmTranscode(renderer, seconds);
+		} catch (IOException e) {
+			LOGGER.debug("Couldn't start speculative transcode of \"{}\": {}", resource.getName(), e.getMessage());
+			LOGGER.trace("", e);
+			return false;
+		}
+		if (held == null) {
+			return false;
+		}
+		LOGGER.debug("Started speculative transcode of \"{}\" for {}", resource.getName(), renderer);
+		ProcessSupervisor.get().schedule(new Runnable() {
+			@Override
+			public void run() {
+				// The transcode stops unless a request has adopted it
+				try {
+					held.close();
+				} catch (IOException e) {
+					LOGGER.trace("", e);
+				} finally {
+					finished(resource);
+				}
+			}
+		}, timeout);
+		return true;
+	}
+}
@@ -22,9 +22,11 @@ import com.sun.jna.Platform;
 import java.io.*;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import net.pms.PMS;
 import net.pms.formats.Format;
 import net.pms.formats.FormatFactory;
+import net.pms.util.ContentFingerprint;
 import net.pms.util.FileUtil;
 import net.pms.util.ProcessUtil;
 import org.apache.commons.lang3.StringUtils;
@@ -84,7 +86,9 @@ public class RealFile extends MapFile {
 
 			// XXX isMediaInfoThumbnailGeneration is only true for the "default renderer"
 			if (getParent().getDefaultRenderer().isMediaInfoThumbnailGeneration()) {
-				checkThumbnail();
+				InputFile input = new InputFile();
+				input.setFile(file);
+				queueThumbnail(input, getParent().getDefaultRenderer());
 			}
 		}
 
@@ -97,6 +101,10 @@ public class RealFile extends MapFile {
 			return new FileInputStream(getFile());
 		} catch (FileNotFoundException e) {
 			LOGGER.debug("File not found: {}", getFile().getAbsolutePath());
+			if (configuration.getUseCache() && !getFile().exists()) {
+				// The media library doesn't validate files when listing them
+				PMS.get().getDatabase().removeFiles(Collections.singletonList(getFile().getAbsolutePath()));
+			}
 		}
 
 		return null;
@@ -169,6 +177,7 @@ public class RealFile extends MapFile {
 				fileName += "#SplitTrack" + getSplitTrack();
 			}
 
+			Long contentHash = null;
 			if (configuration.getUseCache()) {
 				DLNAMediaDatabase database = PMS.get().getDatabase();
 
@@ -196,6 +205,24 @@ public class RealFile extends MapFile {
 						LOGGER.trace("", e);
 					}
 
+					if (!found && getSplitTrack() == 0 && configuration.isMediaLibraryContentHash()) {
+						contentHash = ContentFingerprint.get(file);
+						if (contentHash != null) {
+							try {
+								DLNAMediaInfo media = database.getDataByContentHash(contentHash.longValue());
+								if (media != null) {
+									LOGGER.trace("Reusing cached information with the same content for {}", getName());
+									setMedia(media);
+									getMedia().postParse(getType(), input);
+									storeMedia(database, fileName, file);
+									found = true;
+								}
+							} catch (IOException | SQLException e) {
+								LOGGER.debug("Error while looking up cached information by content for {}: {}", getName(), e.getMessage());
+								LOGGER.trace("", e);
+							}
+						}
+					}
 				}
 			}
 
@@ -218,30 +245,35 @@ public class RealFile extends MapFile {
 					DLNAMediaDatabase database = PMS.get().getDatabase();
 
 					if (database != null) {
-						try {
-							database.insertOrUpdateData(fileName, file.lastModified(), getType(), getMedia());
-						} catch (SQLException e) {
-							LOGGER.error(
-								"Database error while trying to add parsed information for \"{}\" to the cache: {}",
-								fileName,
-								e.getMessage());
-							if (LOGGER.isTraceEnabled()) {
-								LOGGER.trace("SQL error code: {}", e.getErrorCode());
-								if (
-									e.getCause() instanceof SQLException &&
-									((SQLException) e.getCause()).getErrorCode() != e.getErrorCode()
-								) {
-									LOGGER.trace("Cause SQL error code: {}", ((SQLException) e.getCause()).getErrorCode());
-								}
-								LOGGER.trace("", e);
-							}
-						}
+						getMedia().setContentHash(contentHash);
+						storeMedia(database, fileName, file);
 					}
 				}
 			}
 		}
 	}
 
+	private void storeMedia(DLNAMediaDatabase database, String fileName, File file) {
+		try {
+			database.insertOrUpdateData(fileName, file.lastModified(), getType(), getMedia());
+		} catch (SQLException e) {
+			LOGGER.error(
+				"Database error while trying to add parsed information for \"{}\" to the cache: {}",
+				fileName,
+				e.getMessage());
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("SQL error code: {}", e.getErrorCode());
+				if (
+					e.getCause() instanceof SQLException &&
+					((SQLException) e.getCause()).getErrorCode() != e.getErrorCode()
+				) {
+					LOGGER.trace("Cause SQL error code: {}", ((SQLException) e.getCause()).getErrorCode());
+				}
+				LOGGER.trace("", e);
+			}
+		}
+	}
+
 	@Override
 	public DLNAThumbnailInputStream getThumbnailInputStream() throws IOException {
 		if (useSuperThumb || getParent() instanceof FileTranscodeVirtualFolder && (getMediaSubtitle() != null || getMediaAudio() != null)) {
@@ -325,10 +357,10 @@ public class RealFile extends MapFile {
 	}
 
 	@Override
-	public void checkThumbnail() {
+	public void checkThumbnail(ThumbnailService.Client client) {
 		InputFile input = new InputFile();
 		input.setFile(getFile());
-		checkThumbnail(input, getParent().getDefaultRenderer());
+		checkThumbnail(input, getParent().getDefaultRenderer(), client);
 	}
 
 	@Override
@@ -53,7 +53,7 @@ import xmlwise.XmlParseException;
 
 public class RootFolder extends DLNAResource {
 	private static final Logger LOGGER = LoggerFactory.getLogger(RootFolder.class);
-	private boolean running;
+	private volatile boolean running;
 	private FolderLimit lim;
 	private MediaMonitor mon;
 	private Playlist last;
@@ -193,6 +193,7 @@ public class RootFolder extends DLNAResource {
 	}
 
 	private IFrame frame = PMS.get().getFrame();
+	private volatile LibraryScanner scanner;
 
 	public void scan() {
 		if (!configuration.getUseCache()) {
@@ -200,16 +201,28 @@ public class RootFolder extends DLNAResource {
 		}
 		running = true;
 
-		if (!isDiscovered()) {
-			discoverChildren();
+		// Scan the shared folders directly, without building the browse tree
+		List<File> folders = new ArrayList<>();
+		File[] files = PMS.get().getSharedFoldersArray(false, null, configuration);
+		String[] skips = LibraryScanner.getIgnoredFolders();
+		if (files == null || files.length == 0) {
+			files = File.listRoots();
+		}
+		for (File file : files) {
+			if (!skipPath(skips, file.getAbsolutePath().toLowerCase())) {
+				folders.add(file);
+			}
 		}
 
-		setDefaultRenderer(RendererConfiguration.getDefaultConf());
-		LOGGER.debug("Starting scan of: {}", this.getName());
-		scan(this);
+		LOGGER.debug("Starting scan of: {}", folders);
+		scanner = new LibraryScanner(PMS.get().getDatabase(), RendererConfiguration.getDefaultConf(), configuration.getMediaLibraryScanThreads());
+		if (running) {
+			scanner.scan(folders);
+		}
+		scanner = null;
 
 		// Running might have been set false during scan
-		if (running) {
+		if (running && !configuration.isMediaLibraryBackgroundCleanup()) {
 			PMS.get().getDatabase().cleanup();
 		}
 		frame.setScanLibraryEnabled(true);
@@ -226,47 +239,17 @@ public class RootFolder extends DLNAResource {
 
 	public void stopScan() {
 		running = false;
+		LibraryScanner current = scanner;
+		if (current != null) {
+			current.stop();
+		}
 	}
 
-	private void scan(DLNAResource resource) {
-		if (running) {
-			for (DLNAResource child : resource.getChildren()) {
-				if (running && child.allowScan()) {
-					child.setDefaultRenderer(resource.getDefaultRenderer());
-
-					// Display and log which folder is being scanned
-					String childName = child.getName();
-					if (child instanceof RealFile) {
-						LOGGER.debug("Scanning folder: " + childName);
-						frame.setStatusLine(Messages.getString("DLNAMediaDatabase.4") + " " + childName);
-					}
-
-					if (child.isDiscovered()) {
-						child.refreshChildren();
-					} else {
-						if (child instanceof DVDISOFile || child instanceof DVDISOTitle) { // ugly hack
-							child.syncResolve();
-						}
-						child.discoverChildren();
-						child.analyzeChildren(-1);
-						child.setDiscovered(true);
-					}
-
-					int count = child.getChildren().size();
-
-					if (count == 0) {
-						continue;
-					}
-
-					scan(child);
-					child.getChildren().clear();
-				} else if (!running){
-					break;
-				}
-			}
-		} else {
-			frame.setScanLibraryEnabled(true);
-		}
+	/**
+	 * @return The running {@link LibraryScanner} or {@code null}.
+	 */
+	public LibraryScanner getScanner() {
+		return scanner;
 	}
 
 	private List<RealFile> getConfiguredFolders(ArrayList<String> tags) {
@@ -299,17 +282,7 @@ public class RootFolder extends DLNAResource {
 	}
 
 	private boolean skipPath(String[] skips, String path) {
-		for (String s : skips) {
-			if (StringUtils.isBlank(s)) {
-				continue;
-			}
-
-			if (path.contains(s.toLowerCase())) {
-				return true;
-			}
-		}
-
-		return false;
+		return LibraryScanner.isIgnored(path, skips);
 	}
 
 	private List<DLNAResource> getVirtualFolders(ArrayList<String> tags) {
@@ -0,0 +1,494 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.util.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class generates thumbnails on a bounded pool of threads.
+ * <ul>
+ * <li>Requests for the same file are coalesced, so that only one thumbnail is
+ * generated no matter how many resources or renderers ask for it.</li>
+ * <li>Requests from a waiting client are served before background requests,
+ * and the most recent requests first, so that the items a renderer shows
+ * right now are served before those it has scrolled past.</li>
+ * <li>A queued request is dropped when all clients waiting for it have gone.
+ * </li>
+ * <li>The number of queued background requests is bounded. When the queue is
+ * full, the oldest background request is dropped, since it's the one the
+ * renderer is least likely to show.</li>
+ * <li>Generated thumbnails are stored in the {@link DLNAMediaDatabase}, and
+ * looked up there before anything is generated.</li>
+ * </ul>
+ */
+public class ThumbnailService {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThumbnailService.class);
+
+	/** The maximum time in milliseconds a client waits for a thumbnail */
+	private static final long TIMEOUT = 30000;
+
+	/** The interval in milliseconds at which waiting clients are checked */
+	private static final long POLL_INTERVAL = 500;
+
+	/** The default maximum number of queued requests before background requests are dropped */
+	private static final int MAX_QUEUED = 1000;
+
+	private static ThumbnailService instance;
+
+	/**
+	 * The priority of a thumbnail request.
+	 */
+	public enum Priority {
+
+		/** Generated when nothing else is waiting */
+		BACKGROUND,
+
+		/** A client is waiting for the thumbnail */
+		VISIBLE
+	}
+
+	/**
+	 * Tells a waiting {@link Task} whether its client is still there.
+	 */
+	public interface Client {
+
+		/**
+		 * @return {@code false} if the client has disconnected.
+		 */
+		boolean isConnected();
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final int maxQueued;
+	private final AtomicLong sequence = new AtomicLong();
+
+	/** The queued and running tasks by key, guarded by itself */
+	private final Map<String, Task> tasks = new HashMap<>();
+
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong generatedCount = new AtomicLong();
+	private final AtomicLong cachedCount = new AtomicLong();
+	private final AtomicLong cancelledCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong totalQueueTime = new AtomicLong();
+	private final AtomicLong maxQueueSize = new AtomicLong();
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param threads the maximum number of thumbnails generated at the same
+	 *            time.
+	 */
+	public ThumbnailService(int threads) {
+		this(threads, MAX_QUEUED);
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param threads the maximum number of thumbnails generated at the same
+	 *            time.
+	 * @param maxQueued the number of queued requests from which background
+	 *            requests are dropped.
+	 */
+	ThumbnailService(int threads, int maxQueued) {
+		this.maxQueued = Math.max(maxQueued, 1);
+		threads = Math.max(threads, 1);
+		executor = new ThreadPoolExecutor(
+			threads,
+			threads,
+			30,
+			TimeUnit.SECONDS,
+			new PriorityBlockingQueue<Runnable>(),
+			new BasicThreadFactory("Thumbnail worker %d", Thread.MIN_PRIORITY)
+		);
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return The shared {@link ThumbnailService}.
+	 */
+	public static synchronized ThumbnailService get() {
+		if (instance == null) {
+			PmsConfiguration configuration = PMS.getConfiguration();
+			instance = new ThumbnailService(configuration != null ? configuration.getThumbnailThreads() : 2);
+		}
+		return instance;
+	}
+
+	/**
+	 * Queues a thumbnail for generation without waiting for it.
+	 *
+	 * @param resource the {@link DLNAResource} to generate the thumbnail for.
+	 * @param inputFile the {@link InputFile} to generate the thumbnail from.
+	 * @param renderer the {@link RendererConfiguration} or {@code null}.
+	 */
+	public void submit(DLNAResource resource, InputFile inputFile, RendererConfiguration renderer) {
+		submit(resource, inputFile, renderer, Priority.BACKGROUND);
+	}
+
+	/**
+	 * Queues a thumbnail for generation, or joins an already queued or running
+	 * generation for the same file.
+	 *
+	 * @param resource the {@link DLNAResource} to generate the thumbnail for.
+	 * @param inputFile the {@link InputFile} to generate the thumbnail from.
+	 * @param renderer the {@link RendererConfiguration} or {@code null}.
+	 * @param priority the {@link Priority}. If {@link Priority#VISIBLE} the
+	 *            caller must either {@link Task#await(Client)} or
+	 *            {@link Task#cancel()} the returned {@link Task}.
+	 * @return The {@link Task}.
+	 */
+	public Task submit(DLNAResource resource, InputFile inputFile, RendererConfiguration renderer, Priority priority) {
+		requestCount.incrementAndGet();
+		String key = getKey(resource, inputFile);
+		synchronized (tasks) {
+			Task task = tasks.get(key);
+			if (task != null && task.join(resource, priority)) {
+				coalescedCount.incrementAndGet();
+				return task;
+			}
+			if (priority == Priority.BACKGROUND && executor.getQueue().size() >= maxQueued) {
+				dropOldestBackground();
+			}
+			task = new Task(key, resource, inputFile, renderer, priority);
+			tasks.put(key, task);
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				tasks.remove(key);
+				task.finish();
+			}
+			int queueSize = executor.getQueue().size();
+			if (queueSize > maxQueueSize.get()) {
+				maxQueueSize.set(queueSize);
+			}
+			return task;
+		}
+	}
+
+	/**
+	 * Drops the oldest queued request that no client is waiting for. Must be
+	 * called while holding {@link #tasks}.
+	 */
+	private void dropOldestBackground() {
+		Task oldest = null;
+		for (Runnable runnable : executor.getQueue()) {
+			Task task = (Task) runnable;
+			if (task.waiters == 0 && !task.started && (oldest == null || task.order < oldest.order)) {
+				oldest = task;
+			}
+		}
+		if (oldest != null && executor.remove(oldest)) {
+			tasks.remove(oldest.key);
+			droppedCount.incrementAndGet();
+			oldest.finish();
+		}
+	}
+
+	private static String getKey(DLNAResource resource, InputFile inputFile) {
+		StringBuilder sb = new StringBuilder();
+		File file = inputFile != null ? inputFile.getFile() : null;
+		if (file != null) {
+			sb.append(file.getAbsolutePath());
+		} else {
+			sb.append(resource.getSystemName()).append('@').append(System.identityHashCode(resource));
+		}
+		if (resource.isResume()) {
+			sb.append("#resume").append(resource.getResume().getTimeOffset());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return The number of queued thumbnail requests.
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * @return The largest number of queued thumbnail requests so far.
+	 */
+	public long getMaxQueueSize() {
+		return maxQueueSize.get();
+	}
+
+	/**
+	 * @return The number of thumbnails being generated right now.
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * @return The number of thumbnail requests received.
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * @return The number of requests that joined an already queued or running
+	 *         request.
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * @return The number of thumbnails generated.
+	 */
+	public long getGeneratedCount() {
+		return generatedCount.get();
+	}
+
+	/**
+	 * @return The number of thumbnails found in the database instead of
+	 *         being generated.
+	 */
+	public long getCachedCount() {
+		return cachedCount.get();
+	}
+
+	/**
+	 * @return The number of queued requests dropped because their clients
+	 *         had gone.
+	 */
+	public long getCancelledCount() {
+		return cancelledCount.get();
+	}
+
+	/**
+	 * @return The number of background requests dropped because the queue
+	 *         was full.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return The average time in milliseconds requests spent in the queue.
+	 */
+	public long getAverageQueueTime() {
+		long processed = generatedCount.get() + cachedCount.get();
+		return processed > 0 ? totalQueueTime.get() / processed : 0;
+	}
+
+	@Override
+	public String toString() {
+		return
+			"ThumbnailService [queued=" + getQueueSize() + ", maxQueued=" + getMaxQueueSize() +
+			", active=" + getActiveCount() + ", requests=" + getRequestCount() +
+			", coalesced=" + getCoalescedCount() + ", generated=" + getGeneratedCount() +
+			", cached=" + getCachedCount() + ", cancelled=" + getCancelledCount() +
+			", dropped=" + getDroppedCount() + ", averageQueueTime=" + getAverageQueueTime() + " ms]";
+	}
+
+	/**
+	 * A queued or running thumbnail generation. All fields except the latch
+	 * are guarded by {@link ThumbnailService#tasks}.
+	 */
+	public final class Task implements Runnable, Comparable<Task> {
+		private final String key;
+		private final DLNAResource resource;
+		private final InputFile inputFile;
+		private final RendererConfiguration renderer;
+		private final long created = System.currentTimeMillis();
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		/** Other resources for the same file that want the result */
+		private final List<DLNAResource> others = new ArrayList<>();
+		private Priority priority;
+		private long order;
+		private boolean background;
+		private int waiters;
+		private boolean started;
+
+		private Task(String key, DLNAResource resource, InputFile inputFile, RendererConfiguration renderer, Priority priority) {
+			this.key = key;
+			this.resource = resource;
+			this.inputFile = inputFile;
+			this.renderer = renderer;
+			this.priority = priority;
+			this.order = sequence.incrementAndGet();
+			if (priority == Priority.VISIBLE) {
+				waiters++;
+			} else {
+				background = true;
+			}
+		}
+
+		/**
+		 * Adds a request to this task, moving it to the front of the queue if
+		 * it hasn't started. Must be called while holding
+		 * {@link ThumbnailService#tasks}.
+		 *
+		 * @return {@code false} if the task has finished and can't be joined.
+		 */
+		private boolean join(DLNAResource other, Priority newPriority) {
+			if (done.getCount() == 0) {
+				return false;
+			}
+			if (other != resource && !others.contains(other)) {
+				others.add(other);
+			}
+			if (newPriority == Priority.VISIBLE) {
+				waiters++;
+			} else {
+				background = true;
+			}
+			if (!started && executor.remove(this)) {
+				if (newPriority.compareTo(priority) > 0) {
+					priority = newPriority;
+				}
+				order = sequence.incrementAndGet();
+				executor.execute(this);
+			}
+			return true;
+		}
+
+		/**
+		 * Waits for the thumbnail. Gives up and calls {@link #cancel()} if it
+		 * takes too long or {@code client} disconnects.
+		 *
+		 * @param client the {@link Client} to check while waiting or
+		 *            {@code null}.
+		 * @return {@code true} if the task has finished.
+		 */
+		public boolean await(Client client) {
+			long deadline = System.currentTimeMillis() + TIMEOUT;
+			try {
+				long remaining;
+				while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+					if (done.await(Math.min(remaining, POLL_INTERVAL), TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+					if (client != null && !client.isConnected()) {
+						LOGGER.trace("Client disconnected while waiting for the thumbnail for {}", key);
+						break;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			cancel();
+			return false;
+		}
+
+		/**
+		 * Withdraws a {@link Priority#VISIBLE} request. If no other client is
+		 * waiting, a task that hasn't started is dropped, or moved back to
+		 * {@link Priority#BACKGROUND} if it was also requested in the
+		 * background.
+		 */
+		public void cancel() {
+			synchronized (tasks) {
+				if (waiters > 0) {
+					waiters--;
+				}
+				if (waiters > 0 || started || !executor.remove(this)) {
+					return;
+				}
+				if (background) {
+					priority = Priority.BACKGROUND;
+					executor.execute(this);
+				} else {
+					tasks.remove(key);
+					cancelledCount.incrementAndGet();
+					done.countDown();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			synchronized (tasks) {
+				if (started) {
+					return;
+				}
+				started = true;
+			}
+			totalQueueTime.addAndGet(System.currentTimeMillis() - created);
+			try {
+				if (resource.getThumbnailFromDatabase(inputFile)) {
+					cachedCount.incrementAndGet();
+				} else {
+					resource.generateThumbnail(inputFile, renderer);
+					generatedCount.incrementAndGet();
+				}
+			} catch (RuntimeException e) {
+				LOGGER.debug("Error while generating the thumbnail for {}: {}", key, e.getMessage());
+				LOGGER.trace("", e);
+			} finally {
+				DLNAResource[] targets;
+				synchronized (tasks) {
+					tasks.remove(key);
+					targets = others.toArray(new DLNAResource[others.size()]);
+				}
+				DLNAMediaInfo media = resource.getMedia();
+				if (media != null && media.isThumbready()) {
+					for (DLNAResource other : targets) {
+						DLNAMediaInfo otherMedia = other.getMedia();
+						if (otherMedia != null && !otherMedia.isThumbready()) {
+							otherMedia.setThumb(media.getThumb());
+							otherMedia.setThumbready(true);
+						}
+					}
+				}
+				finish();
+			}
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("Thumbnail for {} done: {}", key, ThumbnailService.this);
+			} else if (executor.getQueue().isEmpty() && executor.getActiveCount() <= 1) {
+				LOGGER.debug("Thumbnail queue done: {}", ThumbnailService.this);
+			}
+		}
+
+		private void finish() {
+			done.countDown();
+		}
+
+		@Override
+		public int compareTo(Task other) {
+			int result = other.priority.compareTo(priority);
+			if (result == 0) {
+				result = Long.compare(other.order, order);
+			}
+			return result;
+		}
+	}
+}
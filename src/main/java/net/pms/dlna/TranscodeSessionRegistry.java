@@ -0,0 +1,200 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import net.pms.PMS;
+import net.pms.configuration.DeviceConfiguration;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.encoders.Player;
+import net.pms.io.OutputParams;
+import net.pms.io.ProcessWrapper;
+import net.pms.io.ProcessWrapperImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class keeps track of the running transcodes so that clients requesting
+ * the same resource with the same transcode parameters can read from one
+ * transcode instead of starting another. The additional clients attach to the
+ * existing buffer as separate readers, each with its own read position.
+ * <p>
+ * The attached readers act as the reference count of a session: the transcode
+ * is stopped once no attached reader is left reading from it, after which the
+ * session is removed from the registry.
+ */
+public class TranscodeSessionRegistry {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TranscodeSessionRegistry.class);
+	private static final TranscodeSessionRegistry INSTANCE = new TranscodeSessionRegistry();
+
+	/** The running transcodes by signature, guarded by {@code this} */
+	private final Map<String, ProcessWrapper> sessions = new HashMap<>();
+
+	/**
+	 * @return The {@link TranscodeSessionRegistry} instance.
+	 */
+	public static TranscodeSessionRegistry get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Creates the signature identifying a transcode of {@code resource} with
+	 * {@code player} and {@code params}. Two requests with the same signature
+	 * produce the same output. The signature changes when the source file is
+	 * modified or when a setting that affects the output is changed.
+	 *
+	 * @param resource the {@link DLNAResource} to transcode.
+	 * @param player the {@link Player} to transcode with.
+	 * @param params the {@link OutputParams} of the transcode.
+	 * @return The signature.
+	 */
+	public static String getSignature(DLNAResource resource, Player player, OutputParams params) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(resource.getSystemName());
+		if (resource instanceof RealFile) {
+			File file = ((RealFile) resource).getFile();
+			sb.append('|').append(file.lastModified()).append(':').append(file.length());
+		} else {
+			sb.append('|').append(resource.getLastModified());
+		}
+		sb.append('|').append(player != null ? player.id() : null);
+		RendererConfiguration renderer = params.mediaRenderer;
+		if (renderer != null) {
+			sb.append('|').append(renderer.getConfName());
+			if (renderer instanceof DeviceConfiguration && ((DeviceConfiguration) renderer).isCustomized()) {
+				// The transcode depends on settings specific to this device
+				sb.append('@').append(renderer.getId());
+			}
+		}
+		sb.append('|').append(params.timeseek);
+		sb.append('|').append(params.timeend);
+		if (params.aid != null) {
+			sb.append("|a").append(params.aid.getId()).append(':').append(params.aid.getLang());
+		}
+		if (params.sid != null) {
+			sb.append("|s").append(params.sid.getId()).append(':').append(params.sid.getLang());
+			sb.append(':').append(params.sid.getType());
+			if (params.sid.getExternalFile() != null) {
+				sb.append(':').append(params.sid.getExternalFile().getAbsolutePath());
+			}
+		}
+		sb.append("|o").append(Integer.toHexString(getSettingsHash(params)));
+		return sb.toString();
+	}
+
+	/**
+	 * Hashes the settings that affect the output of a transcode but aren't
+	 * identified by the renderer profile name: bitrates, encoder quality and
+	 * custom options, audio output and subtitle styling. Only values with a
+	 * stable hash code are used since signatures are also stored on disk by
+	 * {@link net.pms.io.TranscodeCache}.
+	 *
+	 * @param params the {@link OutputParams} of the transcode.
+	 * @return The hash of the settings.
+	 */
+	static int getSettingsHash(OutputParams params) {
+		PmsConfiguration configuration = PMS.getConfiguration(params);
+		RendererConfiguration renderer = params.mediaRenderer;
+		return Arrays.hashCode(new Object[] {
+			configuration.getMaximumBitrate(),
+			configuration.getMPEG2MainSettings(),
+			configuration.getMPEG2MainSettingsFFmpeg(),
+			configuration.getx264ConstantRateFactor(),
+			configuration.getMencoderCustomOptions(),
+			configuration.getAudioBitrate(),
+			configuration.getAudioChannelCount(),
+			configuration.isAudioRemuxAC3(),
+			configuration.isAudioResample(),
+			configuration.getSubtitlesCodepage(),
+			configuration.isFFmpegFontConfig(),
+			configuration.getFont(),
+			configuration.getAssScale(),
+			configuration.getAssOutline(),
+			configuration.getAssShadow(),
+			configuration.getAssMargin(),
+			configuration.getSubsColor().getASSv4StylesHexValue(),
+			renderer != null ? renderer.getMaxVideoBitrate() : null,
+			renderer != null ? renderer.getCustomFFmpegOptions() : null,
+			renderer != null ? renderer.getCustomMencoderOptions() : null,
+			renderer != null ? renderer.getFFmpegVideoFilterOverride() : null
+		});
+	}
+
+	/**
+	 * Finds a running transcode with the given signature that can serve a new
+	 * reader at {@code position}.
+	 *
+	 * @param signature the signature from
+	 *            {@link #getSignature(DLNAResource, Player, OutputParams)}.
+	 * @param position the byte position the new reader starts at.
+	 * @return The running {@link ProcessWrapper} or {@code null} if there is
+	 *         none or it no longer holds the data at {@code position}.
+	 */
+	public synchronized ProcessWrapper attach(String signature, long position) {
+		ProcessWrapper process = sessions.get(signature);
+		if (process == null) {
+			return null;
+		}
+		if (process.isDestroyed()) {
+			sessions.remove(signature);
+			return null;
+		}
+		if (!(process instanceof ProcessWrapperImpl) || !((ProcessWrapperImpl) process).canRead(position)) {
+			LOGGER.trace("Not sharing transcode {} since position {} is no longer buffered", process, position);
+			return null;
+		}
+		LOGGER.debug("Sharing running transcode {} with a new client", process);
+		return process;
+	}
+
+	/**
+	 * Registers a newly started transcode, replacing any previous transcode
+	 * with the same signature. Stopped transcodes are removed.
+	 *
+	 * @param signature the signature from
+	 *            {@link #getSignature(DLNAResource, Player, OutputParams)}.
+	 * @param process the started {@link ProcessWrapper}.
+	 */
+	public synchronized void register(String signature, ProcessWrapper process) {
+		for (Iterator<ProcessWrapper> iterator = sessions.values().iterator(); iterator.hasNext();) {
+			if (iterator.next().isDestroyed()) {
+				iterator.remove();
+			}
+		}
+		sessions.put(signature, process);
+	}
+
+	/**
+	 * @return The number of registered transcodes that are still running.
+	 */
+	public synchronized int size() {
+		int count = 0;
+		for (ProcessWrapper process : sessions.values()) {
+			if (!process.isDestroyed()) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
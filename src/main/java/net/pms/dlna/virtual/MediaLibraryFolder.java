@@ -2,8 +2,13 @@ package net.pms.dlna.virtual;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import net.pms.PMS;
 import net.pms.dlna.*;
+import net.pms.util.DLNAList;
 import net.pms.util.UMSUtils;
 
 public class MediaLibraryFolder extends VirtualFolder {
@@ -11,10 +16,38 @@ public class MediaLibraryFolder extends VirtualFolder {
 	public static final int TEXTS = 1;
 	public static final int PLAYLISTS = 2;
 	public static final int ISOS = 3;
+	/**
+	 * The maximum number of file nodes kept alive for paged folders so that
+	 * IDs handed out with previous pages stay valid.
+	 */
+	private static final int PAGE_CACHE_SIZE = 1000;
 	private String sqls[];
 	private int expectedOutputs[];
 	private DLNAMediaDatabase database;
 
+	/** The number of matching rows if this folder is paged, otherwise -1 */
+	private int totalMatches = -1;
+	private int pageStart = -1;
+	private int pageCount = -1;
+	private final Map<String, DLNAResource> pageCache = new LinkedHashMap<String, DLNAResource>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, DLNAResource> eldest) {
+			if (size() > PAGE_CACHE_SIZE) {
+				if (!getChildren().contains(eldest.getValue())) {
+					PMS.getGlobalRepo().remove(eldest.getValue());
+				}
+				pageModified.remove(eldest.getKey());
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/** The database modification times of the files in {@link #pageCache} */
+	private final Map<String, Long> pageModified = new HashMap<>();
+
 	public MediaLibraryFolder(String name, String sql, int expectedOutput) {
 		this(name, new String[]{sql}, new int[]{expectedOutput});
 	}
@@ -26,8 +59,126 @@ public class MediaLibraryFolder extends VirtualFolder {
 		this.database = PMS.get().getDatabase();
 	}
 
+	/**
+	 * Returns the query for the files of this folder with the configured
+	 * media library sort order applied by the database, or {@code null} if
+	 * this folder can't be paged. This is the case for folder levels and for
+	 * sort orders that can only be applied in memory.
+	 *
+	 * @return The paged query or {@code null}.
+	 */
+	private String getPagedSQL() {
+		if (sqls.length == 0 || sqls[0] == null || expectedOutputs[0] == TEXTS) {
+			return null;
+		}
+		String sql = transformSQL(sqls[0]);
+		switch (PMS.getConfiguration().mediaLibrarySort()) {
+			case UMSUtils.SORT_NO_SORT:
+				return sql;
+			case UMSUtils.SORT_MOD_NEW:
+				return wrapSQL(sql, "MODIFIED DESC");
+			case UMSUtils.SORT_MOD_OLD:
+				return wrapSQL(sql, "MODIFIED ASC");
+			default:
+				return null;
+		}
+	}
+
+	private static String wrapSQL(String sql, String orderBy) {
+		if (!sql.toLowerCase().startsWith("select")) {
+			sql = "SELECT FILENAME, MODIFIED FROM FILES WHERE " + sql;
+		}
+		return "SELECT FILENAME, MODIFIED FROM (" + sql + ") ORDER BY " + orderBy;
+	}
+
+	/**
+	 * @return Whether the children of this folder are fetched from the
+	 *         database one page at a time.
+	 */
+	public boolean isPaged() {
+		return totalMatches > -1;
+	}
+
+	@Override
+	public int childrenNumber() {
+		return isPaged() ? totalMatches : super.childrenNumber();
+	}
+
+	@Override
+	public List<DLNAResource> getChildren(int start, int count) {
+		if (!isPaged()) {
+			return super.getChildren(start, count);
+		}
+		// The check and the copy must see the same page when renderers page concurrently
+		synchronized (this) {
+			if (start != pageStart || count != pageCount) {
+				return loadPage(start, count);
+			}
+			return new ArrayList<>(getChildren());
+		}
+	}
+
+	/**
+	 * Replaces the children of this folder with the nodes for the requested
+	 * page. Nodes for files that have been returned recently are reused so
+	 * that their IDs remain the same.
+	 *
+	 * Must be called while synchronized on this folder.
+	 *
+	 * @param start the index of the first file.
+	 * @param count the maximum number of files.
+	 * @return A copy of the children for the page.
+	 */
+	private List<DLNAResource> loadPage(int start, int count) {
+		String sql = getPagedSQL();
+		if (sql == null) {
+			return new ArrayList<>(getChildren());
+		}
+		List<Long> modified = new ArrayList<>();
+		ArrayList<File> list = database.getFiles(sql, start, count, modified);
+		setChildren(new DLNAList());
+		if (list != null) {
+			int expectedOutput = expectedOutputs[0];
+			for (int i = 0; i < list.size(); i++) {
+				File file = list.get(i);
+				String key = file.getAbsolutePath();
+				Long fileModified = modified.get(i);
+				DLNAResource child = pageCache.get(key);
+				// Compare with the database instead of the file system to spare a stat per row
+				if (child != null && fileModified.equals(pageModified.get(key))) {
+					getChildren().add(child);
+					continue;
+				}
+				int size = getChildren().size();
+				if (expectedOutput == FILES) {
+					addChild(new RealFile(file));
+				} else if (expectedOutput == PLAYLISTS) {
+					addChild(new PlaylistFolder(file));
+				} else if (expectedOutput == ISOS) {
+					addChild(new DVDISOFile(file));
+				}
+				if (getChildren().size() > size) {
+					pageCache.put(key, getChildren().get(size));
+					pageModified.put(key, fileModified);
+				}
+			}
+		}
+		pageStart = start;
+		pageCount = count;
+		return new ArrayList<>(getChildren());
+	}
+
 	@Override
 	public void discoverChildren() {
+		String pagedSQL = getPagedSQL();
+		if (pagedSQL != null) {
+			totalMatches = Math.max(database.getFilesCount(pagedSQL), 0);
+			synchronized (this) {
+				pageStart = -1;
+			}
+			return;
+		}
+		totalMatches = -1;
 		if (sqls.length > 0) {
 			String sql = sqls[0];
 			int expectedOutput = expectedOutputs[0];
@@ -105,6 +256,21 @@ public class MediaLibraryFolder extends VirtualFolder {
 
 	@Override
 	public void doRefreshChildren() {
+		if (isPaged()) {
+			String pagedSQL = getPagedSQL();
+			if (pagedSQL != null) {
+				int count = database.getFilesCount(pagedSQL);
+				if (count > -1 && count != totalMatches) {
+					totalMatches = count;
+					setUpdateId(this.getIntId());
+				}
+				pageStart = -1;
+				return;
+			}
+			// The sort order changed to one that can't be paged
+			totalMatches = -1;
+			getChildren().clear();
+		}
 		ArrayList<File> list = null;
 		ArrayList<String> strings = null;
 		int expectedOutput = 0;
@@ -35,7 +35,7 @@ import java.util.regex.Pattern;
 import javax.swing.JCheckBox;
 import javax.swing.JComponent;
 import net.pms.Messages;
-import net.pms.configuration.DeviceConfiguration;
+import net.pms.PMS;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.configuration.RendererConfiguration;
 import net.pms.dlna.DLNAMediaInfo;
@@ -109,6 +109,7 @@ public class FFMpegVideo extends Player {
 	 * @throws java.io.IOException
 	 */
 	public List<String> getVideoFilterOptions(DLNAResource dlna, DLNAMediaInfo media, OutputParams params) throws IOException {
+		PmsConfiguration configuration = PMS.getConfiguration(params);
 		List<String> videoFilterOptions = new ArrayList<>();
 		ArrayList<String> filterChain = new ArrayList<>();
 		ArrayList<String> scalePadFilterChain = new ArrayList<>();
@@ -302,7 +303,8 @@ public class FFMpegVideo extends Player {
 	 * @return a {@link List} of <code>String</code>s representing the FFmpeg output parameters for the renderer according
 	 * to its <code>TranscodeVideo</code> profile.
 	 */
-	public synchronized List<String> getVideoTranscodeOptions(DLNAResource dlna, DLNAMediaInfo media, OutputParams params) {
+	public List<String> getVideoTranscodeOptions(DLNAResource dlna, DLNAMediaInfo media, OutputParams params) {
+		PmsConfiguration configuration = PMS.getConfiguration(params);
 		List<String> transcodeOptions = new ArrayList<>();
 		final String filename = dlna.getFileName();
 		final RendererConfiguration renderer = params.mediaRenderer;
@@ -329,15 +331,8 @@ public class FFMpegVideo extends Player {
 			transcodeOptions.add("-f");
 			transcodeOptions.add("asf");
 		} else { // MPEGPSMPEG2AC3, MPEGTSMPEG2AC3, MPEGTSH264AC3 or MPEGTSH264AAC
-			final boolean isTsMuxeRVideoEngineActive = PlayerFactory.isPlayerActive(TsMuxeRVideo.ID);
-
 			// Output audio codec
-			dtsRemux = isTsMuxeRVideoEngineActive &&
-				configuration.isAudioEmbedDtsInPcm() &&
-				params.aid != null &&
-				params.aid.isDTS() &&
-				!avisynth() &&
-				renderer.isDTSPlayable();
+			boolean dtsRemux = isDtsRemux(params);
 
 			boolean isSubtitlesAndTimeseek = !isDisableSubtitles(params) && params.timeseek > 0;
 
@@ -424,6 +419,7 @@ public class FFMpegVideo extends Player {
 	 * @return a {@link List} of <code>String</code>s representing the video bitrate options for this transcode
 	 */
 	public List<String> getVideoBitrateOptions(DLNAResource dlna, DLNAMediaInfo media, OutputParams params) {
+		PmsConfiguration configuration = PMS.getConfiguration(params);
 		List<String> videoBitrateOptions = new ArrayList<>();
 		boolean low = false;
 
@@ -511,7 +507,7 @@ public class FFMpegVideo extends Player {
 
 			if (!bitrateLevel41Limited) {
 				// Make room for audio
-				if (dtsRemux) {
+				if (isDtsRemux(params)) {
 					defaultMaxBitrates[0] -= 1510;
 				} else {
 					defaultMaxBitrates[0] -= configuration.getAudioBitrate();
@@ -623,8 +619,41 @@ public class FFMpegVideo extends Player {
 		return audioBitrateOptions;
 	}
 
-	protected boolean dtsRemux;
-	protected boolean ac3Remux;
+	/**
+	 * Determines whether AC-3 audio can be remuxed instead of transcoded.
+	 *
+	 * @param params the {@link OutputParams} of the transcode.
+	 * @return {@code true} if the audio is remuxed as AC-3.
+	 */
+	protected boolean isAc3Remux(OutputParams params) {
+		PmsConfiguration configuration = PMS.getConfiguration(params);
+		RendererConfiguration renderer = params.mediaRenderer;
+		return
+			configuration.isAudioRemuxAC3() &&
+			params.aid != null &&
+			params.aid.isAC3() &&
+			!avisynth() &&
+			renderer.isTranscodeToAC3() &&
+			!(renderer.isXboxOne() && purpose() == VIDEO_WEBSTREAM_PLAYER) &&
+			params.aid.getAudioProperties().getNumberOfChannels() <= configuration.getAudioChannelCount();
+	}
+
+	/**
+	 * Determines whether DTS audio is muxed by tsMuxeR, either as DTS or
+	 * padded in LPCM.
+	 *
+	 * @param params the {@link OutputParams} of the transcode.
+	 * @return {@code true} if the audio is remuxed as DTS.
+	 */
+	protected boolean isDtsRemux(OutputParams params) {
+		return
+			PlayerFactory.isPlayerActive(TsMuxeRVideo.ID) &&
+			PMS.getConfiguration(params).isAudioEmbedDtsInPcm() &&
+			params.aid != null &&
+			params.aid.isDTS() &&
+			!avisynth() &&
+			params.mediaRenderer.isDTSPlayable();
+	}
 
 	@Override
 	public int purpose() {
@@ -718,13 +747,24 @@ public class FFMpegVideo extends Player {
 		return configuration.getFfmpegPath();
 	}
 
+	/**
+	 * Returns the FFmpeg executable configured for the renderer of a
+	 * transcode, falling back to the global configuration.
+	 *
+	 * @param params the {@link OutputParams} of the transcode.
+	 * @return The path of the FFmpeg executable.
+	 */
+	protected String executable(OutputParams params) {
+		return PMS.getConfiguration(params).getFfmpegPath();
+	}
+
 	@Override
 	public boolean isGPUAccelerationReady() {
 		return false;
 	}
 
 	@Override
-	public synchronized ProcessWrapper launchTranscode(
+	public ProcessWrapper launchTranscode(
 		DLNAResource dlna,
 		DLNAMediaInfo media,
 		OutputParams params
@@ -734,8 +774,7 @@ public class FFMpegVideo extends Player {
 		newInput.setFilename(filename);
 		newInput.setPush(params.stdin);
 		// Use device-specific DMS conf
-		PmsConfiguration prev = configuration;
-		configuration = (DeviceConfiguration) params.mediaRenderer;
+		PmsConfiguration configuration = PMS.getConfiguration(params);
 		RendererConfiguration renderer = params.mediaRenderer;
 
 		/*
@@ -777,7 +816,7 @@ public class FFMpegVideo extends Player {
 
 		setAudioAndSubs(filename, media, params);
 		dlna.setMediaSubtitle(params.sid);
-		cmdList.add(executable());
+		cmdList.add(executable(params));
 
 		// Prevent FFmpeg timeout
 		cmdList.add("-y");
@@ -800,32 +839,9 @@ public class FFMpegVideo extends Player {
 			cmdList.add(String.valueOf(nThreads));
 		}
 
-		final boolean isTsMuxeRVideoEngineActive = PlayerFactory.isPlayerActive(TsMuxeRVideo.ID);
-		final boolean isXboxOneWebVideo = params.mediaRenderer.isXboxOne() && purpose() == VIDEO_WEBSTREAM_PLAYER;
-
-		ac3Remux = false;
-		dtsRemux = false;
-
-		if (
-			configuration.isAudioRemuxAC3() &&
-			params.aid != null &&
-			params.aid.isAC3() &&
-			!avisynth() &&
-			renderer.isTranscodeToAC3() &&
-			!isXboxOneWebVideo &&
-			params.aid.getAudioProperties().getNumberOfChannels() <= configuration.getAudioChannelCount()
-		) {
-			// AC-3 remux takes priority
-			ac3Remux = true;
-		} else {
-			// Now check for DTS remux and LPCM streaming
-			dtsRemux = isTsMuxeRVideoEngineActive &&
-				configuration.isAudioEmbedDtsInPcm() &&
-				params.aid != null &&
-				params.aid.isDTS() &&
-				!avisynth() &&
-				params.mediaRenderer.isDTSPlayable();
-		}
+		// AC-3 remux takes priority, then check for DTS remux and LPCM streaming
+		final boolean ac3Remux = isAc3Remux(params);
+		final boolean dtsRemux = !ac3Remux && isDtsRemux(params);
 
 		String frameRateRatio = media.getValidFps(true);
 		String frameRateNumber = media.getValidFps(false);
@@ -1061,7 +1077,7 @@ public class FFMpegVideo extends Player {
 
 		ProcessWrapperImpl pw = new ProcessWrapperImpl(cmdArray, params);
 
-		setOutputParsing(dlna, pw, false);
+		setOutputParsing(dlna, pw, false, params);
 
 		if (!dtsRemux) {
 			ProcessWrapper mkfifo_process = pipe.getPipeProcess();
@@ -1081,14 +1097,17 @@ public class FFMpegVideo extends Player {
 				LOGGER.error("Thread interrupted while waiting for named pipe to be created", e);
 			}
 		} else {
-			pipe = new PipeProcess(System.currentTimeMillis() + "tsmuxerout.ts");
+			// Concurrent launches must not share pipes or the meta file
+			String uniqueId = Thread.currentThread().getId() + "_" + System.currentTimeMillis();
+			pipe = new PipeProcess(uniqueId + "tsmuxerout.ts");
 
 			TsMuxeRVideo ts = new TsMuxeRVideo();
-			File f = new File(configuration.getTempFolder(), "dms-tsmuxer.meta");
+			File f = File.createTempFile("dms-tsmuxer", ".meta", configuration.getTempFolder());
 			String cmd[] = new String[]{ ts.executable(), f.getAbsolutePath(), pipe.getInputPipe() };
 			pw = new ProcessWrapperImpl(cmd, params);
+			pw.deleteWhenFinished(f);
 
-			PipeIPCProcess ffVideoPipe = new PipeIPCProcess(System.currentTimeMillis() + "ffmpegvideo", System.currentTimeMillis() + "videoout", false, true);
+			PipeIPCProcess ffVideoPipe = new PipeIPCProcess(uniqueId + "ffmpegvideo", uniqueId + "videoout", false, true);
 
 			cmdList.add(ffVideoPipe.getInputPipe());
 
@@ -1109,7 +1128,7 @@ public class FFMpegVideo extends Player {
 			pw.attachProcess(ffVideo);
 			ffVideo.runInNewThread();
 
-			PipeIPCProcess ffAudioPipe = new PipeIPCProcess(System.currentTimeMillis() + "ffmpegaudio01", System.currentTimeMillis() + "audioout", false, true);
+			PipeIPCProcess ffAudioPipe = new PipeIPCProcess(uniqueId + "ffmpegaudio01", uniqueId + "audioout", false, true);
 			StreamModifier sm = new StreamModifier();
 			sm.setPcm(false);
 			sm.setDtsEmbed(dtsRemux);
@@ -1118,7 +1137,7 @@ public class FFMpegVideo extends Player {
 			sm.setNbChannels(2);
 
 			List<String> cmdListDTS = new ArrayList<>();
-			cmdListDTS.add(executable());
+			cmdListDTS.add(executable(params));
 			cmdListDTS.add("-y");
 			cmdListDTS.add("-ss");
 
@@ -1204,7 +1223,7 @@ public class FFMpegVideo extends Player {
 			pipe_process.runInNewThread();
 
 			try {
-				wait(50);
+				Thread.sleep(50);
 			} catch (InterruptedException e) {
 			}
 
@@ -1216,7 +1235,7 @@ public class FFMpegVideo extends Player {
 			ff_pipe_process.runInNewThread();
 
 			try {
-				wait(50);
+				Thread.sleep(50);
 			} catch (InterruptedException e) {
 			}
 
@@ -1234,7 +1253,6 @@ public class FFMpegVideo extends Player {
 			LOGGER.error("Thread interrupted while waiting for transcode to start", e.getMessage());
 			LOGGER.trace("", e);
 		}
-		configuration = prev;
 		return pw;
 	}
 
@@ -1359,7 +1377,7 @@ public class FFMpegVideo extends Player {
 	 * @return
 	 */
 	public boolean isDisableSubtitles(OutputParams params) {
-		return configuration.isDisableSubtitles() || (params.sid == null) || avisynth();
+		return PMS.getConfiguration(params).isDisableSubtitles() || (params.sid == null) || avisynth();
 	}
 
 	/**
@@ -1389,7 +1407,16 @@ public class FFMpegVideo extends Player {
 	 * (e.g. duration) if required.
 	 */
 	public void setOutputParsing(final DLNAResource dlna, ProcessWrapperImpl pw, boolean force) {
-		if (configuration.isResumeEnabled() && dlna.getMedia() != null) {
+		setOutputParsing(dlna, pw, force, null);
+	}
+
+	/**
+	 * Set up a filter to parse ffmpeg's stderr output for info
+	 * (e.g. duration) if required by the renderer configuration of
+	 * {@code params}.
+	 */
+	public void setOutputParsing(final DLNAResource dlna, ProcessWrapperImpl pw, boolean force, OutputParams params) {
+		if (PMS.getConfiguration(params).isResumeEnabled() && dlna.getMedia() != null) {
 			long duration = force ? 0 : (long) dlna.getMedia().getDurationInSeconds();
 			if (duration == 0 || duration == DLNAMediaInfo.TRANS_SIZE) {
 				OutputTextLogger ffParser = new OutputTextLogger(null) {
@@ -30,7 +30,7 @@ import java.util.ArrayList;
 import java.util.List;
 import javax.swing.*;
 import net.pms.Messages;
-import net.pms.configuration.DeviceConfiguration;
+import net.pms.PMS;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.dlna.DLNAMediaInfo;
 import net.pms.dlna.DLNAResource;
@@ -132,14 +132,13 @@ public class FFmpegAudio extends FFMpegVideo {
 	}
 
 	@Override
-	public synchronized ProcessWrapper launchTranscode(
+	public ProcessWrapper launchTranscode(
 		DLNAResource dlna,
 		DLNAMediaInfo media,
 		OutputParams params
 	) throws IOException {
-		PmsConfiguration prev = configuration;
 		// Use device-specific DMS conf
-		configuration = (DeviceConfiguration)params.mediaRenderer;
+		PmsConfiguration configuration = PMS.getConfiguration(params);
 		final String filename = dlna.getFileName();
 		params.maxBufferSize = configuration.getMaxAudioBuffer();
 		params.waitbeforestart = 2000;
@@ -162,7 +161,7 @@ public class FFmpegAudio extends FFMpegVideo {
 
 		List<String> cmdList = new ArrayList<>();
 
-		cmdList.add(executable());
+		cmdList.add(executable(params));
 
 		cmdList.add("-loglevel");
 
@@ -234,8 +233,6 @@ public class FFmpegAudio extends FFMpegVideo {
 
 		ProcessWrapperImpl pw = new ProcessWrapperImpl(cmdArray, params);
 		pw.runInNewThread();
-
-		configuration = prev;
 		return pw;
 	}
 
@@ -30,7 +30,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.swing.JComponent;
-import net.pms.configuration.DeviceConfiguration;
+import net.pms.PMS;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.configuration.RendererConfiguration;
 import net.pms.dlna.DLNAMediaInfo;
@@ -187,8 +187,7 @@ public class FFmpegWebVideo extends FFMpegVideo {
 		params.minBufferSize = params.minFileSize;
 		params.secondread_minsize = 100000;
 		// Use device-specific DMS conf
-		PmsConfiguration prev = configuration;
-		configuration = (DeviceConfiguration) params.mediaRenderer;
+		PmsConfiguration configuration = PMS.getConfiguration(params);
 		RendererConfiguration renderer = params.mediaRenderer;
 		String filename = dlna.getFileName();
 		setAudioAndSubs(filename, media, params);
@@ -246,7 +245,7 @@ public class FFmpegWebVideo extends FFMpegVideo {
 		// Build the command line
 		List<String> cmdList = new ArrayList<>();
 
-		cmdList.add(executable());
+		cmdList.add(executable(params));
 
 		// XXX squashed bug - without this, ffmpeg hangs waiting for a confirmation
 		// that it can write to a file that already exists i.e. the named pipe
@@ -377,8 +376,6 @@ public class FFmpegWebVideo extends FFMpegVideo {
 		} catch (InterruptedException e) {
 			LOGGER.error("Thread interrupted while waiting for transcode to start", e);
 		}
-
-		configuration = prev;
 		return pw;
 	}
 
@@ -0,0 +1,560 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The storage behind the circular buffer of {@link BufferedOutputFileImpl}.
+ * Indexes are positions in the circular buffer, bulk operations never wrap
+ * around the end of the storage.
+ */
+public abstract class BufferStorage {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BufferStorage.class);
+
+	/** The size of the segments of the off-heap storage types */
+	protected static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+
+	/** {@code Unsafe.invokeCleaner()} on Java 9 and later */
+	private static final Method INVOKE_CLEANER;
+	private static final Object UNSAFE;
+
+	static {
+		Method invokeCleaner = null;
+		Object unsafe = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Java 8 and earlier, the buffer's cleaner is used instead
+			invokeCleaner = null;
+		}
+		INVOKE_CLEANER = invokeCleaner;
+		UNSAFE = unsafe;
+	}
+
+	/**
+	 * The kinds of {@link BufferStorage}.
+	 */
+	public enum Type {
+
+		/**
+		 * One {@code byte} array on the heap, starting small and grown by
+		 * copying when needed.
+		 */
+		HEAP,
+
+		/** Direct {@link ByteBuffer} segments allocated when first written */
+		DIRECT,
+
+		/** Segments of a memory-mapped temporary file */
+		MAPPED;
+
+		/**
+		 * Converts a configuration value to a {@link Type}.
+		 *
+		 * @param value the case insensitive name.
+		 * @param defaultType the {@link Type} to return if {@code value} isn't
+		 *            valid.
+		 * @return The {@link Type}.
+		 */
+		public static Type typeOf(String value, Type defaultType) {
+			if (value != null) {
+				for (Type type : values()) {
+					if (type.name().equalsIgnoreCase(value.trim())) {
+						return type;
+					}
+				}
+			}
+			return defaultType;
+		}
+	}
+
+	/**
+	 * Creates a new off-heap {@link BufferStorage}, falling back to
+	 * {@link Type#DIRECT} if the temporary file for {@link Type#MAPPED} can't
+	 * be created.
+	 *
+	 * @param type {@link Type#DIRECT} or {@link Type#MAPPED}.
+	 * @param capacity the size in bytes.
+	 * @param folder the folder for the temporary file of {@link Type#MAPPED}.
+	 * @return The new {@link BufferStorage}.
+	 */
+	public static BufferStorage create(Type type, int capacity, File folder) {
+		if (type == Type.MAPPED) {
+			try {
+				return new Mapped(capacity, folder);
+			} catch (IOException e) {
+				LOGGER.warn("Couldn't create a memory-mapped transcode buffer, using direct memory instead: {}", e.getMessage());
+				LOGGER.trace("", e);
+			}
+		} else if (type != Type.DIRECT) {
+			throw new IllegalArgumentException("Unsupported type " + type);
+		}
+		return new Direct(capacity);
+	}
+
+	/**
+	 * @return The number of addressable bytes.
+	 */
+	public abstract int length();
+
+	/**
+	 * @return The number of bytes actually allocated, which can be less than
+	 *         {@link #length()} for storage that is allocated as it fills up.
+	 */
+	public abstract int allocated();
+
+	/**
+	 * @param index the position.
+	 * @return The byte at {@code index}.
+	 */
+	public abstract byte get(int index);
+
+	/**
+	 * @param index the position.
+	 * @param value the byte to store at {@code index}.
+	 */
+	public abstract void put(int index, byte value);
+
+	/**
+	 * Copies {@code len} bytes starting at {@code index} to {@code dst}.
+	 */
+	public abstract void get(int index, byte[] dst, int off, int len);
+
+	/**
+	 * Copies {@code len} bytes from {@code src} to the storage starting at
+	 * {@code index}.
+	 */
+	public abstract void put(int index, byte[] src, int off, int len);
+
+	/**
+	 * Frees the storage. It must not be used afterwards.
+	 */
+	public abstract void release();
+
+	/**
+	 * A {@link BufferStorage} backed by one {@code byte} array.
+	 */
+	public static class Heap extends BufferStorage {
+		private final NumberFormat formatter = NumberFormat.getInstance(Locale.US);
+		private byte[] array;
+
+		/**
+		 * Creates a new instance. Use {@link #length()} to check whether the
+		 * allocation succeeded.
+		 *
+		 * @param size the requested size in bytes.
+		 */
+		public Heap(int size) {
+			array = grow(null, size);
+		}
+
+		@Override
+		public int length() {
+			return array.length;
+		}
+
+		@Override
+		public int allocated() {
+			return array.length;
+		}
+
+		@Override
+		public byte get(int index) {
+			return array[index];
+		}
+
+		@Override
+		public void put(int index, byte value) {
+			array[index] = value;
+		}
+
+		@Override
+		public void get(int index, byte[] dst, int off, int len) {
+			System.arraycopy(array, index, dst, off, len);
+		}
+
+		@Override
+		public void put(int index, byte[] src, int off, int len) {
+			System.arraycopy(src, off, array, index, len);
+		}
+
+		@Override
+		public void release() {
+			array = new byte[0];
+		}
+
+		/**
+		 * Tries to grow the array to {@code newSize} while retaining its
+		 * contents. See {@link #grow(byte[], int)}.
+		 *
+		 * @param newSize the requested size.
+		 */
+		public void grow(int newSize) {
+			array = grow(array, newSize);
+		}
+
+		/**
+		 * Try to increase the size of a memory buffer, while retaining its
+		 * contents. The provided new size is considered to be a request, it is
+		 * scaled down when an OutOfMemory error occurs. There is no guarantee
+		 * about the exact length of the returned byte array, only that it is
+		 * greater than or equal to the original buffer size. When null is
+		 * passed as an argument, a fresh buffer will be allocated. Copying one
+		 * byte array to another is a costly operation, both in memory usage and
+		 * performance. It is best to avoid using this method.
+		 *
+		 * @param buffer The byte array to resize, null is allowed.
+		 * @param newSize The requested final size. Should be greater than the
+		 * original size or the original buffer will be returned.
+		 * @return The resized byte array.
+		 */
+		private byte[] grow(byte[] buffer, int newSize) {
+			byte[] copy;
+
+			if (buffer == null) {
+				// Temporary empty array to avoid null tests in the code below
+				buffer = new byte[0];
+			}
+
+			if (newSize <= buffer.length) {
+				// Cannot shrink the original
+				return buffer;
+			}
+
+			try {
+				// Try to allocate the requested new size
+				copy = new byte[newSize];
+			} catch (OutOfMemoryError e) {
+				if (buffer.length == 0) {
+					LOGGER.trace("Cannot initialize buffer to " + formatter.format(newSize) + " bytes.");
+				} else {
+					LOGGER.debug("Cannot grow buffer size from " + formatter.format(buffer.length) + " bytes to " + formatter.format(newSize) + " bytes.");
+					LOGGER.debug("Error given: " + e);
+
+				}
+
+				// Could not allocate the requested new size, use 30% of free memory instead.
+				// Rationale behind using 30%: multiple threads are running at the same time,
+				// we do not want one thread's memory usage to suffocate the others.
+				// Using maxMemory() to ignore the initial Java heap space size that freeMemory()
+				// takes into account.
+				// See http://javarevisited.blogspot.com/2011/05/java-heap-space-memory-size-jvm.html
+				long realisticSize = Runtime.getRuntime().maxMemory() * 3 / 10;
+
+				if (realisticSize < buffer.length) {
+					// A copy would be smaller in size, shrinking instead of growing the buffer.
+					// Better to return the original and retain its size.
+					return buffer;
+				} else {
+					try {
+						// Try to allocate the realistic alternative size
+						copy = new byte[(int) realisticSize];
+					} catch (OutOfMemoryError e2) {
+						LOGGER.debug("Cannot grow buffer size from " + formatter.format(buffer.length) + " bytes to " + formatter.format(realisticSize) + " bytes either.");
+						LOGGER.trace("freeMemory: " + formatter.format(Runtime.getRuntime().freeMemory()));
+						LOGGER.trace("totalMemory: " + formatter.format(Runtime.getRuntime().totalMemory()));
+						LOGGER.trace("maxMemory: " + formatter.format(Runtime.getRuntime().maxMemory()));
+						LOGGER.debug("Error given: " + e2);
+
+						// Cannot allocate memory, no other option than to return the original.
+						return buffer;
+					}
+				}
+			}
+
+			if (buffer.length == 0) {
+				LOGGER.trace("Successfully initialized buffer to " + formatter.format(copy.length) + " bytes.");
+			} else {
+				System.arraycopy(buffer, 0, copy, 0, buffer.length);
+				LOGGER.trace("Successfully grown buffer from " + formatter.format(buffer.length) + " bytes to " + formatter.format(copy.length) + " bytes.");
+			}
+
+			return copy;
+		}
+	}
+
+	/**
+	 * Frees the memory of a direct or mapped {@link ByteBuffer} now instead
+	 * of when it's collected. The buffer must not be used afterwards.
+	 *
+	 * @param buffer the {@link ByteBuffer} to free.
+	 * @return {@code true} if the memory was freed.
+	 */
+	static boolean free(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect()) {
+			return false;
+		}
+		try {
+			if (INVOKE_CLEANER != null) {
+				INVOKE_CLEANER.invoke(UNSAFE, buffer);
+				return true;
+			}
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+				return true;
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOGGER.trace("Couldn't free a transcode buffer segment, it's freed when collected: {}", e.getMessage());
+		}
+		return false;
+	}
+
+	/**
+	 * A {@link BufferStorage} made of fixed size {@link ByteBuffer} segments
+	 * that are allocated when first written. Growing never copies, and
+	 * unwritten segments cost nothing.
+	 * <p>
+	 * {@link #release()} frees the segments right away instead of leaving the
+	 * off-heap memory and mappings to the garbage collector. Every access
+	 * holds the read lock and {@link #release()} the write lock, so a freed
+	 * segment is never touched.
+	 */
+	protected abstract static class Segmented extends BufferStorage {
+		private final int capacity;
+		private final AtomicReferenceArray<ByteBuffer> segments;
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+		/** Whether the segments have been freed, guarded by {@link #lock} */
+		private boolean released;
+
+		protected Segmented(int capacity) {
+			this.capacity = capacity;
+			segments = new AtomicReferenceArray<>((capacity + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+		}
+
+		/**
+		 * Allocates segment {@code index}.
+		 *
+		 * @param index the segment number.
+		 * @param size the size of the segment.
+		 * @return The new segment.
+		 */
+		protected abstract ByteBuffer allocate(int index, int size);
+
+		/**
+		 * Must be called with the read lock held.
+		 *
+		 * @return The segment or {@code null} if it isn't allocated and
+		 *         {@code create} is {@code false} or the storage is released.
+		 * @throws OutOfMemoryError If the segment can't be allocated. The
+		 *             storage doesn't fall back to the heap, which isn't
+		 *             accounted for by the off-heap budget.
+		 */
+		private ByteBuffer segment(int index, boolean create) {
+			ByteBuffer segment = segments.get(index);
+			if (segment != null || !create || released) {
+				return segment;
+			}
+			// Segments are allocated by the writer and read by other threads
+			synchronized (this) {
+				segment = segments.get(index);
+				if (segment == null) {
+					int size = Math.min(SEGMENT_SIZE, capacity - index * SEGMENT_SIZE);
+					try {
+						segment = allocate(index, size);
+					} catch (OutOfMemoryError e) {
+						LOGGER.warn("Couldn't allocate {} bytes of direct memory for the transcode buffer", size);
+						throw e;
+					}
+					segments.set(index, segment);
+				}
+				return segment;
+			}
+		}
+
+		@Override
+		public int length() {
+			return capacity;
+		}
+
+		@Override
+		public int allocated() {
+			int result = 0;
+			for (int i = 0; i < segments.length(); i++) {
+				ByteBuffer segment = segments.get(i);
+				if (segment != null) {
+					result += segment.capacity();
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public byte get(int index) {
+			lock.readLock().lock();
+			try {
+				ByteBuffer segment = segment(index / SEGMENT_SIZE, false);
+				return segment != null ? segment.get(index % SEGMENT_SIZE) : 0;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		@Override
+		public void put(int index, byte value) {
+			lock.readLock().lock();
+			try {
+				ByteBuffer segment = segment(index / SEGMENT_SIZE, true);
+				if (segment != null) {
+					segment.put(index % SEGMENT_SIZE, value);
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		@Override
+		public void get(int index, byte[] dst, int off, int len) {
+			lock.readLock().lock();
+			try {
+				while (len > 0) {
+					int position = index % SEGMENT_SIZE;
+					int count = Math.min(len, SEGMENT_SIZE - position);
+					ByteBuffer segment = segment(index / SEGMENT_SIZE, false);
+					if (segment != null) {
+						ByteBuffer view = segment.duplicate();
+						view.position(position);
+						view.get(dst, off, count);
+					} else {
+						for (int i = off; i < off + count; i++) {
+							dst[i] = 0;
+						}
+					}
+					index += count;
+					off += count;
+					len -= count;
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		@Override
+		public void put(int index, byte[] src, int off, int len) {
+			lock.readLock().lock();
+			try {
+				while (len > 0) {
+					int position = index % SEGMENT_SIZE;
+					int count = Math.min(len, SEGMENT_SIZE - position);
+					ByteBuffer segment = segment(index / SEGMENT_SIZE, true);
+					if (segment == null) {
+						// Released
+						return;
+					}
+					ByteBuffer view = segment.duplicate();
+					view.position(position);
+					view.put(src, off, count);
+					index += count;
+					off += count;
+					len -= count;
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		@Override
+		public void release() {
+			lock.writeLock().lock();
+			try {
+				released = true;
+				for (int i = 0; i < segments.length(); i++) {
+					free(segments.getAndSet(i, null));
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * A {@link Segmented} storage of direct {@link ByteBuffer}s.
+	 */
+	public static class Direct extends Segmented {
+		public Direct(int capacity) {
+			super(capacity);
+		}
+
+		@Override
+		protected ByteBuffer allocate(int index, int size) {
+			return ByteBuffer.allocateDirect(size);
+		}
+	}
+
+	/**
+	 * A {@link Segmented} storage of memory-mapped regions of a temporary
+	 * file that is deleted on {@link #release()}.
+	 */
+	public static class Mapped extends Segmented {
+		private final File file;
+		private final RandomAccessFile randomAccessFile;
+		private final FileChannel channel;
+
+		public Mapped(int capacity, File folder) throws IOException {
+			super(capacity);
+			file = File.createTempFile("transcode", ".buffer", folder);
+			randomAccessFile = new RandomAccessFile(file, "rw");
+			channel = randomAccessFile.getChannel();
+		}
+
+		@Override
+		protected ByteBuffer allocate(int index, int size) {
+			try {
+				return channel.map(FileChannel.MapMode.READ_WRITE, (long) index * SEGMENT_SIZE, size);
+			} catch (IOException e) {
+				LOGGER.warn("Couldn't map the transcode buffer file \"{}\", using direct memory: {}", file, e.getMessage());
+				LOGGER.trace("", e);
+				return ByteBuffer.allocateDirect(size);
+			}
+		}
+
+		@Override
+		public void release() {
+			super.release();
+			try {
+				randomAccessFile.close();
+			} catch (IOException e) {
+				LOGGER.trace("Error closing \"{}\": {}", file, e.getMessage());
+			}
+			if (!file.delete()) {
+				LOGGER.debug("Couldn't delete the transcode buffer file \"{}\"", file);
+			}
+		}
+	}
+}
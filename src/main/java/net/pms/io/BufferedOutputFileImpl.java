@@ -18,16 +18,19 @@
  */
 package net.pms.io;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.NumberFormat;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 import net.pms.PMS;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.configuration.RendererConfiguration;
@@ -46,7 +49,7 @@ import org.slf4j.LoggerFactory;
  * @see net.pms.network.Request Request
  * @see net.pms.network.RequestV2 RequestV2
  */
-public class BufferedOutputFileImpl extends OutputStream implements BufferedOutputFile {
+public class BufferedOutputFileImpl extends OutputStream implements BufferedOutputFile, TranscodeMemoryGovernor.Owner {
 	private static final Logger LOGGER = LoggerFactory.getLogger(BufferedOutputFileImpl.class);
 	private PmsConfiguration configuration;
 
@@ -65,14 +68,62 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 	private static final int MARGIN_SMALL = 600000;
 	private static final int CHECK_INTERVAL = 500;
 	private static final int CHECK_END_OF_PROCESS = 2500; // must be superior to CHECK_INTERVAL
+
+	/**
+	 * The time in milliseconds after which a reader that hasn't read anything
+	 * no longer holds back the writer of a shared transcode.
+	 */
+	private static final int IDLE_READER_TIMEOUT = 10000;
+
+	/**
+	 * The time in milliseconds after which a reader that hasn't read anything
+	 * is considered abandoned and no longer keeps the transcode running.
+	 */
+	private static final int ABANDONED_READER_TIMEOUT = 300000;
+
+	/**
+	 * The maximum time in milliseconds a reader waits for the minimum buffer
+	 * to fill up before reading whatever is there.
+	 */
+	private static final int MAX_READ_WAIT = 15 * CHECK_INTERVAL;
+
+	/** The number of bytes up to the current position the time seek shifts look at */
+	private static final int SHIFT_WINDOW = 19;
 	private int minMemorySize;
 	private int maxMemorySize;
 	private int bufferOverflowWarning;
-	private boolean eof;
-	private long writeCount;
-	private byte buffer[];
+	private volatile boolean eof;
+	private volatile long writeCount;
+
+	/**
+	 * The monitor readers and the writer wait on. It is notified when data is
+	 * written, read or when the end of the stream is reached.
+	 */
+	private final Object signal = new Object();
+
+	/**
+	 * The {@link #writeCount} a waiting reader needs before it can continue,
+	 * or {@link Long#MAX_VALUE} if no reader is waiting.
+	 */
+	private volatile long readerWakeCount = Long.MAX_VALUE;
+
+	/** Whether the writer is waiting for the readers to free up space */
+	private volatile boolean writerWaiting;
+
+	/** The share of the transcode memory budget used by this buffer */
+	private final TranscodeMemoryGovernor.Allocation allocation;
+
+	/**
+	 * The maximum number of buffered bytes while the buffer is shrunk by the
+	 * {@link TranscodeMemoryGovernor}.
+	 */
+	private volatile int fillLimit = Integer.MAX_VALUE;
+	private BufferStorage buffer;
 	private boolean forcefirst;
-	private ArrayList<WaitBufferedInputStream> inputStreams;
+	private final List<WaitBufferedInputStream> inputStreams = new CopyOnWriteArrayList<>();
+
+	/** Whether a recheck for abandoned readers is pending */
+	private final AtomicBoolean checkEndScheduled = new AtomicBoolean();
 	private ProcessWrapper attachedThread;
 	private int secondread_minsize;
 	private Timer timer;
@@ -80,95 +131,38 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 	private boolean cleanup;
 	private boolean shiftScr;
 	private FileOutputStream debugOutput = null;
-	private boolean buffered = false;
-	private NumberFormat formatter = NumberFormat.getInstance(Locale.US);
-	private double timeseek;
-	private double timeend;
-	private long packetpos = 0;
-	private final RendererConfiguration renderer;
 
 	/**
-	 * Try to increase the size of a memory buffer, while retaining its
-	 * contents. The provided new size is considered to be a request, it is
-	 * scaled down when an OutOfMemory error occurs. There is no guarantee
-	 * about the exact length of the returned byte array, only that it is
-	 * greater than or equal to the original buffer size. When null is
-	 * passed as an argument, a fresh buffer will be allocated. Copying one
-	 * byte array to another is a costly operation, both in memory usage and
-	 * performance. It is best to avoid using this method.
-	 *
-	 * @param buffer The byte array to resize, null is allowed.
-	 * @param newSize The requested final size. Should be greater than the
-	 * original size or the original buffer will be returned.
-	 * @return The resized byte array.
+	 * A copy of the bytes the time seek shifts look at, so that a shift costs
+	 * one or two bulk accesses to the {@link BufferStorage} instead of one per
+	 * byte. Only used by the writer.
 	 */
-	private byte[] growBuffer(byte[] buffer, int newSize) {
-		byte[] copy;
-
-		if (buffer == null) {
-			// Temporary empty array to avoid null tests in the code below
-			buffer = new byte[0];
-		}
+	private final byte[] shiftWindow = new byte[SHIFT_WINDOW];
+	private int shiftWindowEnd;
+	private boolean shiftWindowDirty;
 
-		if (newSize <= buffer.length) {
-			// Cannot shrink the original
-			return buffer;
-		}
-
-		try {
-			// Try to allocate the requested new size
-			copy = new byte[newSize];
-		} catch (OutOfMemoryError e) {
-			if (buffer.length == 0) {
-				LOGGER.trace("Cannot initialize buffer to " + formatter.format(newSize) + " bytes.");
-			} else {
-				LOGGER.debug("Cannot grow buffer size from " + formatter.format(buffer.length) + " bytes to " + formatter.format(newSize) + " bytes.");
-				LOGGER.debug("Error given: " + e);
-
-			}
-
-			// Could not allocate the requested new size, use 30% of free memory instead.
-			// Rationale behind using 30%: multiple threads are running at the same time,
-			// we do not want one thread's memory usage to suffocate the others.
-			// Using maxMemory() to ignore the initial Java heap space size that freeMemory()
-			// takes into account.
-			// See http://javarevisited.blogspot.com/2011/05/java-heap-space-memory-size-jvm.html
-			long realisticSize = Runtime.getRuntime().maxMemory() * 3 / 10;
-
-			if (realisticSize < buffer.length) {
-				// A copy would be smaller in size, shrinking instead of growing the buffer.
-				// Better to return the original and retain its size.
-				return buffer;
-			} else {
-				try {
-					// Try to allocate the realistic alternative size
-					copy = new byte[(int) realisticSize];
-				} catch (OutOfMemoryError e2) {
-					LOGGER.debug("Cannot grow buffer size from " + formatter.format(buffer.length) + " bytes to " + formatter.format(realisticSize) + " bytes either.");
-					LOGGER.trace("freeMemory: " + formatter.format(Runtime.getRuntime().freeMemory()));
-					LOGGER.trace("totalMemory: " + formatter.format(Runtime.getRuntime().totalMemory()));
-					LOGGER.trace("maxMemory: " + formatter.format(Runtime.getRuntime().maxMemory()));
-					LOGGER.debug("Error given: " + e2);
-
-					// Cannot allocate memory, no other option than to return the original.
-					return buffer;
-				}
-			}
-		}
+	/**
+	 * The {@link TranscodeCache.Recording} of the output or {@code null} if
+	 * the output isn't cached.
+	 */
+	private final TranscodeCache.Recording recording;
 
-		if (buffer.length == 0) {
-			LOGGER.trace("Successfully initialized buffer to " + formatter.format(copy.length) + " bytes.");
-		} else {
-			try {
-				System.arraycopy(buffer, 0, copy, 0, buffer.length);
-				LOGGER.trace("Successfully grown buffer from " + formatter.format(buffer.length) + " bytes to " + formatter.format(copy.length) + " bytes.");
-			} catch (NullPointerException npe) {
-				LOGGER.trace("Cannot grow buffer size, error copying buffer contents.");
-			}
-		}
+	/**
+	 * The time in milliseconds after which a speculative transcode stops
+	 * filling the buffer until it's adopted, or 0 if it isn't speculative.
+	 */
+	private final long prewarmTime;
+	private final long created = System.currentTimeMillis();
 
-		return copy;
-	}
+	/** Whether a reader other than the speculative one has attached */
+	private volatile boolean adopted;
+	private boolean prewarmHeld;
+	private boolean buffered = false;
+	private NumberFormat formatter = NumberFormat.getInstance(Locale.US);
+	private double timeseek;
+	private double timeend;
+	private long packetpos = 0;
+	private final RendererConfiguration renderer;
 
 	/**
 	 * Constructor to create a memory buffer based on settings that are
@@ -177,14 +171,27 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 	 *
 	 * @param params {@link OutputParams} object that contains preferences
 	 * for the buffers dimensions and behavior.
+	 * @throws TranscodeRejectedException If the buffer can't be allocated.
 	 */
-	public BufferedOutputFileImpl(OutputParams params) {
+	public BufferedOutputFileImpl(OutputParams params) throws TranscodeRejectedException {
 		// Use device-specific DMS conf
 		configuration = PMS.getConfiguration(params);
 		this.renderer = params.mediaRenderer;
 		this.forcefirst = (configuration.getTrancodeBlocksMultipleConnections() && configuration.getTrancodeKeepFirstConnections());
 		this.minMemorySize = (int) (1048576 * params.minBufferSize);
 		this.maxMemorySize = (int) (1048576 * params.maxBufferSize);
+		BufferStorage.Type bufferType = params.bufferType != null ? params.bufferType : BufferStorage.Type.HEAP;
+		if (params.memoryAllocation != null && params.memoryAllocation.claim(this)) {
+			allocation = params.memoryAllocation;
+			if (allocation.getGranted() < maxMemorySize) {
+				LOGGER.debug("Limiting the transcode buffer to the granted " + formatter.format(allocation.getGranted()) + " bytes");
+				maxMemorySize = (int) allocation.getGranted();
+			} else {
+				allocation.trim(maxMemorySize);
+			}
+		} else {
+			allocation = TranscodeMemoryGovernor.get().register(renderer, maxMemorySize, bufferType != BufferStorage.Type.HEAP, this);
+		}
 
 		// FIXME: Better to relate margin directly to maxMemorySize instead of using arbitrary fixed values
 
@@ -203,31 +210,50 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 		this.shiftScr = params.shift_scr;
 		this.hidebuffer = params.hidebuffer;
 		this.cleanup = params.cleanup;
+		this.prewarmTime = params.prewarmSeconds * 1000L;
+		if (params.cacheRecording != null && params.timeseek == 0 && params.cacheRecording.claim()) {
+			// Time seeked output is modified in the buffer, only untouched output is recorded
+			recording = params.cacheRecording;
+		} else {
+			recording = null;
+		}
 
-		if (maxMemorySize > INITIAL_BUFFER_SIZE) {
+		if (bufferType != BufferStorage.Type.HEAP) {
+			// Off-heap segments are only allocated when written, no need to grow
+			File folder = null;
+			try {
+				folder = configuration.getTempFolder();
+			} catch (IOException e) {
+				LOGGER.debug("Couldn't get the temporary folder for the transcode buffer: {}", e.getMessage());
+			}
+			buffer = BufferStorage.create(bufferType, maxMemorySize, folder);
+		} else if (maxMemorySize > INITIAL_BUFFER_SIZE) {
 			// Try to limit memory usage a bit.
 			// Start with a modest allocation initially, grow to max when needed later.
-			buffer = growBuffer(null, INITIAL_BUFFER_SIZE);
+			buffer = new BufferStorage.Heap(INITIAL_BUFFER_SIZE);
 		} else {
-			buffer = growBuffer(null, maxMemorySize);
+			buffer = new BufferStorage.Heap(maxMemorySize);
 		}
 
-		if (buffer.length == 0) {
-			// Cannot transcode without a buffer
-			LOGGER.info("FATAL ERROR: OutOfMemory / dumping stats");
+		if (buffer.length() == 0) {
+			// Cannot transcode without a buffer, only this transcode fails
+			LOGGER.info("Couldn't allocate the transcode buffer, out of memory");
 			LOGGER.trace("freeMemory: " + Runtime.getRuntime().freeMemory());
 			LOGGER.trace("totalMemory: " + Runtime.getRuntime().totalMemory());
 			LOGGER.trace("maxMemory: " + Runtime.getRuntime().maxMemory());
-			System.exit(1);
+			buffer.release();
+			buffer = null;
+			allocation.release();
+			finishRecording(false);
+			throw new TranscodeRejectedException("Out of memory for the transcode buffer", 1);
 		}
-
-		inputStreams = new ArrayList<>();
 	}
 
 	@Override
 	public void close() throws IOException {
 		LOGGER.trace("EOF");
 		eof = true;
+		signalAll();
 		if (cleanup) {
 			detachInputStream();
 		}
@@ -257,10 +283,28 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 		}
 
 		WaitBufferedInputStream atominputStream;
+		boolean adopting = prewarmTime > 0 && !adopted && !inputStreams.isEmpty();
 
-		if (!configuration.getTrancodeBlocksMultipleConnections() || getCurrentInputStream() == null) {
+		if (adopting || !configuration.getTrancodeBlocksMultipleConnections() || getCurrentInputStream() == null) {
 			atominputStream = new WaitBufferedInputStream(this);
 			inputStreams.add(atominputStream);
+			if (adopting) {
+				LOGGER.debug("Speculative transcode adopted by a request");
+				adopted = true;
+				if (configuration.getTrancodeBlocksMultipleConnections()) {
+					// The speculative reader isn't a connection, it must not block the request
+					for (WaitBufferedInputStream inputStream : inputStreams) {
+						if (inputStream != atominputStream) {
+							try {
+								inputStream.close();
+							} catch (IOException e) {
+								LOGGER.error("Error: ", e);
+							}
+						}
+					}
+				}
+				signalAll();
+			}
 		} else {
 			if (configuration.getTrancodeKeepFirstConnections()) {
 				LOGGER.debug("BufferedOutputFile is already attached to an InputStream: " + getCurrentInputStream());
@@ -283,6 +327,20 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			return null;
 		}
 
+		if (recording != null && newReadPosition < writeCount && !isBuffered(newReadPosition)) {
+			// Serve the part that has left the buffer from the recording
+			long switchPosition = Math.max(newReadPosition, writeCount - Math.min(bufferOverflowWarning, fillLimit) / 2);
+			InputStream recorded = recording.getInputStream(newReadPosition, switchPosition);
+			if (recorded != null) {
+				LOGGER.debug(
+					"Reading from the transcode cache from " + formatter.format(newReadPosition) +
+					" to " + formatter.format(switchPosition)
+				);
+				atominputStream.setReadCount(switchPosition);
+				return new SplicedInputStream(recorded, atominputStream);
+			}
+		}
+
 		if (newReadPosition > 0) {
 			LOGGER.debug("Setting InputStream new position to: " + formatter.format(newReadPosition));
 			atominputStream.setReadCount(newReadPosition);
@@ -307,30 +365,31 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 
 		//LOGGER.trace("write(" + b.length + ", " + off + ", " + len + "), writeCount = " + writeCount + ", readCount = " + (input != null ? input.getReadCount() : "null"));
 
-		while ((input != null && (writeCount - input.getReadCount() > bufferOverflowWarning)) || (input == null && writeCount > bufferOverflowWarning)) {
-			try {
-				Thread.sleep(CHECK_INTERVAL);
-			} catch (InterruptedException e) {
-			}
+		while (isBufferFull(input, false)) {
+			waitForReaders();
 			input = getCurrentInputStream();
 		}
 
 		if (buffer != null) {
 			int mb = (int) (writeCount % maxMemorySize);
 
-			if (mb >= buffer.length - (len - off)) {
-				if (buffer.length == INITIAL_BUFFER_SIZE) {
+			if (mb >= buffer.length() - (len - off)) {
+				if (buffer.length() == INITIAL_BUFFER_SIZE) {
 					// Initial buffer size was not big enough, try to increase it
-					buffer = growBuffer(buffer, maxMemorySize);
+					growBuffer();
 				}
 
-				// FIXME: This smells like 2x System.arraycopy()!
+				// Copy up to the end of the buffer, then wrap around
 				int s = (len - off);
-				for (int i = 0; i < s; i++) {
-					buffer[modulo(mb + i, buffer.length)] = b[off + i];
+				int position = modulo(mb, buffer.length());
+				while (s > 0) {
+					int count = Math.min(s, buffer.length() - position);
+					putBuffer(position, b, off + (len - off) - s, count);
+					s -= count;
+					position = 0;
 				}
 			} else {
-				System.arraycopy(b, off, buffer, mb, (len - off));
+				putBuffer(mb, b, off, (len - off));
 				if ((len - off) > 0) {
 					buffered = true;
 				}
@@ -340,47 +399,283 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			if (timeseek > 0 && writeCount > 10) {
 				for (int i = 0; i < len; i++) {
 					if (buffer != null && shiftScr) {
+						loadShiftWindow(mb + i);
 						shiftSCRByTimeSeek(mb + i, (int) timeseek); // Ditlew - update any SCR headers
+						storeShiftWindow();
 					}					//shiftGOPByTimeSeek(mb+i, (int)timeseek); // Ditlew - update any GOP headers - Not needed for WDTV Live
 				}
 			}
 
+			if (recording != null) {
+				recording.write(b, off, len - off);
+			}
 			writeCount += len - off;
 			if (timeseek > 0 && timeend == 0) {
 				int packetLength = 6; // minimum to get packet size
 				while (packetpos + packetLength < writeCount && buffer != null) {
 					int packetposMB = (int) (packetpos % maxMemorySize);
 					int streamPos = 0;
-					if (buffer[modulo(packetposMB, buffer.length)] == 71) {// TS
+					if (buffer.get(modulo(packetposMB, buffer.length())) == 71) {// TS
 						packetLength = 188;
 						streamPos = 4;
 
 						// adaptation field
-						if ((buffer[modulo(packetposMB + 3, buffer.length)] & 0x20) == 0x20) {
-							streamPos += 1 + ((buffer[modulo(packetposMB + 4, buffer.length)] + 256) % 256);
+						if ((buffer.get(modulo(packetposMB + 3, buffer.length())) & 0x20) == 0x20) {
+							streamPos += 1 + ((buffer.get(modulo(packetposMB + 4, buffer.length())) + 256) % 256);
 						}
 
 						if (streamPos == 188) {
 							streamPos = -1;
 						}
 
-					} else if (buffer[modulo(packetposMB + 3, buffer.length)] == -70) { // BA
+					} else if (buffer.get(modulo(packetposMB + 3, buffer.length())) == -70) { // BA
 						packetLength = 14;
 						streamPos = -1;
 					} else {
-						packetLength = 6 + (((buffer[modulo(packetposMB + 4, buffer.length)] + 256) % 256)) * 256 + ((buffer[modulo(packetposMB + 5, buffer.length)] + 256) % 256);
+						packetLength = 6 + (((buffer.get(modulo(packetposMB + 4, buffer.length())) + 256) % 256)) * 256 + ((buffer.get(modulo(packetposMB + 5, buffer.length())) + 256) % 256);
 					}
 					if (streamPos != -1) {
 						mb = packetposMB + streamPos + 18;
+						loadShiftWindow(mb);
 						if (!shiftVideo(mb, true)) {
 							mb -= 5;
 							shiftAudio(mb, true);
 						}
+						storeShiftWindow();
 					}
 					packetpos += packetLength;
 				}
 			}
 		}
+		signalReaders();
+	}
+
+	/**
+	 * Copies {@code len} bytes from {@code b} to the buffer at
+	 * {@code position}.
+	 *
+	 * @throws IOException If the buffer storage can't be allocated.
+	 */
+	private void putBuffer(int position, byte[] b, int off, int len) throws IOException {
+		try {
+			buffer.put(position, b, off, len);
+		} catch (OutOfMemoryError e) {
+			throw new IOException("Couldn't allocate memory for the transcode buffer", e);
+		}
+	}
+
+	/**
+	 * @param input the current {@link WaitBufferedInputStream} or
+	 *            {@code null}.
+	 * @param single whether this is a single byte write, which only
+	 *            waits for a {@code null} input at the exact overflow mark.
+	 * @return {@code true} if the writer must wait for the readers to catch up.
+	 */
+	private boolean isBufferFull(WaitBufferedInputStream input, boolean single) {
+		if (isPrewarmHeld()) {
+			return true;
+		}
+		int overflow = Math.min(bufferOverflowWarning, fillLimit);
+		if (input != null) {
+			return writeCount - getSlowestReadCount(input) > overflow;
+		}
+		return single ? writeCount == overflow : writeCount > overflow;
+	}
+
+	/**
+	 * Checks whether this is a speculative transcode that has run for its
+	 * allotted time without being adopted by a request, in which case the
+	 * writer waits and so pauses the transcoding process.
+	 *
+	 * @return {@code true} if the writer must wait for a request.
+	 */
+	private boolean isPrewarmHeld() {
+		if (prewarmTime <= 0 || adopted || buffer == null || System.currentTimeMillis() - created < prewarmTime) {
+			return false;
+		}
+		if (!prewarmHeld) {
+			prewarmHeld = true;
+			LOGGER.debug("Pausing speculative transcode after " + formatter.format(writeCount) + " bytes");
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the read position the writer must respect. This is the position
+	 * of {@code input} or, when the transcode is shared by several clients,
+	 * that of the slowest reader which has read within
+	 * {@link #IDLE_READER_TIMEOUT}. Idle readers are left behind so that a
+	 * paused client doesn't stall the others.
+	 *
+	 * @param input the current {@link WaitBufferedInputStream}.
+	 * @return The read position to respect.
+	 */
+	private long getSlowestReadCount(WaitBufferedInputStream input) {
+		long readCount = input.getReadCount();
+		if (inputStreams.size() > 1) {
+			long now = System.currentTimeMillis();
+			for (WaitBufferedInputStream stream : inputStreams) {
+				long streamReadCount = stream.getReadCount();
+				if (streamReadCount < readCount && now - stream.getLastReadTime() < IDLE_READER_TIMEOUT) {
+					readCount = streamReadCount;
+				}
+			}
+		}
+		return readCount;
+	}
+
+	/**
+	 * Checks whether a new reader can start reading at {@code position}, that
+	 * is whether the data from that position on hasn't been overwritten yet or
+	 * has been recorded to the {@link TranscodeCache}.
+	 *
+	 * @param position the read position.
+	 * @return {@code true} if {@code position} is still in the buffer.
+	 */
+	public boolean canRead(long position) {
+		return
+			buffer != null &&
+			(isBuffered(position) || (recording != null && recording.contains(position)));
+	}
+
+	/**
+	 * Checks whether the data from {@code position} on is still in the memory
+	 * buffer.
+	 *
+	 * @param position the read position.
+	 * @return {@code true} if {@code position} is in the memory buffer.
+	 */
+	private boolean isBuffered(long position) {
+		long behind = writeCount - position;
+		return behind >= 0 && behind <= maxMemorySize - MARGIN_MEDIUM;
+	}
+
+	/**
+	 * Ends the recording of the output to the {@link TranscodeCache}, if any.
+	 *
+	 * @param complete whether the transcode finished successfully and all its
+	 *            output has been written to this buffer.
+	 */
+	public void finishRecording(boolean complete) {
+		if (recording != null) {
+			recording.finish(complete);
+		}
+	}
+
+	/**
+	 * Waits until a reader has consumed data. The wait is bounded by
+	 * {@link #CHECK_INTERVAL} since input streams can also be replaced or
+	 * closed without reading.
+	 */
+	private void waitForReaders() {
+		synchronized (signal) {
+			writerWaiting = true;
+			try {
+				signal.wait(CHECK_INTERVAL);
+			} catch (InterruptedException e) {
+			} finally {
+				writerWaiting = false;
+			}
+		}
+	}
+
+	/**
+	 * @return {@code true} if a reader is waiting for the writer.
+	 */
+	boolean isReaderWaiting() {
+		return readerWakeCount != Long.MAX_VALUE;
+	}
+
+	/**
+	 * Wakes waiting readers if enough data has been written for at least one
+	 * of them.
+	 */
+	private void signalReaders() {
+		if (writeCount > readerWakeCount) {
+			signalAll();
+		}
+	}
+
+	/**
+	 * Wakes the writer if it is waiting for space in the buffer.
+	 */
+	private void signalWriter() {
+		if (writerWaiting) {
+			signalAll();
+		}
+	}
+
+	private void signalAll() {
+		synchronized (signal) {
+			readerWakeCount = Long.MAX_VALUE;
+			signal.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until more than {@code minBufferS} bytes beyond
+	 * {@code readCount} have been written, the end of the stream has been
+	 * reached or {@link #MAX_READ_WAIT} has passed.
+	 *
+	 * @param readCount the position of the reader.
+	 * @param minBufferS the minimum number of buffered bytes.
+	 * @return Whether the reader had to wait.
+	 */
+	private boolean waitForWriter(long readCount, int minBufferS) {
+		if (writeCount - readCount > minBufferS || eof) {
+			return false;
+		}
+		LOGGER.trace("Suspend Read: readCount=" + readCount + " / writeCount=" + writeCount);
+		long wakeCount = readCount + minBufferS;
+		long deadline = System.currentTimeMillis() + MAX_READ_WAIT;
+		synchronized (signal) {
+			while (writeCount <= wakeCount && !eof) {
+				// Publish the wake count before checking again, so that
+				// either the writer sees it or we see the new writeCount
+				readerWakeCount = Math.min(readerWakeCount, wakeCount);
+				if (writeCount > wakeCount || eof) {
+					break;
+				}
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
+				try {
+					signal.wait(remaining);
+				} catch (InterruptedException e) {
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public long shrink() {
+		BufferStorage storage = buffer;
+		if (storage == null) {
+			return 0;
+		}
+		WaitBufferedInputStream input = getCurrentInputStream();
+		long buffered = writeCount - (input != null ? input.getReadCount() : 0);
+		fillLimit = (int) Math.max(Math.min(buffered, bufferOverflowWarning), minMemorySize);
+		LOGGER.trace("Transcode buffer limited to " + formatter.format(fillLimit) + " bytes");
+		return Math.max(storage.allocated(), Math.min((long) fillLimit + MARGIN_MEDIUM, maxMemorySize));
+	}
+
+	@Override
+	public void restore() {
+		fillLimit = Integer.MAX_VALUE;
+		signalAll();
+	}
+
+	/**
+	 * Grows a {@link BufferStorage.Heap} buffer to {@link #maxMemorySize}.
+	 * Off-heap buffers have their full size from the start.
+	 */
+	private void growBuffer() {
+		if (buffer instanceof BufferStorage.Heap) {
+			((BufferStorage.Heap) buffer).grow(maxMemorySize);
+		}
 	}
 
 	/**
@@ -403,61 +698,134 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 	public void write(int b) throws IOException {
 		boolean bb = b % 100000 == 0;
 		WaitBufferedInputStream input = getCurrentInputStream();
-		while (bb && ((input != null && (writeCount - input.getReadCount() > bufferOverflowWarning)) || (input == null && writeCount == bufferOverflowWarning))) {
-			try {
-				Thread.sleep(CHECK_INTERVAL);
-				//LOGGER.trace("BufferedOutputFile Full");
-			} catch (InterruptedException e) {
-			}
+		while (bb && isBufferFull(input, true)) {
+			waitForReaders();
 			input = getCurrentInputStream();
 		}
+		if (recording != null) {
+			recording.write(b);
+		}
 		int mb = (int) (writeCount++ % maxMemorySize);
 		if (buffer != null) {
-			buffer[mb] = (byte) b;
+			try {
+				buffer.put(mb, (byte) b);
+			} catch (OutOfMemoryError e) {
+				throw new IOException("Couldn't allocate memory for the transcode buffer", e);
+			}
 			buffered = true;
 			if (writeCount == INITIAL_BUFFER_SIZE) {
-				buffer = growBuffer(buffer, maxMemorySize);
+				growBuffer();
 			}
 
-			if (timeseek > 0 && writeCount > 19) {
-				shiftByTimeSeek(mb, mb <= 20);
-			}
-
-			// Ditlew - WDTV Live - update any SCR headers
 			if (timeseek > 0 && writeCount > 10) {
+				loadShiftWindow(mb);
+				if (writeCount > 19) {
+					shiftByTimeSeek(mb, mb <= 20);
+				}
+
+				// Ditlew - WDTV Live - update any SCR headers
 				shiftSCRByTimeSeek(mb, (int) timeseek);
+				storeShiftWindow();
 			}
 		}
+		signalReaders();
+	}
+
+	/**
+	 * Copies the {@link #SHIFT_WINDOW} bytes ending at {@code end} to
+	 * {@link #shiftWindow}.
+	 *
+	 * @param end the position of the last byte of the window.
+	 */
+	private void loadShiftWindow(int end) {
+		int length = buffer.length();
+		shiftWindowEnd = modulo(end, length);
+		shiftWindowDirty = false;
+		int position = modulo(shiftWindowEnd - SHIFT_WINDOW + 1, length);
+		int off = 0;
+		while (off < SHIFT_WINDOW) {
+			int count = Math.min(SHIFT_WINDOW - off, length - position);
+			buffer.get(position, shiftWindow, off, count);
+			off += count;
+			position = 0;
+		}
+	}
+
+	/**
+	 * Copies {@link #shiftWindow} back to the buffer if a shift modified it.
+	 */
+	private void storeShiftWindow() {
+		if (!shiftWindowDirty) {
+			return;
+		}
+		int length = buffer.length();
+		int position = modulo(shiftWindowEnd - SHIFT_WINDOW + 1, length);
+		int off = 0;
+		while (off < SHIFT_WINDOW) {
+			int count = Math.min(SHIFT_WINDOW - off, length - position);
+			buffer.put(position, shiftWindow, off, count);
+			off += count;
+			position = 0;
+		}
+		shiftWindowDirty = false;
+	}
+
+	/**
+	 * @param index the position in the buffer.
+	 * @return The byte at {@code index}, from {@link #shiftWindow} if it's
+	 *         in the window.
+	 */
+	private byte peek(int index) {
+		int offset = modulo(shiftWindowEnd - index, buffer.length());
+		if (offset < SHIFT_WINDOW) {
+			return shiftWindow[SHIFT_WINDOW - 1 - offset];
+		}
+		return buffer.get(modulo(index, buffer.length()));
+	}
+
+	/**
+	 * @param index the position in the buffer.
+	 * @param value the byte to store at {@code index}, in
+	 *            {@link #shiftWindow} if it's in the window.
+	 */
+	private void poke(int index, byte value) {
+		int offset = modulo(shiftWindowEnd - index, buffer.length());
+		if (offset < SHIFT_WINDOW) {
+			shiftWindow[SHIFT_WINDOW - 1 - offset] = value;
+			shiftWindowDirty = true;
+		} else {
+			buffer.put(modulo(index, buffer.length()), value);
+		}
 	}
 
 	// Ditlew - Modify SCR
 	private void shiftSCRByTimeSeek(int buffer_index, int offset_sec) {
-		int m9 = modulo(buffer_index - 9, buffer.length);
-		int m8 = modulo(buffer_index - 8, buffer.length);
-		int m7 = modulo(buffer_index - 7, buffer.length);
-		int m6 = modulo(buffer_index - 6, buffer.length);
-		int m5 = modulo(buffer_index - 5, buffer.length);
-		int m4 = modulo(buffer_index - 4, buffer.length);
-		int m3 = modulo(buffer_index - 3, buffer.length);
-		int m2 = modulo(buffer_index - 2, buffer.length);
-		int m1 = modulo(buffer_index - 1, buffer.length);
-		int m0 = modulo(buffer_index, buffer.length);
+		int m9 = modulo(buffer_index - 9, buffer.length());
+		int m8 = modulo(buffer_index - 8, buffer.length());
+		int m7 = modulo(buffer_index - 7, buffer.length());
+		int m6 = modulo(buffer_index - 6, buffer.length());
+		int m5 = modulo(buffer_index - 5, buffer.length());
+		int m4 = modulo(buffer_index - 4, buffer.length());
+		int m3 = modulo(buffer_index - 3, buffer.length());
+		int m2 = modulo(buffer_index - 2, buffer.length());
+		int m1 = modulo(buffer_index - 1, buffer.length());
+		int m0 = modulo(buffer_index, buffer.length());
 
 		// SCR
-		if (buffer[m9] == 0
-			&& buffer[m8] == 0
-			&& buffer[m7] == 1
-			&& buffer[m6] == -70 && // 0xBA - Java/DMS wants -70
+		if (peek(m9) == 0
+			&& peek(m8) == 0
+			&& peek(m7) == 1
+			&& peek(m6) == -70 && // 0xBA - Java/DMS wants -70
 			// control bits
-			!((buffer[m5] & 128) == 128)
-			&& ((buffer[m5] & 64) == 64)
-			&& ((buffer[m5] & 4) == 4)
-			&& ((buffer[m3] & 4) == 4)
-			&& ((buffer[m1] & 4) == 4)
-			&& ((buffer[m0] & 1) == 1)) {
-			long scr_32_30 = ((buffer[m5] & 56) >> 3);
-			long scr_29_15 = ((buffer[m5] & 3) << 13) + (buffer[m4] << 5) + ((buffer[m3] & 248) >> 3);
-			long scr_14_00 = ((buffer[m3] & 3) << 13) + (buffer[m2] << 5) + ((buffer[m1] & 248) >> 3);
+			!((peek(m5) & 128) == 128)
+			&& ((peek(m5) & 64) == 64)
+			&& ((peek(m5) & 4) == 4)
+			&& ((peek(m3) & 4) == 4)
+			&& ((peek(m1) & 4) == 4)
+			&& ((peek(m0) & 1) == 1)) {
+			long scr_32_30 = ((peek(m5) & 56) >> 3);
+			long scr_29_15 = ((peek(m5) & 3) << 13) + (peek(m4) << 5) + ((peek(m3) & 248) >> 3);
+			long scr_14_00 = ((peek(m3) & 3) << 13) + (peek(m2) << 5) + ((peek(m1) & 248) >> 3);
 
 			long scr = (scr_32_30 << 30) + (scr_29_15 << 15) + scr_14_00;
 			long scr_new = scr + (90000L * offset_sec);
@@ -467,17 +835,17 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			long scr_14_00_new = (scr_new & 32767L);             // 000000000000000000111111111111111
 
 			// scr_32_30_new
-			buffer[m5] = (byte) ((buffer[m5] & 199) + ((scr_32_30_new << 3) & 56)); // 11000111
+			poke(m5, (byte) ((peek(m5) & 199) + ((scr_32_30_new << 3) & 56))); // 11000111
 
 			// scr_29_15_new
-			buffer[m5] = (byte) ((buffer[m5] & 252) + ((scr_29_15_new >> 13) & 3)); // 00000011
-			buffer[m4] = (byte) (scr_29_15_new >> 5);                               // 11111111
-			buffer[m3] = (byte) ((buffer[m3] & 7) + ((scr_29_15_new << 3) & 248));  // 11111000
+			poke(m5, (byte) ((peek(m5) & 252) + ((scr_29_15_new >> 13) & 3))); // 00000011
+			poke(m4, (byte) (scr_29_15_new >> 5));                               // 11111111
+			poke(m3, (byte) ((peek(m3) & 7) + ((scr_29_15_new << 3) & 248)));  // 11111000
 
 			// scr_14_00_new
-			buffer[m3] = (byte) ((buffer[m3] & 252) + ((scr_14_00_new >> 13) & 3)); // 00000011
-			buffer[m2] = (byte) (scr_14_00_new >> 5);                               // 11111111
-			buffer[m1] = (byte) ((buffer[m1] & 7) + ((scr_14_00_new << 3) & 248));  // 11111000
+			poke(m3, (byte) ((peek(m3) & 252) + ((scr_14_00_new >> 13) & 3))); // 00000011
+			poke(m2, (byte) (scr_14_00_new >> 5));                               // 11111111
+			poke(m1, (byte) ((peek(m1) & 7) + ((scr_14_00_new << 3) & 248)));  // 11111000
 
 			// Debug
 			//LOGGER.trace("Ditlew - SCR "+scr+" ("+(int)(scr/90000)+") -> "+scr_new+" ("+(int)(scr_new/90000)+")  "+offset_sec+" secs");
@@ -487,31 +855,31 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 	// Ditlew - Modify GOP
 	@SuppressWarnings("unused")
 	private void shiftGOPByTimeSeek(int buffer_index, int offset_sec) {
-		int m7 = modulo(buffer_index - 7, buffer.length);
-		int m6 = modulo(buffer_index - 6, buffer.length);
-		int m5 = modulo(buffer_index - 5, buffer.length);
-		int m4 = modulo(buffer_index - 4, buffer.length);
-		int m3 = modulo(buffer_index - 3, buffer.length);
-		int m2 = modulo(buffer_index - 2, buffer.length);
-		int m1 = modulo(buffer_index - 1, buffer.length);
-		int m0 = modulo(buffer_index, buffer.length);
+		int m7 = modulo(buffer_index - 7, buffer.length());
+		int m6 = modulo(buffer_index - 6, buffer.length());
+		int m5 = modulo(buffer_index - 5, buffer.length());
+		int m4 = modulo(buffer_index - 4, buffer.length());
+		int m3 = modulo(buffer_index - 3, buffer.length());
+		int m2 = modulo(buffer_index - 2, buffer.length());
+		int m1 = modulo(buffer_index - 1, buffer.length());
+		int m0 = modulo(buffer_index, buffer.length());
 
 		// check if valid gop
-		if (buffer[m7] == 0
-			&& buffer[m6] == 0
-			&& buffer[m5] == 1
-			&& buffer[m4] == -72 && // 0xB8 - Java/DMS wants -72
+		if (peek(m7) == 0
+			&& peek(m6) == 0
+			&& peek(m5) == 1
+			&& peek(m4) == -72 && // 0xB8 - Java/DMS wants -72
 			// control bits
-			((buffer[m2] & 0x08) == 0x08)
-			&& ((buffer[m0] & 31) == 0)
+			((peek(m2) & 0x08) == 0x08)
+			&& ((peek(m0) & 31) == 0)
 			&& // of interest
-			!((buffer[m3] & 128) == 128) && // not drop frm
-			!((buffer[m0] & 16) == 16) // not broken
+			!((peek(m3) & 128) == 128) && // not drop frm
+			!((peek(m0) & 16) == 16) // not broken
 			) {
 			// org timecode
-			byte h = (byte) ((buffer[m3] & 124) >> 2);
-			byte m = (byte) (((buffer[m3] & 3) << 4) + ((buffer[m2] & 240) >> 4));
-			byte s = (byte) (((buffer[m2] & 7) << 3) + ((buffer[m1] & 224) >> 5));
+			byte h = (byte) ((peek(m3) & 124) >> 2);
+			byte m = (byte) (((peek(m3) & 3) << 4) + ((peek(m2) & 240) >> 4));
+			byte s = (byte) (((peek(m2) & 7) << 3) + ((peek(m1) & 224) >> 5));
 
 			// updated offset
 			int _offset = s + m * 60 + h * 60 + offset_sec;
@@ -523,13 +891,13 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 
 			// update gop
 			// h - ok
-			buffer[m3] = (byte) ((buffer[m3] & 131) + (_h << 2)); // 10000011
+			poke(m3, (byte) ((peek(m3) & 131) + (_h << 2))); // 10000011
 			// m - ok
-			buffer[m3] = (byte) ((buffer[m3] & 252) + (_m >> 4)); // 11111100
-			buffer[m2] = (byte) ((buffer[m2] & 15) + (_m << 4)); // 00001111
+			poke(m3, (byte) ((peek(m3) & 252) + (_m >> 4))); // 11111100
+			poke(m2, (byte) ((peek(m2) & 15) + (_m << 4))); // 00001111
 			// s - ok
-			buffer[m2] = (byte) ((buffer[m2] & 248) + (_s >> 3)); // 11111000
-			buffer[m1] = (byte) ((buffer[m1] & 31) + (_s << 5)); // 00011111
+			poke(m2, (byte) ((peek(m2) & 248) + (_s >> 3))); // 11111000
+			poke(m1, (byte) ((peek(m1) & 31) + (_s << 5))); // 00011111
 
 			// Debug
 			//LOGGER.trace("Ditlew - GOP "+h+":"+m+":"+s+" -> "+_h+":"+_m+":"+_s+"  "+offset_sec+" secs");
@@ -545,26 +913,26 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 		boolean bb = (
 				!mod &&
 				(
-					buffer[mb - 10] == -67 || buffer[mb - 10] == -64
+					peek(mb - 10) == -67 || peek(mb - 10) == -64
 				) &&
-				buffer[mb - 11] == 1 &&
-				buffer[mb - 12] == 0 &&
-				buffer[mb - 13] == 0 &&
-				(buffer[mb - 6] & 128) == 128
+				peek(mb - 11) == 1 &&
+				peek(mb - 12) == 0 &&
+				peek(mb - 13) == 0 &&
+				(peek(mb - 6) & 128) == 128
 			) ||
 			(
 				mod &&
 				(
-					buffer[modulo(mb - 10, buffer.length)] == -67 ||
-					buffer[modulo(mb - 10, buffer.length)] == -64
+					peek(modulo(mb - 10, buffer.length())) == -67 ||
+					peek(modulo(mb - 10, buffer.length())) == -64
 				) &&
-				buffer[modulo(mb - 11, buffer.length)] == 1 &&
-				buffer[modulo(mb - 12, buffer.length)] == 0 &&
-				buffer[modulo(mb - 13, buffer.length)] == 0 &&
-				(buffer[modulo(mb - 6, buffer.length)] & 128) == 128
+				peek(modulo(mb - 11, buffer.length())) == 1 &&
+				peek(modulo(mb - 12, buffer.length())) == 0 &&
+				peek(modulo(mb - 13, buffer.length())) == 0 &&
+				(peek(modulo(mb - 6, buffer.length())) & 128) == 128
 			);
 		if (bb) {
-			int pts = (((((buffer[modulo(mb - 3, buffer.length)] & 0xff) << 8) + (buffer[modulo(mb - 2, buffer.length)] & 0xff)) >> 1) << 15) + ((((buffer[modulo(mb - 1, buffer.length)] & 0xff) << 8) + (buffer[modulo(mb, buffer.length)] & 0xff)) >> 1);
+			int pts = (((((peek(modulo(mb - 3, buffer.length())) & 0xff) << 8) + (peek(modulo(mb - 2, buffer.length())) & 0xff)) >> 1) << 15) + ((((peek(modulo(mb - 1, buffer.length())) & 0xff) << 8) + (peek(modulo(mb, buffer.length())) & 0xff)) >> 1);
 			pts += (int) (timeseek * 90000);
 
 			setTS(pts, mb, mod);
@@ -575,26 +943,26 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 
 	private boolean shiftVideo(int mb, boolean mod) {
 		boolean bb = (!mod
-			&& (buffer[mb - 15] == -32 || buffer[mb - 15] == -3)
-			&& buffer[mb - 16] == 1
-			&& buffer[mb - 17] == 0
-			&& buffer[mb - 18] == 0
-			&& (buffer[mb - 11] & 128) == 128
-			&& (buffer[mb - 9] & 32) == 32) || (mod
-			&& (buffer[modulo(mb - 15, buffer.length)] == -32 || buffer[modulo(mb - 15, buffer.length)] == -3)
-			&& buffer[modulo(mb - 16, buffer.length)] == 1
-			&& buffer[modulo(mb - 17, buffer.length)] == 0
-			&& buffer[modulo(mb - 18, buffer.length)] == 0
-			&& (buffer[modulo(mb - 11, buffer.length)] & 128) == 128
-			&& (buffer[modulo(mb - 9, buffer.length)] & 32) == 32);
+			&& (peek(mb - 15) == -32 || peek(mb - 15) == -3)
+			&& peek(mb - 16) == 1
+			&& peek(mb - 17) == 0
+			&& peek(mb - 18) == 0
+			&& (peek(mb - 11) & 128) == 128
+			&& (peek(mb - 9) & 32) == 32) || (mod
+			&& (peek(modulo(mb - 15, buffer.length())) == -32 || peek(modulo(mb - 15, buffer.length())) == -3)
+			&& peek(modulo(mb - 16, buffer.length())) == 1
+			&& peek(modulo(mb - 17, buffer.length())) == 0
+			&& peek(modulo(mb - 18, buffer.length())) == 0
+			&& (peek(modulo(mb - 11, buffer.length())) & 128) == 128
+			&& (peek(modulo(mb - 9, buffer.length())) & 32) == 32);
 
 		if (bb) { // check EO or FD (tsMuxeR)
 			int pts = getTS(mb - 5, mod);
 			int dts = 0;
-			boolean dts_present = (buffer[modulo(mb - 11, buffer.length)] & 64) == 64;
+			boolean dts_present = (peek(modulo(mb - 11, buffer.length())) & 64) == 64;
 			if (dts_present) {
-				if ((buffer[modulo(mb - 4, buffer.length)] & 15) == 15) {
-					dts = (((((255 - (buffer[modulo(mb - 3, buffer.length)] & 0xff)) << 8) + (255 - (buffer[modulo(mb - 2, buffer.length)] & 0xff))) >> 1) << 15) + ((((255 - (buffer[modulo(mb - 1, buffer.length)] & 0xff)) << 8) + (255 - (buffer[modulo(mb, buffer.length)] & 0xff))) >> 1);
+				if ((peek(modulo(mb - 4, buffer.length())) & 15) == 15) {
+					dts = (((((255 - (peek(modulo(mb - 3, buffer.length())) & 0xff)) << 8) + (255 - (peek(modulo(mb - 2, buffer.length())) & 0xff))) >> 1) << 15) + ((((255 - (peek(modulo(mb - 1, buffer.length())) & 0xff)) << 8) + (255 - (peek(modulo(mb, buffer.length())) & 0xff))) >> 1);
 					dts = -dts;
 				} else {
 					dts = getTS(mb, mod);
@@ -610,7 +978,7 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			setTS(pts, mb - 5, mod);
 			if (dts_present) {
 				if (dts < 0) {
-					buffer[modulo(mb - 4, buffer.length)] = 17;
+					poke(modulo(mb - 4, buffer.length()), (byte) 17);
 				}
 				dts += ts;
 				setTS(dts, mb, mod);
@@ -626,14 +994,14 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 		int m1 = mb - 1;
 		int m0 = mb;
 		if (modulo) {
-			m3 = modulo(m3, buffer.length);
-			m2 = modulo(m2, buffer.length);
-			m1 = modulo(m1, buffer.length);
-			m0 = modulo(m0, buffer.length);
+			m3 = modulo(m3, buffer.length());
+			m2 = modulo(m2, buffer.length());
+			m1 = modulo(m1, buffer.length());
+			m0 = modulo(m0, buffer.length());
 		}
 
-		return (((((buffer[m3] & 0xff) << 8) + (buffer[m2] & 0xff)) >> 1) << 15)
-			+ ((((buffer[m1] & 0xff) << 8) + (buffer[m0] & 0xff)) >> 1);
+		return (((((peek(m3) & 0xff) << 8) + (peek(m2) & 0xff)) >> 1) << 15)
+			+ ((((peek(m1) & 0xff) << 8) + (peek(m0) & 0xff)) >> 1);
 	}
 
 	private void setTS(int ts, int mb, boolean modulo) {
@@ -642,19 +1010,19 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 		int m1 = mb - 1;
 		int m0 = mb;
 		if (modulo) {
-			m3 = modulo(m3, buffer.length);
-			m2 = modulo(m2, buffer.length);
-			m1 = modulo(m1, buffer.length);
-			m0 = modulo(m0, buffer.length);
+			m3 = modulo(m3, buffer.length());
+			m2 = modulo(m2, buffer.length());
+			m1 = modulo(m1, buffer.length());
+			m0 = modulo(m0, buffer.length());
 		}
 		int pts_low = ts & 32767;
 		int pts_high = (ts >> 15) & 32767;
 		int pts_left_low = 1 + (pts_low << 1);
 		int pts_left_high = 1 + (pts_high << 1);
-		buffer[m3] = (byte) ((pts_left_high & 65280) >> 8);
-		buffer[m2] = (byte) (pts_left_high & 255);
-		buffer[m1] = (byte) ((pts_left_low & 65280) >> 8);
-		buffer[m0] = (byte) (pts_left_low & 255);
+		poke(m3, (byte) ((pts_left_high & 65280) >> 8));
+		poke(m2, (byte) (pts_left_high & 255));
+		poke(m1, (byte) ((pts_left_low & 65280) >> 8));
+		poke(m0, (byte) (pts_left_low & 255));
 	}
 
 	@Override
@@ -672,26 +1040,17 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			return -1;
 		}
 
-		int c = 0;
+		// The previous read has been consumed, the writer may continue
+		signalWriter();
+		allocation.touch();
 		int minBufferS = firstRead ? minMemorySize : secondread_minsize;
-		while (writeCount - readCount <= minBufferS && !eof && c < 15) {
-			if (c == 0) {
-				LOGGER.trace("Suspend Read: readCount=" + readCount + " / writeCount=" + writeCount);
-			}
-
-			c++;
-
-			try {
-				Thread.sleep(CHECK_INTERVAL);
-			} catch (InterruptedException e) {
-			}
-		}
+		boolean waited = waitForWriter(readCount, minBufferS);
 
 		if (attachedThread != null) {
 			attachedThread.setReadyToStop(false);
 		}
 
-		if (c > 0) {
+		if (waited) {
 			LOGGER.trace("Resume Read: readCount=" + readCount + " / writeCount=" + writeCount);
 		}
 
@@ -699,8 +1058,14 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			return -1;
 		}
 
+		if (writeCount - readCount > maxMemorySize) {
+			// An idle reader of a shared transcode has been left behind
+			LOGGER.debug("Reader fell behind the buffer: readCount=" + readCount + " / writeCount=" + writeCount);
+			return -1;
+		}
+
 		int mb = (int) (readCount % maxMemorySize);
-		int endOF = buffer.length;
+		int endOF = buffer.length();
 		int cut = 0;
 
 		if (eof && (writeCount - readCount) < len) {
@@ -712,10 +1077,10 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 
 		if (mb >= endOF - len) {
 			try {
-				System.arraycopy(buffer, mb, buf, off, endOF - mb - cut);
-			} catch (ArrayIndexOutOfBoundsException e) {
+				buffer.get(mb, buf, off, endOF - mb - cut);
+			} catch (IndexOutOfBoundsException e) {
 				LOGGER.trace("Something went wrong with the buffer, error: " + e);
-				LOGGER.trace("buffer: " + Arrays.toString(buffer));
+				LOGGER.trace("buffer: " + buffer.length() + " bytes");
 				LOGGER.trace("mb: " + mb);
 				LOGGER.trace("buf: " + Arrays.toString(buf));
 				LOGGER.trace("off: " + off);
@@ -723,7 +1088,7 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			}
 			return endOF - mb;
 		} else {
-			System.arraycopy(buffer, mb, buf, off, len - cut);
+			buffer.get(mb, buf, off, len - cut);
 			return len;
 		}
 	}
@@ -744,27 +1109,17 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			return -1;
 		}
 
-		int c = 0;
+		// The previous read has been consumed, the writer may continue
+		signalWriter();
+		allocation.touch();
 		int minBufferS = firstRead ? minMemorySize : secondread_minsize;
-
-		while (writeCount - readCount <= minBufferS && !eof && c < 15) {
-			if (c == 0) {
-				LOGGER.trace("Suspend Read: readCount=" + readCount + " / writeCount=" + writeCount);
-			}
-
-			c++;
-
-			try {
-				Thread.sleep(CHECK_INTERVAL);
-			} catch (InterruptedException e) {
-			}
-		}
+		boolean waited = waitForWriter(readCount, minBufferS);
 
 		if (attachedThread != null) {
 			attachedThread.setReadyToStop(false);
 		}
 
-		if (c > 0) {
+		if (waited) {
 			LOGGER.trace("Resume Read: readCount=" + readCount + " / writeCount=" + writeCount);
 		}
 
@@ -772,9 +1127,15 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			return -1;
 		}
 
+		if (writeCount - readCount > maxMemorySize) {
+			// An idle reader of a shared transcode has been left behind
+			LOGGER.debug("Reader fell behind the buffer: readCount=" + readCount + " / writeCount=" + writeCount);
+			return -1;
+		}
+
 		try {
-			return 0xff & buffer[(int) (readCount % maxMemorySize)];
-		} catch (ArrayIndexOutOfBoundsException e) {
+			return 0xff & buffer.get((int) (readCount % maxMemorySize));
+		} catch (IndexOutOfBoundsException e) {
 			LOGGER.info("Buffer read ArrayIndexOutOfBoundsException error:");
 			LOGGER.info("readCount: \"" + readCount + "\"");
 			LOGGER.info("maxMemorySize: \"" + maxMemorySize + "\"");
@@ -823,6 +1184,7 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 	@Override
 	public void removeInputStream(WaitBufferedInputStream inputStream) {
 		inputStreams.remove(inputStream);
+		signalWriter();
 	}
 
 	@Override
@@ -831,29 +1193,68 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 			PMS.get().getFrame().setReadValue(0, "");
 		}
 
+		stopWhenUnread();
+	}
+
+	/**
+	 * Stops the attached process once none of the remaining readers reads
+	 * from it anymore. A reader that is still attached but hasn't read for
+	 * {@link #ABANDONED_READER_TIMEOUT} doesn't count, so a reader that is
+	 * never closed can't keep the process running.
+	 */
+	public void stopWhenUnread() {
 		if (attachedThread != null) {
 			attachedThread.setReadyToStop(true);
 		}
 
+		scheduleCheckEnd(CHECK_END_OF_PROCESS, false);
+	}
+
+	private void scheduleCheckEnd(long delay, final boolean recheck) {
 		Runnable checkEnd = new Runnable() {
 			@Override
 			public void run() {
-				try {
-					Thread.sleep(CHECK_END_OF_PROCESS);
-				} catch (InterruptedException e) {
-					LOGGER.error(null, e);
+				if (recheck) {
+					checkEndScheduled.set(false);
 				}
 
-				if (attachedThread != null && attachedThread.isReadyToStop()) {
+				if (attachedThread == null) {
+					return;
+				}
+
+				// A shared transcode is only stopped when no reader is left
+				if ((recheck || attachedThread.isReadyToStop()) && getLiveReaderCount() == 0) {
 					if (!attachedThread.isDestroyed()) {
 						attachedThread.stopProcess();
 					}
 
 					reset();
+				} else if (
+					!attachedThread.isDestroyed() &&
+					!inputStreams.isEmpty() &&
+					checkEndScheduled.compareAndSet(false, true)
+				) {
+					// Check again once the remaining readers may have been abandoned
+					scheduleCheckEnd(ABANDONED_READER_TIMEOUT, true);
 				}
 			}
 		};
-		new Thread(checkEnd, attachedThread + "-Cleanup").start();
+		ProcessSupervisor.get().schedule(checkEnd, delay);
+	}
+
+	/**
+	 * @return The number of attached readers that have read within
+	 *         {@link #ABANDONED_READER_TIMEOUT}.
+	 */
+	int getLiveReaderCount() {
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (WaitBufferedInputStream stream : inputStreams) {
+			if (now - stream.getLastReadTime() < ABANDONED_READER_TIMEOUT) {
+				count++;
+			}
+		}
+		return count;
 	}
 
 	@Override
@@ -872,10 +1273,13 @@ public class BufferedOutputFileImpl extends OutputStream implements BufferedOutp
 
 		if (buffer != null) {
 			LOGGER.trace("Destroying buffer");
+			buffer.release();
 			buffer = null;
 		}
 
 		buffered = false;
+		allocation.release();
+		finishRecording(false);
 
 		if (renderer != null) {
 			renderer.setBuffer(0);
@@ -41,7 +41,7 @@ public class OutputBufferConsumer extends OutputConsumer {
 	 */
 	private static final int PIPE_BUFFER_SIZE = 500000;
 
-	public OutputBufferConsumer(InputStream inputStream, OutputParams params) {
+	public OutputBufferConsumer(InputStream inputStream, OutputParams params) throws IOException {
 		super(inputStream);
 		outputBuffer = new BufferedOutputFileImpl(params);
 	}
@@ -20,12 +20,18 @@ package net.pms.io;
 
 import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.IOUtils;
 
 public abstract class OutputConsumer extends Thread {
 	protected InputStream inputStream;
 	protected boolean filtered;
 
+	/** Counted down when the {@link ProcessSupervisor} has drained the stream */
+	private final CountDownLatch supervisedFinished = new CountDownLatch(1);
+	private volatile boolean supervised;
+
 	public OutputConsumer(InputStream inputStream) {
 		this.inputStream = inputStream;
 		this.filtered = false;
@@ -49,6 +55,62 @@ public abstract class OutputConsumer extends Thread {
 		return false;
 	}
 
+	/**
+	 * Whether this consumer handles its input line by line through
+	 * {@link #consumeLine(String)}, in which case the {@link ProcessSupervisor}
+	 * can drain it instead of a thread of its own.
+	 *
+	 * @return {@code true} if this is a line based consumer.
+	 */
+	public boolean isLineConsumer() {
+		return false;
+	}
+
+	/**
+	 * Handles a line of input. Only called for line based consumers.
+	 *
+	 * @param line the line without line terminator.
+	 */
+	protected void consumeLine(String line) {
+	}
+
+	/**
+	 * Marks this consumer as drained by the {@link ProcessSupervisor}.
+	 */
+	void setSupervised() {
+		supervised = true;
+	}
+
+	/**
+	 * Called by the {@link ProcessSupervisor} when the input is exhausted.
+	 */
+	void supervisedFinished() {
+		supervisedFinished.countDown();
+	}
+
+	/**
+	 * Waits for this consumer to finish consuming, whether it runs as a
+	 * thread or is drained by the {@link ProcessSupervisor}.
+	 *
+	 * @param millis the maximum time to wait in milliseconds.
+	 * @return {@code true} if the consumer has finished.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public boolean awaitFinished(long millis) throws InterruptedException {
+		if (supervised) {
+			return supervisedFinished.await(millis, TimeUnit.MILLISECONDS);
+		}
+		join(millis);
+		return !isAlive();
+	}
+
+	/**
+	 * @return {@code true} if this consumer is still consuming its input.
+	 */
+	public boolean isConsuming() {
+		return supervised ? supervisedFinished.getCount() > 0 : isAlive();
+	}
+
 	public abstract BufferedOutputFile getBuffer();
 
 	public abstract List<String> getResults();
@@ -37,6 +37,10 @@ public class OutputParams {
 	public double minFileSize;
 	public double minBufferSize;
 	public double maxBufferSize;
+	public BufferStorage.Type bufferType;
+	public TranscodeMemoryGovernor.Allocation memoryAllocation;
+	public TranscodeCache.Recording cacheRecording;
+	public int prewarmSeconds;
 	public double timeseek;
 	public double timeend;
 	public int fromFrame;
@@ -76,6 +80,9 @@ public class OutputParams {
 			minFileSize = configuration.getMinStreamBuffer();
 			minBufferSize = configuration.getMinMemoryBufferSize();
 			maxBufferSize = configuration.getMaxMemoryBufferSize();
+			bufferType = configuration.getTranscodeBufferType();
+		} else {
+			bufferType = BufferStorage.Type.HEAP;
 		}
 		if (maxBufferSize < 100) {
 			maxBufferSize = 100;
@@ -98,6 +105,7 @@ public class OutputParams {
 	public String toString() {
 		return "OutputParams [aid=" + aid +
 			", avidemux=" + avidemux +
+			", bufferType=" + bufferType +
 			", cleanup=" + cleanup +
 			", forceFps=" + forceFps +
 			", forceType=" + forceType +
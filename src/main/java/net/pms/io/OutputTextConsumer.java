@@ -49,18 +49,7 @@ public class OutputTextConsumer extends OutputConsumer {
 			it = IOUtils.lineIterator(inputStream, "UTF-8");
 
 			while (it.hasNext()) {
-				String line = it.nextLine();
-
-				if (line.length() > 0) {
-					addLine(line);
-				}
-
-				if (log) {
-					LOGGER.debug(line);
-				}
-				if (filtered) {
-					filtered = filter(line);
-				}
+				consumeLine(it.nextLine());
 			}
 		} catch (IOException ioe) {
 			LOGGER.debug("Error consuming input stream: {}", ioe.getMessage());
@@ -71,6 +60,25 @@ public class OutputTextConsumer extends OutputConsumer {
 		}
 	}
 
+	@Override
+	public boolean isLineConsumer() {
+		return true;
+	}
+
+	@Override
+	protected void consumeLine(String line) {
+		if (line.length() > 0) {
+			addLine(line);
+		}
+
+		if (log) {
+			LOGGER.debug(line);
+		}
+		if (filtered) {
+			filtered = filter(line);
+		}
+	}
+
 	private void addLine(String line) {
 		synchronized (linesLock) {
 			lines.add(line);
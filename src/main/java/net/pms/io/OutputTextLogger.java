@@ -49,11 +49,7 @@ public class OutputTextLogger extends OutputConsumer {
 			it = IOUtils.lineIterator(inputStream, "UTF-8");
 
 			while (it.hasNext()) {
-				String line = it.nextLine();
-				LOGGER.debug(line);
-				if (filtered) {
-					filtered = filter(line);
-				}
+				consumeLine(it.nextLine());
 			}
 		} catch (IOException ioe) {
 			LOGGER.debug("Error consuming input stream: {}", ioe.getMessage());
@@ -64,6 +60,19 @@ public class OutputTextLogger extends OutputConsumer {
 		}
 	}
 
+	@Override
+	public boolean isLineConsumer() {
+		return true;
+	}
+
+	@Override
+	protected void consumeLine(String line) {
+		LOGGER.debug(line);
+		if (filtered) {
+			filtered = filter(line);
+		}
+	}
+
 	@Override
 	public BufferedOutputFile getBuffer() {
 		return null;
@@ -20,10 +20,17 @@ package net.pms.io;
 
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import com.sun.jna.Platform;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import net.pms.util.DTSAudioOutputStream;
 import net.pms.util.H264AnnexBInputStream;
@@ -34,6 +41,7 @@ import org.slf4j.LoggerFactory;
 
 public class PipeIPCProcess extends Thread implements ProcessWrapper {
 	private static final Logger LOGGER = LoggerFactory.getLogger(PipeIPCProcess.class);
+	private static final int BUFFER_SIZE = 512 * 1024;
 	private final PipeProcess mkin;
 	private final PipeProcess mkout;
 	private StreamModifier modifier;
@@ -53,11 +61,10 @@ public class PipeIPCProcess extends Thread implements ProcessWrapper {
 
 	@Override
 	public void run() {
-		byte[] b = new byte[512 * 1024];
-		int n = -1;
 		InputStream in = null;
 		OutputStream out = null;
 		OutputStream debug = null;
+		long transferred = 0;
 
 		try {
 			in = mkin.getInputStream();
@@ -77,11 +84,22 @@ public class PipeIPCProcess extends Thread implements ProcessWrapper {
 				out.write(modifier.getHeader());
 			}
 
-			while ((n = in.read(b)) > -1) {
-				out.write(b, 0, n);
+			if (in instanceof FileInputStream && out instanceof FileOutputStream && debug == null) {
+				// Plain passthrough between FIFOs
+				transferred = transfer(((FileInputStream) in).getChannel(), ((FileOutputStream) out).getChannel(), ByteBuffer.allocateDirect(BUFFER_SIZE));
+			} else if (in instanceof FileInputStream) {
+				// Only the output is modified
+				transferred = copy(((FileInputStream) in).getChannel(), out, ByteBuffer.allocateDirect(BUFFER_SIZE), new byte[BUFFER_SIZE], debug);
+			} else {
+				byte[] b = new byte[BUFFER_SIZE];
+				int n;
+				while ((n = in.read(b)) > -1) {
+					out.write(b, 0, n);
+					transferred += n;
 
-				if (debug != null) {
-					debug.write(b, 0, n);
+					if (debug != null) {
+						debug.write(b, 0, n);
+					}
 				}
 			}
 		} catch (InterruptedIOException e) {
@@ -93,6 +111,9 @@ public class PipeIPCProcess extends Thread implements ProcessWrapper {
 				}
 				LOGGER.trace("", e);
 			}
+		} catch (ClosedByInterruptException e) {
+			LOGGER.debug("IPC pipe interrupted after writing {} bytes, shutting down...", transferred);
+			LOGGER.trace("", e);
 		} catch (IOException e) {
 			LOGGER.warn("An error occurred duing IPC piping: {}", e.getMessage());
 			LOGGER.trace("", e);
@@ -118,6 +139,65 @@ public class PipeIPCProcess extends Thread implements ProcessWrapper {
 		}
 	}
 
+	/**
+	 * Forwards everything from {@code in} to {@code out} through a direct
+	 * {@link ByteBuffer}, so the data is never copied to or from the Java
+	 * heap. {@link FileChannel#transferTo} isn't used since {@code sendfile}
+	 * can't read from a FIFO, it would fall back to a copy loop like this one.
+	 *
+	 * @param in the {@link ReadableByteChannel} to read from.
+	 * @param out the {@link WritableByteChannel} to write to.
+	 * @param buffer the direct {@link ByteBuffer} to use.
+	 * @return The number of bytes forwarded.
+	 * @throws IOException If an error occurs while reading or writing.
+	 */
+	static long transfer(ReadableByteChannel in, WritableByteChannel out, ByteBuffer buffer) throws IOException {
+		long transferred = 0;
+		buffer.clear();
+		while (in.read(buffer) > -1) {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				transferred += out.write(buffer);
+			}
+			buffer.clear();
+		}
+		return transferred;
+	}
+
+	/**
+	 * Forwards everything from {@code in} to a modifying {@link OutputStream}.
+	 * The data is read into a direct {@link ByteBuffer} and bulk copied to the
+	 * reusable array, which avoids the native buffer {@link FileInputStream}
+	 * allocates for every large read.
+	 *
+	 * @param in the {@link ReadableByteChannel} to read from.
+	 * @param out the {@link OutputStream} to write to.
+	 * @param buffer the direct {@link ByteBuffer} to read into.
+	 * @param array the array to pass to {@code out}, at least as large as
+	 *            {@code buffer}.
+	 * @param debug an additional {@link OutputStream} to write to or
+	 *            {@code null}.
+	 * @return The number of bytes forwarded.
+	 * @throws IOException If an error occurs while reading or writing.
+	 */
+	static long copy(ReadableByteChannel in, OutputStream out, ByteBuffer buffer, byte[] array, OutputStream debug) throws IOException {
+		long transferred = 0;
+		buffer.clear();
+		while (in.read(buffer) > -1) {
+			buffer.flip();
+			int n = buffer.remaining();
+			buffer.get(array, 0, n);
+			buffer.clear();
+			out.write(array, 0, n);
+			transferred += n;
+
+			if (debug != null) {
+				debug.write(array, 0, n);
+			}
+		}
+		return transferred;
+	}
+
 	public String getInputPipe() {
 		return mkin.getInputPipe();
 	}
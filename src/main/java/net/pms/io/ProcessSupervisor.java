@@ -0,0 +1,542 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import net.pms.util.BasicThreadFactory;
+import net.pms.util.ProcessUtil;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class supervises the external processes started by DMS with a small
+ * shared pool of threads:
+ * <ul>
+ * <li>The text output of the processes, usually stderr, is drained by
+ * polling instead of by a blocking thread per stream.</li>
+ * <li>Timeouts and deferred tasks are timed by a
+ * {@link ScheduledThreadPoolExecutor} instead of sleeping threads. They are
+ * run on a separate pool since they may block, for instance to stop a
+ * process, which would otherwise hold up the drains.</li>
+ * <li>The process ID, lifetime and, where available, CPU time of the running
+ * processes are tracked.</li>
+ * </ul>
+ */
+public class ProcessSupervisor {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProcessSupervisor.class);
+
+	/** The number of threads of the shared pool for drains and timers */
+	private static final int THREADS = 2;
+
+	/** The maximum number of threads of the pool for tasks */
+	private static final int TASK_THREADS = 8;
+
+	/**
+	 * The maximum time in milliseconds to read the rest of a stream after
+	 * its process has ended, in case a child process still holds it open
+	 */
+	private static final long DRAIN_TO_END_TIMEOUT = 5000;
+
+	/** The time in milliseconds between two drains of the text streams */
+	private static final long DRAIN_INTERVAL = 50;
+
+	/** The time in milliseconds between two samples of the CPU time */
+	private static final long SAMPLE_INTERVAL = 1000;
+
+	/** The maximum number of bytes read from one stream per drain */
+	private static final int MAX_DRAIN = 65536;
+
+	/** The clock ticks per second of the CPU times in {@code /proc} */
+	private static final long CLOCK_TICKS = 100;
+
+	private static final File PROC = new File("/proc");
+
+	private static ProcessSupervisor instance;
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	/** The pool running the scheduled and submitted tasks */
+	private final ThreadPoolExecutor tasks;
+
+	/** The streams being drained, guarded by itself */
+	private final List<Drain> drains = new ArrayList<>();
+
+	/** The periodic drain task or {@code null}, guarded by {@link #drains} */
+	private ScheduledFuture<?> drainTask;
+
+	/** The supervised processes, guarded by itself */
+	private final Map<Process, ProcessStats> processes = new IdentityHashMap<>();
+
+	/** The periodic sampling task or {@code null}, guarded by {@link #processes} */
+	private ScheduledFuture<?> sampleTask;
+
+	ProcessSupervisor() {
+		executor = new ScheduledThreadPoolExecutor(THREADS, new BasicThreadFactory("Process Supervisor %d"));
+		executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+		executor.allowCoreThreadTimeOut(true);
+		executor.setRemoveOnCancelPolicy(true);
+		tasks = new ThreadPoolExecutor(
+			TASK_THREADS,
+			TASK_THREADS,
+			30,
+			TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(),
+			new BasicThreadFactory("Process Supervisor Task %d")
+		);
+		tasks.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return The shared {@link ProcessSupervisor}.
+	 */
+	public static synchronized ProcessSupervisor get() {
+		if (instance == null) {
+			instance = new ProcessSupervisor();
+		}
+		return instance;
+	}
+
+	/**
+	 * Runs {@code task} after {@code delay} milliseconds. The task is run on
+	 * the task pool, so it may block without holding up the drains.
+	 *
+	 * @param task the {@link Runnable} to run.
+	 * @param delay the delay in milliseconds.
+	 * @return The {@link ScheduledFuture} for {@code task}, which can be
+	 *         cancelled if it's no longer needed.
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay) {
+		final Runnable guarded = new Guarded(task);
+		return executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				tasks.execute(guarded);
+			}
+		}, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs {@code task} on the task pool as soon as possible.
+	 *
+	 * @param task the {@link Runnable} to run.
+	 */
+	public void execute(Runnable task) {
+		tasks.execute(new Guarded(task));
+	}
+
+	/**
+	 * Starts consuming output of {@code process}. Line based consumers, like
+	 * {@link OutputTextLogger}, are always drained by the shared pool. Others
+	 * write to buffers that may block and are started as threads of their
+	 * own.
+	 *
+	 * @param process the {@link Process} producing the output.
+	 * @param consumer the {@link OutputConsumer} with its input stream set.
+	 */
+	public void consume(Process process, OutputConsumer consumer) {
+		if (!consumer.isLineConsumer()) {
+			consumer.start();
+			return;
+		}
+		if (process == null) {
+			throw new IllegalArgumentException("process can't be null");
+		}
+		consumer.setSupervised();
+		if (consumer.inputStream == null) {
+			// Nothing to consume
+			consumer.supervisedFinished();
+			return;
+		}
+		synchronized (drains) {
+			drains.add(new Drain(process, consumer));
+			if (drainTask == null) {
+				drainTask = executor.scheduleWithFixedDelay(new Guarded(new Runnable() {
+					@Override
+					public void run() {
+						drain();
+					}
+				}), 0, DRAIN_INTERVAL, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Starts tracking {@code process}.
+	 *
+	 * @param process the started {@link Process}.
+	 * @param name the name to report it as.
+	 * @return The {@link ProcessStats} of {@code process}.
+	 */
+	public ProcessStats register(Process process, String name) {
+		ProcessStats stats = new ProcessStats(name, ProcessUtil.getProcessID(process));
+		synchronized (processes) {
+			processes.put(process, stats);
+			if (sampleTask == null && stats.pid != null && PROC.isDirectory()) {
+				sampleTask = executor.scheduleWithFixedDelay(new Guarded(new Runnable() {
+					@Override
+					public void run() {
+						sample();
+					}
+				}), SAMPLE_INTERVAL, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Stops tracking {@code process} and logs its statistics.
+	 *
+	 * @param process the ended {@link Process}.
+	 */
+	public void unregister(Process process) {
+		ProcessStats stats;
+		synchronized (processes) {
+			stats = processes.remove(process);
+			if (processes.isEmpty() && sampleTask != null) {
+				sampleTask.cancel(false);
+				sampleTask = null;
+			}
+		}
+		if (stats != null) {
+			stats.end();
+			LOGGER.debug("Process ended: {}", stats);
+		}
+	}
+
+	/**
+	 * @return The statistics of the running processes.
+	 */
+	public List<ProcessStats> getProcessStats() {
+		synchronized (processes) {
+			return new ArrayList<>(processes.values());
+		}
+	}
+
+	/**
+	 * @return The number of text streams being drained.
+	 */
+	public int getDrainCount() {
+		synchronized (drains) {
+			return drains.size();
+		}
+	}
+
+	private void drain() {
+		List<Drain> current;
+		synchronized (drains) {
+			current = new ArrayList<>(drains);
+		}
+		List<Drain> finished = new ArrayList<>();
+		for (Drain drain : current) {
+			if (drain.drain()) {
+				finished.add(drain);
+			}
+		}
+		if (!finished.isEmpty()) {
+			synchronized (drains) {
+				drains.removeAll(finished);
+				if (drains.isEmpty() && drainTask != null) {
+					drainTask.cancel(false);
+					drainTask = null;
+				}
+			}
+		}
+	}
+
+	private void sample() {
+		List<ProcessStats> current = getProcessStats();
+		for (ProcessStats stats : current) {
+			if (stats.pid != null) {
+				stats.sample();
+			}
+		}
+	}
+
+	/**
+	 * Reads the CPU time of a Linux process from {@code /proc}.
+	 *
+	 * @param pid the process ID.
+	 * @return The CPU time in milliseconds or -1 if unknown.
+	 */
+	static long readCpuTime(int pid) {
+		File stat = new File(PROC, pid + File.separator + "stat");
+		try {
+			String content = new String(Files.readAllBytes(stat.toPath()), StandardCharsets.US_ASCII);
+			return parseCpuTime(content);
+		} catch (IOException | RuntimeException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Parses the user and system CPU time from the content of
+	 * {@code /proc/<pid>/stat}.
+	 *
+	 * @param stat the content.
+	 * @return The CPU time in milliseconds or -1 if it can't be parsed.
+	 */
+	static long parseCpuTime(String stat) {
+		// The command name can contain spaces, the fields follow the last ')'
+		int end = stat.lastIndexOf(')');
+		if (end < 0) {
+			return -1;
+		}
+		String[] fields = stat.substring(end + 1).trim().split(" ");
+		if (fields.length < 13) {
+			return -1;
+		}
+		// utime and stime are fields 14 and 15, the first after ')' is 3
+		long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+		return ticks * 1000 / CLOCK_TICKS;
+	}
+
+	/**
+	 * The statistics of a supervised process.
+	 */
+	public static class ProcessStats {
+		private final String name;
+		private final Integer pid;
+		private final long started = System.currentTimeMillis();
+		private volatile long ended;
+		private volatile long cpuTime = -1;
+
+		ProcessStats(String name, Integer pid) {
+			this.name = name;
+			this.pid = pid;
+		}
+
+		/**
+		 * @return The name of the process.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The process ID or {@code null} if unknown.
+		 */
+		public Integer getPid() {
+			return pid;
+		}
+
+		/**
+		 * @return The time in milliseconds the process has been running.
+		 */
+		public long getLifetime() {
+			long end = ended;
+			return (end > 0 ? end : System.currentTimeMillis()) - started;
+		}
+
+		/**
+		 * Returns the CPU time used by the process as last sampled, so that it
+		 * remains available after the process has ended.
+		 *
+		 * @return The CPU time in milliseconds or -1 if unknown.
+		 */
+		public long getCpuTime() {
+			return cpuTime;
+		}
+
+		void sample() {
+			long value = readCpuTime(pid.intValue());
+			if (value >= 0) {
+				cpuTime = value;
+			}
+		}
+
+		void end() {
+			if (pid != null && PROC.isDirectory()) {
+				// The process may not have been reaped yet
+				sample();
+			}
+			ended = System.currentTimeMillis();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(name);
+			if (pid != null) {
+				sb.append(" (pid ").append(pid).append(')');
+			}
+			sb.append(String.format(Locale.ROOT, ", lifetime %.1f s", getLifetime() / 1000.0));
+			if (cpuTime >= 0) {
+				sb.append(String.format(Locale.ROOT, ", CPU time %.1f s", cpuTime / 1000.0));
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * A text stream drained without blocking: only the available bytes are
+	 * read. Once the process has ended and nothing is available, the rest of
+	 * the stream is read to its end on the task pool.
+	 */
+	private class Drain {
+		private final Process process;
+		private final OutputConsumer consumer;
+		private final InputStream input;
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+		private final byte[] buf = new byte[8192];
+
+		Drain(Process process, OutputConsumer consumer) {
+			this.process = process;
+			this.consumer = consumer;
+			this.input = consumer.inputStream;
+		}
+
+		/**
+		 * Reads what's available.
+		 *
+		 * @return {@code true} if the stream is exhausted or is being read to
+		 *         its end on the task pool.
+		 */
+		boolean drain() {
+			try {
+				int total = 0;
+				int available = input.available();
+				while (available > 0 && total < MAX_DRAIN) {
+					int n = input.read(buf, 0, Math.min(buf.length, available));
+					if (n < 0) {
+						finish();
+						return true;
+					}
+					append(n);
+					total += n;
+					available = input.available();
+				}
+				if (total == 0 && hasExited()) {
+					// The process is gone, so a blocking read returns the
+					// remaining output or the end of the stream right away,
+					// unless a child process still holds the stream open
+					tasks.execute(new Guarded(new Runnable() {
+						@Override
+						public void run() {
+							drainToEnd();
+						}
+					}));
+					return true;
+				}
+				return false;
+			} catch (IOException | RuntimeException e) {
+				LOGGER.debug("Error consuming input stream: {}", e.getMessage());
+				LOGGER.trace("", e);
+				finish();
+				return true;
+			}
+		}
+
+		/**
+		 * Reads the rest of the stream, which is closed after
+		 * {@link #DRAIN_TO_END_TIMEOUT} so that a child process holding it
+		 * open can't keep a task thread blocked.
+		 */
+		private void drainToEnd() {
+			ScheduledFuture<?> timeout = executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					IOUtils.closeQuietly(input);
+				}
+			}, DRAIN_TO_END_TIMEOUT, TimeUnit.MILLISECONDS);
+			try {
+				int n;
+				while ((n = input.read(buf)) >= 0) {
+					append(n);
+				}
+			} catch (IOException e) {
+				LOGGER.debug("Error consuming input stream: {}", e.getMessage());
+				LOGGER.trace("", e);
+			} finally {
+				timeout.cancel(false);
+			}
+			finish();
+		}
+
+		private boolean hasExited() {
+			try {
+				process.exitValue();
+				return true;
+			} catch (IllegalThreadStateException e) {
+				return false;
+			}
+		}
+
+		private void append(int n) {
+			for (int i = 0; i < n; i++) {
+				byte b = buf[i];
+				if (b == '\n' || b == '\r') {
+					emit();
+				} else {
+					line.write(b);
+				}
+			}
+		}
+
+		private void emit() {
+			if (line.size() > 0) {
+				String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+				line.reset();
+				consumer.consumeLine(text);
+			}
+		}
+
+		private void finish() {
+			emit();
+			IOUtils.closeQuietly(input);
+			consumer.supervisedFinished();
+		}
+	}
+
+	/**
+	 * Logs exceptions from a task, which would otherwise cancel a periodic
+	 * task silently.
+	 */
+	private static class Guarded implements Runnable {
+		private final Runnable task;
+
+		Guarded(Runnable task) {
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				LOGGER.error("Unexpected error in supervised task: {}", e.getMessage());
+				LOGGER.trace("", e);
+			}
+		}
+	}
+}
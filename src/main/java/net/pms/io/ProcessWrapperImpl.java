@@ -48,6 +48,9 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 	private String[] cmdArray;
 	private boolean nullable;
 	private ArrayList<ProcessWrapper> attachedProcesses;
+
+	/** The temporary files to delete when the process ends */
+	private final ArrayList<File> temporaryFiles = new ArrayList<>();
 	private BufferedOutputFile bo = null;
 	private boolean keepStdout;
 	private boolean keepStderr;
@@ -129,6 +132,17 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 		attachedProcesses.add(process);
 	}
 
+	/**
+	 * Registers a temporary file used by the process, which is deleted when
+	 * the process ends instead of when DMS exits. Must be called before the
+	 * process is started.
+	 *
+	 * @param file the temporary file.
+	 */
+	public void deleteWhenFinished(File file) {
+		temporaryFiles.add(file);
+	}
+
 	@Override
 	public void run() {
 		ProcessBuilder pb = new ProcessBuilder(cmdArray);
@@ -187,6 +201,7 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 			// pb.redirectErrorStream(true);
 			process = pb.start();
 			PMS.get().currentProcesses.add(process);
+			ProcessSupervisor.get().register(process, cmdArray[0]);
 
 			if (stderrConsumer == null) {
 				stderrConsumer = keepStderr
@@ -196,7 +211,7 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 				stderrConsumer.setInputStream(process.getErrorStream());
 			}
 			stderrConsumer.setName(getName() + "-2");
-			stderrConsumer.start();
+			ProcessSupervisor.get().consume(process, stderrConsumer);
 			stdoutConsumer = null;
 
 			if (useByteArrayStdConsumer) {
@@ -216,7 +231,7 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 					bo = stdoutConsumer.getBuffer();
 				}
 				bo.attachThread(this);
-				new OutputTextLogger(process.getInputStream()).start();
+				ProcessSupervisor.get().consume(process, new OutputTextLogger(process.getInputStream()));
 			} else if (params.log) {
 				stdoutConsumer = keepStdout
 					? new OutputTextConsumer(process.getInputStream(), true)
@@ -229,7 +244,7 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 
 			if (stdoutConsumer != null) {
 				stdoutConsumer.setName(getName() + "-1");
-				stdoutConsumer.start();
+				ProcessSupervisor.get().consume(process, stdoutConsumer);
 			}
 
 			if (params.stdin != null) {
@@ -244,18 +259,18 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 
 			ProcessUtil.waitFor(process);
 
-			// Wait up to a second for the stderr consumer thread to finish
+			// Wait up to a second for the stderr consumer to finish
 			try {
 				if (stderrConsumer != null) {
-					stderrConsumer.join(1000);
+					stderrConsumer.awaitFinished(1000);
 				}
 			} catch (InterruptedException e) {
 			}
 
-			// wait up to a second for the stdout consumer thread to finish
+			// wait up to a second for the stdout consumer to finish
 			try {
 				if (stdoutConsumer != null) {
-					stdoutConsumer.join(1000);
+					stdoutConsumer.awaitFinished(1000);
 				}
 			} catch (InterruptedException e) { }
 		} catch (IOException e) {
@@ -284,6 +299,18 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 					LOGGER.trace("", itse);
 				}
 			}
+			BufferedOutputFile buffer = bo;
+			if (buffer == null && stdoutConsumer != null) {
+				buffer = stdoutConsumer.getBuffer();
+			}
+			if (buffer instanceof BufferedOutputFileImpl) {
+				// The output is only complete if the process succeeded and all of it was consumed
+				((BufferedOutputFileImpl) buffer).finishRecording(
+					!destroyed &&
+					(success || params.noexitcheck) &&
+					(stdoutConsumer == null || !stdoutConsumer.isConsuming())
+				);
+			}
 			if (attachedProcesses != null) {
 				for (ProcessWrapper pw : attachedProcesses) {
 					if (pw != null) {
@@ -292,6 +319,14 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 				}
 			}
 			PMS.get().currentProcesses.remove(process);
+			if (process != null) {
+				ProcessSupervisor.get().unregister(process);
+			}
+			for (File file : temporaryFiles) {
+				if (!file.delete() && file.exists()) {
+					LOGGER.debug("Couldn't delete temporary file \"{}\"", file);
+				}
+			}
 		}
 	}
 
@@ -343,12 +378,52 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 		return null;
 	}
 
+	/**
+	 * Checks whether another reader can be attached at {@code seek}, that is
+	 * whether the output is buffered by a {@link BufferedOutputFileImpl} that
+	 * still holds the data from that position on.
+	 *
+	 * @param seek the read position.
+	 * @return {@code true} if {@link #getInputStream(long)} can serve
+	 *         {@code seek}.
+	 */
+	public boolean canRead(long seek) {
+		BufferedOutputFileImpl buffer = getBufferedOutputFile();
+		return buffer != null && buffer.canRead(seek);
+	}
+
+	/**
+	 * Lets the transcode stop once none of its readers reads from it anymore,
+	 * instead of stopping it right away. This is only possible when the output
+	 * is buffered by a {@link BufferedOutputFileImpl}.
+	 *
+	 * @return {@code true} if the stop has been deferred to the readers,
+	 *         {@code false} if the caller must stop the transcode itself.
+	 * @see BufferedOutputFileImpl#stopWhenUnread()
+	 */
+	public boolean stopWhenUnread() {
+		BufferedOutputFileImpl buffer = getBufferedOutputFile();
+		if (buffer == null) {
+			return false;
+		}
+		buffer.stopWhenUnread();
+		return true;
+	}
+
+	private BufferedOutputFileImpl getBufferedOutputFile() {
+		BufferedOutputFile buffer = bo;
+		if (buffer == null && stdoutConsumer != null) {
+			buffer = stdoutConsumer.getBuffer();
+		}
+		return buffer instanceof BufferedOutputFileImpl ? (BufferedOutputFileImpl) buffer : null;
+	}
+
 	public List<String> getOtherResults() {
 		if (stdoutConsumer == null) {
 			return null;
 		}
 		try {
-			stdoutConsumer.join(1000);
+			stdoutConsumer.awaitFinished(1000);
 		} catch (InterruptedException e) {
 		}
 		return stdoutConsumer.getResults();
@@ -357,7 +432,7 @@ public class ProcessWrapperImpl extends Thread implements ProcessWrapper {
 	@Override
 	public List<String> getResults() {
 		try {
-			stderrConsumer.join(1000);
+			stderrConsumer.awaitFinished(1000);
 		} catch (InterruptedException e) {
 		}
 		return stderrConsumer.getResults();
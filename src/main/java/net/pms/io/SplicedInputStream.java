@@ -0,0 +1,82 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} that reads the part of a transcode that has already
+ * left the memory buffer from its {@link TranscodeCache.Recording} and then
+ * continues with a {@link WaitBufferedInputStream} positioned where the
+ * recorded part ends. The buffered reader is kept active while the recorded
+ * part is read, so that the writer waits for it.
+ */
+class SplicedInputStream extends InputStream {
+	private InputStream recorded;
+	private final WaitBufferedInputStream buffered;
+
+	SplicedInputStream(InputStream recorded, WaitBufferedInputStream buffered) {
+		this.recorded = recorded;
+		this.buffered = buffered;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (recorded != null) {
+			int r = recorded.read();
+			if (r != -1) {
+				buffered.touch();
+				return r;
+			}
+			closeRecorded();
+		}
+		return buffered.read();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (recorded != null) {
+			int returned = recorded.read(b, off, len);
+			if (returned != -1) {
+				buffered.touch();
+				return returned;
+			}
+			closeRecorded();
+		}
+		return buffered.read(b, off, len);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			closeRecorded();
+		} finally {
+			buffered.close();
+		}
+	}
+
+	private void closeRecorded() throws IOException {
+		if (recorded != null) {
+			InputStream input = recorded;
+			recorded = null;
+			input.close();
+		}
+	}
+}
@@ -0,0 +1,468 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.util.CacheFiles;
+import net.pms.util.FNVHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class keeps recently transcoded output on disk, so that renderers
+ * re-requesting a stream or seeking backwards within the already transcoded
+ * part are served from disk instead of restarting the transcode. Entries are
+ * indexed by the transcode signature, which includes the time offset the
+ * transcode started at, and are addressed by byte offset within.
+ * <p>
+ * The output of a running transcode is recorded to a temporary file. When the
+ * transcode finishes successfully the recording becomes a complete entry that
+ * serves any byte range, otherwise it's kept as a partial entry that serves
+ * ranges ending within it. The least recently used files are deleted when the
+ * cache grows beyond its limit.
+ */
+public class TranscodeCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TranscodeCache.class);
+	private static final String COMPLETE = ".transcode";
+	private static final String PARTIAL = ".partial";
+	private static final String RECORDING = ".tmp";
+
+	/** The time in milliseconds after which an unclaimed recording is dropped */
+	private static final long CLAIM_TIMEOUT = 60000;
+
+	private static TranscodeCache instance;
+
+	private final File folder;
+	private final long maxBytes;
+
+	/** The recordings in progress by signature, guarded by itself */
+	private final Map<String, Recording> recordings = new HashMap<>();
+
+	/**
+	 * The size of the finished files in {@link #folder} or -1 if not known
+	 * yet, guarded by {@link #recordings}
+	 */
+	private long diskBytes = -1;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param folder the folder to store the transcoded output in.
+	 * @param maxBytes the maximum number of bytes kept on disk, 0 disables
+	 *            the cache.
+	 */
+	public TranscodeCache(File folder, long maxBytes) {
+		this.folder = folder;
+		this.maxBytes = folder != null ? Math.max(maxBytes, 0) : 0;
+	}
+
+	/**
+	 * @return The shared {@link TranscodeCache}.
+	 */
+	public static synchronized TranscodeCache get() {
+		if (instance == null) {
+			PmsConfiguration configuration = PMS.getConfiguration();
+			if (configuration != null) {
+				instance = new TranscodeCache(
+					new File(configuration.getDataFile("transcodes")),
+					configuration.getTranscodeCacheSize() * 1024L * 1024L
+				);
+			} else {
+				instance = new TranscodeCache(null, 0);
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @return {@code true} if transcoded output is cached.
+	 */
+	public boolean isEnabled() {
+		return maxBytes > 0;
+	}
+
+	/**
+	 * Starts recording the output of a new transcode.
+	 *
+	 * @param signature the signature of the transcode.
+	 * @return The {@link Recording} or {@code null} if the cache is disabled
+	 *         or a transcode with the same signature is already recorded.
+	 */
+	public Recording record(String signature) {
+		if (!isEnabled() || signature == null) {
+			return null;
+		}
+		Recording previous;
+		synchronized (recordings) {
+			previous = recordings.get(signature);
+		}
+		if (previous != null) {
+			if (!previous.isAbandoned()) {
+				return null;
+			}
+			previous.finish(false);
+		}
+		synchronized (recordings) {
+			if (recordings.containsKey(signature)) {
+				return null;
+			}
+			if (diskBytes < 0) {
+				if (!folder.isDirectory() && !folder.mkdirs()) {
+					LOGGER.warn("Couldn't create the transcode cache folder \"{}\"", folder);
+					return null;
+				}
+				diskBytes = 0;
+				for (File file : listFiles()) {
+					if (file.getName().endsWith(RECORDING)) {
+						// Left behind by an earlier run
+						file.delete();
+					} else {
+						diskBytes += file.length();
+					}
+				}
+			}
+			try {
+				Recording recording = new Recording(signature, getFile(signature, RECORDING));
+				recordings.put(signature, recording);
+				return recording;
+			} catch (IOException e) {
+				LOGGER.debug("Couldn't record transcode to \"{}\": {}", getFile(signature, RECORDING), e.getMessage());
+				LOGGER.trace("", e);
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Returns the cached output of a finished transcode from {@code position}
+	 * on. A partial entry is only used if the requested range ends within it.
+	 *
+	 * @param signature the signature of the transcode.
+	 * @param position the byte position to start at.
+	 * @param end the last requested byte position or a negative value if the
+	 *            request is open-ended.
+	 * @return The {@link InputStream} or {@code null} if the range isn't
+	 *         cached.
+	 */
+	public InputStream getInputStream(String signature, long position, long end) {
+		if (!isEnabled() || signature == null) {
+			return null;
+		}
+		InputStream result = getInputStream(signature, getFile(signature, COMPLETE), position, 0);
+		if (result == null && end >= position) {
+			result = getInputStream(signature, getFile(signature, PARTIAL), position, end + 1);
+		}
+		return result;
+	}
+
+	private InputStream getInputStream(String signature, File file, long position, long requiredLength) {
+		if (!file.isFile()) {
+			return null;
+		}
+		FileInputStream input = null;
+		try {
+			input = new FileInputStream(file);
+			DataInputStream data = new DataInputStream(input);
+			if (!signature.equals(data.readUTF())) {
+				input.close();
+				return null;
+			}
+			long headerLength = input.getChannel().position();
+			long length = file.length() - headerLength;
+			if (position >= length || requiredLength > length) {
+				input.close();
+				return null;
+			}
+			input.getChannel().position(headerLength + position);
+			CacheFiles.markUsed(file);
+			LOGGER.debug("Serving transcoded output from the cache at position {}", position);
+			return input;
+		} catch (IOException e) {
+			LOGGER.debug("Couldn't read cached transcode \"{}\": {}", file, e.getMessage());
+			LOGGER.trace("", e);
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e2) {
+					LOGGER.trace("", e2);
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * @return The number of bytes in the cache folder.
+	 */
+	public long getDiskBytes() {
+		synchronized (recordings) {
+			return Math.max(diskBytes, 0);
+		}
+	}
+
+	static String getFileName(String signature, String extension) {
+		return String.format(Locale.ROOT, "%016x%s", FNVHash.hash(signature), extension);
+	}
+
+	private File getFile(String signature, String extension) {
+		return new File(folder, getFileName(signature, extension));
+	}
+
+	private List<File> listFiles() {
+		File[] files = folder.listFiles();
+		List<File> result = new ArrayList<>();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.endsWith(COMPLETE) || name.endsWith(PARTIAL) || name.endsWith(RECORDING)) {
+					result.add(file);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Moves a finished recording into place and deletes the least recently
+	 * used files if the cache has grown beyond its limit.
+	 */
+	private void finished(Recording recording, boolean complete) {
+		synchronized (recordings) {
+			recordings.remove(recording.signature);
+			File file = recording.file;
+			if (recording.length > 0) {
+				File target = getFile(recording.signature, complete ? COMPLETE : PARTIAL);
+				File other = getFile(recording.signature, complete ? PARTIAL : COMPLETE);
+				if (!complete && other.isFile()) {
+					// Keep the complete entry
+					target = null;
+				} else if (complete && other.isFile()) {
+					long length = other.length();
+					if (other.delete()) {
+						diskBytes -= length;
+					}
+				}
+				if (target != null) {
+					long previous = target.length();
+					if ((!target.exists() || target.delete()) && file.renameTo(target)) {
+						diskBytes += target.length() - previous;
+						LOGGER.debug(
+							"Cached {} bytes of {} transcoded output",
+							recording.length,
+							complete ? "complete" : "partial"
+						);
+						file = null;
+					}
+				}
+			}
+			if (file != null && !file.delete()) {
+				LOGGER.trace("Couldn't delete \"{}\"", file);
+			}
+			if (diskBytes > maxBytes) {
+				prune();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the least recently used files, see
+	 * {@link CacheFiles#prune(List, long)}. Recordings in progress are never
+	 * deleted. Must be called while holding {@link #recordings}.
+	 */
+	private void prune() {
+		List<File> files = listFiles();
+		for (Recording recording : recordings.values()) {
+			files.remove(recording.file);
+		}
+		diskBytes = CacheFiles.prune(files, maxBytes);
+		LOGGER.debug("Pruned the transcode cache to {} bytes", diskBytes);
+	}
+
+	/**
+	 * The recording of the output of a running transcode. It's written by the
+	 * {@link BufferedOutputFileImpl} of the transcode, which can also read the
+	 * recorded part back for readers asking for data that has already left
+	 * the memory buffer.
+	 */
+	public class Recording {
+		private final String signature;
+		private final File file;
+		private final long headerLength;
+		private final long created = System.currentTimeMillis();
+		private DataOutputStream output;
+		private long length;
+
+		/** The buffer for {@link #write(int)}, guarded by {@code this} */
+		private final byte[] singleByte = new byte[1];
+		private boolean claimed;
+		private boolean finished;
+
+		private Recording(String signature, File file) throws IOException {
+			this.signature = signature;
+			this.file = file;
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+			output.writeUTF(signature);
+			headerLength = output.size();
+		}
+
+		/**
+		 * Claims this recording for a transcode buffer. A recording can only
+		 * be claimed once.
+		 *
+		 * @return {@code true} if the caller may write to this recording.
+		 */
+		public synchronized boolean claim() {
+			if (claimed || finished) {
+				return false;
+			}
+			claimed = true;
+			return true;
+		}
+
+		/**
+		 * @return {@code true} if this recording was never claimed by a
+		 *         transcode buffer within {@link #CLAIM_TIMEOUT}.
+		 */
+		private synchronized boolean isAbandoned() {
+			return !claimed && System.currentTimeMillis() - created > CLAIM_TIMEOUT;
+		}
+
+		/**
+		 * Appends transcoded output. The recording is abandoned if it would
+		 * take more than half of the cache.
+		 *
+		 * @param b the data.
+		 * @param off the start offset in {@code b}.
+		 * @param len the number of bytes to write.
+		 */
+		public synchronized void write(byte[] b, int off, int len) {
+			if (finished || len <= 0) {
+				return;
+			}
+			if (headerLength + length + len > maxBytes / 2) {
+				LOGGER.debug("Transcode is too large for the transcode cache, not caching it");
+				length = 0;
+				finish(false);
+				return;
+			}
+			try {
+				output.write(b, off, len);
+				length += len;
+			} catch (IOException e) {
+				LOGGER.debug("Couldn't write to the transcode cache: {}", e.getMessage());
+				LOGGER.trace("", e);
+				length = 0;
+				finish(false);
+			}
+		}
+
+		/**
+		 * Appends a single byte of transcoded output.
+		 *
+		 * @param b the byte.
+		 */
+		public synchronized void write(int b) {
+			singleByte[0] = (byte) b;
+			write(singleByte, 0, 1);
+		}
+
+		/**
+		 * @return The number of recorded bytes.
+		 */
+		public synchronized long getLength() {
+			return length;
+		}
+
+		/**
+		 * @param position the byte position.
+		 * @return {@code true} if the recording is in progress and contains
+		 *         {@code position}.
+		 */
+		public synchronized boolean contains(long position) {
+			return !finished && position >= 0 && position < length;
+		}
+
+		/**
+		 * Returns the recorded data from {@code position} to {@code end}.
+		 *
+		 * @param position the byte position to start at.
+		 * @param end the byte position to stop at.
+		 * @return The {@link InputStream} or {@code null} if the range isn't
+		 *         recorded.
+		 */
+		public synchronized InputStream getInputStream(long position, long end) {
+			if (finished || position < 0 || position >= end || end > length) {
+				return null;
+			}
+			FileInputStream input = null;
+			try {
+				output.flush();
+				input = new FileInputStream(file);
+				input.getChannel().position(headerLength + position);
+				return new SizeLimitInputStream(input, end - position);
+			} catch (IOException e) {
+				LOGGER.debug("Couldn't read from the transcode cache: {}", e.getMessage());
+				LOGGER.trace("", e);
+				if (input != null) {
+					try {
+						input.close();
+					} catch (IOException e2) {
+						LOGGER.trace("", e2);
+					}
+				}
+				return null;
+			}
+		}
+
+		/**
+		 * Ends the recording. Calling it again has no effect.
+		 *
+		 * @param complete whether the transcode finished successfully and
+		 *            everything it produced has been recorded.
+		 */
+		public synchronized void finish(boolean complete) {
+			if (finished) {
+				return;
+			}
+			finished = true;
+			try {
+				output.close();
+			} catch (IOException e) {
+				LOGGER.debug("Couldn't write to the transcode cache: {}", e.getMessage());
+				LOGGER.trace("", e);
+				length = 0;
+			}
+			finished(this, complete);
+		}
+	}
+}
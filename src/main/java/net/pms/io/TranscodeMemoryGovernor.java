@@ -0,0 +1,584 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.io;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class keeps a process-wide budget for transcode buffers. New
+ * transcodes are admitted through {@link #admit} which waits for capacity
+ * and rejects the transcode if none becomes available in time. When the
+ * budget is exhausted, buffers that haven't been read from for a while are
+ * asked to stop filling up so that their unused capacity can be granted to
+ * others. Buffers created without admission, like those used for thumbnails,
+ * are only accounted for.
+ * <p>
+ * Heap buffers and off-heap buffers (direct memory and memory-mapped files)
+ * draw from separate budgets, since they don't compete for the same memory.
+ */
+public class TranscodeMemoryGovernor {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TranscodeMemoryGovernor.class);
+
+	/** The default time in milliseconds without reads before a buffer is idle */
+	private static final long IDLE_TIME = 30000;
+
+	/** The time in milliseconds before an unclaimed allocation expires */
+	private static final long CLAIM_TIMEOUT = 60000;
+
+	/** The minimum time in milliseconds between restore attempts */
+	private static final long RESTORE_INTERVAL = 1000;
+
+	/** The smallest buffer in bytes worth starting a transcode with */
+	private static final long MINIMUM_BUFFER = 32L * 1048576;
+
+	/** Room for the overflow margin of {@link BufferedOutputFileImpl} */
+	private static final long MARGIN = 20L * 1048576;
+
+	private static TranscodeMemoryGovernor instance;
+
+	private final long budget;
+	private final long offHeapBudget;
+	private final long admissionTimeout;
+	private final long idleTime;
+
+	/** The current allocations, guarded by {@code this} */
+	private final List<Allocation> allocations = new ArrayList<>();
+
+	/** The number of transcodes waiting for admission, guarded by {@code this} */
+	private int queued;
+
+	/**
+	 * Creates a new instance with the same budget for heap and off-heap
+	 * buffers.
+	 *
+	 * @param budget the budget in bytes.
+	 * @param admissionTimeout the maximum time in milliseconds to wait for
+	 *            capacity before rejecting a transcode.
+	 */
+	public TranscodeMemoryGovernor(long budget, long admissionTimeout) {
+		this(budget, budget, admissionTimeout);
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param budget the budget for heap buffers in bytes.
+	 * @param offHeapBudget the budget for off-heap buffers in bytes.
+	 * @param admissionTimeout the maximum time in milliseconds to wait for
+	 *            capacity before rejecting a transcode.
+	 */
+	public TranscodeMemoryGovernor(long budget, long offHeapBudget, long admissionTimeout) {
+		this(budget, offHeapBudget, admissionTimeout, IDLE_TIME);
+	}
+
+	TranscodeMemoryGovernor(long budget, long offHeapBudget, long admissionTimeout, long idleTime) {
+		this.budget = budget;
+		this.offHeapBudget = offHeapBudget;
+		this.admissionTimeout = admissionTimeout;
+		this.idleTime = idleTime;
+	}
+
+	/**
+	 * @return The {@link TranscodeMemoryGovernor} instance, created from the
+	 *         configuration the first time.
+	 */
+	public static synchronized TranscodeMemoryGovernor get() {
+		if (instance == null) {
+			PmsConfiguration configuration = PMS.getConfiguration();
+			long budget = 0;
+			long timeout = 10000;
+			if (configuration != null) {
+				budget = configuration.getTranscodeMemoryBudget() * 1048576L;
+				timeout = configuration.getTranscodeAdmissionTimeout() * 1000L;
+			}
+			long offHeapBudget = budget;
+			if (budget <= 0) {
+				budget = Runtime.getRuntime().maxMemory() * 3 / 4;
+				offHeapBudget = getMaxDirectMemory() * 3 / 4;
+			}
+			instance = new TranscodeMemoryGovernor(budget, offHeapBudget, timeout);
+			LOGGER.debug("Transcode memory budget is {} MB on the heap and {} MB off the heap", budget / 1048576, offHeapBudget / 1048576);
+		}
+		return instance;
+	}
+
+	/**
+	 * @return The maximum amount of direct memory in bytes, or the maximum
+	 *         heap size if it can't be determined.
+	 */
+	private static long getMaxDirectMemory() {
+		try {
+			Object result = Class.forName("sun.misc.VM").getMethod("maxDirectMemory").invoke(null);
+			if (result instanceof Long && ((Long) result).longValue() > 0) {
+				return ((Long) result).longValue();
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Not available on Java 9 and later, where the default is the same
+		}
+		return Runtime.getRuntime().maxMemory();
+	}
+
+	/**
+	 * Admits a new transcode, waiting for capacity if needed. The resulting
+	 * {@link Allocation} must be claimed by the {@link BufferedOutputFileImpl}
+	 * of the transcode or released.
+	 *
+	 * @param renderer the {@link RendererConfiguration} or {@code null}.
+	 * @param params the {@link OutputParams} with the requested buffer size
+	 *            and type.
+	 * @return The {@link Allocation}.
+	 * @throws TranscodeRejectedException If no capacity became available in
+	 *             time.
+	 */
+	public Allocation admit(RendererConfiguration renderer, OutputParams params) throws TranscodeRejectedException {
+		return admit(renderer, getMinimum(params), getMaximum(params), admissionTimeout, isOffHeap(params));
+	}
+
+	/**
+	 * Admits a new transcode if capacity is available right away and no
+	 * other transcode is waiting for it.
+	 *
+	 * @param renderer the {@link RendererConfiguration} or {@code null}.
+	 * @param params the {@link OutputParams} with the requested buffer size
+	 *            and type.
+	 * @return The {@link Allocation} or {@code null} if the transcode must
+	 *         wait with {@link #admit(RendererConfiguration, OutputParams)}.
+	 */
+	public synchronized Allocation tryAdmit(RendererConfiguration renderer, OutputParams params) {
+		if (queued > 0) {
+			return null;
+		}
+		return grant(renderer, getMinimum(params), getMaximum(params), isOffHeap(params));
+	}
+
+	private static long getMaximum(OutputParams params) {
+		return (long) (1048576 * params.maxBufferSize);
+	}
+
+	private static long getMinimum(OutputParams params) {
+		// The reader waits for the minimum buffer, which must fit below the overflow margin
+		return Math.min(getMaximum(params), Math.max(MINIMUM_BUFFER, (long) (2 * 1048576 * params.minBufferSize) + MARGIN));
+	}
+
+	private static boolean isOffHeap(OutputParams params) {
+		return params.bufferType != null && params.bufferType != BufferStorage.Type.HEAP;
+	}
+
+	/**
+	 * Admits a new transcode with a heap buffer, waiting for capacity if
+	 * needed.
+	 *
+	 * @param renderer the {@link RendererConfiguration} or {@code null}.
+	 * @param minimum the minimum number of bytes to grant.
+	 * @param maximum the requested number of bytes.
+	 * @param timeout the maximum time in milliseconds to wait.
+	 * @return The {@link Allocation} of at least {@code minimum} bytes.
+	 * @throws TranscodeRejectedException If no capacity became available in
+	 *             time.
+	 */
+	public Allocation admit(
+		RendererConfiguration renderer,
+		long minimum,
+		long maximum,
+		long timeout
+	) throws TranscodeRejectedException {
+		return admit(renderer, minimum, maximum, timeout, false);
+	}
+
+	/**
+	 * Admits a new transcode, waiting for capacity if needed.
+	 *
+	 * @param renderer the {@link RendererConfiguration} or {@code null}.
+	 * @param minimum the minimum number of bytes to grant.
+	 * @param maximum the requested number of bytes.
+	 * @param timeout the maximum time in milliseconds to wait.
+	 * @param offHeap whether the buffer is stored off the heap.
+	 * @return The {@link Allocation} of at least {@code minimum} bytes.
+	 * @throws TranscodeRejectedException If no capacity became available in
+	 *             time.
+	 */
+	public synchronized Allocation admit(
+		RendererConfiguration renderer,
+		long minimum,
+		long maximum,
+		long timeout,
+		boolean offHeap
+	) throws TranscodeRejectedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			Allocation allocation = grant(renderer, minimum, maximum, offHeap);
+			if (allocation != null) {
+				return allocation;
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				long free = getBudget(offHeap) - getUsed(offHeap);
+				LOGGER.info(
+					"Rejected transcode for {}: {} MB of transcode buffer needed but only {} MB available",
+					getName(renderer),
+					minimum / 1048576,
+					Math.max(free, 0) / 1048576
+				);
+				LOGGER.info("{}", this);
+				throw new TranscodeRejectedException("Transcode memory budget exhausted", (int) Math.max(timeout / 1000, 1));
+			}
+			if (queued == 0) {
+				LOGGER.debug("Waiting for transcode buffer capacity for {}", getName(renderer));
+			}
+			queued++;
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new TranscodeRejectedException("Interrupted while waiting for transcode memory", 1);
+			} finally {
+				queued--;
+			}
+		}
+	}
+
+	/**
+	 * Grants an allocation if the budget has room for {@code minimum} bytes
+	 * after reclaiming idle capacity. Must be called while holding the lock.
+	 *
+	 * @return The {@link Allocation} or {@code null}.
+	 */
+	private Allocation grant(RendererConfiguration renderer, long minimum, long maximum, boolean offHeap) {
+		long free = getBudget(offHeap) - getUsed(offHeap);
+		if (free < minimum) {
+			free += reclaim(minimum - free, offHeap);
+		}
+		if (free < minimum) {
+			return null;
+		}
+		Allocation allocation = new Allocation(renderer, minimum, maximum, Math.min(maximum, free), offHeap);
+		allocations.add(allocation);
+		LOGGER.debug("Granted {} MB of transcode buffer to {}", allocation.granted / 1048576, allocation.renderer);
+		LOGGER.debug("{}", this);
+		return allocation;
+	}
+
+	/**
+	 * Registers a heap buffer that is created without admission. It is
+	 * always granted, even if that exceeds the budget.
+	 *
+	 * @param renderer the {@link RendererConfiguration} or {@code null}.
+	 * @param size the size of the buffer in bytes.
+	 * @param owner the {@link Owner} of the buffer.
+	 * @return The {@link Allocation}.
+	 */
+	public Allocation register(RendererConfiguration renderer, long size, Owner owner) {
+		return register(renderer, size, false, owner);
+	}
+
+	/**
+	 * Registers a buffer that is created without admission. It is always
+	 * granted, even if that exceeds the budget.
+	 *
+	 * @param renderer the {@link RendererConfiguration} or {@code null}.
+	 * @param size the size of the buffer in bytes.
+	 * @param offHeap whether the buffer is stored off the heap.
+	 * @param owner the {@link Owner} of the buffer.
+	 * @return The {@link Allocation}.
+	 */
+	public synchronized Allocation register(RendererConfiguration renderer, long size, boolean offHeap, Owner owner) {
+		Allocation allocation = new Allocation(renderer, size, size, size, offHeap);
+		allocation.owner = owner;
+		allocations.add(allocation);
+		long exceeded = getUsed(offHeap) - getBudget(offHeap);
+		if (exceeded > 0) {
+			LOGGER.debug("Transcode memory budget exceeded by {} MB", exceeded / 1048576);
+		}
+		return allocation;
+	}
+
+	/**
+	 * Asks idle buffers of the same kind to stop filling up and expires
+	 * unclaimed allocations until {@code needed} bytes have been freed. Must
+	 * be called while holding the lock.
+	 *
+	 * @param needed the number of bytes to free.
+	 * @param offHeap whether to free off-heap or heap capacity.
+	 * @return The number of bytes freed.
+	 */
+	private long reclaim(long needed, boolean offHeap) {
+		long now = System.currentTimeMillis();
+		long freed = 0;
+		for (Iterator<Allocation> iterator = allocations.iterator(); iterator.hasNext() && freed < needed;) {
+			Allocation allocation = iterator.next();
+			if (allocation.offHeap != offHeap) {
+				continue;
+			}
+			if (allocation.owner == null) {
+				if (now - allocation.created > CLAIM_TIMEOUT) {
+					LOGGER.debug("Expiring unclaimed transcode buffer allocation for {}", allocation.renderer);
+					freed += allocation.granted;
+					allocation.released = true;
+					iterator.remove();
+				}
+			} else if (!allocation.shrunk && now - allocation.lastUsed > idleTime) {
+				long size = Math.min(Math.max(allocation.owner.shrink(), 0), allocation.granted);
+				if (size < allocation.granted) {
+					LOGGER.debug(
+						"Shrinking idle transcode buffer for {} from {} MB to {} MB",
+						allocation.renderer,
+						allocation.granted / 1048576,
+						size / 1048576
+					);
+					freed += allocation.granted - size;
+					allocation.granted = size;
+				}
+				allocation.shrunk = true;
+			}
+		}
+		return freed;
+	}
+
+	/**
+	 * Tries to give a shrunk allocation its requested size back. Nothing is
+	 * done if the budget doesn't allow it or a transcode is waiting.
+	 */
+	synchronized void restore(Allocation allocation) {
+		if (!allocation.shrunk || allocation.released || queued > 0) {
+			return;
+		}
+		long missing = allocation.requested - allocation.granted;
+		if (missing <= getBudget(allocation.offHeap) - getUsed(allocation.offHeap)) {
+			allocation.granted = allocation.requested;
+			allocation.shrunk = false;
+			LOGGER.debug("Restored transcode buffer for {} to {} MB", allocation.renderer, allocation.granted / 1048576);
+			allocation.owner.restore();
+		}
+	}
+
+	synchronized void release(Allocation allocation) {
+		if (allocation.released) {
+			return;
+		}
+		allocation.released = true;
+		allocations.remove(allocation);
+		LOGGER.trace("Released {} MB of transcode buffer from {}", allocation.granted / 1048576, allocation.renderer);
+		notifyAll();
+	}
+
+	synchronized void trim(Allocation allocation, long size) {
+		if (!allocation.released && size < allocation.granted) {
+			allocation.granted = size;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return The budget for heap buffers in bytes.
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return The budget for off-heap buffers in bytes.
+	 */
+	public long getOffHeapBudget() {
+		return offHeapBudget;
+	}
+
+	private long getBudget(boolean offHeap) {
+		return offHeap ? offHeapBudget : budget;
+	}
+
+	/**
+	 * @return The number of bytes currently granted to heap buffers.
+	 */
+	public long getUsed() {
+		return getUsed(false);
+	}
+
+	/**
+	 * @return The number of bytes currently granted to off-heap buffers.
+	 */
+	public long getOffHeapUsed() {
+		return getUsed(true);
+	}
+
+	private synchronized long getUsed(boolean offHeap) {
+		long used = 0;
+		for (Allocation allocation : allocations) {
+			if (allocation.offHeap == offHeap) {
+				used += allocation.granted;
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * @return The number of transcodes waiting for admission.
+	 */
+	public synchronized int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * @return The number of bytes currently granted per renderer name.
+	 */
+	public synchronized Map<String, Long> getUsageByRenderer() {
+		Map<String, Long> result = new TreeMap<>();
+		for (Allocation allocation : allocations) {
+			Long used = result.get(allocation.renderer);
+			result.put(allocation.renderer, (used != null ? used.longValue() : 0) + allocation.granted);
+		}
+		return result;
+	}
+
+	private static String getName(RendererConfiguration renderer) {
+		return renderer != null ? renderer.getRendererName() : "unknown renderer";
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder("Transcode memory: ");
+		sb.append(getUsed() / 1048576).append(" of ").append(budget / 1048576).append(" MB used");
+		sb.append(", off-heap ").append(getOffHeapUsed() / 1048576).append(" of ").append(offHeapBudget / 1048576).append(" MB used");
+		for (Map.Entry<String, Long> entry : getUsageByRenderer().entrySet()) {
+			sb.append(", ").append(entry.getKey()).append(": ").append(entry.getValue().longValue() / 1048576).append(" MB");
+		}
+		if (queued > 0) {
+			sb.append(", ").append(queued).append(" waiting");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Implemented by buffers that can give back capacity they haven't used yet.
+	 */
+	public interface Owner {
+
+		/**
+		 * Stops the buffer from filling up any further.
+		 *
+		 * @return The number of bytes the buffer still needs.
+		 */
+		long shrink();
+
+		/**
+		 * Lets the buffer fill up to its full size again.
+		 */
+		void restore();
+	}
+
+	/**
+	 * A grant of buffer capacity. The fields are guarded by the
+	 * {@link TranscodeMemoryGovernor} instance.
+	 */
+	public class Allocation {
+		private final String renderer;
+		private final long minimum;
+		private final long requested;
+		private final boolean offHeap;
+		private final long created = System.currentTimeMillis();
+		private long granted;
+		private Owner owner;
+		private volatile boolean shrunk;
+		private boolean released;
+		private volatile long lastUsed = created;
+		private volatile long lastRestore;
+
+		private Allocation(RendererConfiguration renderer, long minimum, long requested, long granted, boolean offHeap) {
+			this.renderer = getName(renderer);
+			this.minimum = minimum;
+			this.requested = requested;
+			this.granted = granted;
+			this.offHeap = offHeap;
+		}
+
+		/**
+		 * Claims this allocation for a buffer. An allocation can only be
+		 * claimed once.
+		 *
+		 * @param owner the {@link Owner} of the buffer.
+		 * @return {@code true} if the allocation was claimed, {@code false}
+		 *         if it was already claimed or released.
+		 */
+		public boolean claim(Owner owner) {
+			synchronized (TranscodeMemoryGovernor.this) {
+				if (this.owner != null || released) {
+					return false;
+				}
+				this.owner = owner;
+				lastUsed = System.currentTimeMillis();
+				return true;
+			}
+		}
+
+		/**
+		 * @return The number of bytes granted.
+		 */
+		public long getGranted() {
+			synchronized (TranscodeMemoryGovernor.this) {
+				return granted;
+			}
+		}
+
+		/**
+		 * @return The minimum number of bytes the buffer needs.
+		 */
+		public long getMinimum() {
+			return minimum;
+		}
+
+		/**
+		 * Gives back capacity if the buffer turned out to be smaller than
+		 * granted.
+		 *
+		 * @param size the actual size in bytes.
+		 */
+		public void trim(long size) {
+			TranscodeMemoryGovernor.this.trim(this, size);
+		}
+
+		/**
+		 * Marks the buffer as being read from. A shrunk buffer gets its
+		 * capacity back if the budget allows it.
+		 */
+		public void touch() {
+			long now = System.currentTimeMillis();
+			lastUsed = now;
+			if (shrunk && now - lastRestore > RESTORE_INTERVAL) {
+				lastRestore = now;
+				restore(this);
+			}
+		}
+
+		/**
+		 * Returns the capacity to the budget. Calling this more than once has
+		 * no effect.
+		 */
+		public void release() {
+			TranscodeMemoryGovernor.this.release(this);
+		}
+	}
+}
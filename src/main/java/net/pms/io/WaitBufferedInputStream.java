@@ -23,7 +23,8 @@ import java.io.InputStream;
 
 class WaitBufferedInputStream extends InputStream {
 	private BufferedOutputFile outputStream;
-	private long readCount;
+	private volatile long readCount;
+	private volatile long lastReadTime = System.currentTimeMillis();
 	private boolean firstRead;
 
 	public void setReadCount(long readCount) {
@@ -33,6 +34,21 @@ class WaitBufferedInputStream extends InputStream {
 	public long getReadCount() {
 		return readCount;
 	}
+
+	/**
+	 * @return The time in milliseconds of the last read or, if nothing has
+	 *         been read yet, of the creation of this stream.
+	 */
+	public long getLastReadTime() {
+		return lastReadTime;
+	}
+
+	/**
+	 * Marks this stream as active without reading from it.
+	 */
+	void touch() {
+		lastReadTime = System.currentTimeMillis();
+	}
 	
 	WaitBufferedInputStream(BufferedOutputFile outputStream) {
 		this.outputStream = outputStream;
@@ -46,6 +62,7 @@ class WaitBufferedInputStream extends InputStream {
 			setReadCount(getReadCount() + 1);
 		}
 		firstRead = false;
+		lastReadTime = System.currentTimeMillis();
 		return r;
 	}
 
@@ -56,6 +73,7 @@ class WaitBufferedInputStream extends InputStream {
 			setReadCount(getReadCount() + returned);
 		}
 		firstRead = false;
+		lastReadTime = System.currentTimeMillis();
 		return returned;
 	}
 
@@ -42,8 +42,10 @@ import net.pms.dlna.DLNAImageProfile;
 import net.pms.dlna.DLNAMediaInfo;
 import net.pms.dlna.DLNAMediaSubtitle;
 import net.pms.dlna.DLNAResource;
+import net.pms.dlna.DLNAThumbnailCache;
 import net.pms.dlna.DLNAThumbnailInputStream;
 import net.pms.dlna.MediaType;
+import net.pms.dlna.PreTranscoder;
 import net.pms.dlna.Range;
 import net.pms.dlna.RealFile;
 import net.pms.encoders.ImagePlayer;
@@ -52,6 +54,7 @@ import net.pms.formats.v2.SubtitleType;
 import net.pms.image.ImagesUtil;
 import net.pms.io.OutputParams;
 import net.pms.io.ProcessWrapper;
+import net.pms.io.TranscodeRejectedException;
 import net.pms.util.FullyPlayed;
 import net.pms.util.StringUtil;
 import net.pms.util.SubtitleUtils;
@@ -81,6 +84,8 @@ public class Request extends HTTPResource {
 	private final static String HTTP_415_UNSUPPORTED_MEDIA_TYPE_10 = "HTTP/1.0 415 Unsupported Media Type";
 	private final static String HTTP_500 = "HTTP/1.1 500 Internal Server Error";
 	private final static String HTTP_500_10 = "HTTP/1.0 500 Internal Server Error";
+	private final static String HTTP_503 = "HTTP/1.1 503 Service Unavailable";
+	private final static String HTTP_503_10 = "HTTP/1.0 503 Service Unavailable";
 	private final static String CONTENT_TYPE_UTF8 = "CONTENT-TYPE: text/xml; charset=\"utf-8\"";
 	private final static String CONTENT_TYPE = "Content-Type: text/xml; charset=\"utf-8\"";
 	private static final Pattern DIDL_PATTERN = Pattern.compile("<Result>(&lt;DIDL-Lite.*?)</Result>");
@@ -346,10 +351,12 @@ public class Request extends HTTPResource {
 						}
 						thumbInputStream = dlna.fetchThumbnailInputStream();
 					}
-					if (dlna instanceof RealFile && FullyPlayed.isFullyPlayedThumbnail(((RealFile) dlna).getFile())) {
-						thumbInputStream = FullyPlayed.addFullyPlayedOverlay(thumbInputStream);
-					}
-					inputStream = thumbInputStream.transcode(imageProfile, mediaRenderer != null ? mediaRenderer.isThumbnailPadding() : false);
+					inputStream = DLNAThumbnailCache.get().transcode(
+						thumbInputStream,
+						dlna instanceof RealFile && FullyPlayed.isFullyPlayedThumbnail(((RealFile) dlna).getFile()),
+						imageProfile,
+						mediaRenderer != null ? mediaRenderer.isThumbnailPadding() : false
+					);
 					if (contentFeatures != null && inputStream instanceof DLNAThumbnailInputStream) {
 						appendToHeader(
 							responseHeader,
@@ -462,7 +469,20 @@ public class Request extends HTTPResource {
 						name = dlna.getName() + " " + dlna.getDisplayName(mediaRenderer);
 					}
 
-					inputStream = dlna.getInputStream(Range.create(lowRange, highRange, timeseek, timeRangeEnd), mediaRenderer);
+					try {
+						inputStream = dlna.getInputStream(Range.create(lowRange, highRange, timeseek, timeRangeEnd), mediaRenderer);
+					} catch (TranscodeRejectedException e) {
+						if (origRendering != null) {
+							dlna.updateRendering(origRendering);
+						}
+						appendToHeader(responseHeader, "Content-Length: 0");
+						appendToHeader(responseHeader, "Retry-After: " + e.getRetryAfter());
+						appendToHeader(responseHeader, "");
+						responseHeader.set(0, http10 ? HTTP_503_10 : HTTP_503);
+						sendHeader(responseHeader);
+						LOGGER.info("Could not stream \"{}\" to {}: {}", dlna.getName(), mediaRenderer.getRendererName(), e.getMessage());
+						return;
+					}
 					if (dlna.isResume()) {
 						// Update timeseek to possibly adjusted resume time
 						timeseek = dlna.getResume().getTimeOffset() / (double) 1000;
@@ -792,6 +812,11 @@ public class Request extends HTTPResource {
 					}
 				}
 
+				if (!browseDirectChildren && files != null && files.size() == 1) {
+					// Playback usually follows, get a transcode going if enabled
+					PreTranscoder.get().prewarm(files.get(0), mediaRenderer);
+				}
+
 				response.append(HTTPXMLHelper.DIDL_FOOTER);
 				response.append(HTTPXMLHelper.RESULT_FOOTER);
 				response.append(CRLF);
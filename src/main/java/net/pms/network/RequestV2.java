@@ -45,6 +45,7 @@ import net.pms.formats.v2.SubtitleType;
 import net.pms.image.ImagesUtil;
 import net.pms.io.OutputParams;
 import net.pms.io.ProcessWrapper;
+import net.pms.io.TranscodeRejectedException;
 import net.pms.util.FullyPlayed;
 import net.pms.util.StringUtil;
 import net.pms.util.SubtitleUtils;
@@ -55,6 +56,7 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import org.apache.commons.text.StringEscapeUtils;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.MessageEvent;
@@ -332,14 +334,22 @@ public class RequestV2 extends HTTPResource {
 						thumbInputStream = dlna.getGenericThumbnailInputStream(null);
 					} else {
 						if (mediaRenderer.isUseMediaInfo()) {
-							dlna.checkThumbnail();
+							final Channel channel = event.getChannel();
+							dlna.checkThumbnail(new ThumbnailService.Client() {
+								@Override
+								public boolean isConnected() {
+									return channel.isConnected();
+								}
+							});
 						}
 						thumbInputStream = dlna.fetchThumbnailInputStream();
 					}
-					if (dlna instanceof RealFile && FullyPlayed.isFullyPlayedThumbnail(((RealFile) dlna).getFile())) {
-						thumbInputStream = FullyPlayed.addFullyPlayedOverlay(thumbInputStream);
-					}
-					inputStream = thumbInputStream.transcode(imageProfile, mediaRenderer != null ? mediaRenderer.isThumbnailPadding() : false);
+					inputStream = DLNAThumbnailCache.get().transcode(
+						thumbInputStream,
+						dlna instanceof RealFile && FullyPlayed.isFullyPlayedThumbnail(((RealFile) dlna).getFile()),
+						imageProfile,
+						mediaRenderer != null ? mediaRenderer.isThumbnailPadding() : false
+					);
 					if (contentFeatures != null && inputStream instanceof DLNAThumbnailInputStream) {
 						output.headers().set(
 							"ContentFeatures.DLNA.ORG",
@@ -484,7 +494,27 @@ public class RequestV2 extends HTTPResource {
 							totalsize == DLNAMediaInfo.TRANS_SIZE
 						)
 					) {
-						inputStream = dlna.getInputStream(Range.create(lowRange, highRange, range.getStart(), range.getEnd()), mediaRenderer);
+						try {
+							inputStream = dlna.getInputStream(Range.create(lowRange, highRange, range.getStart(), range.getEnd()), mediaRenderer);
+						} catch (TranscodeRejectedException e) {
+							if (origRendering != null) {
+								dlna.updateRendering(origRendering);
+							}
+							output.headers().set(HttpHeaders.Names.CONTENT_LENGTH, "0");
+							output.headers().set(HttpHeaders.Names.RETRY_AFTER, Integer.toString(e.getRetryAfter()));
+							output.setStatus(HttpResponseStatus.SERVICE_UNAVAILABLE);
+
+							// Send the response headers to the client.
+							future = event.getChannel().write(output);
+
+							if (close) {
+								// Close the channel after the response is sent.
+								future.addListener(ChannelFutureListener.CLOSE);
+							}
+
+							LOGGER.info("Could not stream \"{}\" to {}: {}", dlna.getName(), mediaRenderer.getRendererName(), e.getMessage());
+							return future;
+						}
 						if (dlna.isResume()) {
 							// Update range to possibly adjusted resume time
 							range.setStart(dlna.getResume().getTimeOffset() / (double) 1000);
@@ -833,6 +863,11 @@ public class RequestV2 extends HTTPResource {
 					}
 				}
 
+				if (!browseDirectChildren && files != null && files.size() == 1) {
+					// Playback usually follows, get a transcode going if enabled
+					PreTranscoder.get().prewarm(files.get(0), mediaRenderer);
+				}
+
 				response.append(HTTPXMLHelper.DIDL_FOOTER);
 				response.append(HTTPXMLHelper.RESULT_FOOTER);
 				response.append(CRLF);
@@ -40,12 +40,15 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import net.pms.Messages;
 import net.pms.PMS;
 import net.pms.configuration.PmsConfiguration;
 import net.pms.configuration.RendererConfiguration;
+import net.pms.dlna.ThumbnailService;
+import net.pms.io.TranscodeMemoryGovernor;
 import net.pms.newgui.components.AnimatedIcon;
 import net.pms.newgui.components.AnimatedIcon.AnimatedIconFrame;
 import net.pms.newgui.components.AnimatedIcon.AnimatedIconStage;
@@ -56,6 +59,7 @@ import net.pms.util.FormLayoutUtil;
 import net.pms.util.StringUtil;
 import net.pms.util.UMSUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.text.StringEscapeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -578,14 +582,53 @@ public class StatusTab {
 			}
 		}
 		final long buffer = buf;
+		final String bufferToolTip = getBufferToolTip();
 		SwingUtilities.invokeLater(new Runnable() {
 			@Override
 			public void run() {
 				memBarUI.setValues(0, (int) max, (int) (used - buffer), (int) buffer);
+				memoryProgressBar.setToolTipText(bufferToolTip);
 			}
 		});
 	}
 
+	/**
+	 * @return The transcode buffer allocations per renderer and the state of
+	 *         the thumbnail queue as HTML.
+	 */
+	private static String getBufferToolTip() {
+		TranscodeMemoryGovernor governor = TranscodeMemoryGovernor.get();
+		StringBuilder sb = new StringBuilder("<html>");
+		sb.append(String.format(Messages.getString("StatusTab.16"), governor.getUsed() / 1048576, governor.getBudget() / 1048576));
+		if (governor.getOffHeapUsed() > 0) {
+			sb.append("<br>").append(String.format(
+				Messages.getString("StatusTab.18"),
+				governor.getOffHeapUsed() / 1048576,
+				governor.getOffHeapBudget() / 1048576
+			));
+		}
+		for (Map.Entry<String, Long> entry : governor.getUsageByRenderer().entrySet()) {
+			sb.append("<br>").append(StringEscapeUtils.escapeHtml4(entry.getKey())).append(": ")
+				.append(entry.getValue().longValue() / 1048576).append(' ').append(Messages.getString("StatusTab.12"));
+		}
+		if (governor.getQueued() > 0) {
+			sb.append("<br>").append(String.format(Messages.getString("StatusTab.17"), governor.getQueued()));
+		}
+		ThumbnailService thumbnails = ThumbnailService.get();
+		if (thumbnails.getRequestCount() > 0) {
+			sb.append("<br>").append(String.format(
+				Messages.getString("StatusTab.19"),
+				thumbnails.getQueueSize(),
+				thumbnails.getActiveCount(),
+				thumbnails.getGeneratedCount(),
+				thumbnails.getCachedCount(),
+				thumbnails.getDroppedCount(),
+				thumbnails.getAverageQueueTime()
+			));
+		}
+		return sb.append("</html>").toString();
+	}
+
 	private void startMemoryUpdater() {
 		Runnable r = new Runnable() {
 			@Override
@@ -0,0 +1,90 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.util;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Helpers for disk caches that keep their entries as files in a folder and
+ * delete the least recently used ones when the folder grows beyond its
+ * limit. The modification time of a file is its last use.
+ */
+public class CacheFiles {
+
+	/** Not to be instantiated */
+	private CacheFiles() {
+	}
+
+	/**
+	 * Marks a cache file as used, which keeps it from being pruned.
+	 *
+	 * @param file the file.
+	 */
+	public static void markUsed(File file) {
+		file.setLastModified(System.currentTimeMillis());
+	}
+
+	/**
+	 * Deletes the least recently used files until their total size is down to
+	 * three quarters of {@code limit}, so that the cache doesn't have to be
+	 * pruned again on the next write.
+	 *
+	 * @param files the cache files that may be deleted.
+	 * @param limit the size limit of the cache in bytes.
+	 * @return The number of bytes in the remaining files.
+	 */
+	public static long prune(List<File> files, long limit) {
+		Entry[] entries = new Entry[files.size()];
+		long total = 0;
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = new Entry(files.get(i));
+			total += entries[i].length;
+		}
+		Arrays.sort(entries);
+		long target = limit / 4 * 3;
+		for (int i = 0; i < entries.length && total > target; i++) {
+			if (entries[i].file.delete()) {
+				total -= entries[i].length;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * A file with the attributes read once for sorting.
+	 */
+	private static class Entry implements Comparable<Entry> {
+		private final File file;
+		private final long modified;
+		private final long length;
+
+		public Entry(File file) {
+			this.file = file;
+			this.modified = file.lastModified();
+			this.length = file.length();
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			return Long.compare(modified, other.modified);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calculates a fast fingerprint of a file's content, so that the same file
+ * reached through different paths (hard links, bind mounts, symbolic links)
+ * can be recognized without reading all of it.
+ * <p>
+ * The fingerprint is a 64 bit FNV-1a hash of the size, the modification
+ * time, the device and inode numbers where the file system provides them,
+ * and the first and last {@link #BLOCK_SIZE} bytes.
+ */
+public class ContentFingerprint {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ContentFingerprint.class);
+
+	/** The number of bytes read from the start and the end of the file */
+	public static final int BLOCK_SIZE = 64 * 1024;
+
+	/** Not to be instantiated */
+	private ContentFingerprint() {
+	}
+
+	/**
+	 * Calculates the fingerprint of {@code file}.
+	 *
+	 * @param file the {@link File}.
+	 * @return The fingerprint or {@code null} if {@code file} couldn't be
+	 *         read.
+	 */
+	public static Long get(File file) {
+		if (file == null) {
+			return null;
+		}
+		Path path;
+		try {
+			path = file.toPath();
+		} catch (InvalidPathException e) {
+			return null;
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long hash = FNVHash.OFFSET_BASIS;
+			hash = FNVHash.update(hash, size);
+			hash = FNVHash.update(hash, file.lastModified());
+			hash = FNVHash.update(hash, getUnixAttribute(path, "unix:dev"));
+			hash = FNVHash.update(hash, getUnixAttribute(path, "unix:ino"));
+
+			ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+			hash = hash(hash, channel, 0, buffer);
+			if (size > BLOCK_SIZE) {
+				hash = hash(hash, channel, Math.max(size - BLOCK_SIZE, BLOCK_SIZE), buffer);
+			}
+			return Long.valueOf(hash);
+		} catch (IOException e) {
+			LOGGER.debug("Couldn't calculate the content fingerprint of \"{}\": {}", file.getAbsolutePath(), e.getMessage());
+			LOGGER.trace("", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return The value of the "unix" file attribute {@code attribute} or
+	 *         {@code 0} if the file system doesn't provide it.
+	 */
+	private static long getUnixAttribute(Path path, String attribute) {
+		try {
+			Object value = Files.getAttribute(path, attribute);
+			if (value instanceof Number) {
+				return ((Number) value).longValue();
+			}
+		} catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+			// Not available on this platform or file system
+		}
+		return 0;
+	}
+
+	private static long hash(long hash, FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+		return FNVHash.update(hash, buffer);
+	}
+}
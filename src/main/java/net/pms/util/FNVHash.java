@@ -0,0 +1,100 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The 64 bit FNV-1a hash, a fast non-cryptographic hash used for cache keys,
+ * file names and fingerprints. The values are persisted, so the algorithm
+ * must never change.
+ */
+public class FNVHash {
+
+	/** The initial value of a hash */
+	public static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	private static final long PRIME = 0x100000001b3L;
+
+	/** Not to be instantiated */
+	private FNVHash() {
+	}
+
+	/**
+	 * Hashes the {@code char}s of a {@link String}.
+	 *
+	 * @param value the {@link String}.
+	 * @return The hash.
+	 */
+	public static long hash(String value) {
+		long hash = OFFSET_BASIS;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Hashes a byte array.
+	 *
+	 * @param bytes the bytes.
+	 * @return The hash.
+	 */
+	public static long hash(byte[] bytes) {
+		long hash = OFFSET_BASIS;
+		for (byte b : bytes) {
+			hash ^= b & 0xff;
+			hash *= PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Continues a hash with the 8 bytes of a {@code long}, least significant
+	 * first.
+	 *
+	 * @param hash the hash so far, {@link #OFFSET_BASIS} to start one.
+	 * @param value the value to add.
+	 * @return The new hash.
+	 */
+	public static long update(long hash, long value) {
+		for (int i = 0; i < 8; i++) {
+			hash ^= (value >>> (i * 8)) & 0xff;
+			hash *= PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Continues a hash with the remaining bytes of a {@link ByteBuffer},
+	 * which are consumed.
+	 *
+	 * @param hash the hash so far, {@link #OFFSET_BASIS} to start one.
+	 * @param buffer the bytes to add.
+	 * @return The new hash.
+	 */
+	public static long update(long hash, ByteBuffer buffer) {
+		while (buffer.hasRemaining()) {
+			hash ^= buffer.get() & 0xff;
+			hash *= PRIME;
+		}
+		return hash;
+	}
+}
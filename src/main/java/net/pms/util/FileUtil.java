@@ -12,6 +12,7 @@ import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileStore;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.attribute.PosixFileAttributes;
 import java.util.Collections;
@@ -1504,6 +1505,32 @@ public class FileUtil {
 		return getMountPoint(file.toPath());
 	}
 
+	/**
+	 * Returns an object identifying the storage device of {@code directory},
+	 * suitable as a key when work should be limited per disk or network
+	 * share. This is the {@link FileStore} if it can be resolved, otherwise
+	 * the root of the path.
+	 *
+	 * @param directory the directory whose storage device to identify.
+	 * @return The key, never {@code null}.
+	 */
+	public static Object getFileStoreKey(File directory) {
+		if (directory == null) {
+			return "";
+		}
+		try {
+			Path path = directory.toPath();
+			try {
+				return Files.getFileStore(path);
+			} catch (IOException e) {
+				Path root = path.getRoot();
+				return root != null ? root.toString() : "";
+			}
+		} catch (InvalidPathException e) {
+			return "";
+		}
+	}
+
 	public static boolean isUnixStickyBit(Path path) throws IOException, InvalidFileSystemException {
 		PosixFileAttributes attr = Files.readAttributes(path, PosixFileAttributes.class);
 		try {
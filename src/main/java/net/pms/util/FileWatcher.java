@@ -268,6 +268,9 @@ public class FileWatcher {
 											// It's a new directory in a recursive scope,
 											// traverse it to include any subdirs
 											addRecursive(w, filename);
+											// Let the listener know, the directory might
+											// have been moved here with its content
+											notifier.schedule(new Notice(filename.toString(), kind.toString(), w, isDir), 0);
 										} else {
 											// It's a regular event, schedule a notice
 											notifier.schedule(new Notice(filename.toString(), kind.toString(), w, isDir),
@@ -2,6 +2,7 @@ package net.pms.util;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
@@ -13,7 +14,9 @@ public abstract class FlowParserOutputStream extends OutputStream {
 	protected boolean discard;
 	protected int internalMark;
 	protected int swapOrderBits;
-	protected byte[] swapRemainingByte;
+
+	/** The byte left over from an odd sized write when swapping or -1 */
+	private int swapRemainingByte = -1;
 
 	public FlowParserOutputStream(OutputStream out, int maxbuffersize) {
 		this.out = out;
@@ -30,24 +33,14 @@ public abstract class FlowParserOutputStream extends OutputStream {
 	@Override
 	public void write(byte[] b, int off, int len) throws IOException {
 		if (swapOrderBits == 2) {
-			if (swapRemainingByte != null && swapRemainingByte.length == 1) {
-				buffer.put(b[off]);
-				buffer.put(swapRemainingByte[0]);
-				off++;
-			}
-			int modulo = Math.abs(len - off) % swapOrderBits;
-			if (modulo != 0) {
-				swapRemainingByte = new byte[1];
-				len -= modulo;
-				System.arraycopy(b, len, swapRemainingByte, 0, modulo);
-			}
-			for (int i = off; i < len; i += 2) {
-				byte temp = b[i];
-				b[i] = b[i + 1];
-				b[i + 1] = temp;
-			}
+			putSwapped(b, off, len);
+		} else if (neededByteNumber == 0 && buffer.position() == 0) {
+			// Nothing needs to be held back for analysis, so there's no need to buffer
+			writeUnbuffered(b, off, len);
+			return;
+		} else {
+			buffer.put(b, off, len);
 		}
-		buffer.put(b, off, len);
 
 		int remains = buffer.position() - internalMark;
 
@@ -106,6 +99,63 @@ public abstract class FlowParserOutputStream extends OutputStream {
 		}
 	}
 
+	/**
+	 * Copies {@code b} to the buffer swapping every two bytes, carrying an odd
+	 * byte over to the next write. The caller's array is left untouched.
+	 */
+	private void putSwapped(byte[] b, int off, int len) {
+		int end = off + len;
+		int needed = len + (swapRemainingByte >= 0 ? 1 : 0);
+		if (needed > buffer.remaining()) {
+			throw new BufferOverflowException();
+		}
+		byte[] array = buffer.array();
+		int position = buffer.position();
+		if (swapRemainingByte >= 0 && off < end) {
+			array[position++] = b[off++];
+			array[position++] = (byte) swapRemainingByte;
+			swapRemainingByte = -1;
+		}
+		if (((end - off) & 1) != 0) {
+			swapRemainingByte = b[--end] & 0xff;
+		}
+		for (int i = off; i < end; i += 2) {
+			array[position++] = b[i + 1];
+			array[position++] = b[i];
+		}
+		buffer.position(position);
+	}
+
+	/**
+	 * Streams {@code b} directly when no bytes are needed for analysis, which
+	 * means that nothing would be left in the buffer after the write.
+	 */
+	private void writeUnbuffered(byte[] b, int off, int len) throws IOException {
+		int end = off + len;
+		while (off < end) {
+			if (streamableByteNumber == 0) {
+				count++;
+				analyzeBuffer(b, off, neededByteNumber);
+				if (streamableByteNumber == 0) {
+					throw new IOException("Packet size cannot be Null !");
+				}
+				if (!discard) {
+					beforeChunkSend();
+				}
+			}
+
+			int n = Math.min(streamableByteNumber, end - off);
+			if (!discard) {
+				out.write(b, off, n);
+			}
+			off += n;
+			streamableByteNumber -= n;
+			if (streamableByteNumber == 0 && !discard) {
+				afterChunkSend();
+			}
+		}
+	}
+
 	protected void writePayload(byte payload[]) throws IOException {
 		out.write(payload, 0, payload.length);
 	}
@@ -2,16 +2,33 @@ package net.pms.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Converts a length prefixed H.264 stream, as stored in MP4 and Matroska, to
+ * an Annex B stream with start codes, inserting the header in front of key
+ * frames. The NAL units are read straight into the caller's buffer, so no
+ * arrays are allocated while streaming.
+ */
 public class H264AnnexBInputStream extends InputStream {
 	private static final Logger LOGGER = LoggerFactory.getLogger(H264AnnexBInputStream.class);
+	private static final byte[] START_CODE = {0, 0, 0, 1};
 	private InputStream source;
 	private int nextTarget;
 	private boolean firstHeader;
 	private byte header[];
 
+	/** The header inserted after the first one, ending with a start code */
+	private byte repeatedHeader[];
+
+	/** Reused for the NAL unit length */
+	private final byte[] length = new byte[4];
+
+	/** Reused for the start of the NAL unit */
+	private final byte[] nalStart = new byte[3];
+
 	public H264AnnexBInputStream(InputStream source, byte header[]) {
 		this.source = source;
 		this.header = header;
@@ -26,22 +43,21 @@ public class H264AnnexBInputStream extends InputStream {
 
 	@Override
 	public int read(byte[] b, int off, int len) throws IOException {
-		byte h[] = null;
+		boolean nalStarted = false;
 		boolean insertHeader = false;
 
 		if (nextTarget == -1) {
-			h = getArray(4);
-			if (h == null) {
+			if (!readFully(length, 0, 4)) {
 				return -1;
 			}
-			nextTarget = 65536 * 256 * (h[0] & 0xff) + 65536 * (h[1] & 0xff) + 256 * (h[2] & 0xff) + (h[3] & 0xff);
-			h = getArray(3);
-			if (h == null) {
+			nextTarget = 65536 * 256 * (length[0] & 0xff) + 65536 * (length[1] & 0xff) + 256 * (length[2] & 0xff) + (length[3] & 0xff);
+			if (!readFully(nalStart, 0, 3)) {
 				return -1;
 			}
-			insertHeader = ((h[0] & 37) == 37 && (h[1] & -120) == -120);
+			nalStarted = true;
+			insertHeader = ((nalStart[0] & 37) == 37 && (nalStart[1] & -120) == -120);
 			if (!insertHeader) {
-				System.arraycopy(new byte[]{0, 0, 0, 1}, 0, b, off, 4);
+				System.arraycopy(START_CODE, 0, b, off, 4);
 				off += 4;
 
 			}
@@ -55,10 +71,7 @@ public class H264AnnexBInputStream extends InputStream {
 		if (insertHeader) {
 			byte defHeader[] = header;
 			if (!firstHeader) {
-				defHeader = new byte[header.length + 1];
-				System.arraycopy(header, 0, defHeader, 0, header.length);
-				defHeader[defHeader.length - 1] = 1;
-				defHeader[defHeader.length - 2] = 0;
+				defHeader = getRepeatedHeader();
 			}
 			if (defHeader.length < (len - off)) {
 				System.arraycopy(defHeader, 0, b, off, defHeader.length);
@@ -71,19 +84,17 @@ public class H264AnnexBInputStream extends InputStream {
 			firstHeader = false;
 		}
 
-		if (h != null) {
-			System.arraycopy(h, 0, b, off, 3);
+		if (nalStarted) {
+			System.arraycopy(nalStart, 0, b, off, 3);
 			off += 3;
 			//LOGGER.info("frame start inserted");
 		}
 
 		if (nextTarget < (len - off)) {
 
-			h = getArray(nextTarget);
-			if (h == null) {
+			if (!readFully(b, off, nextTarget)) {
 				return -1;
 			}
-			System.arraycopy(h, 0, b, off, nextTarget);
 			//LOGGER.info("Frame copied: " + nextTarget);
 			off += nextTarget;
 
@@ -91,11 +102,9 @@ public class H264AnnexBInputStream extends InputStream {
 
 		} else {
 
-			h = getArray(len - off);
-			if (h == null) {
+			if (!readFully(b, off, len - off)) {
 				return -1;
 			}
-			System.arraycopy(h, 0, b, off, (len - off));
 			//LOGGER.info("Frame copied: " + (len - off));
 			nextTarget -= (len - off);
 			off = len;
@@ -105,24 +114,44 @@ public class H264AnnexBInputStream extends InputStream {
 		return off;
 	}
 
-	private byte[] getArray(int length) throws IOException {
+	/**
+	 * Returns the header with its last byte replaced by a start code, which
+	 * is what's inserted in front of all but the first key frame.
+	 */
+	private byte[] getRepeatedHeader() {
+		if (repeatedHeader == null) {
+			repeatedHeader = new byte[header.length + 1];
+			System.arraycopy(header, 0, repeatedHeader, 0, header.length);
+			repeatedHeader[repeatedHeader.length - 1] = 1;
+			repeatedHeader[repeatedHeader.length - 2] = 0;
+		}
+		return repeatedHeader;
+	}
+
+	/**
+	 * Reads {@code length} bytes from the source into {@code b}. If the
+	 * source ends early the rest is filled with zeros.
+	 *
+	 * @return {@code false} if the source had already ended.
+	 */
+	private boolean readFully(byte[] b, int off, int length) throws IOException {
 		if (length < 0) {
 			LOGGER.trace("Negative array ?");
-			return null;
+			return false;
 		}
-		byte bb[] = new byte[length];
-		int n = source.read(bb);
+		int n = source.read(b, off, length);
 		if (n == -1) {
-			return null;
+			return false;
 		}
 		while (n < length) {
-			int u = source.read(bb, n, length - n);
+			int u = source.read(b, off + n, length - n);
 			if (u == -1) {
+				Arrays.fill(b, off + n, off + length, (byte) 0);
 				break;
 			}
 			n += u;
 		}
-		return bb;
+		return true;
 	}
 
 	@Override
@@ -31,10 +31,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import net.pms.PMS;
+import net.pms.io.ProcessSupervisor;
 import net.pms.io.StreamGobbler;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -51,6 +53,20 @@ public class ProcessUtil {
 	// how long to wait in milliseconds until a kill -ALRM on Unix has been deemed to fail
 	private static final int ALRM_TIMEOUT = 2000;
 
+	/**
+	 * Runs {@code task} on a shared thread after {@code timeout}
+	 * milliseconds, typically to stop a process that runs for too long. The
+	 * returned {@link ScheduledFuture} should be cancelled when the process
+	 * completes in time.
+	 *
+	 * @param task the {@link Runnable} to run when the timeout expires.
+	 * @param timeout the timeout in milliseconds.
+	 * @return The {@link ScheduledFuture} for {@code task}.
+	 */
+	public static ScheduledFuture<?> scheduleTimeout(Runnable task, long timeout) {
+		return ProcessSupervisor.get().schedule(task, timeout);
+	}
+
 	// work around a Java bug
 	// see: http://www.cnblogs.com/abnercai/archive/2012/12/27/2836008.html
 	public static int waitFor(Process p) {
@@ -140,34 +156,26 @@ public class ProcessUtil {
 
 			if (pid != null) { // Unix only
 				LOGGER.trace("Killing the Unix process: " + pid);
-				Runnable r = new Runnable() {
+				ProcessSupervisor.get().schedule(new Runnable() {
 					@Override
 					public void run() {
-						try {
-							Thread.sleep(TERM_TIMEOUT);
-						} catch (InterruptedException e) {
-						}
-
 						try {
 							p.exitValue();
 						} catch (IllegalThreadStateException itse) { // still running: nuke it
 							// kill -14 (ALRM) works (for MEncoder) and is less dangerous than kill -9
 							// so try that first
 							if (!kill(pid, 14)) {
-								try {
-									// This is a last resort, so let's not be too eager
-									Thread.sleep(ALRM_TIMEOUT);
-								} catch (InterruptedException ie) {
-								}
-
-								kill(pid, 9);
+								// This is a last resort, so let's not be too eager
+								ProcessSupervisor.get().schedule(new Runnable() {
+									@Override
+									public void run() {
+										kill(pid, 9);
+									}
+								}, ALRM_TIMEOUT);
 							}
 						}
 					}
-				};
-
-				Thread failsafe = new Thread(r, "Process Destroyer");
-				failsafe.start();
+				}, TERM_TIMEOUT);
 			}
 
 			p.destroy();
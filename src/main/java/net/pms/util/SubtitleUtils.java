@@ -98,6 +98,15 @@ public class SubtitleUtils {
 
 	private static final String SUB_DIR = "subs";
 
+	/** The locks serializing subtitle conversions per source file */
+	private static final Object[] CONVERSION_LOCKS = new Object[16];
+
+	static {
+		for (int i = 0; i < CONVERSION_LOCKS.length; i++) {
+			CONVERSION_LOCKS[i] = new Object();
+		}
+	}
+
 	/**
 	 * Returns value for -subcp option for non UTF-8 external subtitles based on
 	 * detected charset.
@@ -164,6 +173,16 @@ public class SubtitleUtils {
 			return null;
 		}
 
+		// Transcodes of the same file can be launched concurrently, they must
+		// not convert to the same file at the same time
+		String systemName = dlna.getSystemName();
+		Object lock = CONVERSION_LOCKS[(systemName != null ? systemName.hashCode() & 0x7fffffff : 0) % CONVERSION_LOCKS.length];
+		synchronized (lock) {
+			return convertSubtitles(dlna, media, params, configuration, subtitleType);
+		}
+	}
+
+	private static File convertSubtitles(DLNAResource dlna, DLNAMediaInfo media, OutputParams params, PmsConfiguration configuration, SubtitleType subtitleType) throws IOException {
 		String dir = configuration.getDataFile(SUB_DIR);
 		File subsPath = new File(dir);
 		if (!subsPath.exists()) {
@@ -0,0 +1,435 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import static org.assertj.core.api.Assertions.*;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.formats.Format;
+import org.apache.commons.configuration.ConfigurationException;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+
+public class DLNAMediaDatabaseTest {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DLNAMediaDatabaseTest.class);
+	private static int databaseNumber = 0;
+	private JdbcConnectionPool pool;
+	private DLNAMediaDatabase database;
+
+	@BeforeClass
+	public static void setUpClass() throws ConfigurationException {
+		// Silence all log messages from the DMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.getLogger(Logger.ROOT_LOGGER_NAME).setLevel(Level.OFF);
+		PMS.setConfiguration(new PmsConfiguration(false));
+	}
+
+	@Before
+	public void setUp() {
+		pool = JdbcConnectionPool.create("jdbc:h2:mem:dlnamediadatabasetest" + databaseNumber++ + ";DB_CLOSE_DELAY=-1", "sa", "");
+		database = new DLNAMediaDatabase("test", pool);
+		database.init(true);
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		try (Connection connection = database.getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute("SHUTDOWN");
+		}
+		pool.dispose();
+	}
+
+	private void insertFiles(int count) throws SQLException {
+		try (
+			Connection connection = database.getConnection();
+			PreparedStatement files = connection.prepareStatement(
+				"INSERT INTO FILES (FILENAME, FILENAMEHASH, MODIFIED, TYPE, WIDTH, HEIGHT) VALUES (?, ?, ?, ?, ?, ?)"
+			);
+			PreparedStatement audio = connection.prepareStatement(
+				"INSERT INTO AUDIOTRACKS (FILEID, ID, ARTIST, ALBUM, GENRE, SONGNAME, YEAR) VALUES (?, 1, ?, ?, ?, ?, ?)"
+			);
+		) {
+			for (int i = 1; i <= count; i++) {
+				String filename = "/media/file" + i;
+				files.setString(1, filename);
+				files.setLong(2, DLNAMediaDatabase.getFilenameHash(filename));
+				files.setTimestamp(3, new Timestamp(i * 1000L));
+				files.setInt(4, i % 4 == 0 ? 4 : i % 4 == 1 ? 1 : 2);
+				files.setInt(5, 1920);
+				files.setInt(6, 1080);
+				files.executeUpdate();
+				if (i % 4 == 1) {
+					audio.setInt(1, i);
+					audio.setString(2, "Artist " + i % 50);
+					audio.setString(3, "Album " + i % 200);
+					audio.setString(4, "Genre " + i % 10);
+					audio.setString(5, "Song " + i);
+					audio.setInt(6, 1990 + i % 30);
+					audio.executeUpdate();
+				}
+			}
+			try (Statement statement = connection.createStatement()) {
+				statement.execute("ANALYZE");
+			}
+		}
+	}
+
+	private String explain(String sql) throws SQLException {
+		try (
+			Connection connection = database.getConnection();
+			Statement statement = connection.createStatement();
+			ResultSet rs = statement.executeQuery("EXPLAIN " + sql)
+		) {
+			assertThat(rs.next()).isTrue();
+			String plan = rs.getString(1);
+			LOGGER.info("Query plan for \"{}\":\n{}", sql, plan);
+			return plan;
+		}
+	}
+
+	@Test
+	public void testQueryPlans() throws SQLException {
+		insertFiles(2000);
+
+		long hash = DLNAMediaDatabase.getFilenameHash("/media/file5");
+		assertThat(explain(
+			"SELECT ID FROM FILES WHERE FILENAMEHASH = " + hash + " AND FILENAME = '/media/file5' AND MODIFIED = TIMESTAMP '1970-01-01 00:00:05'"
+		)).contains("IDXFILESHASH").doesNotContain("tableScan");
+		assertThat(explain(
+			"SELECT FILENAME, MODIFIED FROM FILES WHERE TYPE = 4 ORDER BY FILENAME ASC"
+		)).contains("IDXFILESTYPEFILENAME").doesNotContain("tableScan");
+		assertThat(explain(
+			"SELECT FORMATDATETIME(MODIFIED, 'd MMM yyyy') FROM FILES WHERE TYPE = 2 ORDER BY MODIFIED DESC"
+		)).contains("IDXFILESTYPE").doesNotContain("tableScan");
+		assertThat(explain(
+			"SELECT FILENAME, MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.ALBUM = 'Album 1' ORDER BY A.TRACK ASC, F.FILENAME ASC"
+		)).contains("IDXALBUM").doesNotContain("FILES.tableScan");
+		assertThat(explain(
+			"SELECT FILENAME, MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.ARTIST = 'Artist 1' AND A.ALBUM = 'Album 1' ORDER BY A.TRACK ASC, F.FILENAME ASC"
+		)).contains("IDXARTISTALBUM").doesNotContain("tableScan");
+		assertThat(explain(
+			"SELECT ARTIST FROM LIBRARY_ARTISTS WHERE LETTER = 'A' ORDER BY ARTIST ASC"
+		)).contains("IDXLIBARTISTLETTER").doesNotContain("tableScan");
+		assertThat(explain(
+			"SELECT ALBUM FROM LIBRARY_ALBUMS WHERE ARTIST = 'Artist 1' ORDER BY ALBUM ASC"
+		)).doesNotContain("tableScan");
+		assertThat(explain(
+			"SELECT ALBUM FROM LIBRARY_GENRES WHERE GENRE = 'Genre 1' AND ARTIST = 'Artist 1' ORDER BY ALBUM ASC"
+		)).doesNotContain("tableScan");
+	}
+
+	@Test
+	public void testMigrationFromVersion9() throws SQLException {
+		String filename = "/media/music/song.mp3";
+		try (Connection connection = database.getConnection(); Statement statement = connection.createStatement()) {
+			// Restore the version 9 FILES table layout
+			statement.execute("DROP INDEX IDXFILESHASH");
+			statement.execute("DROP INDEX IDXFILESTYPEFILENAME");
+			statement.execute("DROP INDEX IDXFILESTYPEMODIFIED");
+			statement.execute("DROP INDEX IDXARTISTALBUM");
+			statement.execute("DROP INDEX IDXSONGNAME");
+			statement.execute("DROP TABLE FOLDERS");
+			statement.execute("DROP INDEX IDXFILESCONTENT");
+			statement.execute("ALTER TABLE FILES DROP COLUMN CONTENTHASH");
+			statement.execute("ALTER TABLE FILES DROP CONSTRAINT PKFILES");
+			statement.execute("ALTER TABLE FILES DROP COLUMN FILENAMEHASH");
+			statement.execute("ALTER TABLE FILES ADD CONSTRAINT PK1 PRIMARY KEY (FILENAME, MODIFIED, ID)");
+			statement.execute("UPDATE METADATA SET VALUE = '9' WHERE KEY = 'VERSION'");
+			statement.execute("INSERT INTO FILES (FILENAME, MODIFIED, TYPE) VALUES ('" + filename + "', TIMESTAMP '2017-01-01 12:00:00', 1)");
+		}
+
+		database.init(false);
+
+		try (Connection connection = database.getConnection(); Statement statement = connection.createStatement()) {
+			try (ResultSet rs = statement.executeQuery("SELECT VALUE FROM METADATA WHERE KEY = 'VERSION'")) {
+				assertThat(rs.next()).isTrue();
+				assertThat(rs.getString(1)).isEqualTo("12");
+			}
+			try (ResultSet rs = statement.executeQuery("SELECT FILENAMEHASH FROM FILES")) {
+				assertThat(rs.next()).isTrue();
+				assertThat(rs.getLong(1)).isEqualTo(DLNAMediaDatabase.getFilenameHash(filename));
+			}
+		}
+		assertThat(database.isDataExists(filename, Timestamp.valueOf("2017-01-01 12:00:00").getTime())).isTrue();
+	}
+
+	@Test
+	public void testMigrationFromVersion8() throws SQLException {
+		String filename = "/media/music/song.mp3";
+		try (Connection connection = database.getConnection(); Statement statement = connection.createStatement()) {
+			// Restore the version 8 layout
+			statement.execute("DROP TABLE LIBRARY_ARTISTS");
+			statement.execute("DROP TABLE LIBRARY_ALBUMS");
+			statement.execute("DROP TABLE LIBRARY_GENRES");
+			statement.execute("DROP TABLE LIBRARY_YEARS");
+			statement.execute("DROP TABLE LIBRARY_MONTHS");
+			statement.execute("DROP INDEX IDXFILESHASH");
+			statement.execute("DROP INDEX IDXFILESTYPEFILENAME");
+			statement.execute("DROP INDEX IDXFILESTYPEMODIFIED");
+			statement.execute("DROP INDEX IDXARTISTALBUM");
+			statement.execute("DROP INDEX IDXSONGNAME");
+			statement.execute("DROP TABLE FOLDERS");
+			statement.execute("DROP INDEX IDXFILESCONTENT");
+			statement.execute("ALTER TABLE FILES DROP COLUMN CONTENTHASH");
+			statement.execute("ALTER TABLE FILES DROP CONSTRAINT PKFILES");
+			statement.execute("ALTER TABLE FILES DROP COLUMN FILENAMEHASH");
+			statement.execute("ALTER TABLE FILES ADD CONSTRAINT PK1 PRIMARY KEY (FILENAME, MODIFIED, ID)");
+			statement.execute("UPDATE METADATA SET VALUE = '8' WHERE KEY = 'VERSION'");
+			statement.execute("INSERT INTO FILES (ID, FILENAME, MODIFIED, TYPE) VALUES (1, '" + filename + "', TIMESTAMP '2017-01-01 12:00:00', 1)");
+			statement.execute(
+				"INSERT INTO AUDIOTRACKS (FILEID, ID, ARTIST, ALBUM, GENRE, SONGNAME, YEAR) " +
+				"VALUES (1, 1, 'Artist', 'Album', 'Genre', 'Song', 2001)"
+			);
+		}
+
+		database.init(false);
+
+		try (Connection connection = database.getConnection(); Statement statement = connection.createStatement()) {
+			try (ResultSet rs = statement.executeQuery("SELECT VALUE FROM METADATA WHERE KEY = 'VERSION'")) {
+				assertThat(rs.next()).isTrue();
+				assertThat(rs.getString(1)).isEqualTo("12");
+			}
+			try (ResultSet rs = statement.executeQuery("SELECT FILENAMEHASH FROM FILES")) {
+				assertThat(rs.next()).isTrue();
+				assertThat(rs.getLong(1)).isEqualTo(DLNAMediaDatabase.getFilenameHash(filename));
+			}
+			try (ResultSet rs = statement.executeQuery("SELECT ARTIST, FILECOUNT FROM LIBRARY_ARTISTS")) {
+				assertThat(rs.next()).isTrue();
+				assertThat(rs.getString(1)).isEqualTo("Artist");
+				assertThat(rs.getInt(2)).isEqualTo(1);
+				assertThat(rs.next()).isFalse();
+			}
+			try (ResultSet rs = statement.executeQuery("SELECT YEAR, FILECOUNT FROM LIBRARY_YEARS")) {
+				assertThat(rs.next()).isTrue();
+				assertThat(rs.getInt(1)).isEqualTo(2001);
+				assertThat(rs.getInt(2)).isEqualTo(1);
+			}
+		}
+		assertThat(database.isDataExists(filename, Timestamp.valueOf("2017-01-01 12:00:00").getTime())).isTrue();
+	}
+
+	private static DLNAMediaInfo createAudio(String artist, String album, String genre, int year) {
+		DLNAMediaAudio audio = new DLNAMediaAudio();
+		audio.setId(1);
+		audio.setArtist(artist);
+		audio.setAlbum(album);
+		audio.setGenre(genre);
+		audio.setSongname("Song");
+		audio.setYear(year);
+		DLNAMediaInfo media = new DLNAMediaInfo();
+		media.getAudioTracksList().add(audio);
+		return media;
+	}
+
+	/**
+	 * @return The {@code FILECOUNT} of the row matching {@code where} or 0 if
+	 *         there is no such row.
+	 */
+	private int getCount(String table, String where) throws SQLException {
+		try (
+			Connection connection = database.getConnection();
+			Statement statement = connection.createStatement();
+			ResultSet rs = statement.executeQuery("SELECT FILECOUNT FROM " + table + " WHERE " + where)
+		) {
+			if (!rs.next()) {
+				return 0;
+			}
+			int count = rs.getInt(1);
+			assertThat(count).as("Row with zero count in " + table).isPositive();
+			assertThat(rs.next()).isFalse();
+			return count;
+		}
+	}
+
+	private int getRowCount(String table) throws SQLException {
+		try (
+			Connection connection = database.getConnection();
+			Statement statement = connection.createStatement();
+			ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table)
+		) {
+			assertThat(rs.next()).isTrue();
+			return rs.getInt(1);
+		}
+	}
+
+	@Test
+	public void testLibraryTables() throws SQLException {
+		String a = "/media/music/a.mp3";
+		String b = "/media/music/b.mp3";
+		long modified = Timestamp.valueOf("2017-03-15 12:00:00").getTime();
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(modified);
+		String month = "MONTHKEY = " + (calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1);
+
+		// Insert
+		database.insertOrUpdateData(a, modified, Format.AUDIO, createAudio("Abba", "Arrival", "Pop", 1976));
+		database.insertOrUpdateData(b, modified, Format.AUDIO, createAudio("Abba", "Voulez-Vous", "Pop", 1979));
+		assertThat(getCount("LIBRARY_ARTISTS", "ARTIST = 'Abba' AND LETTER = 'A'")).isEqualTo(2);
+		assertThat(getCount("LIBRARY_ALBUMS", "ARTIST = 'Abba' AND ALBUM = 'Arrival'")).isEqualTo(1);
+		assertThat(getCount("LIBRARY_ALBUMS", "ARTIST = 'Abba' AND ALBUM = 'Voulez-Vous'")).isEqualTo(1);
+		assertThat(getCount("LIBRARY_GENRES", "GENRE = 'Pop' AND ARTIST = 'Abba' AND ALBUM = 'Arrival'")).isEqualTo(1);
+		assertThat(getCount("LIBRARY_YEARS", "YEAR = 1976")).isEqualTo(1);
+		assertThat(getCount("LIBRARY_YEARS", "YEAR = 1979")).isEqualTo(1);
+		assertThat(getCount("LIBRARY_MONTHS", month)).isEqualTo(2);
+
+		// Update with an artist change
+		database.insertOrUpdateData(a, modified, Format.AUDIO, createAudio("Beatles", "Arrival", "Rock", 1976));
+		assertThat(getCount("LIBRARY_ARTISTS", "ARTIST = 'Abba'")).isEqualTo(1);
+		assertThat(getCount("LIBRARY_ARTISTS", "ARTIST = 'Beatles' AND LETTER = 'B'")).isEqualTo(1);
+		assertThat(getCount("LIBRARY_ALBUMS", "ARTIST = 'Abba' AND ALBUM = 'Arrival'")).isZero();
+		assertThat(getCount("LIBRARY_ALBUMS", "ARTIST = 'Beatles' AND ALBUM = 'Arrival'")).isEqualTo(1);
+		assertThat(getCount("LIBRARY_GENRES", "GENRE = 'Pop' AND ARTIST = 'Abba' AND ALBUM = 'Arrival'")).isZero();
+		assertThat(getCount("LIBRARY_GENRES", "GENRE = 'Rock' AND ARTIST = 'Beatles' AND ALBUM = 'Arrival'")).isEqualTo(1);
+		assertThat(getCount("LIBRARY_YEARS", "YEAR = 1976")).isEqualTo(1);
+		assertThat(getCount("LIBRARY_MONTHS", month)).isEqualTo(2);
+
+		// Delete
+		assertThat(database.removeFiles(Arrays.asList(b))).isEqualTo(1);
+		assertThat(getCount("LIBRARY_ARTISTS", "ARTIST = 'Abba'")).isZero();
+		assertThat(getCount("LIBRARY_ARTISTS", "ARTIST = 'Beatles'")).isEqualTo(1);
+		assertThat(getCount("LIBRARY_YEARS", "YEAR = 1979")).isZero();
+		assertThat(getCount("LIBRARY_MONTHS", month)).isEqualTo(1);
+
+		assertThat(database.removeFiles(Arrays.asList(a))).isEqualTo(1);
+		for (String table : new String[] {"LIBRARY_ARTISTS", "LIBRARY_ALBUMS", "LIBRARY_GENRES", "LIBRARY_YEARS", "LIBRARY_MONTHS"}) {
+			assertThat(getRowCount(table)).as(table).isZero();
+		}
+	}
+
+	private int getMinimumFileId() throws SQLException {
+		try (
+			Connection connection = database.getConnection();
+			Statement statement = connection.createStatement();
+			ResultSet rs = statement.executeQuery("SELECT MIN(ID), COUNT(*) FROM FILES")
+		) {
+			assertThat(rs.next()).isTrue();
+			return rs.getInt(2) == 0 ? -1 : rs.getInt(1);
+		}
+	}
+
+	@Test
+	public void testCleanupResumes() throws Exception {
+		// None of the files exist, so every checked file is removed
+		insertFiles(1200);
+		assertThat(database.getCleanupCursor()).isZero();
+
+		assertThat(database.cleanupChunk(Integer.MAX_VALUE)).isEqualTo(500);
+		assertThat(database.getCleanupCursor()).isEqualTo(500);
+		assertThat(getMinimumFileId()).isEqualTo(501);
+
+		// A new instance, as after a restart, continues from the stored cursor
+		database = new DLNAMediaDatabase("test", pool);
+		assertThat(database.getCleanupCursor()).isEqualTo(500);
+		assertThat(database.cleanupChunk(Integer.MAX_VALUE)).isEqualTo(500);
+		assertThat(database.getCleanupCursor()).isEqualTo(1000);
+		assertThat(getMinimumFileId()).isEqualTo(1001);
+
+		assertThat(database.cleanupChunk(Integer.MAX_VALUE)).isEqualTo(200);
+		assertThat(getMinimumFileId()).isEqualTo(-1);
+
+		// The end of the table resets the cursor for the next lap
+		assertThat(database.cleanupChunk(Integer.MAX_VALUE)).isEqualTo(-1);
+		assertThat(database.getCleanupCursor()).isZero();
+	}
+
+	@Test
+	public void testFolderFingerprints() {
+		String root = File.separator + "media";
+		String music = root + File.separator + "music";
+		String video = root + File.separator + "video";
+		String[] names = {"music", "video", "a.mp3"};
+		long nameHash = DLNAMediaDatabase.getNamesHash(names);
+		assertThat(nameHash).isEqualTo(DLNAMediaDatabase.getNamesHash(new String[] {"a.mp3", "music", "video"}));
+		assertThat(database.isFolderUnchanged(root, 1000, 3, nameHash)).isFalse();
+
+		database.updateFolder(root, 1000, 3, nameHash, Arrays.asList(music, video));
+		assertThat(database.isFolderUnchanged(root, 1000, 3, nameHash)).isTrue();
+		assertThat(database.isFolderUnchanged(root, 2000, 3, nameHash)).isFalse();
+		assertThat(database.isFolderUnchanged(root, 1000, 2, nameHash)).isFalse();
+		assertThat(database.getSubfolders(root)).containsExactly(music, video);
+		// Subfolders that haven't been scanned never match
+		assertThat(database.isFolderUnchanged(music, 0, -1, 0)).isFalse();
+
+		database.updateFolder(music, 500, 0, 0, Collections.<String>emptyList());
+		assertThat(database.isFolderUnchanged(music, 500, 0, 0)).isTrue();
+
+		// Removing a subfolder removes its row
+		database.updateFolder(root, 3000, 2, nameHash, Arrays.asList(video));
+		assertThat(database.getSubfolders(root)).containsExactly(video);
+		assertThat(database.isFolderUnchanged(music, 500, 0, 0)).isFalse();
+
+		// Removing a cached file invalidates its folder
+		database.removeFiles(Arrays.asList(root + File.separator + "a.mp3"));
+		assertThat(database.isFolderUnchanged(root, 3000, 2, nameHash)).isFalse();
+	}
+
+	@Test
+	public void testContentHash() throws IOException, SQLException {
+		DLNAMediaInfo media = new DLNAMediaInfo();
+		media.setWidth(1920);
+		media.setHeight(1080);
+		media.setContentHash(0x1234567890L);
+		database.insertOrUpdateData("/media/video/a.mkv", 1000, Format.VIDEO, media);
+		assertThat(database.getDataByContentHash(0x9876543210L)).isNull();
+
+		DLNAMediaInfo cached = database.getDataByContentHash(0x1234567890L);
+		assertThat(cached).isNotNull();
+		assertThat(cached.getWidth()).isEqualTo(1920);
+		assertThat(cached.getContentHash()).isEqualTo(0x1234567890L);
+		assertThat(database.getData("/media/video/a.mkv", 1000).get(0).getContentHash()).isEqualTo(0x1234567890L);
+
+		media.setContentHash(null);
+		database.insertOrUpdateData("/media/video/a.mkv", 1000, Format.VIDEO, media);
+		assertThat(database.getDataByContentHash(0x1234567890L)).isNull();
+	}
+
+	@Test
+	public void testValidatorShutdown() throws InterruptedException {
+		MediaDatabaseValidator validator = new MediaDatabaseValidator(database, 1);
+		validator.shutdown();
+		validator.validate("/media/music/missing.mp3", 1000);
+		assertThat(validator.getQueueSize()).isZero();
+		assertThat(validator.check(Collections.singletonMap("/media/music/missing.mp3", 1000L))).isEmpty();
+	}
+
+	@Test
+	public void testFilenameHash() {
+		assertThat(DLNAMediaDatabase.getFilenameHash("")).isEqualTo(0xcbf29ce484222325L);
+		assertThat(DLNAMediaDatabase.getFilenameHash("/media/a")).isEqualTo(DLNAMediaDatabase.getFilenameHash("/media/a"));
+		assertThat(DLNAMediaDatabase.getFilenameHash("/media/a")).isNotEqualTo(DLNAMediaDatabase.getFilenameHash("/media/b"));
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import static org.assertj.core.api.Assertions.*;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+import net.pms.image.ImageFormat;
+import org.junit.Test;
+
+public class DLNAThumbnailCacheTest {
+
+	private static byte[] createImage(Color color) throws IOException {
+		BufferedImage image = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(color);
+		g.fillRect(0, 0, 320, 240);
+		g.dispose();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", out);
+		return out.toByteArray();
+	}
+
+	private static DLNAThumbnailInputStream transcode(DLNAThumbnailCache cache, byte[] image) throws IOException {
+		return cache.transcode(DLNAThumbnailInputStream.toThumbnailInputStream(image), false, DLNAImageProfile.JPEG_TN, false);
+	}
+
+	@Test
+	public void testKey() {
+		byte[] bytes = {1, 2, 3};
+		String key = DLNAThumbnailCache.getKey(bytes, false, DLNAImageProfile.JPEG_TN, false);
+		assertThat(key).isEqualTo(DLNAThumbnailCache.getKey(new byte[] {1, 2, 3}, false, DLNAImageProfile.JPEG_TN, false));
+		assertThat(key).isNotEqualTo(DLNAThumbnailCache.getKey(new byte[] {1, 2, 4}, false, DLNAImageProfile.JPEG_TN, false));
+		assertThat(key).isNotEqualTo(DLNAThumbnailCache.getKey(bytes, true, DLNAImageProfile.JPEG_TN, false));
+		assertThat(key).isNotEqualTo(DLNAThumbnailCache.getKey(bytes, false, DLNAImageProfile.JPEG_TN, true));
+		assertThat(key).isNotEqualTo(DLNAThumbnailCache.getKey(bytes, false, DLNAImageProfile.PNG_TN, false));
+	}
+
+	@Test
+	public void testMemoryCache() throws IOException {
+		DLNAThumbnailCache cache = new DLNAThumbnailCache(1024 * 1024, null, 0);
+		byte[] red = createImage(Color.RED);
+		DLNAThumbnailInputStream first = transcode(cache, red);
+		assertThat(first.getFormat()).isEqualTo(ImageFormat.JPEG);
+		assertThat(first.getWidth()).isEqualTo(160);
+		long memoryBytes = cache.getMemoryBytes();
+		assertThat(memoryBytes).isEqualTo(first.getBytes(false).length);
+
+		// Served from memory
+		DLNAThumbnailInputStream second = transcode(cache, red);
+		assertThat(second.getBytes(false)).isSameAs(first.getBytes(false));
+		assertThat(second.getDLNAImageProfile()).isEqualTo(first.getDLNAImageProfile());
+		assertThat(cache.getMemoryBytes()).isEqualTo(memoryBytes);
+
+		transcode(cache, createImage(Color.BLUE));
+		assertThat(cache.getMemoryBytes()).isGreaterThan(memoryBytes);
+	}
+
+	@Test
+	public void testDiskCache() throws IOException, InterruptedException {
+		File folder = Files.createTempDirectory("thumbnailcache").toFile();
+		try {
+			byte[] green = createImage(Color.GREEN);
+			DLNAThumbnailInputStream first = transcode(new DLNAThumbnailCache(1024 * 1024, folder, 1024 * 1024), green);
+			for (int i = 0; i < 100 && folder.list().length == 0; i++) {
+				Thread.sleep(50);
+			}
+			assertThat(folder.list()).hasSize(1);
+
+			// A new instance with an empty memory cache reads the file
+			DLNAThumbnailInputStream second = transcode(new DLNAThumbnailCache(1024 * 1024, folder, 1024 * 1024), green);
+			assertThat(second.getBytes(false)).isEqualTo(first.getBytes(false));
+			assertThat(second.getImageInfo().getWidth()).isEqualTo(first.getImageInfo().getWidth());
+		} finally {
+			for (File file : folder.listFiles()) {
+				file.delete();
+			}
+			folder.delete();
+		}
+	}
+}
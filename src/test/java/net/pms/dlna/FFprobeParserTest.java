@@ -0,0 +1,163 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import static org.assertj.core.api.Assertions.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import net.pms.formats.v2.SubtitleType;
+import org.junit.Test;
+
+public class FFprobeParserTest {
+	private static final String JSON =
+		"{\n" +
+		"    \"streams\": [\n" +
+		"        {\n" +
+		"            \"index\": 0,\n" +
+		"            \"codec_name\": \"h264\",\n" +
+		"            \"profile\": \"High\",\n" +
+		"            \"codec_type\": \"video\",\n" +
+		"            \"width\": 1920,\n" +
+		"            \"height\": 1080,\n" +
+		"            \"r_frame_rate\": \"24000/1001\",\n" +
+		"            \"avg_frame_rate\": \"24000/1001\",\n" +
+		"            \"disposition\": {\n" +
+		"                \"default\": 1,\n" +
+		"                \"attached_pic\": 0\n" +
+		"            },\n" +
+		"            \"side_data_list\": [ { \"side_data_type\": \"unknown\" } ]\n" +
+		"        },\n" +
+		"        {\n" +
+		"            \"index\": 1,\n" +
+		"            \"codec_name\": \"ac3\",\n" +
+		"            \"codec_type\": \"audio\",\n" +
+		"            \"sample_fmt\": \"fltp\",\n" +
+		"            \"sample_rate\": \"48000\",\n" +
+		"            \"channels\": 6,\n" +
+		"            \"id\": \"0x1100\",\n" +
+		"            \"tags\": {\n" +
+		"                \"language\": \"eng\",\n" +
+		"                \"title\": \"Surround 5.1\"\n" +
+		"            }\n" +
+		"        },\n" +
+		"        {\n" +
+		"            \"index\": 2,\n" +
+		"            \"codec_name\": \"flac\",\n" +
+		"            \"codec_type\": \"audio\",\n" +
+		"            \"sample_fmt\": \"s32\",\n" +
+		"            \"sample_rate\": \"44100\",\n" +
+		"            \"channels\": 2,\n" +
+		"            \"bits_per_raw_sample\": \"24\"\n" +
+		"        },\n" +
+		"        {\n" +
+		"            \"index\": 3,\n" +
+		"            \"codec_name\": \"subrip\",\n" +
+		"            \"codec_type\": \"subtitle\",\n" +
+		"            \"tags\": {\n" +
+		"                \"language\": \"fre\"\n" +
+		"            }\n" +
+		"        },\n" +
+		"        {\n" +
+		"            \"index\": 4,\n" +
+		"            \"codec_name\": \"mjpeg\",\n" +
+		"            \"codec_type\": \"video\",\n" +
+		"            \"disposition\": {\n" +
+		"                \"attached_pic\": 1\n" +
+		"            }\n" +
+		"        }\n" +
+		"    ],\n" +
+		"    \"format\": {\n" +
+		"        \"filename\": \"movie.mkv\",\n" +
+		"        \"nb_streams\": 5,\n" +
+		"        \"format_name\": \"matroska,webm\",\n" +
+		"        \"duration\": \"3720.500000\",\n" +
+		"        \"bit_rate\": \"5000000\",\n" +
+		"        \"tags\": {\n" +
+		"            \"title\": \"Movie title\"\n" +
+		"        }\n" +
+		"    }\n" +
+		"}\n";
+
+	@Test
+	public void testParse() throws IOException {
+		DLNAMediaInfo media = new DLNAMediaInfo();
+		FFprobeParser.parse(new StringReader(JSON), media, new File("movie.mkv"));
+
+		assertThat(media.ffmpegparsed).isTrue();
+		assertThat(media.getContainer()).isEqualTo("matroska");
+		assertThat(media.getDuration()).isEqualTo(3720.5);
+		assertThat(media.getBitrate()).isEqualTo(5000000);
+		assertThat(media.getFileTitleFromMetadata()).isEqualTo("Movie title");
+
+		assertThat(media.getVideoTrackCount()).isEqualTo(1);
+		assertThat(media.getCodecV()).isEqualTo("h264");
+		assertThat(media.isH264()).isTrue();
+		assertThat(media.getWidth()).isEqualTo(1920);
+		assertThat(media.getHeight()).isEqualTo(1080);
+		assertThat(media.getFrameRate()).isEqualTo("23.98");
+
+		assertThat(media.getAudioTracksList()).hasSize(2);
+		DLNAMediaAudio audio = media.getAudioTracksList().get(0);
+		assertThat(audio.getId()).isEqualTo(0x1100);
+		assertThat(audio.getCodecA()).isEqualTo("ac3");
+		assertThat(audio.getLang()).isEqualTo("eng");
+		assertThat(audio.getAudioTrackTitleFromMetadata()).isEqualTo("Surround 5.1");
+		assertThat(audio.getSampleFrequency()).isEqualTo("48000");
+		assertThat(audio.getAudioProperties().getNumberOfChannels()).isEqualTo(6);
+		audio = media.getAudioTracksList().get(1);
+		assertThat(audio.getId()).isEqualTo(1);
+		assertThat(audio.getLang()).isEqualTo(DLNAMediaLang.UND);
+		assertThat(audio.getBitsperSample()).isEqualTo(24);
+
+		assertThat(media.getSubtitleTracksList()).hasSize(1);
+		DLNAMediaSubtitle subtitle = media.getSubtitleTracksList().get(0);
+		assertThat(subtitle.getType()).isEqualTo(SubtitleType.SUBRIP);
+		assertThat(subtitle.getLang()).isEqualTo("fre");
+	}
+
+	@Test
+	public void testMovContainer() throws IOException {
+		DLNAMediaInfo media = new DLNAMediaInfo();
+		FFprobeParser.parse(
+			new StringReader("{\"format\": {\"format_name\": \"mov,mp4,m4a,3gp,3g2,mj2\"}}"),
+			media,
+			new File("clip.MP4")
+		);
+		assertThat(media.getContainer()).isEqualTo("mp4");
+	}
+
+	@Test
+	public void testGetFrameRate() {
+		assertThat(FFprobeParser.getFrameRate("25/1")).isEqualTo("25");
+		assertThat(FFprobeParser.getFrameRate("30000/1001")).isEqualTo("29.97");
+		assertThat(FFprobeParser.getFrameRate("0/0")).isNull();
+		assertThat(FFprobeParser.getFrameRate("")).isNull();
+		assertThat(FFprobeParser.getFrameRate("abc/1")).isNull();
+	}
+
+	@Test
+	public void testGetSubtitleType() {
+		assertThat(FFprobeParser.getSubtitleType("ass")).isEqualTo(SubtitleType.ASS);
+		assertThat(FFprobeParser.getSubtitleType("dvd_subtitle")).isEqualTo(SubtitleType.VOBSUB);
+		assertThat(FFprobeParser.getSubtitleType("mov_text")).isEqualTo(SubtitleType.TX3G);
+		assertThat(FFprobeParser.getSubtitleType("hdmv_pgs_subtitle")).isEqualTo(SubtitleType.UNKNOWN);
+		assertThat(FFprobeParser.getSubtitleType(null)).isEqualTo(SubtitleType.UNKNOWN);
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import static org.junit.Assume.assumeTrue;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.formats.Format;
+import net.pms.formats.FormatFactory;
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Test;
+
+/**
+ * Parses a local corpus of sample files with {@link LibMediaInfoParser} using
+ * an increasing number of threads and prints the throughput of each run.
+ * <p>
+ * This isn't run as part of the normal build, run it with:
+ * {@code mvn test -Dtest=LibMediaInfoParserBenchmark -Ddms.benchmark=true -Ddms.benchmark.corpus=<folder>}
+ * <p>
+ * The number of threads goes up to the {@code mediainfo_instances} setting
+ * since more threads would just wait for a free MediaInfo instance.
+ */
+public class LibMediaInfoParserBenchmark {
+
+	@Test
+	public void benchmarkParse() throws ConfigurationException, InterruptedException {
+		assumeTrue(Boolean.getBoolean("dms.benchmark"));
+		String corpus = System.getProperty("dms.benchmark.corpus");
+		assumeTrue(corpus != null && new File(corpus).isDirectory());
+		PmsConfiguration configuration = new PmsConfiguration(false);
+		PMS.setConfiguration(configuration);
+		assumeTrue(LibMediaInfoParser.isValid());
+
+		List<File> files = new ArrayList<>();
+		collect(new File(corpus), files);
+		assumeTrue(!files.isEmpty());
+		System.out.println(String.format("Parsing %d files from \"%s\"", files.size(), corpus));
+
+		// Warm up the OS file cache so that every run reads from memory
+		run(files, 1);
+		double single = 0;
+		for (int threads = 1; threads <= configuration.getMediaInfoInstances(); threads++) {
+			long start = System.nanoTime();
+			int parsed = run(files, threads);
+			double seconds = (System.nanoTime() - start) / 1000000000d;
+			double rate = files.size() / seconds;
+			if (threads == 1) {
+				single = rate;
+			}
+			System.out.println(String.format(
+				"%2d threads: %8.1f files/s %5.2fx (%d parsed)",
+				threads,
+				rate,
+				rate / single,
+				parsed
+			));
+		}
+	}
+
+	private static void collect(File folder, List<File> files) {
+		File[] children = folder.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				collect(child, files);
+			} else if (FormatFactory.getAssociatedFormat(child.getName()) != null) {
+				files.add(child);
+			}
+		}
+	}
+
+	private static int run(List<File> files, int threads) throws InterruptedException {
+		final AtomicInteger parsed = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (final File file : files) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					Format format = FormatFactory.getAssociatedFormat(file.getName());
+					InputFile inputFile = new InputFile();
+					inputFile.setFile(file);
+					DLNAMediaInfo media = new DLNAMediaInfo();
+					LibMediaInfoParser.parse(media, inputFile, format.getType(), null);
+					if (media.isMediaparsed()) {
+						parsed.incrementAndGet();
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.HOURS);
+		return parsed.get();
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import static org.assertj.core.api.Assertions.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.pms.PMS;
+import net.pms.configuration.FormatConfiguration;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.dlna.MediaInfo.StreamType;
+import net.pms.formats.Format;
+import net.pms.formats.v2.SubtitleType;
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MediaInfoInformTest {
+
+	private final Map<StreamType, List<Map<String, String>>> streams = new EnumMap<>(StreamType.class);
+
+	@Before
+	public void setUp() throws ConfigurationException {
+		PMS.setConfiguration(new PmsConfiguration(false));
+		streams.clear();
+	}
+
+	/**
+	 * Expands the template the way MediaInfo does, each template line is
+	 * repeated for every stream of its type with the parameters replaced by
+	 * their values.
+	 */
+	private String inform() {
+		StringBuilder sb = new StringBuilder();
+		for (String line : MediaInfoInform.getTemplate().split("\\\\r\\\\n")) {
+			int separator = line.indexOf(';');
+			StreamType streamType = StreamType.valueOf(line.substring(0, separator));
+			List<Map<String, String>> list = streams.get(streamType);
+			if (list == null) {
+				continue;
+			}
+			for (Map<String, String> values : list) {
+				String record = line.substring(separator + 1);
+				for (String parameter : MediaInfoInform.getParameters(streamType)) {
+					String value = values.get(parameter);
+					record = record.replace("%" + parameter + "%", value == null ? "" : value);
+				}
+				sb.append(record);
+			}
+			sb.append("\r\n");
+		}
+		return sb.toString();
+	}
+
+	private Map<String, String> stream(StreamType streamType) {
+		List<Map<String, String>> list = streams.get(streamType);
+		if (list == null) {
+			list = new ArrayList<>();
+			streams.put(streamType, list);
+		}
+		Map<String, String> values = new HashMap<>();
+		list.add(values);
+		return values;
+	}
+
+	@Test
+	public void testTemplate() {
+		String template = MediaInfoInform.getTemplate();
+		assertThat(template).startsWith("General;");
+		assertThat(template).contains("\\r\\nVideo;");
+		assertThat(template).contains("%Duration/String1%");
+		assertThat(template).contains("%Channel(s)%");
+		assertThat(template).doesNotContain("\n");
+	}
+
+	@Test
+	public void testParse() {
+		Map<String, String> general = stream(StreamType.General);
+		general.put("Format", "Matroska");
+		general.put("Title", "Title with ; and % and\nline break");
+		Map<String, String> audio = stream(StreamType.Audio);
+		audio.put("Format", "AC-3");
+		audio.put("BitDepth", "16");
+		audio = stream(StreamType.Audio);
+		audio.put("Format", "DTS");
+		audio.put("Language/String", "fr");
+
+		MediaInfoInform info = MediaInfoInform.parse(inform());
+		assertThat(info.getCount(StreamType.General)).isEqualTo(1);
+		assertThat(info.getCount(StreamType.Video)).isEqualTo(0);
+		assertThat(info.getCount(StreamType.Audio)).isEqualTo(2);
+		assertThat(info.getCount(StreamType.Text)).isEqualTo(0);
+		assertThat(info.getCount(StreamType.Menu)).isEqualTo(0);
+
+		// Every parameter of every stream must come back as MediaInfo.Get() would return it
+		for (Map.Entry<StreamType, List<Map<String, String>>> entry : streams.entrySet()) {
+			for (int i = 0; i < entry.getValue().size(); i++) {
+				for (String parameter : MediaInfoInform.getParameters(entry.getKey())) {
+					String expected = entry.getValue().get(i).get(parameter);
+					assertThat(info.get(entry.getKey(), i, parameter)).as(entry.getKey() + " " + i + " " + parameter)
+						.isEqualTo(expected == null ? "" : expected);
+				}
+			}
+		}
+
+		// Streams that don't exist are empty like with MediaInfo.Get()
+		assertThat(info.get(StreamType.General, 1, "Track/Position")).isEmpty();
+		assertThat(info.get(StreamType.Video, 0, "Format")).isEmpty();
+	}
+
+	@Test
+	public void testParseEmpty() {
+		MediaInfoInform info = MediaInfoInform.parse("");
+		assertThat(info.getCount(StreamType.General)).isEqualTo(0);
+		assertThat(info.get(StreamType.General, 0, "Format")).isEmpty();
+		info = MediaInfoInform.parse(null);
+		assertThat(info.getCount(StreamType.Audio)).isEqualTo(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownParameter() {
+		MediaInfoInform.parse("").get(StreamType.General, 0, "Unknown");
+	}
+
+	/**
+	 * Maps a file through {@link LibMediaInfoParser} to check that the
+	 * template covers every parameter it reads and that the values end up
+	 * where {@link MediaInfo#Get} values did.
+	 */
+	@Test
+	public void testMappingParity() {
+		Map<String, String> general = stream(StreamType.General);
+		general.put("Format", "Matroska");
+		general.put("Duration/String1", "1h 2mn");
+		general.put("OverallBitRate", "5000000");
+		general.put("Title", "Movie title");
+		Map<String, String> video = stream(StreamType.Video);
+		video.put("Format", "AVC");
+		video.put("Format_Profile", "High@L4.1");
+		video.put("Width", "1920");
+		video.put("Height", "1080");
+		video.put("FrameRate", "23.976");
+		video.put("FrameRate_Mode", "CFR");
+		video.put("DisplayAspectRatio/String", "16:9");
+		video.put("Format_Settings_RefFrames/String", "4 frames");
+		video.put("BitDepth", "8");
+		Map<String, String> audio = stream(StreamType.Audio);
+		audio.put("Format", "AC-3");
+		audio.put("Language/String", "en");
+		audio.put("Title", " Surround ");
+		audio.put("Channel(s)", "6");
+		audio.put("SamplingRate", "48000");
+		audio.put("BitRate", "448000");
+		audio.put("ID/String", "2");
+		audio = stream(StreamType.Audio);
+		audio.put("Format", "AAC");
+		audio.put("Format_Profile", "LC");
+		audio.put("Language/String", "fr");
+		audio.put("Channel(s)", "2");
+		audio.put("SamplingRate", "44100");
+		audio.put("ID/String", "3");
+		Map<String, String> text = stream(StreamType.Text);
+		text.put("Format", "UTF-8");
+		text.put("CodecID", "S_TEXT/UTF8");
+		text.put("Language/String", "de");
+		text.put("ID/String", "4");
+
+		File file = new File("movie.mkv");
+		InputFile inputFile = new InputFile();
+		inputFile.setFile(file);
+		DLNAMediaInfo media = new DLNAMediaInfo();
+		LibMediaInfoParser.parse(MediaInfoInform.parse(inform()), media, inputFile, Format.VIDEO, null, file);
+
+		assertThat(media.isMediaparsed()).isTrue();
+		assertThat(media.getContainer()).isEqualTo(FormatConfiguration.MKV);
+		assertThat(media.getDuration()).isEqualTo(3720.0);
+		assertThat(media.getBitrate()).isEqualTo(5000000);
+		assertThat(media.getFileTitleFromMetadata()).isEqualTo("Movie title");
+		assertThat(media.getVideoTrackCount()).isEqualTo(1);
+		assertThat(media.getCodecV()).isEqualTo(FormatConfiguration.H264);
+		assertThat(media.getAvcLevel()).isEqualTo("4.1");
+		assertThat(media.getWidth()).isEqualTo(1920);
+		assertThat(media.getHeight()).isEqualTo(1080);
+		assertThat(media.getFrameRate()).isEqualTo("23.976");
+		assertThat(media.getAspectRatioContainer()).isEqualTo("16:9");
+		assertThat(media.getReferenceFrameCount()).isEqualTo((byte) 4);
+		assertThat(media.getVideoBitDepth()).isEqualTo(8);
+
+		assertThat(media.getAudioTracksList()).hasSize(2);
+		DLNAMediaAudio first = media.getAudioTracksList().get(0);
+		assertThat(first.getCodecA()).isEqualTo(FormatConfiguration.AC3);
+		assertThat(first.getLang()).isEqualTo("en");
+		assertThat(first.getAudioTrackTitleFromMetadata()).isEqualTo("Surround");
+		assertThat(first.getAudioProperties().getNumberOfChannels()).isEqualTo(6);
+		assertThat(first.getSampleFrequency()).isEqualTo("48000");
+		assertThat(first.getBitRate()).isEqualTo(448000);
+		DLNAMediaAudio second = media.getAudioTracksList().get(1);
+		assertThat(second.getCodecA()).isEqualTo(FormatConfiguration.AAC_LC);
+		assertThat(second.getLang()).isEqualTo("fr");
+		assertThat(second.getAudioProperties().getNumberOfChannels()).isEqualTo(2);
+
+		assertThat(media.getSubtitleTracksList()).hasSize(1);
+		DLNAMediaSubtitle subtitle = media.getSubtitleTracksList().get(0);
+		assertThat(subtitle.getType()).isEqualTo(SubtitleType.SUBRIP);
+		assertThat(subtitle.getLang()).isEqualTo("de");
+	}
+}
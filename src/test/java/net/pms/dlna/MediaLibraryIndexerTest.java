@@ -0,0 +1,162 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import static org.assertj.core.api.Assertions.*;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+
+public class MediaLibraryIndexerTest {
+	private static final long QUIET_PERIOD = 300;
+	private static int databaseNumber = 0;
+	private JdbcConnectionPool pool;
+	private DLNAMediaDatabase database;
+	private CountingIndexer indexer;
+
+	@BeforeClass
+	public static void setUpClass() throws ConfigurationException {
+		// Silence all log messages from the DMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.getLogger(Logger.ROOT_LOGGER_NAME).setLevel(Level.OFF);
+		PMS.setConfiguration(new PmsConfiguration(false));
+	}
+
+	@Before
+	public void setUp() {
+		pool = JdbcConnectionPool.create("jdbc:h2:mem:medialibraryindexertest" + databaseNumber++ + ";DB_CLOSE_DELAY=-1", "sa", "");
+		database = new DLNAMediaDatabase("test", pool);
+		database.init(true);
+		indexer = new CountingIndexer(database);
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		indexer.stop();
+		try (Connection connection = database.getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute("SHUTDOWN");
+		}
+		pool.dispose();
+	}
+
+	private void insertFile(String filename) throws SQLException {
+		try (
+			Connection connection = database.getConnection();
+			PreparedStatement ps = connection.prepareStatement(
+				"INSERT INTO FILES (FILENAME, FILENAMEHASH, MODIFIED, TYPE) VALUES (?, ?, ?, 1)"
+			)
+		) {
+			ps.setString(1, filename);
+			ps.setLong(2, DLNAMediaDatabase.getFilenameHash(filename));
+			ps.setTimestamp(3, new Timestamp(1000));
+			ps.executeUpdate();
+		}
+	}
+
+	private List<String> getFilenames() throws SQLException {
+		List<String> result = new ArrayList<>();
+		try (
+			Connection connection = database.getConnection();
+			Statement statement = connection.createStatement();
+			ResultSet rs = statement.executeQuery("SELECT FILENAME FROM FILES ORDER BY FILENAME")
+		) {
+			while (rs.next()) {
+				result.add(rs.getString(1));
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testDebounce() throws InterruptedException {
+		String path = new File("/media/music/download.mp3").getAbsolutePath();
+		for (int i = 0; i < 10; i++) {
+			indexer.notify(path, "ENTRY_MODIFY", null, false);
+			Thread.sleep(QUIET_PERIOD / 6);
+		}
+		assertThat(indexer.processed.get()).isZero();
+		assertThat(indexer.getQueueSize()).isEqualTo(1);
+
+		assertThat(indexer.latch.await(10, TimeUnit.SECONDS)).isTrue();
+		Thread.sleep(QUIET_PERIOD * 2);
+		assertThat(indexer.processed.get()).isEqualTo(1);
+		assertThat(indexer.getQueueSize()).isZero();
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		String folder = new File("/media/music/deleted").getAbsolutePath();
+		String kept = new File("/media/music/kept.mp3").getAbsolutePath();
+		insertFile(folder + File.separator + "a.mp3");
+		insertFile(folder + File.separator + "b.mp3");
+		insertFile(kept);
+
+		indexer.notify(folder, "ENTRY_DELETE", null, true);
+		assertThat(indexer.latch.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(getFilenames()).containsExactly(kept);
+	}
+
+	@Test
+	public void testIgnored() {
+		String[] ignored = {"Private", " "};
+		assertThat(LibraryScanner.isIgnored("/media/private/video.mkv", ignored)).isTrue();
+		assertThat(LibraryScanner.isIgnored("/media/public/video.mkv", ignored)).isFalse();
+		assertThat(LibraryScanner.isIgnored("/media/private/video.mkv", null)).isFalse();
+		assertThat(LibraryScanner.isSpecial("VIDEO_TS", true)).isTrue();
+		assertThat(LibraryScanner.isSpecial("movie.iso", false)).isTrue();
+		assertThat(LibraryScanner.isSpecial("movie.mkv", false)).isFalse();
+	}
+
+	private static class CountingIndexer extends MediaLibraryIndexer {
+		private final AtomicInteger processed = new AtomicInteger();
+		private final CountDownLatch latch = new CountDownLatch(1);
+
+		public CountingIndexer(DLNAMediaDatabase database) {
+			super(database, QUIET_PERIOD);
+		}
+
+		@Override
+		void process(File file) {
+			super.process(file);
+			processed.incrementAndGet();
+			latch.countDown();
+		}
+	}
+}
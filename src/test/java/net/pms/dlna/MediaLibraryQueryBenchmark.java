@@ -0,0 +1,206 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import static org.junit.Assume.assumeTrue;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.io.FileUtils;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.Test;
+
+/**
+ * Runs the {@link net.pms.dlna.virtual.MediaLibrary} query set against a
+ * generated database and prints the timing and query plan of each query.
+ * <p>
+ * This isn't run as part of the normal build, run it with:
+ * {@code mvn test -Dtest=MediaLibraryQueryBenchmark -Ddms.benchmark=true}
+ * <p>
+ * The number of generated files can be set with {@code -Ddms.benchmark.files},
+ * the default is 500000.
+ */
+public class MediaLibraryQueryBenchmark {
+	private static final int ITERATIONS = 5;
+
+	private static final String[] QUERIES = {
+		// Audio
+		"SELECT FILENAME, MODIFIED FROM FILES F, AUDIOTRACKS A where F.ID = A.FILEID AND F.TYPE = 1 ORDER BY F.FILENAME ASC LIMIT 30 OFFSET 60000",
+		"SELECT COUNT(*) FROM (SELECT FILENAME, MODIFIED FROM FILES F, AUDIOTRACKS A where F.ID = A.FILEID AND F.TYPE = 1 ORDER BY F.FILENAME ASC)",
+		"SELECT FILENAME, MODIFIED FROM FILES F WHERE F.TYPE = 16 ORDER BY F.FILENAME ASC",
+		"SELECT FILENAME, MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.SONGNAME REGEXP (SELECT RULE FROM REGEXP_RULES WHERE ID = 'S') ORDER BY A.SONGNAME ASC, F.FILENAME ASC LIMIT 30",
+		"SELECT ARTIST FROM LIBRARY_ARTISTS ORDER BY ARTIST ASC",
+		"SELECT DISTINCT ALBUM FROM LIBRARY_ALBUMS ORDER BY ALBUM ASC",
+		"SELECT DISTINCT GENRE FROM LIBRARY_GENRES ORDER BY GENRE ASC",
+		"SELECT ALBUM FROM LIBRARY_ALBUMS WHERE ARTIST = 'Artist 7' ORDER BY ALBUM ASC",
+		"SELECT DISTINCT ARTIST FROM LIBRARY_GENRES WHERE GENRE = 'Genre 3' ORDER BY ARTIST ASC",
+		"SELECT ALBUM FROM LIBRARY_GENRES WHERE GENRE = 'Genre 3' AND ARTIST = 'Artist 7' ORDER BY ALBUM ASC",
+		"SELECT MONTH FROM LIBRARY_MONTHS ORDER BY MONTHKEY DESC",
+		"SELECT YEAR FROM LIBRARY_YEARS ORDER BY YEAR ASC",
+		"SELECT ARTIST FROM LIBRARY_ARTISTS WHERE LETTER = 'A' ORDER BY ARTIST ASC",
+		"select FILENAME, MODIFIED from FILES F, AUDIOTRACKS A where F.ID = A.FILEID AND F.TYPE = 1 AND A.ARTIST = 'Artist 7'",
+		"select FILENAME, MODIFIED from FILES F, AUDIOTRACKS A where F.ID = A.FILEID AND F.TYPE = 1 AND A.ALBUM = 'Album 7' ORDER BY A.TRACK ASC, F.FILENAME ASC",
+		"select FILENAME, MODIFIED from FILES F, AUDIOTRACKS A where F.ID = A.FILEID AND F.TYPE = 1 AND A.ARTIST = 'Artist 7' AND A.ALBUM = 'Album 7' ORDER BY A.TRACK ASC, F.FILENAME ASC",
+		"SELECT FILENAME, MODIFIED FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 AND A.YEAR = 2001 ORDER BY F.FILENAME ASC",
+		// Images
+		"SELECT FILENAME, MODIFIED FROM FILES WHERE TYPE = 2 ORDER BY FILENAME ASC LIMIT 30 OFFSET 1000",
+		"SELECT FORMATDATETIME(MODIFIED, 'd MMM yyyy') FROM FILES WHERE TYPE = 2 ORDER BY MODIFIED DESC",
+		// Video
+		"SELECT FILENAME, MODIFIED FROM FILES WHERE TYPE = 4 ORDER BY FILENAME ASC LIMIT 30",
+		"SELECT FILENAME, MODIFIED FROM FILES WHERE TYPE = 4 AND (WIDTH >= 1200 OR HEIGHT >= 700) ORDER BY FILENAME ASC LIMIT 30",
+		"SELECT FILENAME, MODIFIED FROM FILES WHERE TYPE = 32 ORDER BY FILENAME ASC",
+		// Lookups by path
+		"SELECT ID FROM FILES WHERE FILENAMEHASH = " + DLNAMediaDatabase.getFilenameHash("/media/music/Artist 7/file7.mp3") +
+			" AND FILENAME = '/media/music/Artist 7/file7.mp3'",
+	};
+
+	@Test
+	public void benchmarkMediaLibraryQueries() throws ConfigurationException, SQLException {
+		assumeTrue(Boolean.getBoolean("dms.benchmark"));
+		PMS.setConfiguration(new PmsConfiguration(false));
+		int fileCount = Integer.getInteger("dms.benchmark.files", 500000);
+
+		File folder = new File(System.getProperty("java.io.tmpdir"), "dms-benchmark-" + System.nanoTime());
+		JdbcConnectionPool pool = JdbcConnectionPool.create("jdbc:h2:" + new File(folder, "benchmark").getAbsolutePath(), "sa", "");
+		try {
+			DLNAMediaDatabase database = new DLNAMediaDatabase("benchmark", pool);
+			database.init(true);
+			long start = System.nanoTime();
+			generate(database, fileCount);
+			System.out.println(String.format("Generated %d files in %d ms", fileCount, (System.nanoTime() - start) / 1000000));
+
+			try (Connection connection = database.getConnection(); Statement statement = connection.createStatement()) {
+				for (String sql : QUERIES) {
+					try (ResultSet rs = statement.executeQuery("EXPLAIN " + sql)) {
+						rs.next();
+						System.out.println(rs.getString(1));
+					}
+					long best = Long.MAX_VALUE;
+					int rows = 0;
+					for (int i = 0; i < ITERATIONS; i++) {
+						start = System.nanoTime();
+						rows = 0;
+						try (ResultSet rs = statement.executeQuery(sql)) {
+							while (rs.next()) {
+								rows++;
+							}
+						}
+						best = Math.min(best, System.nanoTime() - start);
+					}
+					System.out.println(String.format("%8.2f ms %7d rows%n", best / 1000000d, rows));
+				}
+				statement.execute("SHUTDOWN");
+			}
+		} finally {
+			pool.dispose();
+			FileUtils.deleteQuietly(folder);
+		}
+	}
+
+	private static void generate(DLNAMediaDatabase database, int fileCount) throws SQLException {
+		try (Connection connection = database.getConnection()) {
+			connection.setAutoCommit(false);
+			try (
+				PreparedStatement files = connection.prepareStatement(
+					"INSERT INTO FILES (ID, FILENAME, FILENAMEHASH, MODIFIED, TYPE, WIDTH, HEIGHT) VALUES (?, ?, ?, ?, ?, ?, ?)"
+				);
+				PreparedStatement audio = connection.prepareStatement(
+					"INSERT INTO AUDIOTRACKS (FILEID, ID, ARTIST, ALBUM, GENRE, SONGNAME, YEAR, TRACK) VALUES (?, 1, ?, ?, ?, ?, ?, ?)"
+				);
+			) {
+				for (int i = 1; i <= fileCount; i++) {
+					// 60% audio, 25% images, 14% video, 1% playlists and ISOs
+					int bucket = i % 100;
+					int type = bucket < 60 ? 1 : bucket < 85 ? 2 : bucket < 99 ? 4 : i % 2 == 0 ? 16 : 32;
+					String artist = "Artist " + (i % 5000);
+					String filename;
+					switch (type) {
+						case 1:
+							filename = "/media/music/" + artist + "/file" + i + ".mp3";
+							break;
+						case 2:
+							filename = "/media/photos/" + (i % 1000) + "/file" + i + ".jpg";
+							break;
+						default:
+							filename = "/media/video/file" + i + ".mkv";
+					}
+					files.setInt(1, i);
+					files.setString(2, filename);
+					files.setLong(3, DLNAMediaDatabase.getFilenameHash(filename));
+					files.setTimestamp(4, new Timestamp(1300000000000L + i * 60000L));
+					files.setInt(5, type);
+					files.setInt(6, i % 3 == 0 ? 1920 : 720);
+					files.setInt(7, i % 3 == 0 ? 1080 : 576);
+					files.addBatch();
+					if (type == 1) {
+						audio.setInt(1, i);
+						audio.setString(2, artist);
+						audio.setString(3, "Album " + (i % 20000));
+						audio.setString(4, "Genre " + (i % 40));
+						audio.setString(5, (char) ('A' + i % 26) + "Song " + i);
+						audio.setInt(6, 1960 + i % 58);
+						audio.setInt(7, i % 15);
+						audio.addBatch();
+					}
+					if (i % 1000 == 0) {
+						files.executeBatch();
+						audio.executeBatch();
+						connection.commit();
+					}
+				}
+				files.executeBatch();
+				audio.executeBatch();
+				connection.commit();
+			}
+
+			// Build the aggregate tables in one pass instead of per file
+			try (Statement statement = connection.createStatement()) {
+				statement.execute(
+					"INSERT INTO LIBRARY_ARTISTS SELECT A.ARTIST, COALESCE((SELECT ID FROM REGEXP_RULES R WHERE A.ARTIST REGEXP R.RULE ORDER BY R.ORDR LIMIT 1), ''), COUNT(*) " +
+					"FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 GROUP BY A.ARTIST"
+				);
+				statement.execute(
+					"INSERT INTO LIBRARY_ALBUMS SELECT A.ARTIST, A.ALBUM, COUNT(*) " +
+					"FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 GROUP BY A.ARTIST, A.ALBUM"
+				);
+				statement.execute(
+					"INSERT INTO LIBRARY_GENRES SELECT A.GENRE, A.ARTIST, A.ALBUM, COUNT(*) " +
+					"FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 GROUP BY A.GENRE, A.ARTIST, A.ALBUM"
+				);
+				statement.execute(
+					"INSERT INTO LIBRARY_YEARS SELECT A.YEAR, COUNT(*) " +
+					"FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 GROUP BY A.YEAR"
+				);
+				statement.execute(
+					"INSERT INTO LIBRARY_MONTHS SELECT FORMATDATETIME(F.MODIFIED, 'MMM yyyy'), MIN(YEAR(F.MODIFIED) * 100 + MONTH(F.MODIFIED)), COUNT(*) " +
+					"FROM FILES F, AUDIOTRACKS A WHERE F.ID = A.FILEID AND F.TYPE = 1 GROUP BY FORMATDATETIME(F.MODIFIED, 'MMM yyyy')"
+				);
+				statement.execute("ANALYZE");
+			}
+			connection.commit();
+		}
+	}
+}
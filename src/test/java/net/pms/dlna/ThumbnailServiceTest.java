@@ -0,0 +1,181 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import static org.assertj.core.api.Assertions.*;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.pms.configuration.RendererConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ThumbnailServiceTest {
+	private final List<String> generated = Collections.synchronizedList(new ArrayList<String>());
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private ThumbnailService service;
+
+	private class TestResource extends DLNAResource {
+		private final String name;
+
+		public TestResource(String name) {
+			this.name = name;
+			setMedia(new DLNAMediaInfo());
+		}
+
+		@Override
+		boolean getThumbnailFromDatabase(InputFile inputFile) {
+			return false;
+		}
+
+		@Override
+		void generateThumbnail(InputFile inputFile, RendererConfiguration renderer) {
+			if ("blocker".equals(name)) {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			generated.add(name);
+			getMedia().setThumbready(true);
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String getSystemName() {
+			return name;
+		}
+
+		@Override
+		public long length() {
+			return 0;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return null;
+		}
+
+		@Override
+		public boolean isFolder() {
+			return false;
+		}
+
+		@Override
+		public boolean isValid() {
+			return true;
+		}
+	}
+
+	private static InputFile input(String name) {
+		InputFile input = new InputFile();
+		input.setFile(new File(File.separator + "media" + File.separator + name));
+		return input;
+	}
+
+	private ThumbnailService.Task submit(DLNAResource resource, ThumbnailService.Priority priority) {
+		return service.submit(resource, input(resource.getName()), null, priority);
+	}
+
+	@Before
+	public void setUp() throws InterruptedException {
+		service = new ThumbnailService(1, 4);
+		submit(new TestResource("blocker"), ThumbnailService.Priority.BACKGROUND);
+		assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	public void testPriority() {
+		ThumbnailService.Task a = submit(new TestResource("a"), ThumbnailService.Priority.BACKGROUND);
+		ThumbnailService.Task b = submit(new TestResource("b"), ThumbnailService.Priority.BACKGROUND);
+		ThumbnailService.Task c = submit(new TestResource("c"), ThumbnailService.Priority.VISIBLE);
+		ThumbnailService.Task d = submit(new TestResource("d"), ThumbnailService.Priority.BACKGROUND);
+		assertThat(service.getQueueSize()).isEqualTo(4);
+
+		release.countDown();
+		for (ThumbnailService.Task task : new ThumbnailService.Task[] {a, b, c, d}) {
+			assertThat(task.await(null)).isTrue();
+		}
+		// Visible first, then the most recent
+		assertThat(generated).containsExactly("blocker", "c", "d", "b", "a");
+	}
+
+	@Test
+	public void testCoalescing() {
+		TestResource first = new TestResource("a");
+		TestResource second = new TestResource("a");
+		ThumbnailService.Task task = submit(first, ThumbnailService.Priority.BACKGROUND);
+		assertThat(submit(second, ThumbnailService.Priority.VISIBLE)).isSameAs(task);
+		assertThat(service.getCoalescedCount()).isEqualTo(1);
+
+		release.countDown();
+		assertThat(task.await(null)).isTrue();
+		assertThat(generated).containsExactly("blocker", "a");
+		assertThat(first.getMedia().isThumbready()).isTrue();
+		assertThat(second.getMedia().isThumbready()).isTrue();
+	}
+
+	@Test
+	public void testCancel() {
+		ThumbnailService.Task a = submit(new TestResource("a"), ThumbnailService.Priority.VISIBLE);
+		ThumbnailService.Task b = submit(new TestResource("b"), ThumbnailService.Priority.VISIBLE);
+		// The client of "a" disconnects
+		assertThat(a.await(new ThumbnailService.Client() {
+			@Override
+			public boolean isConnected() {
+				return false;
+			}
+		})).isFalse();
+		assertThat(service.getCancelledCount()).isEqualTo(1);
+
+		release.countDown();
+		assertThat(b.await(null)).isTrue();
+		assertThat(generated).containsExactly("blocker", "b");
+	}
+
+	@Test
+	public void testDropOldest() {
+		ThumbnailService.Task a = submit(new TestResource("a"), ThumbnailService.Priority.BACKGROUND);
+		ThumbnailService.Task b = submit(new TestResource("b"), ThumbnailService.Priority.BACKGROUND);
+		ThumbnailService.Task c = submit(new TestResource("c"), ThumbnailService.Priority.BACKGROUND);
+		ThumbnailService.Task d = submit(new TestResource("d"), ThumbnailService.Priority.BACKGROUND);
+		// The queue is full, the oldest background request makes room
+		ThumbnailService.Task e = submit(new TestResource("e"), ThumbnailService.Priority.BACKGROUND);
+		assertThat(service.getQueueSize()).isEqualTo(4);
+		assertThat(service.getDroppedCount()).isEqualTo(1);
+		assertThat(a.await(null)).isTrue();
+
+		release.countDown();
+		for (ThumbnailService.Task task : new ThumbnailService.Task[] {b, c, d, e}) {
+			assertThat(task.await(null)).isTrue();
+		}
+		assertThat(generated).containsExactly("blocker", "e", "d", "c", "b");
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.dlna;
+
+import static org.assertj.core.api.Assertions.*;
+import ch.qos.logback.classic.LoggerContext;
+import java.io.File;
+import java.io.FileOutputStream;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.io.OutputParams;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class TranscodeSessionRegistryTest {
+	private PmsConfiguration configuration;
+
+	@Before
+	public void setUp() throws Exception {
+		// Silence all log messages from the DMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.reset();
+		configuration = new PmsConfiguration(false);
+		PMS.setConfiguration(configuration);
+	}
+
+	/**
+	 * The signature must change when the source file is modified.
+	 */
+	@Test
+	public void testSignatureSourceChange() throws Exception {
+		File file = File.createTempFile("signature", ".mkv");
+		file.deleteOnExit();
+		RealFile resource = new RealFile(file);
+		OutputParams params = new OutputParams(configuration);
+		String signature = TranscodeSessionRegistry.getSignature(resource, null, params);
+		assertThat(TranscodeSessionRegistry.getSignature(resource, null, params)).isEqualTo(signature);
+
+		try (FileOutputStream output = new FileOutputStream(file, true)) {
+			output.write(new byte[] {1, 2, 3});
+		}
+		assertThat(TranscodeSessionRegistry.getSignature(resource, null, params)).isNotEqualTo(signature);
+	}
+
+	/**
+	 * The signature must change when a setting affecting the output changes.
+	 */
+	@Test
+	public void testSignatureSettingsChange() throws Exception {
+		File file = File.createTempFile("signature", ".mkv");
+		file.deleteOnExit();
+		RealFile resource = new RealFile(file);
+		OutputParams params = new OutputParams(configuration);
+		String signature = TranscodeSessionRegistry.getSignature(resource, null, params);
+
+		configuration.setAudioBitrate(configuration.getAudioBitrate() + 64);
+		String audioSignature = TranscodeSessionRegistry.getSignature(resource, null, params);
+		assertThat(audioSignature).isNotEqualTo(signature);
+
+		configuration.setFont("Signature Test Font");
+		assertThat(TranscodeSessionRegistry.getSignature(resource, null, params)).isNotEqualTo(audioSignature);
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.encoders;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.Assume.assumeFalse;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import com.sun.jna.Platform;
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import net.pms.configuration.RendererConfiguration;
+import net.pms.dlna.DLNAMediaInfo;
+import net.pms.dlna.RealFile;
+import net.pms.io.OutputParams;
+import net.pms.io.ProcessWrapper;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class FFMpegVideoTest {
+	private static final int LAUNCHES = 4;
+
+	private static PmsConfiguration configuration;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		// Silence all log messages from the DMS code that is being tested
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		context.getLogger(Logger.ROOT_LOGGER_NAME).setLevel(Level.OFF);
+		PMS.get();
+		configuration = new PmsConfiguration(false);
+		configuration.setFFmpegMuxWithTsMuxerWhenCompatible(false);
+		PMS.setConfiguration(configuration);
+		RendererConfiguration.loadRendererConfigurations(configuration);
+	}
+
+	/**
+	 * Launches several transcodes at once against a stub executable. Each
+	 * launch waits inside {@code launchTranscode()} until all the others have
+	 * reached the same point, which can only happen if they overlap.
+	 */
+	@Test
+	public void testConcurrentLaunches() throws Exception {
+		assumeFalse(Platform.isWindows());
+		final File stub = File.createTempFile("ffmpeg-stub", ".sh");
+		stub.deleteOnExit();
+		try (PrintWriter writer = new PrintWriter(stub)) {
+			writer.println("#!/bin/sh");
+			writer.println("sleep 5");
+		}
+		assertThat(stub.setExecutable(true)).isTrue();
+		final File video = File.createTempFile("concurrent", ".mkv");
+		video.deleteOnExit();
+
+		final CountDownLatch inLaunch = new CountDownLatch(LAUNCHES);
+		final AtomicInteger overlapped = new AtomicInteger();
+		final FFMpegVideo player = new FFMpegVideo() {
+			@Override
+			protected String executable(OutputParams params) {
+				inLaunch.countDown();
+				try {
+					if (inLaunch.await(10, TimeUnit.SECONDS)) {
+						overlapped.incrementAndGet();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return stub.getAbsolutePath();
+			}
+		};
+		final RendererConfiguration renderer = RendererConfiguration.getRendererConfigurationByName("Playstation 3");
+		assertThat(renderer).isNotNull();
+
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(LAUNCHES);
+		List<Future<ProcessWrapper>> futures = new ArrayList<>();
+		for (int i = 0; i < LAUNCHES; i++) {
+			futures.add(executor.submit(new Callable<ProcessWrapper>() {
+				@Override
+				public ProcessWrapper call() throws Exception {
+					DLNAMediaInfo media = new DLNAMediaInfo();
+					media.setContainer("mkv");
+					media.setCodecV("mpeg2video");
+					media.setWidth(1280);
+					media.setHeight(720);
+					media.setFrameRate("25");
+					OutputParams params = new OutputParams(configuration);
+					params.mediaRenderer = renderer;
+					params.maxBufferSize = 1;
+					params.hidebuffer = true;
+					start.await();
+					return player.launchTranscode(new RealFile(video), media, params);
+				}
+			}));
+		}
+
+		start.countDown();
+		List<ProcessWrapper> processes = new ArrayList<>();
+		try {
+			for (Future<ProcessWrapper> future : futures) {
+				processes.add(future.get(60, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		for (ProcessWrapper process : processes) {
+			assertThat(process).isNotNull();
+			process.stopProcess();
+		}
+		assertThat(overlapped.get()).isEqualTo(LAUNCHES);
+	}
+}
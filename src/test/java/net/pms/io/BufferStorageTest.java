@@ -0,0 +1,118 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.io;
+
+import static org.assertj.core.api.Assertions.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class BufferStorageTest {
+	private static final int CAPACITY = 3 * BufferStorage.SEGMENT_SIZE + 1000;
+
+	private static void check(BufferStorage storage) {
+		assertThat(storage.length()).isEqualTo(CAPACITY);
+		// Unwritten positions read as zero
+		assertThat(storage.get(CAPACITY - 1)).isEqualTo((byte) 0);
+
+		// A bulk write across two segments
+		byte[] data = new byte[10000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 7);
+		}
+		int start = BufferStorage.SEGMENT_SIZE - 5000;
+		storage.put(start, data, 0, data.length);
+		byte[] read = new byte[data.length + 2];
+		storage.get(start, read, 1, data.length);
+		for (int i = 0; i < data.length; i++) {
+			assertThat(read[i + 1]).isEqualTo(data[i]);
+		}
+		assertThat(storage.get(start + 5000)).isEqualTo(data[5000]);
+
+		storage.put(CAPACITY - 1, (byte) 42);
+		assertThat(storage.get(CAPACITY - 1)).isEqualTo((byte) 42);
+		storage.release();
+	}
+
+	@Test
+	public void testHeap() {
+		BufferStorage.Heap heap = new BufferStorage.Heap(1000);
+		heap.put(10, (byte) 5);
+		heap.grow(CAPACITY);
+		assertThat(heap.get(10)).isEqualTo((byte) 5);
+		check(heap);
+	}
+
+	@Test
+	public void testDirect() {
+		check(BufferStorage.create(BufferStorage.Type.DIRECT, CAPACITY, null));
+	}
+
+	@Test
+	public void testMapped() {
+		BufferStorage storage = BufferStorage.create(BufferStorage.Type.MAPPED, CAPACITY, new File(System.getProperty("java.io.tmpdir")));
+		assertThat(storage).isInstanceOf(BufferStorage.Mapped.class);
+		check(storage);
+	}
+
+	private static void checkRelease(BufferStorage storage) {
+		storage.put(BufferStorage.SEGMENT_SIZE + 1, (byte) 1);
+		assertThat(storage.allocated()).isEqualTo(BufferStorage.SEGMENT_SIZE);
+		storage.release();
+		assertThat(storage.allocated()).isZero();
+
+		// A released storage reads as zero and ignores writes
+		assertThat(storage.get(BufferStorage.SEGMENT_SIZE + 1)).isEqualTo((byte) 0);
+		storage.put(0, (byte) 1);
+		storage.put(0, new byte[10], 0, 10);
+		assertThat(storage.allocated()).isZero();
+	}
+
+	@Test
+	public void testReleaseDirect() {
+		checkRelease(BufferStorage.create(BufferStorage.Type.DIRECT, CAPACITY, null));
+		assertThat(BufferStorage.free(ByteBuffer.allocateDirect(1000))).isTrue();
+		assertThat(BufferStorage.free(ByteBuffer.allocate(1000))).isFalse();
+	}
+
+	@Test
+	public void testReleaseMapped() throws IOException {
+		File folder = Files.createTempDirectory("bufferstoragetest").toFile();
+		try {
+			BufferStorage storage = BufferStorage.create(BufferStorage.Type.MAPPED, CAPACITY, folder);
+			assertThat(folder.list()).hasSize(1);
+			checkRelease(storage);
+			// Unmapped, so the file can be deleted on every platform
+			assertThat(folder.list()).isEmpty();
+		} finally {
+			FileUtils.deleteDirectory(folder);
+		}
+	}
+
+	@Test
+	public void testTypeOf() {
+		assertThat(BufferStorage.Type.typeOf("Direct", BufferStorage.Type.HEAP)).isEqualTo(BufferStorage.Type.DIRECT);
+		assertThat(BufferStorage.Type.typeOf(" mapped ", BufferStorage.Type.HEAP)).isEqualTo(BufferStorage.Type.MAPPED);
+		assertThat(BufferStorage.Type.typeOf("disk", BufferStorage.Type.HEAP)).isEqualTo(BufferStorage.Type.HEAP);
+		assertThat(BufferStorage.Type.typeOf(null, BufferStorage.Type.DIRECT)).isEqualTo(BufferStorage.Type.DIRECT);
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.io;
+
+import static org.assertj.core.api.Assertions.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferedOutputFileImplTest {
+	private static final int MIN_BUFFER = 1048576;
+
+	@Before
+	public void setUp() throws Exception {
+		PMS.setConfiguration(new PmsConfiguration(false));
+	}
+
+	private static BufferedOutputFileImpl createBuffer() throws IOException {
+		OutputParams params = new OutputParams(null);
+		params.minBufferSize = 1;
+		params.bufferType = BufferStorage.Type.DIRECT;
+		params.hidebuffer = true;
+		return new BufferedOutputFileImpl(params);
+	}
+
+	/**
+	 * A reader waiting for the minimum buffer must be woken by the write that
+	 * crosses it, not by the next polling interval.
+	 */
+	@Test(timeout = 5000)
+	public void testTimeToFirstByte() throws Exception {
+		final BufferedOutputFileImpl output = createBuffer();
+		final InputStream input = output.getInputStream(0);
+		final AtomicInteger firstByte = new AtomicInteger(-2);
+		output.write(new byte[MIN_BUFFER], 0, MIN_BUFFER);
+
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					firstByte.set(input.read());
+				} catch (Exception e) {
+					// Fails the assertion below
+				}
+			}
+		});
+		reader.start();
+		while (!output.isReaderWaiting()) {
+			Thread.sleep(1);
+		}
+		assertThat(firstByte.get()).isEqualTo(-2);
+
+		// The write itself must release the reader
+		output.write(new byte[1], 0, 1);
+		assertThat(output.isReaderWaiting()).isFalse();
+		reader.join();
+		assertThat(firstByte.get()).isZero();
+		output.reset();
+	}
+
+	/**
+	 * A reader waiting for data must be released when the writer closes.
+	 */
+	@Test
+	public void testEndOfStream() throws Exception {
+		final BufferedOutputFileImpl output = createBuffer();
+		InputStream input = output.getInputStream(0);
+		output.write(new byte[] {1, 2, 3}, 0, 3);
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+					output.close();
+				} catch (Exception e) {
+					// Ignore
+				}
+			}
+		}).start();
+		long start = System.currentTimeMillis();
+		assertThat(input.read()).isEqualTo(1);
+		assertThat(System.currentTimeMillis() - start).isLessThan(1000);
+		output.reset();
+	}
+
+	/**
+	 * Readers attached to the same transcode each read the full output from
+	 * their own position.
+	 */
+	@Test
+	public void testSharedReaders() throws Exception {
+		BufferedOutputFileImpl output = createBuffer();
+		byte[] data = new byte[MIN_BUFFER + 4];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		InputStream first = output.getInputStream(0);
+		output.write(data, 0, data.length);
+		assertThat(output.canRead(0)).isTrue();
+		assertThat(output.canRead(data.length + 1)).isFalse();
+		InputStream second = output.getInputStream(2);
+		output.close();
+
+		assertThat(first.read()).isEqualTo(0);
+		assertThat(second.read()).isEqualTo(2);
+		assertThat(first.read()).isEqualTo(1);
+		assertThat(second.read()).isEqualTo(3);
+		output.reset();
+	}
+
+	/**
+	 * A speculative transcode pauses after its allotted time until a request
+	 * attaches.
+	 */
+	@Test
+	public void testPrewarmPause() throws Exception {
+		OutputParams params = new OutputParams(null);
+		params.minBufferSize = 1;
+		params.bufferType = BufferStorage.Type.DIRECT;
+		params.hidebuffer = true;
+		params.prewarmSeconds = 1;
+		final BufferedOutputFileImpl output = new BufferedOutputFileImpl(params);
+		output.getInputStream(0);
+		final AtomicLong written = new AtomicLong();
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				byte[] chunk = new byte[1024];
+				try {
+					for (int i = 0; i < 3000; i++) {
+						output.write(chunk, 0, chunk.length);
+						written.addAndGet(chunk.length);
+						Thread.sleep(1);
+					}
+				} catch (Exception e) {
+					// Fails the assertions below
+				}
+			}
+		});
+		writer.start();
+
+		Thread.sleep(1500);
+		long paused = written.get();
+		Thread.sleep(500);
+		assertThat(written.get()).isEqualTo(paused);
+		assertThat(paused).isLessThan(3000 * 1024L);
+
+		output.getInputStream(0);
+		writer.join(10000);
+		assertThat(written.get()).isEqualTo(3000 * 1024L);
+		output.reset();
+	}
+
+	/**
+	 * Closed readers no longer count as readers of a shared transcode.
+	 */
+	@Test
+	public void testLiveReaders() throws Exception {
+		BufferedOutputFileImpl output = createBuffer();
+		InputStream first = output.getInputStream(0);
+		output.getInputStream(0);
+		assertThat(output.getLiveReaderCount()).isEqualTo(2);
+		first.close();
+		assertThat(output.getLiveReaderCount()).isEqualTo(1);
+		output.reset();
+	}
+}
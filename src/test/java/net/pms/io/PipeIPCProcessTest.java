@@ -0,0 +1,93 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.io;
+
+import static org.assertj.core.api.Assertions.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PipeIPCProcessTest {
+	private File source;
+	private File target;
+	private byte[] data;
+
+	@Before
+	public void setUp() throws IOException {
+		data = new byte[3 * 1024 * 1024 + 17];
+		new Random(42).nextBytes(data);
+		source = File.createTempFile("ipc", ".in");
+		target = File.createTempFile("ipc", ".out");
+		Files.write(source.toPath(), data);
+	}
+
+	@After
+	public void tearDown() {
+		source.delete();
+		target.delete();
+	}
+
+	@Test
+	public void testTransfer() throws IOException {
+		long transferred;
+		try (
+			FileInputStream in = new FileInputStream(source);
+			FileOutputStream out = new FileOutputStream(target)
+		) {
+			transferred = PipeIPCProcess.transfer(in.getChannel(), out.getChannel(), ByteBuffer.allocateDirect(64 * 1024));
+		}
+		assertThat(transferred).isEqualTo(data.length);
+		assertThat(Files.readAllBytes(target.toPath())).isEqualTo(data);
+	}
+
+	@Test
+	public void testCopy() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream debug = new ByteArrayOutputStream();
+		long transferred;
+		try (FileInputStream in = new FileInputStream(source)) {
+			transferred = PipeIPCProcess.copy(in.getChannel(), out, ByteBuffer.allocateDirect(64 * 1024), new byte[64 * 1024], debug);
+		}
+		assertThat(transferred).isEqualTo(data.length);
+		assertThat(out.toByteArray()).isEqualTo(data);
+		assertThat(debug.toByteArray()).isEqualTo(data);
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long transferred = PipeIPCProcess.transfer(
+			Channels.newChannel(new ByteArrayInputStream(new byte[0])),
+			Channels.newChannel(out),
+			ByteBuffer.allocate(16)
+		);
+		assertThat(transferred).isZero();
+		assertThat(out.size()).isZero();
+	}
+}
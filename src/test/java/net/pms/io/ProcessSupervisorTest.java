@@ -0,0 +1,103 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.io;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.Assume.assumeTrue;
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ProcessSupervisorTest {
+	@Test
+	public void testParseCpuTime() {
+		String stat = "1234 (my (odd) name) S 1 1234 1234 0 -1 4194304 100 0 0 0 250 50 0 0 20 0 1 0 100 1000 100";
+		assertThat(ProcessSupervisor.parseCpuTime(stat)).isEqualTo(3000);
+		assertThat(ProcessSupervisor.parseCpuTime("garbage")).isEqualTo(-1);
+		assertThat(ProcessSupervisor.parseCpuTime("1 (x) S 1")).isEqualTo(-1);
+	}
+
+	@Test
+	public void testDrain() throws Exception {
+		assumeTrue(new File("/bin/sh").canExecute());
+		Process process = new ProcessBuilder("/bin/sh", "-c", "echo first >&2; printf 'second\\r\\nthird' >&2").start();
+		OutputTextConsumer consumer = new OutputTextConsumer(process.getErrorStream(), false);
+		ProcessSupervisor.get().consume(process, consumer);
+		process.waitFor();
+		assertThat(consumer.awaitFinished(5000)).isTrue();
+		assertThat(consumer.isConsuming()).isFalse();
+		assertThat(consumer.isAlive()).isFalse();
+		assertThat(consumer.getResults()).containsExactly("first", "second", "third");
+	}
+
+	@Test
+	public void testSchedule() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.currentTimeMillis();
+		ProcessSupervisor.get().schedule(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 100);
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(90);
+	}
+
+	/**
+	 * Blocking tasks must neither hold up other tasks nor the drains.
+	 */
+	@Test
+	public void testBlockingTasks() throws Exception {
+		assumeTrue(new File("/bin/sh").canExecute());
+		final CountDownLatch release = new CountDownLatch(1);
+		try {
+			for (int i = 0; i < 3; i++) {
+				ProcessSupervisor.get().execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				});
+			}
+			final CountDownLatch ran = new CountDownLatch(1);
+			ProcessSupervisor.get().schedule(new Runnable() {
+				@Override
+				public void run() {
+					ran.countDown();
+				}
+			}, 0);
+			assertThat(ran.await(5, TimeUnit.SECONDS)).isTrue();
+
+			Process process = new ProcessBuilder("/bin/sh", "-c", "echo blocked >&2").start();
+			OutputTextConsumer consumer = new OutputTextConsumer(process.getErrorStream(), false);
+			ProcessSupervisor.get().consume(process, consumer);
+			process.waitFor();
+			assertThat(consumer.awaitFinished(5000)).isTrue();
+			assertThat(consumer.getResults()).containsExactly("blocked");
+		} finally {
+			release.countDown();
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.io;
+
+import static org.assertj.core.api.Assertions.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import net.pms.PMS;
+import net.pms.configuration.PmsConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TranscodeCacheTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws Exception {
+		PMS.setConfiguration(new PmsConfiguration(false));
+		folder = Files.createTempDirectory("transcodecache").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : folder.listFiles()) {
+			file.delete();
+		}
+		folder.delete();
+	}
+
+	private static byte[] createData(int length) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (i % 251);
+		}
+		return data;
+	}
+
+	private static void assertData(InputStream input, long position, int length) throws IOException {
+		byte[] buf = new byte[65536];
+		int read = 0;
+		while (read < length) {
+			int n = input.read(buf, 0, Math.min(buf.length, length - read));
+			assertThat(n).isPositive();
+			for (int i = 0; i < n; i++) {
+				if (buf[i] != (byte) ((position + read + i) % 251)) {
+					fail("Unexpected byte at position " + (position + read + i));
+				}
+			}
+			read += n;
+		}
+	}
+
+	@Test
+	public void testComplete() throws IOException {
+		TranscodeCache cache = new TranscodeCache(folder, 1024 * 1024);
+		TranscodeCache.Recording recording = cache.record("a");
+		assertThat(recording).isNotNull();
+		assertThat(cache.record("a")).isNull();
+		recording.write(createData(1000), 0, 1000);
+		recording.finish(true);
+
+		try (InputStream input = cache.getInputStream("a", 100, -1)) {
+			assertData(input, 100, 900);
+			assertThat(input.read()).isEqualTo(-1);
+		}
+		assertThat(cache.getInputStream("a", 1000, -1)).isNull();
+		assertThat(cache.getInputStream("b", 0, -1)).isNull();
+
+		// A new instance finds the entry on disk
+		try (InputStream input = new TranscodeCache(folder, 1024 * 1024).getInputStream("a", 0, -1)) {
+			assertData(input, 0, 1000);
+		}
+	}
+
+	@Test
+	public void testPartial() throws IOException {
+		TranscodeCache cache = new TranscodeCache(folder, 1024 * 1024);
+		TranscodeCache.Recording recording = cache.record("a");
+		recording.write(createData(1000), 0, 1000);
+		recording.finish(false);
+
+		assertThat(cache.getInputStream("a", 0, -1)).isNull();
+		assertThat(cache.getInputStream("a", 0, 1000)).isNull();
+		try (InputStream input = cache.getInputStream("a", 10, 99)) {
+			assertData(input, 10, 90);
+		}
+	}
+
+	@Test
+	public void testTooLarge() throws IOException {
+		TranscodeCache cache = new TranscodeCache(folder, 1024 * 1024);
+		TranscodeCache.Recording recording = cache.record("a");
+		byte[] data = createData(65536);
+		for (int i = 0; i < 10; i++) {
+			recording.write(data, 0, data.length);
+		}
+		recording.finish(true);
+
+		assertThat(cache.getInputStream("a", 0, -1)).isNull();
+		assertThat(folder.list()).isEmpty();
+	}
+
+	@Test
+	public void testDisabled() {
+		assertThat(new TranscodeCache(folder, 0).record("a")).isNull();
+	}
+
+	/**
+	 * A reader asking for data that has left the memory buffer of a running
+	 * transcode reads it from the recording and continues from the buffer.
+	 */
+	@Test
+	public void testBackwardSeek() throws Exception {
+		TranscodeCache cache = new TranscodeCache(folder, 64 * 1024 * 1024);
+		OutputParams params = new OutputParams(null);
+		params.minBufferSize = 1;
+		params.maxBufferSize = 4;
+		params.hidebuffer = true;
+		params.cacheRecording = cache.record("a");
+		final BufferedOutputFileImpl output = new BufferedOutputFileImpl(params);
+
+		// Keep the writer going
+		final InputStream first = output.getInputStream(0);
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				byte[] buf = new byte[65536];
+				try {
+					while (first.read(buf, 0, buf.length) != -1) {
+						// Discard
+					}
+				} catch (IOException e) {
+					// Ends the test reader
+				}
+			}
+		});
+		reader.start();
+
+		int length = 12 * 1024 * 1024;
+		byte[] data = createData(length);
+		byte[] chunk = new byte[65536];
+		for (int i = 0; i < length; i += chunk.length) {
+			System.arraycopy(data, i, chunk, 0, chunk.length);
+			output.write(chunk, 0, chunk.length);
+		}
+		assertThat(output.canRead(0)).isTrue();
+
+		InputStream second = output.getInputStream(1000);
+		assertThat(second).isInstanceOf(SplicedInputStream.class);
+		output.close();
+		assertData(second, 1000, length - 1000);
+		second.close();
+		reader.join(5000);
+		output.finishRecording(true);
+		output.reset();
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.io;
+
+import static org.assertj.core.api.Assertions.*;
+import net.pms.io.TranscodeMemoryGovernor.Allocation;
+import org.junit.Test;
+
+public class TranscodeMemoryGovernorTest {
+	private static final long MB = 1048576;
+
+	private static class TestOwner implements TranscodeMemoryGovernor.Owner {
+		private final long needed;
+		private boolean shrunk;
+
+		public TestOwner(long needed) {
+			this.needed = needed;
+		}
+
+		@Override
+		public long shrink() {
+			shrunk = true;
+			return needed;
+		}
+
+		@Override
+		public void restore() {
+			shrunk = false;
+		}
+	}
+
+	@Test
+	public void testAdmission() throws Exception {
+		TranscodeMemoryGovernor governor = new TranscodeMemoryGovernor(100 * MB, 0);
+		Allocation first = governor.admit(null, 40 * MB, 60 * MB, 0);
+		assertThat(first.getGranted()).isEqualTo(60 * MB);
+
+		// Only the remainder is granted
+		Allocation second = governor.admit(null, 30 * MB, 60 * MB, 0);
+		assertThat(second.getGranted()).isEqualTo(40 * MB);
+		assertThat(governor.getUsed()).isEqualTo(100 * MB);
+
+		try {
+			governor.admit(null, 30 * MB, 60 * MB, 0);
+			fail("Expected TranscodeRejectedException");
+		} catch (TranscodeRejectedException e) {
+			assertThat(e.getRetryAfter()).isPositive();
+		}
+
+		first.release();
+		first.release();
+		assertThat(governor.getUsed()).isEqualTo(40 * MB);
+
+		second.trim(10 * MB);
+		assertThat(governor.getUsed()).isEqualTo(10 * MB);
+	}
+
+	@Test
+	public void testQueuedAdmission() throws Exception {
+		TranscodeMemoryGovernor governor = new TranscodeMemoryGovernor(100 * MB, 0);
+		final Allocation first = governor.admit(null, 100 * MB, 100 * MB, 0);
+		first.claim(new TestOwner(100 * MB));
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					return;
+				}
+				first.release();
+			}
+		}).start();
+
+		Allocation second = governor.admit(null, 50 * MB, 100 * MB, 5000);
+		assertThat(second.getGranted()).isEqualTo(100 * MB);
+		assertThat(governor.getQueued()).isZero();
+	}
+
+	@Test
+	public void testReclaimIdle() throws Exception {
+		TranscodeMemoryGovernor governor = new TranscodeMemoryGovernor(100 * MB, 100 * MB, 0, 0);
+		Allocation idle = governor.admit(null, 40 * MB, 100 * MB, 0);
+		TestOwner owner = new TestOwner(30 * MB);
+		assertThat(idle.claim(owner)).isTrue();
+		assertThat(idle.claim(new TestOwner(0))).isFalse();
+		Thread.sleep(10);
+
+		Allocation second = governor.admit(null, 50 * MB, 100 * MB, 0);
+		assertThat(owner.shrunk).isTrue();
+		assertThat(idle.getGranted()).isEqualTo(30 * MB);
+		assertThat(second.getGranted()).isEqualTo(70 * MB);
+
+		// No room to restore until the second one is gone
+		idle.touch();
+		assertThat(owner.shrunk).isTrue();
+		second.release();
+		Thread.sleep(1100);
+		idle.touch();
+		assertThat(owner.shrunk).isFalse();
+		assertThat(idle.getGranted()).isEqualTo(100 * MB);
+	}
+
+	@Test
+	public void testSeparateBudgets() throws Exception {
+		TranscodeMemoryGovernor governor = new TranscodeMemoryGovernor(100 * MB, 50 * MB, 0);
+		Allocation heap = governor.admit(null, 100 * MB, 100 * MB, 0);
+		assertThat(heap.getGranted()).isEqualTo(100 * MB);
+
+		// A full heap budget doesn't stop off-heap buffers
+		Allocation offHeap = governor.admit(null, 40 * MB, 100 * MB, 0, true);
+		assertThat(offHeap.getGranted()).isEqualTo(50 * MB);
+		assertThat(governor.getUsed()).isEqualTo(100 * MB);
+		assertThat(governor.getOffHeapUsed()).isEqualTo(50 * MB);
+
+		OutputParams params = new OutputParams(null);
+		params.minBufferSize = 1;
+		params.maxBufferSize = 40;
+		params.bufferType = BufferStorage.Type.DIRECT;
+		assertThat(governor.tryAdmit(null, params)).isNull();
+		offHeap.release();
+		Allocation direct = governor.tryAdmit(null, params);
+		assertThat(direct).isNotNull();
+		assertThat(direct.getGranted()).isEqualTo(40 * MB);
+		assertThat(governor.getUsed()).isEqualTo(100 * MB);
+		assertThat(governor.getOffHeapUsed()).isEqualTo(40 * MB);
+	}
+
+	@Test
+	public void testRegister() {
+		TranscodeMemoryGovernor governor = new TranscodeMemoryGovernor(10 * MB, 0);
+		Allocation allocation = governor.register(null, 20 * MB, new TestOwner(0));
+		assertThat(governor.getUsed()).isEqualTo(20 * MB);
+		assertThat(governor.getUsageByRenderer()).containsEntry("unknown renderer", 20 * MB);
+		allocation.release();
+		assertThat(governor.getUsed()).isZero();
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.util;
+
+import static org.assertj.core.api.Assertions.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class CacheFilesTest {
+
+	@Test
+	public void testPrune() throws IOException {
+		File folder = Files.createTempDirectory("cachefiles").toFile();
+		try {
+			List<File> files = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				File file = new File(folder, i + ".cache");
+				Files.write(file.toPath(), new byte[100]);
+				file.setLastModified(1000000000000L + i * 10000L);
+				files.add(file);
+			}
+			CacheFiles.markUsed(files.get(0));
+
+			// Down to three quarters of 300 bytes, the least recently used first
+			assertThat(CacheFiles.prune(files, 300)).isEqualTo(200);
+			assertThat(files.get(0)).exists();
+			assertThat(files.get(1)).doesNotExist();
+			assertThat(files.get(2)).doesNotExist();
+			assertThat(files.get(3)).exists();
+		} finally {
+			for (File file : folder.listFiles()) {
+				file.delete();
+			}
+			folder.delete();
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.util;
+
+import static org.assertj.core.api.Assertions.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import org.junit.Test;
+
+public class ContentFingerprintTest {
+
+	private static File createFile(int size) throws IOException {
+		File file = File.createTempFile("fingerprint", ".bin");
+		file.deleteOnExit();
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) i;
+		}
+		Files.write(file.toPath(), data);
+		file.setLastModified(1000000000000L);
+		return file;
+	}
+
+	@Test
+	public void testFingerprint() throws IOException {
+		File file = createFile(3 * ContentFingerprint.BLOCK_SIZE);
+		Long hash = ContentFingerprint.get(file);
+		assertThat(hash).isNotNull();
+		assertThat(ContentFingerprint.get(file)).isEqualTo(hash);
+		assertThat(ContentFingerprint.get(new File(file.getParentFile(), "." + File.separator + file.getName()))).isEqualTo(hash);
+
+		// A change in the last block
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(raf.length() - 1);
+			raf.write(0x55);
+		}
+		file.setLastModified(1000000000000L);
+		assertThat(ContentFingerprint.get(file)).isNotEqualTo(hash);
+	}
+
+	@Test
+	public void testSmallFile() throws IOException {
+		File file = createFile(100);
+		assertThat(ContentFingerprint.get(file)).isNotNull();
+		assertThat(ContentFingerprint.get(file)).isNotEqualTo(ContentFingerprint.get(createFile(101)));
+	}
+
+	@Test
+	public void testMissingFile() {
+		assertThat(ContentFingerprint.get(null)).isNull();
+		assertThat(ContentFingerprint.get(new File("/nonexistent/fingerprint.bin"))).isNull();
+	}
+}
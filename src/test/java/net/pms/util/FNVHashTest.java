@@ -0,0 +1,43 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.util;
+
+import static org.assertj.core.api.Assertions.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class FNVHashTest {
+
+	@Test
+	public void testKnownValues() {
+		assertThat(FNVHash.hash("")).isEqualTo(0xcbf29ce484222325L);
+		assertThat(FNVHash.hash("a")).isEqualTo(0xaf63dc4c8601ec8cL);
+		assertThat(FNVHash.hash("foobar")).isEqualTo(0x85944171f73967e8L);
+		assertThat(FNVHash.hash("foobar".getBytes(StandardCharsets.US_ASCII))).isEqualTo(0x85944171f73967e8L);
+	}
+
+	@Test
+	public void testUpdate() {
+		byte[] bytes = {1, 0, 0, 0, 0, 0, 0, 0, 'a'};
+		long hash = FNVHash.update(FNVHash.OFFSET_BASIS, 1L);
+		hash = FNVHash.update(hash, ByteBuffer.wrap(bytes, 8, 1));
+		assertThat(hash).isEqualTo(FNVHash.hash(bytes));
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.util;
+
+import static org.assertj.core.api.Assertions.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests {@link FlowParserOutputStream} and its subclasses. The expected
+ * digests were recorded with the original implementation, so these tests
+ * verify that the output is unchanged byte for byte.
+ */
+public class FlowParserOutputStreamTest {
+
+	/**
+	 * Creates payload bytes that can't be mistaken for AC-3 or DTS sync words.
+	 */
+	private static void fill(Random random, byte[] data, int off, int len) {
+		for (int i = off; i < off + len; i++) {
+			data[i] = (byte) (32 + random.nextInt(64));
+		}
+	}
+
+	static byte[] createPcm(int length, long seed) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+
+	static byte[] createAc3(int frames, long seed) {
+		Random random = new Random(seed);
+		byte[] data = new byte[frames * 1536];
+		fill(random, data, 0, data.length);
+		for (int i = 0; i < frames; i++) {
+			data[i * 1536] = 11;
+			data[i * 1536 + 1] = 119;
+		}
+		return data;
+	}
+
+	/**
+	 * Creates 1000 byte DTS frames of 16 blocks at 48 kHz after some garbage.
+	 */
+	static byte[] createDts(int frames, int garbage, long seed) {
+		Random random = new Random(seed);
+		byte[] data = new byte[garbage + frames * 1000];
+		fill(random, data, 0, data.length);
+		for (int i = 0; i < frames; i++) {
+			int off = garbage + i * 1000;
+			data[off] = 127;
+			data[off + 1] = -2;
+			data[off + 2] = -128;
+			data[off + 3] = 1;
+			data[off + 4] = 0;
+			data[off + 5] = 60;
+			data[off + 6] = 0x3e;
+			data[off + 7] = 0x70;
+			data[off + 8] = 52;
+		}
+		return data;
+	}
+
+	/**
+	 * Writes {@code data} in chunks through a reused array like
+	 * {@code PipeIPCProcess} does.
+	 */
+	static void write(OutputStream out, byte[] data, int chunkSize) throws IOException {
+		byte[] b = new byte[chunkSize];
+		for (int off = 0; off < data.length; off += chunkSize) {
+			int n = Math.min(chunkSize, data.length - off);
+			System.arraycopy(data, off, b, 0, n);
+			out.write(b, 0, n);
+		}
+		out.close();
+	}
+
+	static byte[] pcm(byte[] data, int channels, int frequency, int bits, int chunkSize) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(new PCMAudioOutputStream(out, channels, frequency, bits), data, chunkSize);
+		return out.toByteArray();
+	}
+
+	static byte[] iec61937(byte[] data, int chunkSize) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(new IEC61937AudioOutputStream(new PCMAudioOutputStream(out, 2, 48000, 16)), data, chunkSize);
+		return out.toByteArray();
+	}
+
+	static byte[] dts(byte[] data, int chunkSize) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(new DTSAudioOutputStream(new PCMAudioOutputStream(out, 2, 48000, 16)), data, chunkSize);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testPcmStereo() throws Exception {
+		byte[] output = pcm(createPcm(300000, 1), 2, 48000, 16, 4096);
+		assertThat(H264AnnexBInputStreamTest.digest(output)).isEqualTo("31b1c9133c978c12c2873f6be6ad71a38c734998");
+	}
+
+	@Test
+	public void testPcmSurround() throws Exception {
+		byte[] output = pcm(createPcm(1000000, 2), 6, 96000, 24, 512 * 1024);
+		assertThat(H264AnnexBInputStreamTest.digest(output)).isEqualTo("59235e65de0ea9f5e5a62c55e1688cdd4a3be173");
+	}
+
+	@Test
+	public void testPcmOddWrites() throws Exception {
+		byte[] data = createPcm(100000, 3);
+		assertThat(pcm(data, 2, 48000, 16, 4095)).isEqualTo(pcm(data, 2, 48000, 16, 4096));
+		assertThat(pcm(data, 2, 48000, 16, 1)).isEqualTo(pcm(data, 2, 48000, 16, 4096));
+	}
+
+	@Test
+	public void testIec61937Ac3() throws Exception {
+		byte[] output = iec61937(createAc3(40, 4), 65536);
+		assertThat(H264AnnexBInputStreamTest.digest(output)).isEqualTo("14b5c33284b79171b361a8db92124c702820492e");
+	}
+
+	@Test
+	public void testIec61937Dts() throws Exception {
+		byte[] output = iec61937(createDts(40, 100, 5), 65536);
+		assertThat(H264AnnexBInputStreamTest.digest(output)).isEqualTo("8cb57bbbbed628cacf92999a822e87a70ae350c1");
+	}
+
+	@Test
+	public void testDtsEmbed() throws Exception {
+		byte[] output = dts(createDts(40, 100, 6), 4096);
+		assertThat(H264AnnexBInputStreamTest.digest(output)).isEqualTo("a3ef3f01446253381519bb50748c8786431c57b5");
+	}
+
+	@Test
+	public void testUnmodifiedInput() throws Exception {
+		byte[] data = createPcm(10000, 7);
+		byte[] copy = Arrays.copyOf(data, data.length);
+		new PCMAudioOutputStream(new ByteArrayOutputStream(), 2, 48000, 16).write(data, 0, data.length);
+		assertThat(data).isEqualTo(copy);
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Digital Media Server, for streaming digital media to UPnP AV or DLNA
+ * compatible devices based on PS3 Media Server and Universal Media Server.
+ * Copyright (C) 2016 Digital Media Server developers.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see http://www.gnu.org/licenses/.
+ */
+package net.pms.util;
+
+import static org.assertj.core.api.Assertions.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * The expected digests were recorded with the original implementation, so
+ * these tests verify that the output is unchanged byte for byte.
+ */
+public class H264AnnexBInputStreamTest {
+	private static final byte[] HEADER = {0, 0, 0, 1, 103, 100, 0, 41, -84, 44, -88, 20, 0, 0, 0, 1, 104, -18, 60, -80};
+
+	/**
+	 * Creates a length prefixed H.264 stream where every tenth NAL unit
+	 * triggers insertion of the header.
+	 */
+	static byte[] createStream(int nalCount, long seed) {
+		Random random = new Random(seed);
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		for (int i = 0; i < nalCount; i++) {
+			int length = 10 + random.nextInt(6000);
+			byte[] nal = new byte[length];
+			random.nextBytes(nal);
+			if (i % 10 == 0) {
+				nal[0] = 0x65;
+				nal[1] = (byte) 0x88;
+			} else {
+				nal[0] = 0x41;
+				nal[1] = (byte) 0x9a;
+			}
+			stream.write(length >>> 24);
+			stream.write(length >>> 16);
+			stream.write(length >>> 8);
+			stream.write(length);
+			stream.write(nal, 0, length);
+		}
+		return stream.toByteArray();
+	}
+
+	static byte[] convert(InputStream source, int bufferSize) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (H264AnnexBInputStream in = new H264AnnexBInputStream(source, HEADER.clone())) {
+			byte[] b = new byte[bufferSize];
+			int n;
+			while ((n = in.read(b, 0, b.length)) > -1) {
+				out.write(b, 0, n);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	static String digest(byte[] data) throws NoSuchAlgorithmException {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("SHA-1").digest(data)) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testLargeReads() throws Exception {
+		byte[] output = convert(new ByteArrayInputStream(createStream(100, 1)), 512 * 1024);
+		assertThat(digest(output)).isEqualTo("925f224f8139bda12a795474354bd7d31a0e90bb");
+	}
+
+	@Test
+	public void testSmallReads() throws Exception {
+		byte[] output = convert(new ByteArrayInputStream(createStream(100, 2)), 4096);
+		assertThat(digest(output)).isEqualTo("bd4f6694b3e596faf682dd9c99d4552308fc311a");
+	}
+
+	@Test
+	public void testShortSourceReads() throws Exception {
+		InputStream source = new FilterInputStream(new ByteArrayInputStream(createStream(50, 3))) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, 100));
+			}
+		};
+		byte[] output = convert(source, 8192);
+		assertThat(digest(output)).isEqualTo("a3e8690131aacad5a7e590b593f6777ad2963299");
+	}
+
+	@Test
+	public void testTruncated() throws Exception {
+		byte[] stream = createStream(20, 4);
+		byte[] output = convert(new ByteArrayInputStream(Arrays.copyOf(stream, stream.length - 1000)), 512 * 1024);
+		assertThat(digest(output)).isEqualTo("94287e821a708e653c0bf53ff15387285b753d75");
+	}
+}